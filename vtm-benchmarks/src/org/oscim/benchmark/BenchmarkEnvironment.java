@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import com.badlogic.gdx.utils.SharedLibraryLoader;
+
+import org.oscim.awt.AwtGraphics;
+import org.oscim.backend.AssetAdapter;
+import org.oscim.theme.IRenderTheme;
+import org.oscim.theme.ThemeLoader;
+import org.oscim.theme.VtmThemes;
+
+import java.io.InputStream;
+
+/**
+ * Headless backend setup shared by all benchmarks.
+ */
+public final class BenchmarkEnvironment {
+
+    private static boolean initialized;
+
+    /**
+     * Assets are loaded from the classpath, i.e. from vtm-themes resources.
+     */
+    static class ClasspathAssets extends AssetAdapter {
+        @Override
+        protected InputStream openFileAsStream(String file) {
+            return ClasspathAssets.class.getResourceAsStream("/assets/" + file);
+        }
+    }
+
+    public static synchronized void init() {
+        if (initialized)
+            return;
+
+        System.setProperty("java.awt.headless", "true");
+        /* native tessellator from vtm-desktop */
+        new SharedLibraryLoader().load("vtm-jni");
+        AwtGraphics.init();
+        AssetAdapter.init(new ClasspathAssets());
+        initialized = true;
+    }
+
+    public static IRenderTheme loadTheme(VtmThemes theme) {
+        init();
+        return ThemeLoader.load(theme);
+    }
+
+    private BenchmarkEnvironment() {
+    }
+}
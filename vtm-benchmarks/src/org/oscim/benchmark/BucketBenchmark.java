@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import org.oscim.backend.canvas.Color;
+import org.oscim.backend.canvas.Paint.Cap;
+import org.oscim.core.MapElement;
+import org.oscim.renderer.bucket.ExtrusionBucket;
+import org.oscim.renderer.bucket.LineBucket;
+import org.oscim.renderer.bucket.PolygonBucket;
+import org.oscim.renderer.bucket.RenderBuckets;
+import org.oscim.theme.styles.AreaStyle;
+import org.oscim.theme.styles.LineStyle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to build the vertices of one tile worth of lines, polygons and
+ * extruded buildings, as done by VectorTileLoader.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BucketBenchmark {
+
+    private static final int NUM_ELEMENTS = 200;
+
+    private final LineStyle mLineStyle = new LineStyle(Color.GRAY, 2, Cap.BUTT);
+    private final LineStyle mRoundStyle = new LineStyle(Color.GRAY, 2, Cap.ROUND);
+    private final AreaStyle mAreaStyle = new AreaStyle(Color.GRAY);
+    private final float[] mColors = {0.5f, 0.5f, 0.5f, 1};
+
+    private final RenderBuckets mBuckets = new RenderBuckets();
+
+    private MapElement[] mLines;
+    private MapElement[] mPolygons;
+    private MapElement[] mBuildings;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        /* tessellation of concave roofs needs the native library */
+        BenchmarkEnvironment.init();
+
+        Random random = new Random(42);
+        mLines = GeometrySamples.createElements(random, NUM_ELEMENTS, 32, false);
+        mPolygons = GeometrySamples.createElements(random, NUM_ELEMENTS, 32, true);
+
+        mBuildings = new MapElement[NUM_ELEMENTS];
+        for (int i = 0; i < NUM_ELEMENTS; i++) {
+            mBuildings[i] = new MapElement();
+            GeometrySamples.addBuilding(mBuildings[i], random);
+        }
+    }
+
+    private int addLines(LineStyle style) {
+        LineBucket lb = mBuckets.addLineBucket(0, style);
+        for (MapElement e : mLines)
+            lb.addLine(e);
+
+        int vertices = mBuckets.getNumVertices();
+        mBuckets.clear();
+        return vertices;
+    }
+
+    @Benchmark
+    public int lineBucket() {
+        return addLines(mLineStyle);
+    }
+
+    /**
+     * Like several TileLoader threads, which share the VertexData pool.
+     */
+    @Benchmark
+    @Threads(4)
+    public int lineBucketThreads() {
+        return addLines(mLineStyle);
+    }
+
+    @Benchmark
+    public int lineBucketRoundCap() {
+        return addLines(mRoundStyle);
+    }
+
+    @Benchmark
+    public int polygonBucket() {
+        PolygonBucket pb = mBuckets.addPolygonBucket(0, mAreaStyle);
+        for (MapElement e : mPolygons)
+            pb.addPolygon(e);
+
+        int vertices = mBuckets.getNumVertices();
+        mBuckets.clear();
+        return vertices;
+    }
+
+    @Benchmark
+    public int extrusionBucket() {
+        ExtrusionBucket eb = new ExtrusionBucket(0, 1, mColors);
+        for (MapElement e : mBuildings)
+            eb.add(e, 100, 0);
+
+        mBuckets.set(eb);
+        int vertices = mBuckets.getNumVertices();
+        mBuckets.clear();
+        return vertices;
+    }
+}
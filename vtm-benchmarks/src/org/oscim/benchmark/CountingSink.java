@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.core.MapElement;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.QueryResult;
+
+/**
+ * Counts the decoded elements and coordinates, so that decoding cannot be
+ * optimized away.
+ */
+public class CountingSink implements ITileDataSink {
+    public int elements;
+    public int points;
+    public QueryResult result;
+
+    public CountingSink reset() {
+        elements = 0;
+        points = 0;
+        result = null;
+        return this;
+    }
+
+    @Override
+    public void process(MapElement element) {
+        elements++;
+        points += element.pointPos;
+    }
+
+    @Override
+    public void setTileImage(Bitmap bitmap) {
+    }
+
+    @Override
+    public void completed(QueryResult result) {
+        this.result = result;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import org.oscim.core.GeometryBuffer;
+import org.oscim.core.MapElement;
+import org.oscim.core.Tile;
+import org.oscim.utils.geom.SimplifyDP;
+import org.oscim.utils.geom.SimplifyVW;
+import org.oscim.utils.geom.TileClipper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clipping and simplification of single geometries. The geometry is copied
+ * before each operation as all of them modify their input, the copy is
+ * measured separately by {@link #copy()}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeometryBenchmark {
+
+    private static final int NUM_GEOMETRIES = 256;
+
+    @Param({"LINE", "POLY"})
+    public String type;
+
+    /**
+     * Average number of points per geometry.
+     */
+    @Param({"16", "256"})
+    public int points;
+
+    private MapElement[] mGeometries;
+    private final GeometryBuffer mGeom = new GeometryBuffer(1024, 16);
+    private int mIndex;
+
+    /* clip region of MapDatabase, a bit larger than the tile */
+    private final TileClipper mClipper = new TileClipper(-Tile.SIZE / 8, -Tile.SIZE / 8,
+            Tile.SIZE + Tile.SIZE / 8, Tile.SIZE + Tile.SIZE / 8);
+    private final SimplifyDP mSimplifyDP = new SimplifyDP();
+    private final SimplifyVW mSimplifyVW = new SimplifyVW();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mGeometries = GeometrySamples.createElements(new Random(42), NUM_GEOMETRIES, points,
+                "POLY".equals(type));
+    }
+
+    private GeometryBuffer next() {
+        MapElement src = mGeometries[mIndex++ & (NUM_GEOMETRIES - 1)];
+        return GeometrySamples.copy(src, mGeom);
+    }
+
+    @Benchmark
+    public int copy() {
+        return next().pointPos;
+    }
+
+    @Benchmark
+    public boolean tileClipper() {
+        return mClipper.clip(next());
+    }
+
+    @Benchmark
+    public int simplifyDP() {
+        GeometryBuffer g = next();
+        mSimplifyDP.simplify(g, 1);
+        return g.index[0];
+    }
+
+    @Benchmark
+    public int simplifyVW() {
+        GeometryBuffer g = next();
+        mSimplifyVW.simplify(g, 1);
+        return g.pointPos;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import org.oscim.core.GeometryBuffer;
+import org.oscim.core.MapElement;
+import org.oscim.core.Tile;
+
+import java.util.Random;
+
+/**
+ * Deterministic random geometries in tile coordinates, i.e. in the range
+ * [0, Tile.SIZE] with some overlap beyond the tile bounds.
+ */
+public final class GeometrySamples {
+
+    /**
+     * Adds a random walk with smoothly changing heading, like a road.
+     */
+    public static void addLine(GeometryBuffer g, Random random, int numPoints) {
+        float x = random.nextFloat() * Tile.SIZE;
+        float y = random.nextFloat() * Tile.SIZE;
+        double heading = random.nextDouble() * Math.PI * 2;
+        float step = Tile.SIZE / (float) numPoints * 1.5f;
+
+        g.startLine();
+        for (int i = 0; i < numPoints; i++) {
+            g.addPoint(x, y);
+            heading += (random.nextDouble() - 0.5) * 0.6;
+            float len = step * (0.5f + random.nextFloat());
+            x += (float) Math.cos(heading) * len;
+            y += (float) Math.sin(heading) * len;
+        }
+    }
+
+    /**
+     * Adds a star shaped, simple polygon with a jittered radius.
+     */
+    public static void addPolygon(GeometryBuffer g, Random random, int numPoints,
+                                  float radius) {
+        float cx = random.nextFloat() * Tile.SIZE;
+        float cy = random.nextFloat() * Tile.SIZE;
+
+        g.startPolygon();
+        for (int i = 0; i < numPoints; i++) {
+            double angle = Math.PI * 2 * i / numPoints;
+            float r = radius * (0.6f + 0.4f * random.nextFloat());
+            g.addPoint(cx + (float) Math.cos(angle) * r,
+                    cy + (float) Math.sin(angle) * r);
+        }
+    }
+
+    /**
+     * Adds a rotated rectangular or L-shaped (concave) building footprint.
+     */
+    public static void addBuilding(GeometryBuffer g, Random random) {
+        float cx = random.nextFloat() * Tile.SIZE;
+        float cy = random.nextFloat() * Tile.SIZE;
+        float w = 4 + random.nextFloat() * 16;
+        float h = 4 + random.nextFloat() * 16;
+        double angle = random.nextDouble() * Math.PI;
+        float cos = (float) Math.cos(angle);
+        float sin = (float) Math.sin(angle);
+
+        float[] outline;
+        if (random.nextInt(3) == 0)
+            outline = new float[]{0, 0, w, 0, w, h / 2, w / 2, h / 2, w / 2, h, 0, h};
+        else
+            outline = new float[]{0, 0, w, 0, w, h, 0, h};
+
+        g.startPolygon();
+        for (int i = 0; i < outline.length; i += 2) {
+            float x = outline[i] - w / 2;
+            float y = outline[i + 1] - h / 2;
+            g.addPoint(cx + x * cos - y * sin, cy + x * sin + y * cos);
+        }
+    }
+
+    /**
+     * Creates 'count' elements of about 'numPoints' points each, of the type
+     * given by 'poly'.
+     */
+    public static MapElement[] createElements(Random random, int count, int numPoints,
+                                              boolean poly) {
+        MapElement[] elements = new MapElement[count];
+        for (int i = 0; i < count; i++) {
+            MapElement e = new MapElement();
+            int n = numPoints / 2 + random.nextInt(numPoints);
+            if (poly)
+                addPolygon(e, random, n, 20 + random.nextFloat() * Tile.SIZE / 4);
+            else
+                addLine(e, random, n);
+            elements[i] = e;
+        }
+        return elements;
+    }
+
+    /**
+     * Copies the geometry of 'src' into 'dst' for operations which modify
+     * their input in place.
+     */
+    public static GeometryBuffer copy(GeometryBuffer src, GeometryBuffer dst) {
+        dst.clear();
+        float[] points = dst.ensurePointSize(src.pointPos >> 1, false);
+        System.arraycopy(src.points, 0, points, 0, src.pointPos);
+        dst.pointPos = src.pointPos;
+
+        int numIndices = src.indexPos + 1;
+        int[] index = dst.ensureIndexSize(numIndices, false);
+        System.arraycopy(src.index, 0, index, 0, numIndices);
+        if (numIndices < index.length)
+            index[numIndices] = -1;
+        dst.indexPos = src.indexPos;
+        dst.type = src.type;
+        return dst;
+    }
+
+    private GeometrySamples() {
+    }
+}
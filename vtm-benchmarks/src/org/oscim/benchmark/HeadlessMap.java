@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import org.oscim.map.Map;
+
+/**
+ * A Map without window and render thread. Posted tasks are not run.
+ */
+public class HeadlessMap extends Map {
+    private final int mWidth;
+    private final int mHeight;
+
+    public HeadlessMap(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        viewport().setScreenSize(width, height);
+    }
+
+    @Override
+    public void updateMap(boolean redraw) {
+    }
+
+    @Override
+    public void render() {
+    }
+
+    @Override
+    public boolean post(Runnable action) {
+        return false;
+    }
+
+    @Override
+    public boolean postDelayed(Runnable action, long delay) {
+        return false;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public void beginFrame() {
+    }
+
+    @Override
+    public void doneFrame(boolean needsRedraw) {
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import org.oscim.core.Tile;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.theme.IRenderTheme;
+import org.oscim.theme.VtmThemes;
+import org.oscim.tiling.ITagFilter;
+import org.oscim.tiling.ITileDataSource;
+import org.oscim.tiling.QueryResult;
+import org.oscim.tiling.TileSource.OpenResult;
+import org.oscim.tiling.source.mapfile.MapFileTileSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query time per tile of {@link MapFileTileSource}, on a synthetic map file
+ * written by {@link MapFileWriter}. At zoom levels above the base zoom level
+ * of the sub-file the tile bitmask of ways is evaluated. With 'tagFilter'
+ * elements which the default theme does not render are skipped.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MapDatabaseBenchmark {
+
+    private static final int NUM_BLOCKS = 4;
+
+    @Param({"14", "16"})
+    public int zoom;
+
+    @Param({"false", "true"})
+    public boolean memoryMapped;
+
+    @Param({"false", "true"})
+    public boolean tagFilter;
+
+    private File mFile;
+    private MapFileTileSource mTileSource;
+    private ITileDataSource mDataSource;
+    private IRenderTheme mTheme;
+    private MapTile[] mTiles;
+    private final CountingSink mSink = new CountingSink();
+    private int mIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        mFile = File.createTempFile("vtm-benchmark", ".map");
+        MapFileWriter writer = new MapFileWriter(new Random(42), 8800, 5373, NUM_BLOCKS);
+        writer.write(mFile, 400, 100);
+
+        mTileSource = new MapFileTileSource();
+        mTileSource.setMapFile(mFile.getPath());
+        mTileSource.setMemoryMapped(memoryMapped);
+        OpenResult result = mTileSource.open();
+        if (!result.isSuccess())
+            throw new IllegalStateException(result.getErrorMessage());
+
+        mDataSource = mTileSource.getDataSource();
+
+        if (tagFilter) {
+            mTheme = BenchmarkEnvironment.loadTheme(VtmThemes.DEFAULT);
+            ((ITagFilter.Filterable) mDataSource).setTagFilter((ITagFilter) mTheme);
+        }
+
+        Tile[] tiles = writer.getTiles(zoom);
+        mTiles = new MapTile[tiles.length];
+        for (int i = 0; i < tiles.length; i++)
+            mTiles[i] = new MapTile(null, tiles[i].tileX, tiles[i].tileY, zoom);
+
+        /* fail early on an invalid file */
+        mDataSource.query(mTiles[0], mSink.reset());
+        if (mSink.result != QueryResult.SUCCESS || mSink.elements == 0)
+            throw new IllegalStateException("invalid map file");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mDataSource.dispose();
+        mTileSource.close();
+        if (mTheme != null)
+            mTheme.dispose();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public int query() {
+        MapTile tile = mTiles[mIndex++ % mTiles.length];
+        mDataSource.query(tile, mSink.reset());
+        return mSink.points;
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import org.oscim.core.GeometryBuffer;
+import org.oscim.core.Tag;
+import org.oscim.core.Tile;
+import org.oscim.tiling.source.mapfile.Projection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+/**
+ * Writes a small synthetic mapsforge map file (version 3) with a single
+ * sub-file, for MapDatabase benchmarks without a bundled map.
+ * <p/>
+ * Blocks contain random roads, areas, buildings and POIs tagged with
+ * {@link TagSamples}. Way nodes are double-delta encoded like in files
+ * written by the mapsforge map-writer. Optionally elements also get house
+ * numbers, elevations, refs and label positions.
+ */
+public final class MapFileWriter {
+
+    public static final int BASE_ZOOM = 14;
+    public static final int MIN_ZOOM = 12;
+    public static final int MAX_ZOOM = 20;
+
+    private static final String MAGIC = "mapsforge binary OSM";
+    private static final int INDEX_ENTRY_SIZE = 5;
+
+    /* offset of bbox from the tile grid in microdegrees */
+    private static final int BBOX_MARGIN = 10;
+
+    static class Output extends ByteArrayOutputStream {
+        void writeShort(int v) {
+            write(v >>> 8);
+            write(v);
+        }
+
+        void writeInt(int v) {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        void writeUnsigned(int v) {
+            while ((v & ~0x7f) != 0) {
+                write((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            write(v);
+        }
+
+        void writeSigned(int v) {
+            int abs = Math.abs(v);
+            while (abs > 0x3f) {
+                write((abs & 0x7f) | 0x80);
+                abs >>>= 7;
+            }
+            write(v < 0 ? abs | 0x40 : abs);
+        }
+
+        void writeString(String s) {
+            try {
+                byte[] b = s.getBytes("UTF-8");
+                writeUnsigned(b.length);
+                write(b, 0, b.length);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void writeBytes(ByteArrayOutputStream other) {
+            write(other.toByteArray(), 0, other.size());
+        }
+    }
+
+    private final Random mRandom;
+    private final Tag[] mPoiTags = TagSamples.PRIMARY;
+    private final Tag[] mWayTags;
+
+    private final int mTileX;
+    private final int mTileY;
+    private final int mNumTiles;
+
+    private final GeometryBuffer mGeom = new GeometryBuffer(1024, 16);
+
+    private boolean mOptionalFeatures;
+
+    /**
+     * @param tileX    left tile at BASE_ZOOM
+     * @param tileY    top tile at BASE_ZOOM
+     * @param numTiles number of blocks in each direction
+     */
+    public MapFileWriter(Random random, int tileX, int tileY, int numTiles) {
+        mRandom = random;
+        mTileX = tileX;
+        mTileY = tileY;
+        mNumTiles = numTiles;
+
+        mWayTags = new Tag[TagSamples.PRIMARY.length + TagSamples.SECONDARY.length];
+        System.arraycopy(TagSamples.PRIMARY, 0, mWayTags, 0, TagSamples.PRIMARY.length);
+        System.arraycopy(TagSamples.SECONDARY, 0, mWayTags, TagSamples.PRIMARY.length,
+                TagSamples.SECONDARY.length);
+    }
+
+    /**
+     * Also write house numbers and elevations of POIs and refs, house
+     * numbers and label positions of ways.
+     */
+    public void setOptionalFeatures(boolean optionalFeatures) {
+        mOptionalFeatures = optionalFeatures;
+    }
+
+    private static int latitudeE6(long tileY) {
+        return (int) (Projection.tileYToLatitude(tileY, BASE_ZOOM) * 1E6);
+    }
+
+    private static int longitudeE6(long tileX) {
+        return (int) (Projection.tileXToLongitude(tileX, BASE_ZOOM) * 1E6);
+    }
+
+    public void write(File file, int waysPerBlock, int poisPerBlock) throws IOException {
+        int numBlocks = mNumTiles * mNumTiles;
+
+        Output blocks = new Output();
+        long[] pointers = new long[numBlocks];
+        long indexSize = (long) numBlocks * INDEX_ENTRY_SIZE;
+
+        for (int row = 0; row < mNumTiles; row++) {
+            for (int col = 0; col < mNumTiles; col++) {
+                pointers[row * mNumTiles + col] = indexSize + blocks.size();
+                writeBlock(blocks, mTileX + col, mTileY + row, waysPerBlock, poisPerBlock);
+            }
+        }
+
+        Output subFile = new Output();
+        for (long pointer : pointers) {
+            subFile.write((int) (pointer >>> 32));
+            subFile.writeInt((int) pointer);
+        }
+        subFile.writeBytes(blocks);
+
+        /* the header has a fixed size for given tags */
+        int headerSize = writeHeader(new Output(), 0, 0).size();
+        long startAddress = MAGIC.length() + 4 + headerSize;
+        long fileSize = startAddress + subFile.size();
+        Output header = writeHeader(new Output(), fileSize, subFile.size());
+
+        Output out = new Output();
+        out.write(MAGIC.getBytes("UTF-8"));
+        out.writeInt(header.size());
+        out.writeBytes(header);
+        out.writeBytes(subFile);
+
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            out.writeTo(fos);
+        } finally {
+            fos.close();
+        }
+    }
+
+    private Output writeHeader(Output out, long fileSize, long subFileSize) {
+        /* file version */
+        out.writeInt(3);
+        out.writeLong(fileSize);
+        /* map date */
+        out.writeLong(1451606400000L);
+
+        out.writeInt(latitudeE6(mTileY + mNumTiles) + BBOX_MARGIN);
+        out.writeInt(longitudeE6(mTileX) + BBOX_MARGIN);
+        out.writeInt(latitudeE6(mTileY) - BBOX_MARGIN);
+        out.writeInt(longitudeE6(mTileX + mNumTiles) - BBOX_MARGIN);
+
+        out.writeShort(256);
+        out.writeString("Mercator");
+        /* no optional fields */
+        out.write(0);
+
+        out.writeShort(mPoiTags.length);
+        for (Tag t : mPoiTags)
+            out.writeString(t.key + "=" + t.value);
+
+        out.writeShort(mWayTags.length);
+        for (Tag t : mWayTags)
+            out.writeString(t.key + "=" + t.value);
+
+        /* one sub-file */
+        out.write(1);
+        out.write(BASE_ZOOM);
+        out.write(MIN_ZOOM);
+        out.write(MAX_ZOOM);
+        out.writeLong(fileSize - subFileSize);
+        out.writeLong(subFileSize);
+        return out;
+    }
+
+    private void writeBlock(Output out, int tileX, int tileY, int numWays, int numPois) {
+        int lat = latitudeE6(tileY);
+        int lon = longitudeE6(tileX);
+        int latSpan = lat - latitudeE6(tileY + 1);
+        int lonSpan = longitudeE6(tileX + 1) - lon;
+
+        /* all elements are visible from MIN_ZOOM */
+        for (int z = MIN_ZOOM; z <= MAX_ZOOM; z++) {
+            out.writeUnsigned(z == MIN_ZOOM ? numPois : 0);
+            out.writeUnsigned(z == MIN_ZOOM ? numWays : 0);
+        }
+
+        Output pois = new Output();
+        for (int i = 0; i < numPois; i++) {
+            pois.writeSigned((int) (mRandom.nextFloat() * latSpan) * -1);
+            pois.writeSigned((int) (mRandom.nextFloat() * lonSpan));
+            /* layer 5, one tag */
+            pois.write(5 << 4 | 1);
+            pois.writeUnsigned(mRandom.nextInt(mPoiTags.length));
+            boolean name = mRandom.nextInt(2) == 0;
+            boolean houseNumber = mOptionalFeatures && mRandom.nextInt(3) == 0;
+            boolean elevation = mOptionalFeatures && mRandom.nextInt(4) == 0;
+            pois.write((name ? 0x80 : 0) | (houseNumber ? 0x40 : 0) | (elevation ? 0x20 : 0));
+            if (name)
+                pois.writeString("Poi " + mRandom.nextInt(1000));
+            if (houseNumber)
+                pois.writeString(Integer.toString(1 + mRandom.nextInt(200)));
+            if (elevation)
+                pois.writeSigned(mRandom.nextInt(3000));
+        }
+        out.writeUnsigned(pois.size());
+        out.writeBytes(pois);
+
+        Output way = new Output();
+        for (int i = 0; i < numWays; i++) {
+            way.reset();
+            writeWay(way, lat, lon, latSpan, lonSpan);
+            out.writeUnsigned(way.size());
+            out.writeBytes(way);
+        }
+    }
+
+    private static int clampSubTile(float v) {
+        return Math.max(0, Math.min(3, (int) (v * 4 / Tile.SIZE)));
+    }
+
+    /**
+     * @return the bits of the 4x4 sub-tiles at BASE_ZOOM + 2 which intersect
+     * the bounding box of 'g', in row-major order from the highest bit.
+     */
+    static int tileBitmask(GeometryBuffer g) {
+        float xmin = Float.MAX_VALUE, ymin = Float.MAX_VALUE;
+        float xmax = -Float.MAX_VALUE, ymax = -Float.MAX_VALUE;
+        for (int i = 0; i < g.pointPos; i += 2) {
+            xmin = Math.min(xmin, g.points[i]);
+            xmax = Math.max(xmax, g.points[i]);
+            ymin = Math.min(ymin, g.points[i + 1]);
+            ymax = Math.max(ymax, g.points[i + 1]);
+        }
+        int mask = 0;
+        for (int row = clampSubTile(ymin); row <= clampSubTile(ymax); row++) {
+            for (int col = clampSubTile(xmin); col <= clampSubTile(xmax); col++)
+                mask |= 0x8000 >>> (row * 4 + col);
+        }
+        return mask;
+    }
+
+    private void writeWay(Output out, int lat, int lon, int latSpan, int lonSpan) {
+        GeometryBuffer g = mGeom.clear();
+        int tag;
+        int kind = mRandom.nextInt(10);
+        if (kind < 4) {
+            GeometrySamples.addLine(g, mRandom, 4 + mRandom.nextInt(60));
+            tag = mRandom.nextInt(14);
+        } else if (kind < 6) {
+            GeometrySamples.addPolygon(g, mRandom, 6 + mRandom.nextInt(60),
+                    10 + mRandom.nextFloat() * Tile.SIZE / 3);
+            tag = 15 + mRandom.nextInt(15);
+        } else {
+            GeometrySamples.addBuilding(g, mRandom);
+            tag = 30 + mRandom.nextInt(2);
+        }
+
+        out.writeShort(tileBitmask(g));
+
+        boolean secondary = g.isLine() && mRandom.nextInt(3) == 0;
+        out.write(5 << 4 | (secondary ? 2 : 1));
+        out.writeUnsigned(tag);
+        if (secondary)
+            out.writeUnsigned(TagSamples.PRIMARY.length
+                    + mRandom.nextInt(TagSamples.SECONDARY.length));
+
+        boolean name = mRandom.nextInt(3) == 0;
+        boolean houseNumber = mOptionalFeatures && g.isPoly() && mRandom.nextInt(3) == 0;
+        boolean ref = mOptionalFeatures && g.isLine() && mRandom.nextInt(3) == 0;
+        boolean labelPosition = mOptionalFeatures && mRandom.nextInt(4) == 0;
+        /* double delta encoding */
+        out.write(0x04 | (name ? 0x80 : 0) | (houseNumber ? 0x40 : 0) | (ref ? 0x20 : 0)
+                | (labelPosition ? 0x10 : 0));
+        if (name)
+            out.writeString("Way " + mRandom.nextInt(1000));
+        if (houseNumber)
+            out.writeString(Integer.toString(1 + mRandom.nextInt(200)));
+        if (ref)
+            out.writeString("R" + mRandom.nextInt(100));
+        if (labelPosition) {
+            /* offset from the first way node */
+            out.writeSigned(-mRandom.nextInt(Math.max(1, latSpan / 4)));
+            out.writeSigned(mRandom.nextInt(Math.max(1, lonSpan / 4)));
+        }
+
+        /* one way data block with one coordinate block */
+        out.writeUnsigned(1);
+        boolean closed = g.isPoly();
+        int numPoints = g.pointPos >> 1;
+        out.writeUnsigned(closed ? numPoints + 1 : numPoints);
+
+        int prevLat = 0, prevLon = 0;
+        int deltaLat = 0, deltaLon = 0;
+        for (int i = 0; i <= numPoints; i++) {
+            if (i == numPoints && !closed)
+                break;
+
+            int p = (i % numPoints) * 2;
+            int nodeLat = (int) (-g.points[p + 1] / Tile.SIZE * latSpan);
+            int nodeLon = (int) (g.points[p] / Tile.SIZE * lonSpan);
+
+            if (i == 0) {
+                /* offset to the top-left of the block tile */
+                out.writeSigned(nodeLat);
+                out.writeSigned(nodeLon);
+            } else {
+                int dLat = nodeLat - prevLat;
+                int dLon = nodeLon - prevLon;
+                out.writeSigned(dLat - deltaLat);
+                out.writeSigned(dLon - deltaLon);
+                deltaLat = dLat;
+                deltaLon = dLon;
+            }
+            prevLat = nodeLat;
+            prevLon = nodeLon;
+        }
+    }
+
+    /**
+     * @return all tiles of the written area at 'zoom' >= BASE_ZOOM.
+     */
+    public Tile[] getTiles(int zoom) {
+        int shift = zoom - BASE_ZOOM;
+        int n = mNumTiles << shift;
+        Tile[] tiles = new Tile[n * n];
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++)
+                tiles[y * n + x] = new Tile((mTileX << shift) + x, (mTileY << shift) + y,
+                        (byte) zoom);
+        }
+        return tiles;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import org.oscim.core.Tile;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.tiling.ITileDataSource;
+import org.oscim.tiling.QueryResult;
+import org.oscim.tiling.TileSource.OpenResult;
+import org.oscim.tiling.source.mapfile.MapFileTileSource;
+import org.oscim.tiling.source.mapfile.MultiMapFileTileSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query time per tile of {@link MultiMapFileTileSource} with synthetic map
+ * files written by {@link MapFileWriter}: either regional files next to each
+ * other, or files which all cover the same area.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MultiMapDatabaseBenchmark {
+
+    private static final int NUM_BLOCKS = 2;
+
+    @Param({"16"})
+    public int files;
+
+    @Param({"false", "true"})
+    public boolean overlapping;
+
+    @Param({"1", "2"})
+    public int queryThreads;
+
+    private final List<File> mFiles = new ArrayList<>();
+    private MultiMapFileTileSource mTileSource;
+    private ITileDataSource mDataSource;
+    private final List<MapTile> mTiles = new ArrayList<>();
+    private final CountingSink mSink = new CountingSink();
+    private int mIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        mTileSource = new MultiMapFileTileSource();
+        mTileSource.setQueryThreads(queryThreads);
+
+        /* regional files in a row, or all at the same place */
+        int numFiles = overlapping ? 4 : files;
+        for (int i = 0; i < numFiles; i++) {
+            int tileX = 8800 + (overlapping ? 0 : i * NUM_BLOCKS);
+            MapFileWriter writer = new MapFileWriter(new Random(i), tileX, 5373, NUM_BLOCKS);
+
+            File file = File.createTempFile("vtm-benchmark", ".map");
+            writer.write(file, 200, 50);
+            mFiles.add(file);
+
+            MapFileTileSource tileSource = new MapFileTileSource();
+            tileSource.setMapFile(file.getPath());
+            mTileSource.add(tileSource);
+
+            if (i == 0 || !overlapping) {
+                for (Tile t : writer.getTiles(MapFileWriter.BASE_ZOOM))
+                    mTiles.add(new MapTile(null, t.tileX, t.tileY, t.zoomLevel));
+            }
+        }
+
+        OpenResult result = mTileSource.open();
+        if (!result.isSuccess())
+            throw new IllegalStateException(result.getErrorMessage());
+
+        mDataSource = mTileSource.getDataSource();
+
+        /* fail early on an invalid file */
+        mDataSource.query(mTiles.get(0), mSink.reset());
+        if (mSink.result != QueryResult.SUCCESS || mSink.elements == 0)
+            throw new IllegalStateException("invalid map file");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mDataSource.dispose();
+        mTileSource.close();
+        for (File file : mFiles)
+            file.delete();
+    }
+
+    @Benchmark
+    public int query() {
+        MapTile tile = mTiles.get(mIndex++ % mTiles.size());
+        mDataSource.query(tile, mSink.reset());
+        return mSink.points;
+    }
+}
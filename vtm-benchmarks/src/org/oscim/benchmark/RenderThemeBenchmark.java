@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import org.oscim.core.GeometryBuffer.GeometryType;
+import org.oscim.core.Tag;
+import org.oscim.core.TagSet;
+import org.oscim.theme.IRenderTheme;
+import org.oscim.theme.VtmThemes;
+import org.oscim.theme.styles.RenderStyle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link IRenderTheme#matchElement} with a growing number of
+ * concurrent matching threads, like several VectorTileLoaders decoding tiles
+ * at the same time. Compare the per-thread-count results to see how matching
+ * scales with the number of loaders.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderThemeBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class ThemeState {
+        @Param({"DEFAULT", "OSMARENDER"})
+        public VtmThemes theme;
+
+        IRenderTheme renderTheme;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            renderTheme = BenchmarkEnvironment.loadTheme(theme);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            renderTheme.dispose();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ElementState {
+        TagSet[] tags;
+        GeometryType[] types;
+        int[] zoomLevels;
+        int index;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            Random random = new Random(Thread.currentThread().getId());
+            tags = TagSamples.randomTagSets(random, 4096);
+
+            types = new GeometryType[tags.length];
+            zoomLevels = new int[tags.length];
+            for (int i = 0; i < tags.length; i++) {
+                types[i] = TagSamples.geometryType(tags[i], random);
+                zoomLevels[i] = 10 + random.nextInt(9);
+            }
+        }
+
+        int next() {
+            index = (index + 1) & (tags.length - 1);
+            return index;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class UncachedElementState extends ElementState {
+        TagSet unique = new TagSet();
+        int count;
+
+        /**
+         * Returns the next tag set with an additional unique name, so that
+         * every lookup misses the match cache.
+         */
+        TagSet nextUnique(int i) {
+            unique.clear();
+            TagSet tags = this.tags[i];
+            for (int j = 0; j < tags.numTags; j++) {
+                if (tags.tags[j].key != Tag.KEY_NAME)
+                    unique.add(tags.tags[j]);
+            }
+            unique.add(new Tag(Tag.KEY_NAME, Integer.toString(count++), false));
+            return unique;
+        }
+    }
+
+    private static RenderStyle[] match(ThemeState theme, ElementState element) {
+        int i = element.next();
+        return theme.renderTheme.matchElement(element.types[i], element.tags[i],
+                element.zoomLevels[i]);
+    }
+
+    /**
+     * Measures the cost of cache misses, i.e. of matching the rules.
+     */
+    @Benchmark
+    @Threads(1)
+    public RenderStyle[] matchElementMiss(ThemeState theme, UncachedElementState element) {
+        int i = element.next();
+        return theme.renderTheme.matchElement(element.types[i], element.nextUnique(i),
+                element.zoomLevels[i]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public RenderStyle[] matchElement1Thread(ThemeState theme, ElementState element) {
+        return match(theme, element);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public RenderStyle[] matchElement2Threads(ThemeState theme, ElementState element) {
+        return match(theme, element);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public RenderStyle[] matchElement4Threads(ThemeState theme, ElementState element) {
+        return match(theme, element);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public RenderStyle[] matchElement8Threads(ThemeState theme, ElementState element) {
+        return match(theme, element);
+    }
+}
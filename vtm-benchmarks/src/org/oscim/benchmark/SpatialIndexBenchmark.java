@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import org.oscim.core.Box;
+import org.oscim.utils.QuadTree;
+import org.oscim.utils.RTree;
+import org.oscim.utils.SpatialIndex;
+import org.oscim.utils.SpatialIndex.SearchCb;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link RTree} and {@link QuadTree} for small boxes like labels
+ * and markers, distributed over the extents of the QuadTree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpatialIndexBenchmark {
+
+    private static final int EXTENTS = 1 << 15;
+    private static final int NUM_QUERIES = 1024;
+
+    public enum Index {
+        RTREE, QUADTREE
+    }
+
+    @Param({"RTREE", "QUADTREE"})
+    public Index index;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private SpatialIndex<Integer> mIndex;
+    private Box[] mBoxes;
+    private Integer[] mItems;
+    private Box[] mQueries;
+    private int mCounter;
+
+    private final SearchCb<Integer> mCountCb = new SearchCb<Integer>() {
+        @Override
+        public boolean call(Integer item, Object context) {
+            ((int[]) context)[0]++;
+            return true;
+        }
+    };
+    private final int[] mCount = new int[1];
+
+    private static Box randomBox(Random random, int maxSize) {
+        double x = (random.nextDouble() * 2 - 1) * (EXTENTS - maxSize);
+        double y = (random.nextDouble() * 2 - 1) * (EXTENTS - maxSize);
+        return new Box(x, y, x + 1 + random.nextInt(maxSize), y + 1 + random.nextInt(maxSize));
+    }
+
+    private SpatialIndex<Integer> createIndex() {
+        if (index == Index.RTREE)
+            return new RTree<Integer>();
+        return new QuadTree<Integer>(EXTENTS, 16);
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        mBoxes = new Box[size];
+        mItems = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            mBoxes[i] = randomBox(random, 100);
+            mItems[i] = i;
+        }
+        mQueries = new Box[NUM_QUERIES];
+        for (int i = 0; i < NUM_QUERIES; i++)
+            mQueries[i] = randomBox(random, 2000);
+
+        mIndex = createIndex();
+        for (int i = 0; i < size; i++)
+            mIndex.insert(mBoxes[i], mItems[i]);
+    }
+
+    /**
+     * Builds a new index of all boxes.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int insert() {
+        SpatialIndex<Integer> idx = createIndex();
+        for (int i = 0; i < size; i++)
+            idx.insert(mBoxes[i], mItems[i]);
+        return idx.size();
+    }
+
+    @Benchmark
+    public int search() {
+        mCount[0] = 0;
+        mIndex.search(mQueries[mCounter++ & (NUM_QUERIES - 1)], mCountCb, mCount);
+        return mCount[0];
+    }
+
+    /**
+     * Removes and inserts an item again, like a moving marker.
+     */
+    @Benchmark
+    public boolean update() {
+        int i = mCounter++ % size;
+        boolean removed = mIndex.remove(mBoxes[i], mItems[i]);
+        mIndex.insert(mBoxes[i], mItems[i]);
+        return removed;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import org.oscim.core.GeometryBuffer.GeometryType;
+import org.oscim.core.Tag;
+import org.oscim.core.TagSet;
+
+import java.util.Random;
+
+/**
+ * Synthetic but typical OSM tag combinations for theme matching benchmarks.
+ */
+public final class TagSamples {
+
+    static final Tag[] PRIMARY = {
+            new Tag("highway", "motorway"),
+            new Tag("highway", "trunk"),
+            new Tag("highway", "primary"),
+            new Tag("highway", "secondary"),
+            new Tag("highway", "tertiary"),
+            new Tag("highway", "residential"),
+            new Tag("highway", "service"),
+            new Tag("highway", "footway"),
+            new Tag("highway", "track"),
+            new Tag("highway", "bus_stop"),
+            new Tag("railway", "rail"),
+            new Tag("railway", "tram"),
+            new Tag("railway", "station"),
+            new Tag("waterway", "river"),
+            new Tag("waterway", "stream"),
+            new Tag("natural", "water"),
+            new Tag("natural", "wood"),
+            new Tag("natural", "peak"),
+            new Tag("landuse", "residential"),
+            new Tag("landuse", "forest"),
+            new Tag("landuse", "farmland"),
+            new Tag("landuse", "industrial"),
+            new Tag("leisure", "park"),
+            new Tag("leisure", "pitch"),
+            new Tag("amenity", "parking"),
+            new Tag("amenity", "school"),
+            new Tag("amenity", "restaurant"),
+            new Tag("amenity", "pharmacy"),
+            new Tag("shop", "supermarket"),
+            new Tag("tourism", "hotel"),
+            new Tag("building", "yes"),
+            new Tag("building", "house"),
+            new Tag("place", "city"),
+            new Tag("place", "village"),
+            new Tag("boundary", "administrative"),
+    };
+
+    static final Tag[] SECONDARY = {
+            new Tag("bridge", "yes"),
+            new Tag("tunnel", "yes"),
+            new Tag("oneway", "yes"),
+            new Tag("layer", "1"),
+            new Tag("access", "private"),
+            new Tag("surface", "paved"),
+            new Tag("area", "yes"),
+            new Tag("admin_level", "2"),
+            new Tag("admin_level", "8"),
+            new Tag("tracktype", "grade2"),
+            new Tag("sport", "soccer"),
+            new Tag("religion", "christian"),
+    };
+
+    /**
+     * Returns random tag sets of one primary and up to three secondary tags.
+     */
+    public static TagSet[] randomTagSets(Random random, int count) {
+        TagSet[] result = new TagSet[count];
+        for (int i = 0; i < count; i++) {
+            TagSet tags = new TagSet();
+            tags.add(PRIMARY[random.nextInt(PRIMARY.length)]);
+
+            int numSecondary = random.nextInt(4);
+            for (int j = 0; j < numSecondary; j++) {
+                Tag tag = SECONDARY[random.nextInt(SECONDARY.length)];
+                if (!tags.containsKey(tag.key))
+                    tags.add(tag);
+            }
+            if (random.nextInt(3) == 0)
+                tags.add(new Tag(Tag.KEY_NAME, "Name " + random.nextInt(100), false));
+
+            result[i] = tags;
+        }
+        return result;
+    }
+
+    /**
+     * Picks a plausible geometry type for the given tags.
+     */
+    public static GeometryType geometryType(TagSet tags, Random random) {
+        String key = tags.tags[0].key;
+        if ("highway".equals(key) || "railway".equals(key) || "waterway".equals(key)
+                || "boundary".equals(key))
+            return GeometryType.LINE;
+        if ("place".equals(key))
+            return GeometryType.POINT;
+
+        return random.nextInt(4) == 0 ? GeometryType.POINT : GeometryType.POLY;
+    }
+
+    private TagSamples() {
+    }
+}
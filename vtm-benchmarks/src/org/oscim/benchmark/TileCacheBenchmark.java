@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import org.oscim.core.Tile;
+import org.oscim.tiling.ITileCache.TileReader;
+import org.oscim.tiling.ITileCache.TileWriter;
+import org.oscim.tiling.cache.FileTileCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link FileTileCache} with an SQLite store using the schema of the
+ * Android TileCache. Both stores are filled with NUM_TILES tiles of 16kB.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TileCacheBenchmark {
+    static final int NUM_TILES = 1024;
+    static final int TILE_SIZE = 16 * 1024;
+
+    static Tile tile(int i) {
+        return new Tile(i & 0xff, i >> 8, (byte) 14);
+    }
+
+    @State(Scope.Benchmark)
+    public static class FileCacheState {
+        File file;
+        FileTileCache cache;
+        byte[] data = new byte[TILE_SIZE];
+        Random random = new Random(0);
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            random.nextBytes(data);
+            file = File.createTempFile("vtm-bench", ".cache");
+            file.delete();
+            cache = new FileTileCache(file);
+            for (int i = 0; i < NUM_TILES; i++)
+                write(tile(i));
+        }
+
+        void write(Tile tile) throws IOException {
+            TileWriter writer = cache.writeTile(tile);
+            writer.getOutputStream().write(data);
+            writer.complete(true);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            cache.dispose();
+            file.delete();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SQLiteState {
+        File file;
+        Connection connection;
+        PreparedStatement query;
+        PreparedStatement insert;
+        byte[] data = new byte[TILE_SIZE];
+        Random random = new Random(0);
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            random.nextBytes(data);
+            file = File.createTempFile("vtm-bench", ".db");
+            connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+
+            Statement st = connection.createStatement();
+            st.execute("CREATE TABLE IF NOT EXISTS tiles "
+                    + "(x INTEGER NOT NULL, y INTEGER NOT NULL, z INTEGER NOT NULL, "
+                    + "time LONG NOT NULL, last_access LONG NOT NULL, data BLOB, "
+                    + "PRIMARY KEY(x,y,z))");
+            st.close();
+
+            query = connection.prepareStatement(
+                    "SELECT data FROM tiles WHERE x=? AND y=? AND z=?");
+            insert = connection.prepareStatement(
+                    "INSERT OR REPLACE INTO tiles (x,y,z,time,last_access,data) "
+                            + "VALUES(?,?,?,?,?,?)");
+
+            for (int i = 0; i < NUM_TILES; i++)
+                write(tile(i));
+        }
+
+        synchronized void write(Tile tile) throws SQLException {
+            long now = System.currentTimeMillis();
+            insert.setInt(1, tile.tileX);
+            insert.setInt(2, tile.tileY);
+            insert.setInt(3, tile.zoomLevel);
+            insert.setLong(4, now);
+            insert.setLong(5, now);
+            insert.setBytes(6, data);
+            insert.executeUpdate();
+        }
+
+        synchronized byte[] read(Tile tile) throws SQLException {
+            query.setInt(1, tile.tileX);
+            query.setInt(2, tile.tileY);
+            query.setInt(3, tile.zoomLevel);
+            ResultSet rs = query.executeQuery();
+            try {
+                return rs.next() ? rs.getBytes(1) : null;
+            } finally {
+                rs.close();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws SQLException {
+            query.close();
+            insert.close();
+            connection.close();
+            file.delete();
+        }
+    }
+
+    static int consume(InputStream is) throws IOException {
+        byte[] buf = new byte[4096];
+        int sum = 0;
+        int n;
+        while ((n = is.read(buf)) >= 0)
+            sum += n;
+        return sum;
+    }
+
+    @Benchmark
+    public int fileCacheRead(FileCacheState state) throws IOException {
+        Tile tile = tile(state.random.nextInt(NUM_TILES));
+        TileReader reader = state.cache.getTile(tile);
+        return consume(reader.getInputStream());
+    }
+
+    @Benchmark
+    public void fileCacheWrite(FileCacheState state) throws IOException {
+        state.write(tile(state.random.nextInt(NUM_TILES)));
+    }
+
+    @Benchmark
+    public int sqliteRead(SQLiteState state) throws SQLException {
+        return state.read(tile(state.random.nextInt(NUM_TILES))).length;
+    }
+
+    @Benchmark
+    public void sqliteWrite(SQLiteState state) throws SQLException {
+        state.write(tile(state.random.nextInt(NUM_TILES)));
+    }
+}
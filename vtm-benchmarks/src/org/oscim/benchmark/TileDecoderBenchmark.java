@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import org.oscim.core.Tile;
+import org.oscim.tiling.source.PbfDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding time per tile of the Mapbox vector tile and OSciMap4 decoders,
+ * over the same synthetic tiles encoded in both formats. Tiles are read
+ * from an InputStream or directly from the byte array.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TileDecoderBenchmark {
+
+    public enum Format {
+        MVT, OSCIMAP4
+    }
+
+    public enum Input {
+        STREAM, ARRAY
+    }
+
+    private static final int NUM_TILES = 16;
+
+    @Param({"MVT", "OSCIMAP4"})
+    public Format format;
+
+    /**
+     * Number of elements per tile.
+     */
+    @Param({"100", "1000"})
+    public int elements;
+
+    @Param({"STREAM", "ARRAY"})
+    public Input input;
+
+    private byte[][] mTiles;
+    private PbfDecoder mDecoder;
+    private final Tile mTile = new Tile(0, 0, (byte) 14);
+    private final CountingSink mSink = new CountingSink();
+    private int mIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        mTiles = new byte[NUM_TILES][];
+        for (int i = 0; i < NUM_TILES; i++) {
+            if (format == Format.MVT)
+                mTiles[i] = TileSamples.encodeMvt(TileSamples.createElements(random, elements));
+            else
+                mTiles[i] = TileSamples.encodeOSciMap4(TileSamples.createElements(random, elements));
+        }
+        mDecoder = createDecoder();
+
+        /* fail early on invalid samples */
+        for (byte[] data : mTiles) {
+            if (!mDecoder.decode(mTile, mSink.reset(), new ByteArrayInputStream(data))
+                    || mSink.elements == 0)
+                throw new IllegalStateException("invalid " + format + " sample");
+        }
+    }
+
+    private PbfDecoder createDecoder() {
+        if (format == Format.MVT)
+            return new org.oscim.tiling.source.mvt.TileDecoder();
+        return new org.oscim.tiling.source.oscimap4.TileDecoder();
+    }
+
+    @Benchmark
+    public int decode() throws IOException {
+        byte[] data = mTiles[mIndex++ & (NUM_TILES - 1)];
+        if (input == Input.ARRAY)
+            mDecoder.decode(mTile, mSink.reset(), data, 0, data.length);
+        else
+            mDecoder.decode(mTile, mSink.reset(), new ByteArrayInputStream(data));
+        return mSink.points;
+    }
+}
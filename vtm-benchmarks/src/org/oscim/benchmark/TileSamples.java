@@ -0,0 +1,323 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.benchmark;
+
+import org.oscim.core.GeometryBuffer;
+import org.oscim.core.MapElement;
+import org.oscim.core.Tag;
+import org.oscim.core.Tile;
+import org.oscim.tiling.source.oscimap4.Tags;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+/**
+ * Encodes synthetic tiles in the Mapbox vector tile and OSciMap4 formats,
+ * as served by MapboxTileSource and OSciMap4TileSource.
+ * <p/>
+ * No recorded tiles are bundled with the repository, the generated tiles
+ * have a typical mix of roads, areas, buildings and POIs instead.
+ */
+public final class TileSamples {
+
+    /**
+     * Reference extent of both formats.
+     */
+    static final int EXTENT = 4096;
+
+    /**
+     * A minimal protobuf writer.
+     */
+    static class PbfWriter {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        void varint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        void tag(int field, int wireType) {
+            varint(field << 3 | wireType);
+        }
+
+        void uint(int field, long value) {
+            tag(field, 0);
+            varint(value);
+        }
+
+        void bytes(int field, byte[] data) {
+            tag(field, 2);
+            varint(data.length);
+            out.write(data, 0, data.length);
+        }
+
+        void string(int field, String value) {
+            try {
+                bytes(field, value.getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void packed(int field, int[] values, int length) {
+            PbfWriter p = new PbfWriter();
+            for (int i = 0; i < length; i++)
+                p.varint(values[i] & 0xffffffffL);
+            bytes(field, p.toByteArray());
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        static int zigzag(int value) {
+            return (value << 1) ^ (value >> 31);
+        }
+    }
+
+    /**
+     * Map elements of one synthetic tile, in tile coordinates.
+     */
+    public static MapElement[] createElements(Random random, int numElements) {
+        MapElement[] elements = new MapElement[numElements];
+        Tag[] tags = TagSamples.PRIMARY;
+
+        for (int i = 0; i < numElements; i++) {
+            MapElement e = new MapElement();
+            int kind = random.nextInt(10);
+            if (kind < 4) {
+                GeometrySamples.addLine(e, random, 4 + random.nextInt(60));
+                e.tags.add(tags[random.nextInt(14)]);
+            } else if (kind < 6) {
+                GeometrySamples.addPolygon(e, random, 6 + random.nextInt(60),
+                        10 + random.nextFloat() * Tile.SIZE / 3);
+                e.tags.add(tags[14 + random.nextInt(16)]);
+            } else if (kind < 9) {
+                GeometrySamples.addBuilding(e, random);
+                e.tags.add(tags[30 + random.nextInt(2)]);
+            } else {
+                e.startPoints();
+                e.addPoint(random.nextFloat() * Tile.SIZE, random.nextFloat() * Tile.SIZE);
+                e.tags.add(tags[random.nextInt(tags.length)]);
+            }
+            if (random.nextInt(3) == 0)
+                e.tags.add(new Tag(Tag.KEY_NAME, "Name " + random.nextInt(1000), false));
+
+            elements[i] = e;
+        }
+        return elements;
+    }
+
+    /**
+     * Collects the distinct keys and values of 'elements' in insertion order.
+     */
+    private static void collectStrings(MapElement[] elements,
+                                       LinkedHashMap<String, Integer> keys,
+                                       LinkedHashMap<String, Integer> values) {
+        for (MapElement e : elements) {
+            for (int i = 0; i < e.tags.numTags; i++) {
+                Tag t = e.tags.tags[i];
+                if (!keys.containsKey(t.key))
+                    keys.put(t.key, keys.size());
+                if (!values.containsKey(t.value))
+                    values.put(t.value, values.size());
+            }
+        }
+    }
+
+    /**
+     * Encodes 'elements' as a single layer Mapbox vector tile.
+     */
+    public static byte[] encodeMvt(MapElement[] elements) {
+        LinkedHashMap<String, Integer> keys = new LinkedHashMap<>();
+        LinkedHashMap<String, Integer> values = new LinkedHashMap<>();
+        collectStrings(elements, keys, values);
+
+        PbfWriter layer = new PbfWriter();
+        layer.uint(15, 2);
+        layer.string(1, "osm");
+
+        float scale = EXTENT / (float) Tile.SIZE;
+        int[] tmp = new int[64];
+
+        for (MapElement e : elements) {
+            PbfWriter feature = new PbfWriter();
+
+            int numTags = e.tags.numTags;
+            for (int i = 0; i < numTags; i++) {
+                tmp[i * 2] = keys.get(e.tags.tags[i].key);
+                tmp[i * 2 + 1] = values.get(e.tags.tags[i].value);
+            }
+            feature.packed(2, tmp, numTags * 2);
+
+            int type = e.isPoint() ? 1 : e.isLine() ? 2 : 3;
+            feature.uint(3, type);
+            feature.bytes(4, encodeMvtGeometry(e, scale, type == 3));
+
+            layer.bytes(2, feature.toByteArray());
+        }
+        for (String key : keys.keySet())
+            layer.string(3, key);
+        for (String value : values.keySet()) {
+            PbfWriter v = new PbfWriter();
+            v.string(1, value);
+            layer.bytes(4, v.toByteArray());
+        }
+        layer.uint(5, EXTENT);
+
+        PbfWriter tile = new PbfWriter();
+        tile.bytes(3, layer.toByteArray());
+        return tile.toByteArray();
+    }
+
+    private static byte[] encodeMvtGeometry(GeometryBuffer g, float scale, boolean close) {
+        PbfWriter geom = new PbfWriter();
+        int lastX = 0, lastY = 0;
+
+        for (int i = 0, pos = 0; i <= g.indexPos; i++) {
+            int length = g.index[i];
+            if (length < 0)
+                break;
+            if (length == 0)
+                continue;
+
+            int numPoints = length >> 1;
+            for (int j = 0; j < numPoints; j++, pos += 2) {
+                if (j == 0)
+                    geom.varint(1 << 3 | 1);
+                else if (j == 1)
+                    geom.varint((numPoints - 1) << 3 | 2);
+
+                int x = Math.round(g.points[pos] * scale);
+                int y = Math.round(g.points[pos + 1] * scale);
+                geom.varint(PbfWriter.zigzag(x - lastX));
+                geom.varint(PbfWriter.zigzag(y - lastY));
+                lastX = x;
+                lastY = y;
+            }
+            if (close)
+                geom.varint(1 << 3 | 7);
+        }
+        return geom.toByteArray();
+    }
+
+    private static int indexOf(String[] array, String s) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i].equals(s))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes 'elements' as an OSciMap4 tile, including the length prefix.
+     * Keys and values of the static {@link Tags} table are referenced by
+     * index, all others are added to the tile.
+     */
+    public static byte[] encodeOSciMap4(MapElement[] elements) {
+        ArrayList<Tag> tileTags = new ArrayList<>();
+        LinkedHashMap<Tag, Integer> tagIndex = new LinkedHashMap<>();
+        LinkedHashMap<String, Integer> keys = new LinkedHashMap<>();
+        LinkedHashMap<String, Integer> values = new LinkedHashMap<>();
+
+        for (MapElement e : elements) {
+            for (int i = 0; i < e.tags.numTags; i++) {
+                Tag t = e.tags.tags[i];
+                if (tagIndex.containsKey(t))
+                    continue;
+                tagIndex.put(t, tileTags.size());
+                tileTags.add(t);
+                if (indexOf(Tags.keys, t.key) < 0 && !keys.containsKey(t.key))
+                    keys.put(t.key, keys.size());
+                if (indexOf(Tags.values, t.value) < 0 && !values.containsKey(t.value))
+                    values.put(t.value, values.size());
+            }
+        }
+
+        PbfWriter tile = new PbfWriter();
+        tile.uint(1, 4);
+        tile.uint(11, tileTags.size());
+        tile.uint(12, keys.size());
+        tile.uint(13, values.size());
+        for (String key : keys.keySet())
+            tile.string(14, key);
+        for (String value : values.keySet())
+            tile.string(15, value);
+
+        int[] tmp = new int[Math.max(64, tileTags.size() * 2)];
+        for (int i = 0; i < tileTags.size(); i++) {
+            Tag t = tileTags.get(i);
+            int k = indexOf(Tags.keys, t.key);
+            int v = indexOf(Tags.values, t.value);
+            tmp[i * 2] = k >= 0 ? k : Tags.ATTRIB_OFFSET + keys.get(t.key);
+            tmp[i * 2 + 1] = v >= 0 ? v : Tags.ATTRIB_OFFSET + values.get(t.value);
+        }
+        tile.packed(16, tmp, tileTags.size() * 2);
+
+        float scale = EXTENT / (float) Tile.SIZE;
+        for (MapElement e : elements) {
+            PbfWriter elem = new PbfWriter();
+
+            int numTags = e.tags.numTags;
+            for (int i = 0; i < numTags; i++)
+                tmp[i] = tagIndex.get(e.tags.tags[i]);
+            elem.uint(2, numTags);
+            elem.packed(11, tmp, numTags);
+
+            int numIndices = 0;
+            if (!e.isPoint()) {
+                for (int i = 0; i <= e.indexPos && e.index[i] >= 0; i++)
+                    tmp[numIndices++] = e.index[i] >> 1;
+                elem.uint(1, numIndices);
+                elem.packed(12, tmp, numIndices);
+            }
+
+            PbfWriter coords = new PbfWriter();
+            int lastX = 0, lastY = 0;
+            for (int i = 0; i < e.pointPos; i += 2) {
+                int x = Math.round(e.points[i] * scale);
+                int y = Math.round(e.points[i + 1] * scale);
+                coords.varint(PbfWriter.zigzag(x - lastX));
+                coords.varint(PbfWriter.zigzag(y - lastY));
+                lastX = x;
+                lastY = y;
+            }
+            elem.bytes(13, coords.toByteArray());
+
+            int type = e.isPoint() ? 23 : e.isLine() ? 21 : 22;
+            tile.bytes(type, elem.toByteArray());
+        }
+
+        byte[] data = tile.toByteArray();
+        byte[] result = new byte[data.length + 4];
+        result[0] = (byte) (data.length >>> 24);
+        result[1] = (byte) (data.length >>> 16);
+        result[2] = (byte) (data.length >>> 8);
+        result[3] = (byte) data.length;
+        System.arraycopy(data, 0, result, 4, data.length);
+        return result;
+    }
+
+    private TileSamples() {
+    }
+}
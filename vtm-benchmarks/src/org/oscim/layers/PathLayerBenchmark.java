@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.layers;
+
+import org.oscim.benchmark.BenchmarkEnvironment;
+import org.oscim.benchmark.HeadlessMap;
+import org.oscim.core.GeoPoint;
+import org.oscim.core.MapPosition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to append one GPS fix to a long track and rebuild the path, like
+ * the PathLayer worker does for each new point.
+ * <p/>
+ * Located in the layers package to run the package-private worker without
+ * a render thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PathLayerBenchmark {
+
+    @Param({"10000", "100000"})
+    public int points;
+
+    @Param({"false", "true"})
+    public boolean incremental;
+
+    private PathLayer mLayer;
+    private final PathLayer.Task mTask = new PathLayer.Task();
+    private final Random mRandom = new Random(42);
+    private double mLat = 52.5;
+    private double mLon = 13.4;
+
+    private GeoPoint nextFix() {
+        /* about 10m per second */
+        mLat += (mRandom.nextDouble() - 0.5) * 0.0002;
+        mLon += (mRandom.nextDouble() - 0.3) * 0.0002;
+        return new GeoPoint(mLat, mLon);
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkEnvironment.init();
+
+        List<GeoPoint> track = new ArrayList<>();
+        for (int i = 0; i < points; i++)
+            track.add(nextFix());
+
+        HeadlessMap map = new HeadlessMap(1920, 1080);
+        MapPosition pos = new MapPosition();
+        pos.setPosition(mLat, mLon);
+        pos.setZoomLevel(16);
+        map.setMapPosition(pos);
+
+        mLayer = new PathLayer(map, 0xff0000ff);
+        mLayer.setIncremental(incremental);
+        mLayer.setPoints(track);
+        mLayer.mWorker.doWork(mTask);
+        mTask.bucket.clear();
+    }
+
+    @Benchmark
+    public int addPoint() {
+        mLayer.addPoint(nextFix());
+        mLayer.mWorker.doWork(mTask);
+
+        int vertices = mTask.bucket.getNumVertices();
+        mTask.bucket.clear();
+        return vertices;
+    }
+}
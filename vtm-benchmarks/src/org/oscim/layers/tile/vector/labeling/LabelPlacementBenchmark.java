@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.layers.tile.vector.labeling;
+
+import org.oscim.backend.canvas.Color;
+import org.oscim.benchmark.BenchmarkEnvironment;
+import org.oscim.benchmark.GeometrySamples;
+import org.oscim.benchmark.HeadlessMap;
+import org.oscim.core.GeometryBuffer;
+import org.oscim.core.MapPosition;
+import org.oscim.core.Tile;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.layers.tile.TileRenderer;
+import org.oscim.layers.tile.TileSet;
+import org.oscim.renderer.GLViewport;
+import org.oscim.renderer.bucket.RenderBuckets;
+import org.oscim.renderer.bucket.TextAtlas;
+import org.oscim.renderer.bucket.TextItem;
+import org.oscim.theme.styles.TextStyle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.oscim.layers.tile.MapTile.State.LOADING;
+import static org.oscim.layers.tile.MapTile.State.NEW_DATA;
+
+/**
+ * Time of one {@link LabelPlacement#updateLabels(LabelTask)} pass, including
+ * drawing the placed labels into text bitmaps, while panning over a grid of
+ * tiles with captions and way labels.
+ * <p/>
+ * Located in the labeling package to drive the package-private update
+ * without a LabelLayer and render thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LabelPlacementBenchmark {
+
+    private static final int ZOOM = 16;
+    private static final int TILE_X = 35200;
+    private static final int TILE_Y = 21492;
+    private static final int GRID = 8;
+
+    /**
+     * Number of captions and of labeled ways per tile.
+     */
+    @Param({"20", "100", "1000"})
+    public int labels;
+
+    /**
+     * Number of distinct names. With few names most time is spent on
+     * placement instead of drawing text.
+     */
+    @Param({"5", "500"})
+    public int names;
+
+    /**
+     * Keep drawn strings in a {@link TextAtlas} across passes, like
+     * LabelLayer does.
+     */
+    @Param({"false", "true"})
+    public boolean textAtlas;
+
+    /**
+     * Provides a fixed set of visible tiles.
+     */
+    static class StaticTileRenderer extends TileRenderer {
+        final MapTile[] tiles;
+
+        StaticTileRenderer(MapTile[] tiles) {
+            this.tiles = tiles;
+        }
+
+        @Override
+        public boolean getVisibleTiles(TileSet tileSet) {
+            tileSet.tiles = tiles;
+            tileSet.cnt = tiles.length;
+            return true;
+        }
+
+        @Override
+        public void releaseTiles(TileSet tileSet) {
+        }
+
+        @Override
+        public void update(GLViewport v) {
+        }
+
+        @Override
+        public void render(GLViewport v) {
+        }
+    }
+
+    private HeadlessMap mMap;
+    private LabelPlacement mPlacement;
+    private final LabelTask[] mTasks = new LabelTask[2];
+    private final RenderBuckets mBuckets = new RenderBuckets();
+    private final MapPosition mPosition = new MapPosition();
+    private int mStep;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkEnvironment.init();
+
+        TextStyle caption = TextStyle.builder().fontSize(14).color(Color.BLACK)
+                .isCaption(true).priority(5).build();
+        TextStyle wayText = TextStyle.builder().fontSize(12).color(Color.DKGRAY).build();
+
+        Random random = new Random(42);
+        GeometryBuffer line = new GeometryBuffer(128, 4);
+        MapTile[] tiles = new MapTile[GRID * GRID];
+
+        for (int i = 0; i < tiles.length; i++) {
+            MapTile t = new MapTile(null, TILE_X + i % GRID, TILE_Y + i / GRID, ZOOM);
+            t.setState(LOADING);
+            t.setState(NEW_DATA);
+            t.isVisible = true;
+
+            LabelTileData ld = new LabelTileData();
+            for (int j = 0; j < labels; j++) {
+                ld.labels.push(TextItem.pool.get().set(
+                        random.nextFloat() * Tile.SIZE,
+                        random.nextFloat() * Tile.SIZE,
+                        "Place " + random.nextInt(names), caption));
+
+                GeometrySamples.addLine(line.clear(), random, 8);
+                WayDecorator.renderText(null, line.points, "Street " + random.nextInt(names),
+                        wayText, 0, line.index[0], ld);
+            }
+            t.addData(LabelLayer.LABEL_DATA, ld);
+            tiles[i] = t;
+        }
+
+        mMap = new HeadlessMap(1920, 1080);
+        mPlacement = new LabelPlacement(mMap, new StaticTileRenderer(tiles));
+        TextAtlas atlas = textAtlas ? new TextAtlas() : null;
+        mTasks[0] = new LabelTask(atlas);
+        mTasks[1] = new LabelTask(atlas);
+
+        mPosition.x = (TILE_X + GRID / 2.0) / (1 << ZOOM);
+        mPosition.y = (TILE_Y + GRID / 2.0) / (1 << ZOOM);
+        mPosition.setScale(1 << ZOOM);
+    }
+
+    @Benchmark
+    public boolean updateLabels() {
+        /* pan back and forth by a few pixels per frame */
+        int step = mStep++ % 64;
+        double dx = (step < 32 ? step : 64 - step) * 4.0 / (Tile.SIZE << ZOOM);
+
+        MapPosition pos = mPosition;
+        double x = pos.x;
+        pos.x += dx;
+        mMap.viewport().setMapPosition(pos);
+        pos.x = x;
+
+        LabelTask task = mTasks[step & 1];
+        boolean changed = mPlacement.updateLabels(task);
+
+        /* release text bitmaps and symbols of the previous pass, like
+         * TextRenderer does */
+        mBuckets.set(task.layers);
+        return changed;
+    }
+}
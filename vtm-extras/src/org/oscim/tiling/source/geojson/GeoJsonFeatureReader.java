@@ -0,0 +1,351 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.tiling.source.geojson;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.oscim.core.GeometryBuffer.GeometryType;
+import org.oscim.core.MapElement;
+import org.oscim.tiling.source.geojson.GeoJsonTileIndex.Feature;
+import org.oscim.utils.ArrayUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static com.fasterxml.jackson.core.JsonToken.END_ARRAY;
+import static com.fasterxml.jackson.core.JsonToken.END_OBJECT;
+import static com.fasterxml.jackson.core.JsonToken.FIELD_NAME;
+import static com.fasterxml.jackson.core.JsonToken.START_ARRAY;
+import static com.fasterxml.jackson.core.JsonToken.START_OBJECT;
+import static com.fasterxml.jackson.core.JsonToken.VALUE_NUMBER_FLOAT;
+import static com.fasterxml.jackson.core.JsonToken.VALUE_NUMBER_INT;
+import static com.fasterxml.jackson.core.JsonToken.VALUE_STRING;
+import static org.oscim.core.MercatorProjection.latitudeToY;
+import static org.oscim.core.MercatorProjection.longitudeToX;
+import static org.oscim.tiling.source.geojson.GeoJsonTileDecoder.FIELD_COORDINATES;
+import static org.oscim.tiling.source.geojson.GeoJsonTileDecoder.FIELD_FEATURES;
+import static org.oscim.tiling.source.geojson.GeoJsonTileDecoder.FIELD_GEOMETRY;
+import static org.oscim.tiling.source.geojson.GeoJsonTileDecoder.FIELD_PROPERTIES;
+import static org.oscim.tiling.source.geojson.GeoJsonTileDecoder.FIELD_TYPE;
+import static org.oscim.tiling.source.geojson.GeoJsonTileDecoder.LINETRING;
+import static org.oscim.tiling.source.geojson.GeoJsonTileDecoder.MULTI_LINESTRING;
+import static org.oscim.tiling.source.geojson.GeoJsonTileDecoder.MULTI_POINT;
+import static org.oscim.tiling.source.geojson.GeoJsonTileDecoder.MULTI_POLYGON;
+import static org.oscim.tiling.source.geojson.GeoJsonTileDecoder.POINT;
+import static org.oscim.tiling.source.geojson.GeoJsonTileDecoder.POLYGON;
+import static org.oscim.tiling.source.geojson.GeoJsonTileDecoder.match;
+import static org.oscim.tiling.source.geojson.GeoJsonTileIndex.WORLD_SIZE;
+
+/**
+ * Reads all features of a GeoJSON FeatureCollection in one pass, like
+ * {@link GeoJsonTileDecoder} but into fixed point world coordinates.
+ */
+class GeoJsonFeatureReader {
+
+    private final GeoJsonFileTileSource mTileSource;
+    private final JsonFactory mJsonFactory;
+    private final LinkedHashMap<String, Object> mTagMap;
+
+    /**
+     * Holds type, index and tags of the current feature,
+     * the coordinates are kept in mPoints.
+     */
+    private final MapElement mMapElement;
+
+    private final List<Feature> mFeatures = new ArrayList<>();
+
+    private int[] mPoints = new int[1024];
+    private int mPointPos;
+
+    private int mMinX, mMinY, mMaxX, mMaxY;
+
+    GeoJsonFeatureReader(GeoJsonFileTileSource tileSource) {
+        mTileSource = tileSource;
+        mTagMap = new LinkedHashMap<String, Object>();
+        mJsonFactory = new JsonFactory();
+        mMapElement = new MapElement();
+    }
+
+    List<Feature> read(InputStream is) throws IOException {
+        JsonParser jp = mJsonFactory.createParser(is);
+
+        for (JsonToken t; (t = jp.nextToken()) != null; ) {
+            if (t == FIELD_NAME) {
+                if (match(jp, FIELD_FEATURES)) {
+                    if (jp.nextToken() != START_ARRAY)
+                        continue;
+
+                    while ((t = jp.nextToken()) != null) {
+                        if (t == START_OBJECT)
+                            parseFeature(jp);
+
+                        if (t == END_ARRAY)
+                            break;
+                    }
+                }
+            }
+        }
+        jp.close();
+
+        return mFeatures;
+    }
+
+    private void parseFeature(JsonParser jp)
+            throws JsonParseException, IOException {
+
+        mMapElement.clear();
+        mMapElement.tags.clear();
+        mTagMap.clear();
+
+        mPointPos = 0;
+        mMinX = mMinY = Integer.MAX_VALUE;
+        mMaxX = mMaxY = Integer.MIN_VALUE;
+
+        for (JsonToken t; (t = jp.nextToken()) != null; ) {
+            if (t == FIELD_NAME) {
+                if (match(jp, FIELD_GEOMETRY)) {
+                    if (jp.nextToken() == START_OBJECT)
+                        parseGeometry(jp);
+                }
+
+                if (match(jp, FIELD_PROPERTIES)) {
+                    if (jp.nextToken() == START_OBJECT)
+                        parseProperties(jp);
+                }
+                continue;
+            }
+            if (t == END_OBJECT)
+                break;
+        }
+
+        if (mMapElement.type == GeometryType.NONE || mPointPos == 0)
+            return;
+
+        mTileSource.decodeTags(mMapElement, mTagMap);
+        if (mMapElement.tags.numTags == 0)
+            return;
+
+        MapElement e = mMapElement;
+        mFeatures.add(new Feature(e.type,
+                Arrays.copyOf(e.index, e.indexPos + 1),
+                Arrays.copyOf(mPoints, mPointPos),
+                e.tags.asArray(), e.layer,
+                mMinX, mMinY, mMaxX, mMaxY));
+    }
+
+    private void parseProperties(JsonParser jp)
+            throws JsonParseException, IOException {
+        for (JsonToken t; (t = jp.nextToken()) != null; ) {
+            if (t == FIELD_NAME) {
+                String text = jp.getCurrentName();
+
+                t = jp.nextToken();
+                if (t == VALUE_STRING) {
+                    mTagMap.put(text, jp.getText());
+                } else if (t == VALUE_NUMBER_INT) {
+                    mTagMap.put(text, jp.getNumberValue());
+                } else if (t == START_OBJECT || t == START_ARRAY) {
+                    jp.skipChildren();
+                }
+                continue;
+            }
+            if (t == END_OBJECT)
+                break;
+        }
+    }
+
+    private void parseGeometry(JsonParser jp)
+            throws JsonParseException, IOException {
+
+        boolean multi = false;
+        GeometryType type = GeometryType.NONE;
+
+        for (JsonToken t; (t = jp.nextToken()) != null; ) {
+            if (t == FIELD_NAME) {
+                if (match(jp, FIELD_COORDINATES)) {
+                    if (jp.nextToken() != START_ARRAY)
+                        continue;
+                    if (multi) {
+                        parseMulti(jp, type);
+                    } else {
+                        if (type == GeometryType.POLY)
+                            parsePolygon(jp);
+
+                        if (type == GeometryType.LINE)
+                            parseLineString(jp);
+
+                        if (type == GeometryType.POINT)
+                            parseCoordinate(jp);
+                    }
+                } else if (match(jp, FIELD_TYPE)) {
+                    multi = false;
+
+                    jp.nextToken();
+
+                    if (match(jp, LINETRING))
+                        type = GeometryType.LINE;
+                    else if (match(jp, POLYGON))
+                        type = GeometryType.POLY;
+                    else if (match(jp, POINT))
+                        type = GeometryType.POINT;
+                    else if (match(jp, MULTI_LINESTRING)) {
+                        type = GeometryType.LINE;
+                        multi = true;
+                    } else if (match(jp, MULTI_POLYGON)) {
+                        type = GeometryType.POLY;
+                        multi = true;
+                    } else if (match(jp, MULTI_POINT)) {
+                        type = GeometryType.POINT;
+                        multi = true;
+                    }
+
+                    if (type == GeometryType.POINT)
+                        mMapElement.startPoints();
+                }
+                continue;
+            }
+            if (t == END_OBJECT)
+                break;
+        }
+    }
+
+    private void parseMulti(JsonParser jp, GeometryType type)
+            throws JsonParseException, IOException {
+
+        for (JsonToken t; (t = jp.nextToken()) != null; ) {
+            if (t == END_ARRAY)
+                break;
+
+            if (t == START_ARRAY) {
+                if (type == GeometryType.POLY)
+                    parsePolygon(jp);
+
+                else if (type == GeometryType.LINE)
+                    parseLineString(jp);
+
+                else if (type == GeometryType.POINT)
+                    parseCoordinate(jp);
+            }
+        }
+    }
+
+    private void parsePolygon(JsonParser jp)
+            throws JsonParseException, IOException {
+        int ring = 0;
+
+        for (JsonToken t; (t = jp.nextToken()) != null; ) {
+            if (t == START_ARRAY) {
+                if (ring == 0)
+                    mMapElement.startPolygon();
+                else
+                    mMapElement.startHole();
+
+                ring++;
+                parseCoordSequence(jp);
+                removeLastPoint();
+                continue;
+            }
+
+            if (t == END_ARRAY)
+                break;
+        }
+    }
+
+    private void removeLastPoint() {
+        mPointPos -= 2;
+        mMapElement.index[mMapElement.indexPos] -= 2;
+    }
+
+    private void parseLineString(JsonParser jp)
+            throws JsonParseException, IOException {
+        mMapElement.startLine();
+        parseCoordSequence(jp);
+    }
+
+    private void parseCoordSequence(JsonParser jp)
+            throws JsonParseException, IOException {
+
+        for (JsonToken t; (t = jp.nextToken()) != null; ) {
+
+            if (t == START_ARRAY) {
+                parseCoordinate(jp);
+                continue;
+            }
+
+            if (t == END_ARRAY)
+                break;
+        }
+    }
+
+    private void parseCoordinate(JsonParser jp)
+            throws JsonParseException, IOException {
+        int pos = 0;
+        double x = 0, y = 0;
+
+        for (JsonToken t; (t = jp.nextToken()) != null; ) {
+            if (t == VALUE_NUMBER_FLOAT || t == VALUE_NUMBER_INT) {
+
+                // avoid String allocation (by getDouble...)
+                char[] val = jp.getTextCharacters();
+                int offset = jp.getTextOffset();
+                int length = jp.getTextLength();
+                double c = ArrayUtils.parseNumber(val, offset, offset + length);
+
+                if (pos == 0)
+                    x = c;
+                if (pos == 1)
+                    y = c;
+
+                pos++;
+                continue;
+            }
+
+            if (t == END_ARRAY)
+                break;
+        }
+
+        x = Math.max(0, Math.min(1, longitudeToX(x)));
+        addPoint((int) (x * WORLD_SIZE), (int) (latitudeToY(y) * WORLD_SIZE));
+    }
+
+    private void addPoint(int x, int y) {
+        if (mPointPos + 2 > mPoints.length)
+            mPoints = Arrays.copyOf(mPoints, mPoints.length * 2);
+
+        mPoints[mPointPos++] = x;
+        mPoints[mPointPos++] = y;
+
+        /* only the index of the MapElement is used */
+        mMapElement.index[mMapElement.indexPos] += 2;
+
+        if (x < mMinX)
+            mMinX = x;
+        if (x > mMaxX)
+            mMaxX = x;
+        if (y < mMinY)
+            mMinY = y;
+        if (y > mMaxY)
+            mMaxY = y;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.tiling.source.geojson;
+
+import org.oscim.core.MapElement;
+import org.oscim.core.Tile;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.ITileDataSource;
+import org.oscim.tiling.source.geojson.GeoJsonTileIndex.Feature;
+import org.oscim.utils.geom.SimplifyDP;
+import org.oscim.utils.geom.TileClipper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.oscim.tiling.QueryResult.FAILED;
+import static org.oscim.tiling.QueryResult.SUCCESS;
+import static org.oscim.tiling.source.geojson.GeoJsonTileIndex.CLIP_BUFFER;
+import static org.oscim.tiling.source.geojson.GeoJsonTileIndex.WORLD_BITS;
+
+/**
+ * Serves the tiles of a {@link GeoJsonFileTileSource}. Tiles which are not
+ * in the cache are generated from the features of the index: projected to
+ * tile coordinates, clipped to the tile and simplified.
+ */
+public class GeoJsonFileDataSource implements ITileDataSource {
+
+    private final GeoJsonFileTileSource mTileSource;
+
+    private final TileClipper mTileClipper;
+    private final SimplifyDP mSimplifyDP;
+
+    private final MapElement mElement;
+
+    public GeoJsonFileDataSource(GeoJsonFileTileSource tileSource) {
+        mTileSource = tileSource;
+
+        float buffer = (float) (Tile.SIZE * CLIP_BUFFER);
+        mTileClipper = new TileClipper(-buffer, -buffer,
+                Tile.SIZE + buffer, Tile.SIZE + buffer);
+        mSimplifyDP = new SimplifyDP();
+        mElement = new MapElement();
+    }
+
+    @Override
+    public void query(MapTile tile, ITileDataSink sink) {
+        GeoJsonTileIndex index = mTileSource.getIndex();
+        if (index == null || tile.zoomLevel > GeoJsonFileTileSource.MAX_ZOOM) {
+            sink.completed(FAILED);
+            return;
+        }
+
+        long key = GeoJsonTileIndex.key(tile.zoomLevel, tile.tileX, tile.tileY);
+        MapElement[] elements = index.getTile(key);
+        if (elements == null) {
+            elements = createTile(index, tile.zoomLevel, tile.tileX, tile.tileY);
+            index.putTile(key, elements);
+        }
+
+        /* the sink may modify the element */
+        for (MapElement e : elements) {
+            copy(e, mElement);
+            sink.process(mElement);
+        }
+        sink.completed(SUCCESS);
+    }
+
+    private MapElement[] createTile(GeoJsonTileIndex index, int zoomLevel, int tileX, int tileY) {
+        int shift = WORLD_BITS - zoomLevel;
+        long x = (long) tileX << shift;
+        long y = (long) tileY << shift;
+        long size = 1L << shift;
+        double scale = Tile.SIZE / (double) size;
+
+        float sqTolerance = mTileSource.getTolerance();
+        sqTolerance *= sqTolerance;
+
+        MapElement e = mElement;
+        List<MapElement> elements = new ArrayList<>();
+
+        for (int id : index.getFeatures(zoomLevel, tileX, tileY)) {
+            Feature f = index.features[id];
+
+            /* the index may hold features of an ancestor tile */
+            if (!GeoJsonTileIndex.intersects(f, zoomLevel, tileX, tileY))
+                continue;
+
+            project(f, e, x, y, scale);
+
+            if (e.isPoint()) {
+                if (!clipPoints(e))
+                    continue;
+            } else {
+                boolean inside = f.minX >= x && f.maxX < x + size
+                        && f.minY >= y && f.maxY < y + size;
+
+                if (!inside && !mTileClipper.clip(e))
+                    continue;
+
+                mSimplifyDP.simplify(e, sqTolerance);
+                e.pointPos = numCoords(e);
+            }
+
+            e.tags.set(f.tags);
+            e.layer = f.layer;
+
+            MapElement element = new MapElement((e.pointPos >> 1) + 1, e.indexPos + 2);
+            copy(e, element);
+            elements.add(element);
+        }
+        return elements.toArray(new MapElement[elements.size()]);
+    }
+
+    /**
+     * Set 'e' to the geometry of 'f' in tile coordinates.
+     */
+    private static void project(Feature f, MapElement e, long x, long y, double scale) {
+        e.clear();
+        e.type = f.type;
+
+        int n = f.index.length;
+        int[] index = e.ensureIndexSize(n, false);
+        System.arraycopy(f.index, 0, index, 0, n);
+        index[n] = -1;
+        e.indexPos = n - 1;
+
+        int[] src = f.points;
+        float[] points = e.ensurePointSize(src.length >> 1, false);
+        for (int i = 0; i < src.length; i += 2) {
+            points[i] = (float) ((src[i] - x) * scale);
+            points[i + 1] = (float) ((src[i + 1] - y) * scale);
+        }
+        e.pointPos = src.length;
+    }
+
+    /**
+     * Keep only points within the tile, a point on the border belongs
+     * to only one tile.
+     *
+     * @return false when no point is left.
+     */
+    private static boolean clipPoints(MapElement e) {
+        float[] points = e.points;
+        int out = 0;
+        for (int i = 0; i < e.pointPos; i += 2) {
+            float px = points[i];
+            float py = points[i + 1];
+            if (px < 0 || px >= Tile.SIZE || py < 0 || py >= Tile.SIZE)
+                continue;
+            points[out++] = px;
+            points[out++] = py;
+        }
+        e.index[0] = out;
+        e.pointPos = out;
+        return out > 0;
+    }
+
+    private static int numCoords(MapElement e) {
+        int[] index = e.index;
+        int n = 0;
+        for (int i = 0; i <= e.indexPos && index[i] >= 0; i++)
+            n += index[i];
+        return n;
+    }
+
+    private static void copy(MapElement src, MapElement dst) {
+        dst.clear();
+        dst.type = src.type;
+        dst.layer = src.layer;
+        dst.tags.clear();
+        for (int i = 0; i < src.tags.numTags; i++)
+            dst.tags.add(src.tags.tags[i]);
+
+        int n = src.indexPos + 1;
+        int[] index = dst.ensureIndexSize(n, false);
+        System.arraycopy(src.index, 0, index, 0, n);
+        index[n] = -1;
+        dst.indexPos = src.indexPos;
+
+        float[] points = dst.ensurePointSize(src.pointPos >> 1, false);
+        System.arraycopy(src.points, 0, points, 0, src.pointPos);
+        dst.pointPos = src.pointPos;
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    @Override
+    public void cancel() {
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.tiling.source.geojson;
+
+import org.oscim.core.MapElement;
+import org.oscim.core.Tag;
+import org.oscim.tiling.ITileDataSource;
+import org.oscim.tiling.TileSource;
+import org.oscim.tiling.source.geojson.GeoJsonTileIndex.Feature;
+import org.oscim.utils.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Vector tiles from a local GeoJSON file, without a tile server. The file
+ * is read once on {@link #open()}, then the features are split into a tile
+ * index in parallel. Tiles are clipped and simplified on demand and the
+ * generated tiles are kept in a LRU cache.
+ */
+public class GeoJsonFileTileSource extends TileSource {
+    static final Logger log = LoggerFactory.getLogger(GeoJsonFileTileSource.class);
+
+    /**
+     * Deepest zoom level for which the coordinates are precise.
+     */
+    public static final int MAX_ZOOM = 22;
+
+    public static final int INDEX_MAX_ZOOM = 5;
+    public static final int INDEX_MAX_POINTS = 100000;
+    public static final int TILE_CACHE_SIZE = 256;
+
+    private int mIndexMaxZoom = INDEX_MAX_ZOOM;
+    private int mIndexMaxPoints = INDEX_MAX_POINTS;
+    private int mTileCacheSize = TILE_CACHE_SIZE;
+    private float mTolerance = 1;
+    private ForkJoinPool mPool;
+
+    private volatile GeoJsonTileIndex mIndex;
+
+    public GeoJsonFileTileSource() {
+        this(0, 17);
+    }
+
+    public GeoJsonFileTileSource(int zoomMin, int zoomMax) {
+        super(zoomMin, Math.min(zoomMax, MAX_ZOOM));
+    }
+
+    public boolean setGeoJsonFile(String filename) {
+        setOption("file", filename);
+
+        File file = new File(filename);
+
+        if (!file.exists()) {
+            return false;
+        } else if (!file.isFile()) {
+            return false;
+        } else if (!file.canRead()) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Set the deepest zoom level of the tile index and the number of points
+     * of a tile below which it is not split further. Deeper tiles are
+     * generated from their ancestor in the index. Must be set before
+     * {@link #open()}.
+     */
+    public void setIndexLimits(int maxZoom, int maxPoints) {
+        mIndexMaxZoom = maxZoom;
+        mIndexMaxPoints = maxPoints;
+    }
+
+    /**
+     * Set the number of generated tiles that are cached. Must be set before
+     * {@link #open()}.
+     */
+    public void setTileCacheSize(int tileCacheSize) {
+        mTileCacheSize = tileCacheSize;
+    }
+
+    /**
+     * Set the simplification tolerance in tile pixels.
+     */
+    public void setTolerance(float tolerance) {
+        mTolerance = tolerance;
+    }
+
+    public float getTolerance() {
+        return mTolerance;
+    }
+
+    /**
+     * Set the pool to build the tile index. By default a pool is
+     * created for each {@link #open()}.
+     */
+    public void setPool(ForkJoinPool pool) {
+        mPool = pool;
+    }
+
+    GeoJsonTileIndex getIndex() {
+        return mIndex;
+    }
+
+    @Override
+    public ITileDataSource getDataSource() {
+        return new GeoJsonFileDataSource(this);
+    }
+
+    @Override
+    public OpenResult open() {
+        if (!options.containsKey("file"))
+            return new OpenResult("no GeoJSON file set");
+
+        File file = new File(options.get("file"));
+
+        // check if the file exists and is readable
+        if (!file.exists()) {
+            return new OpenResult("file does not exist: " + file);
+        } else if (!file.isFile()) {
+            return new OpenResult("not a file: " + file);
+        } else if (!file.canRead()) {
+            return new OpenResult("cannot read file: " + file);
+        }
+
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            read(is);
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            return new OpenResult(e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        return OpenResult.SUCCESS;
+    }
+
+    /**
+     * Read the features from 'is' and build the tile index.
+     */
+    public void read(InputStream is) throws IOException {
+        long start = System.currentTimeMillis();
+
+        List<Feature> features = new GeoJsonFeatureReader(this).read(is);
+        GeoJsonTileIndex index = new GeoJsonTileIndex(features,
+                mIndexMaxZoom, mIndexMaxPoints, mTileCacheSize);
+
+        long read = System.currentTimeMillis();
+
+        ForkJoinPool pool = mPool;
+        if (pool == null)
+            pool = new ForkJoinPool();
+        try {
+            index.build(pool);
+        } finally {
+            if (pool != mPool)
+                pool.shutdown();
+        }
+        mIndex = index;
+
+        log.debug("{} features read in {}ms, {} tiles indexed in {}ms",
+                features.size(), read - start,
+                index.getNumNodes(), System.currentTimeMillis() - read);
+    }
+
+    @Override
+    public void close() {
+        mIndex = null;
+    }
+
+    /**
+     * Allow overriding tag handling, by default all properties are
+     * added with {@link #rewriteTag(String, Object)}.
+     */
+    public void decodeTags(MapElement mapElement, Map<String, Object> properties) {
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            Tag tag = rewriteTag(entry.getKey(), entry.getValue());
+            if (tag != null)
+                mapElement.tags.add(tag);
+        }
+    }
+
+    public Tag rewriteTag(String key, Object value) {
+
+        if (value == null)
+            return null;
+
+        String val = (value instanceof String) ? (String) value : String.valueOf(value);
+
+        return new Tag(key, val);
+    }
+}
@@ -1,5 +1,6 @@
 /*
  * Copyright 2014 Hannes Janetzek
+ * Copyright 2016 devemux86
  *
  * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
  *
@@ -54,18 +55,18 @@ public class GeoJsonTileDecoder implements ITileDecoder {
     private final LinkedHashMap<String, Object> mTagMap;
     private final JsonFactory mJsonFactory;
 
-    private final static char[] FIELD_FEATURES = "features".toCharArray();
-    private final static char[] FIELD_GEOMETRY = "geometry".toCharArray();
-    private final static char[] FIELD_PROPERTIES = "properties".toCharArray();
-    private final static char[] FIELD_COORDINATES = "coordinates".toCharArray();
-    private final static char[] FIELD_TYPE = "type".toCharArray();
+    final static char[] FIELD_FEATURES = "features".toCharArray();
+    final static char[] FIELD_GEOMETRY = "geometry".toCharArray();
+    final static char[] FIELD_PROPERTIES = "properties".toCharArray();
+    final static char[] FIELD_COORDINATES = "coordinates".toCharArray();
+    final static char[] FIELD_TYPE = "type".toCharArray();
 
-    private final static char[] LINETRING = "LineString".toCharArray();
-    private final static char[] POLYGON = "Polygon".toCharArray();
-    private final static char[] POINT = "Point".toCharArray();
-    private final static char[] MULTI_LINESTRING = "MultiLineString".toCharArray();
-    private final static char[] MULTI_POLYGON = "MultiPolygon".toCharArray();
-    private final static char[] MULTI_POINT = "MultiPoint".toCharArray();
+    final static char[] LINETRING = "LineString".toCharArray();
+    final static char[] POLYGON = "Polygon".toCharArray();
+    final static char[] POINT = "Point".toCharArray();
+    final static char[] MULTI_LINESTRING = "MultiLineString".toCharArray();
+    final static char[] MULTI_POLYGON = "MultiPolygon".toCharArray();
+    final static char[] MULTI_POINT = "MultiPoint".toCharArray();
 
     private ITileDataSink mTileDataSink;
 
@@ -329,7 +330,7 @@ public class GeoJsonTileDecoder implements ITileDecoder {
 
     }
 
-    private final static boolean match(JsonParser jp, char[] fieldName)
+    final static boolean match(JsonParser jp, char[] fieldName)
             throws JsonParseException, IOException {
 
         int length = jp.getTextLength();
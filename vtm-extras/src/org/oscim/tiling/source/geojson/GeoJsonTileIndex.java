@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.tiling.source.geojson;
+
+import org.oscim.core.GeometryBuffer.GeometryType;
+import org.oscim.core.MapElement;
+import org.oscim.core.Tag;
+import org.oscim.utils.LRUCache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The features of a GeoJSON file and a pyramid of the features overlapping
+ * each tile, down to the index max zoom level or until a tile has few enough
+ * points. Generated tiles are kept in a LRU cache.
+ */
+class GeoJsonTileIndex {
+
+    /**
+     * Bits of the fixed point world coordinates. With 2^30 units
+     * the coordinates are precise for tiles up to zoom level 22.
+     */
+    static final int WORLD_BITS = 30;
+    static final double WORLD_SIZE = 1 << WORLD_BITS;
+
+    /**
+     * Buffer around tiles relative to the tile size, so that lines and
+     * polygons are not clipped at the visible tile borders.
+     */
+    static final double CLIP_BUFFER = 1 / 8.0;
+
+    private static final int[] EMPTY = new int[0];
+
+    static final class Feature {
+        final GeometryType type;
+        /**
+         * GeometryBuffer index, without end marker.
+         */
+        final int[] index;
+        /**
+         * Fixed point world coordinates.
+         */
+        final int[] points;
+        final Tag[] tags;
+        final int layer;
+        final int minX, minY, maxX, maxY;
+
+        Feature(GeometryType type, int[] index, int[] points, Tag[] tags, int layer,
+                int minX, int minY, int maxX, int maxY) {
+            this.type = type;
+            this.index = index;
+            this.points = points;
+            this.tags = tags;
+            this.layer = layer;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+    }
+
+    final Feature[] features;
+
+    private final int mMaxZoom;
+    private final int mMaxPoints;
+
+    /**
+     * Feature ids per tile. When a tile is split all four children
+     * are added, so the deepest tile found holds all features.
+     */
+    private final ConcurrentHashMap<Long, int[]> mNodes;
+
+    private final LRUCache<Long, MapElement[]> mTiles;
+
+    /**
+     * @param maxZoom   deepest zoom level of the index.
+     * @param maxPoints tiles with fewer points are not split.
+     * @param cacheSize number of generated tiles to keep.
+     */
+    GeoJsonTileIndex(List<Feature> features, int maxZoom, int maxPoints, int cacheSize) {
+        this.features = features.toArray(new Feature[features.size()]);
+        mMaxZoom = maxZoom;
+        mMaxPoints = maxPoints;
+        mNodes = new ConcurrentHashMap<>();
+        mTiles = new LRUCache<>(cacheSize);
+    }
+
+    /**
+     * Split the features into the tile pyramid, the four children of
+     * each tile are split in parallel.
+     */
+    void build(ForkJoinPool pool) {
+        int[] ids = new int[features.length];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = i;
+
+        pool.invoke(new Split(0, 0, 0, ids));
+    }
+
+    /**
+     * @return the ids of all features which may overlap the tile, from the
+     * tile itself or its deepest ancestor in the index.
+     */
+    int[] getFeatures(int zoomLevel, int tileX, int tileY) {
+        for (int z = Math.min(zoomLevel, mMaxZoom); z >= 0; z--) {
+            int shift = zoomLevel - z;
+            int[] ids = mNodes.get(key(z, tileX >> shift, tileY >> shift));
+            if (ids != null)
+                return ids;
+        }
+        return EMPTY;
+    }
+
+    int getNumNodes() {
+        return mNodes.size();
+    }
+
+    synchronized MapElement[] getTile(long key) {
+        return mTiles.get(key);
+    }
+
+    synchronized void putTile(long key, MapElement[] elements) {
+        mTiles.put(key, elements);
+    }
+
+    static long key(int zoomLevel, int tileX, int tileY) {
+        return ((long) zoomLevel << 56) | ((long) tileX << 28) | tileY;
+    }
+
+    /**
+     * @return true when the bounding box of 'f' overlaps the tile
+     * extended by the clip buffer.
+     */
+    static boolean intersects(Feature f, int zoomLevel, int tileX, int tileY) {
+        int shift = WORLD_BITS - zoomLevel;
+        long size = 1L << shift;
+        long buffer = (long) (size * CLIP_BUFFER);
+
+        long xmin = ((long) tileX << shift) - buffer;
+        long ymin = ((long) tileY << shift) - buffer;
+        long xmax = xmin + size + 2 * buffer;
+        long ymax = ymin + size + 2 * buffer;
+
+        return f.maxX >= xmin && f.minX <= xmax
+                && f.maxY >= ymin && f.minY <= ymax;
+    }
+
+    private boolean hasFewPoints(int[] ids) {
+        long points = 0;
+        for (int id : ids) {
+            points += features[id].points.length >> 1;
+            if (points > mMaxPoints)
+                return false;
+        }
+        return true;
+    }
+
+    private int[] filter(int[] ids, int zoomLevel, int tileX, int tileY) {
+        int[] out = new int[ids.length];
+        int n = 0;
+        for (int id : ids) {
+            if (intersects(features[id], zoomLevel, tileX, tileY))
+                out[n++] = id;
+        }
+        if (n == 0)
+            return EMPTY;
+
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Filters the features of the parent tile, then splits itself.
+     */
+    private final class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int zoomLevel, tileX, tileY;
+        private final int[] parentIds;
+
+        Split(int zoomLevel, int tileX, int tileY, int[] parentIds) {
+            this.zoomLevel = zoomLevel;
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.parentIds = parentIds;
+        }
+
+        @Override
+        protected void compute() {
+            int[] ids = zoomLevel == 0 ? parentIds
+                    : filter(parentIds, zoomLevel, tileX, tileY);
+
+            mNodes.put(key(zoomLevel, tileX, tileY), ids);
+
+            if (zoomLevel >= mMaxZoom || hasFewPoints(ids))
+                return;
+
+            int z = zoomLevel + 1;
+            Split[] children = new Split[4];
+            for (int i = 0; i < 4; i++) {
+                children[i] = new Split(z, (tileX << 1) + (i & 1),
+                        (tileY << 1) + (i >> 1), ids);
+            }
+            invokeAll(children);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.tiling.source.mbtiles;
+
+import org.oscim.backend.CanvasAdapter;
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.core.Tile;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.ITileDataSource;
+import org.oscim.tiling.source.mvt.TileDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.oscim.tiling.QueryResult.FAILED;
+import static org.oscim.tiling.QueryResult.SUCCESS;
+import static org.oscim.tiling.QueryResult.TILE_NOT_FOUND;
+
+/**
+ * Reads tiles of an {@link MBTilesTileSource}. The connection and statement
+ * are created once per data source, compressed vector tiles are inflated into
+ * a buffer which is reused for all tiles.
+ */
+public class MBTilesTileDataSource implements ITileDataSource {
+    static final Logger log = LoggerFactory.getLogger(MBTilesTileDataSource.class);
+
+    private static final String SELECT_TILE = "SELECT tile_data FROM tiles "
+            + "WHERE zoom_level=? AND tile_column=? AND tile_row=?";
+
+    private static final int GZIP_FHCRC = 2;
+    private static final int GZIP_FEXTRA = 4;
+    private static final int GZIP_FNAME = 8;
+    private static final int GZIP_FCOMMENT = 16;
+
+    private final MBTilesTileSource mTileSource;
+    private final boolean mVector;
+    private final TileDecoder mTileDecoder;
+
+    private Connection mConnection;
+    private PreparedStatement mStatement;
+
+    private final Inflater mInflater = new Inflater(true);
+    private final Inflater mZlibInflater = new Inflater();
+    private byte[] mBuffer = new byte[64 * 1024];
+
+    public MBTilesTileDataSource(MBTilesTileSource tileSource) {
+        mTileSource = tileSource;
+        mVector = tileSource.isVector();
+        mTileDecoder = mVector ? new TileDecoder() : null;
+    }
+
+    @Override
+    public void query(MapTile tile, ITileDataSink sink) {
+        byte[] data;
+        try {
+            data = readTile(tile);
+        } catch (SQLException e) {
+            log.debug("{} Database error: {}", tile, e.getMessage());
+            /* reconnect on next query */
+            close();
+            sink.completed(FAILED);
+            return;
+        }
+        if (data == null) {
+            sink.completed(TILE_NOT_FOUND);
+            return;
+        }
+
+        boolean ok = false;
+        try {
+            if (mVector) {
+                int length = inflate(data);
+                ok = mTileDecoder.decode(tile, sink, mBuffer, 0, length);
+            } else {
+                Bitmap bitmap = CanvasAdapter.decodeBitmap(new ByteArrayInputStream(data));
+                if (bitmap != null && bitmap.isValid()) {
+                    sink.setTileImage(bitmap);
+                    ok = true;
+                } else {
+                    log.debug("{} invalid bitmap", tile);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("{} Decode error: {}", tile, e.getMessage());
+        } catch (DataFormatException e) {
+            log.debug("{} Inflate error: {}", tile, e.getMessage());
+        } finally {
+            sink.completed(ok ? SUCCESS : FAILED);
+        }
+    }
+
+    byte[] readTile(Tile tile) throws SQLException {
+        if (mConnection == null) {
+            mConnection = mTileSource.openConnection();
+            mStatement = mConnection.prepareStatement(SELECT_TILE);
+        }
+        /* MBTiles rows are numbered from the south (TMS) */
+        int row = (1 << tile.zoomLevel) - 1 - tile.tileY;
+
+        mStatement.setInt(1, tile.zoomLevel);
+        mStatement.setInt(2, tile.tileX);
+        mStatement.setInt(3, row);
+
+        ResultSet rs = mStatement.executeQuery();
+        try {
+            if (rs.next())
+                return rs.getBytes(1);
+            return null;
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Inflates gzip or zlib compressed data into mBuffer, uncompressed data
+     * is copied.
+     *
+     * @return the number of bytes in mBuffer.
+     */
+    int inflate(byte[] data) throws DataFormatException, IOException {
+        Inflater inflater;
+        int offset = 0;
+
+        if (data.length > 10 && (data[0] & 0xff) == 0x1f && (data[1] & 0xff) == 0x8b) {
+            inflater = mInflater;
+            offset = skipGzipHeader(data);
+        } else if (data.length > 2 && (data[0] & 0x0f) == 8
+                && (((data[0] & 0xff) << 8) | (data[1] & 0xff)) % 31 == 0) {
+            inflater = mZlibInflater;
+        } else {
+            ensureBuffer(data.length);
+            System.arraycopy(data, 0, mBuffer, 0, data.length);
+            return data.length;
+        }
+
+        inflater.reset();
+        inflater.setInput(data, offset, data.length - offset);
+
+        int length = 0;
+        while (!inflater.finished()) {
+            if (length == mBuffer.length)
+                ensureBuffer(length * 2);
+
+            int n = inflater.inflate(mBuffer, length, mBuffer.length - length);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                throw new IOException("truncated data");
+            length += n;
+        }
+        return length;
+    }
+
+    private static int skipGzipHeader(byte[] data) throws IOException {
+        int flags = data[3] & 0xff;
+        int pos = 10;
+
+        if ((flags & GZIP_FEXTRA) != 0)
+            pos += 2 + ((data[pos] & 0xff) | (data[pos + 1] & 0xff) << 8);
+        if ((flags & GZIP_FNAME) != 0)
+            while (pos < data.length && data[pos++] != 0) ;
+        if ((flags & GZIP_FCOMMENT) != 0)
+            while (pos < data.length && data[pos++] != 0) ;
+        if ((flags & GZIP_FHCRC) != 0)
+            pos += 2;
+
+        if (pos >= data.length)
+            throw new IOException("invalid gzip header");
+        return pos;
+    }
+
+    private void ensureBuffer(int size) {
+        if (mBuffer.length >= size)
+            return;
+
+        byte[] buffer = new byte[Math.max(size, mBuffer.length * 2)];
+        System.arraycopy(mBuffer, 0, buffer, 0, mBuffer.length);
+        mBuffer = buffer;
+    }
+
+    private void close() {
+        if (mStatement != null) {
+            try {
+                mStatement.close();
+            } catch (SQLException e) {
+                log.debug(e.getMessage());
+            }
+            mStatement = null;
+        }
+        MBTilesTileSource.closeQuietly(mConnection);
+        mConnection = null;
+    }
+
+    @Override
+    public void dispose() {
+        close();
+        mInflater.end();
+        mZlibInflater.end();
+    }
+
+    @Override
+    public void cancel() {
+        /* queries are short, nothing to interrupt */
+    }
+}
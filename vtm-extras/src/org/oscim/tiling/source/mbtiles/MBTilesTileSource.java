@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.tiling.source.mbtiles;
+
+import org.oscim.tiling.ITileDataSource;
+import org.oscim.tiling.TileSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Properties;
+
+/**
+ * A tile source for MBTiles archives (https://github.com/mapbox/mbtiles-spec)
+ * containing either Mapbox vector tiles or raster tiles.
+ * <p/>
+ * The archive is read through JDBC, so a SQLite driver such as
+ * org.xerial:sqlite-jdbc must be on the classpath. Every data source, i.e.
+ * every loader thread, uses its own read-only connection.
+ */
+public class MBTilesTileSource extends TileSource {
+    static final Logger log = LoggerFactory.getLogger(MBTilesTileSource.class);
+
+    /**
+     * SQLITE_OPEN_READONLY, understood by the xerial sqlite-jdbc driver.
+     */
+    private static final String OPEN_MODE_READ_ONLY = "1";
+
+    public static final String FORMAT_PBF = "pbf";
+
+    private final HashMap<String, String> mMetadata = new HashMap<>();
+    private String mUrl;
+
+    public MBTilesTileSource() {
+        super(0, 17);
+    }
+
+    public MBTilesTileSource(String filename) {
+        this();
+        setMBTilesFile(filename);
+    }
+
+    public boolean setMBTilesFile(String filename) {
+        setOption("file", filename);
+
+        File file = new File(filename);
+        return file.isFile() && file.canRead();
+    }
+
+    @Override
+    public OpenResult open() {
+        if (!options.containsKey("file"))
+            return new OpenResult("no mbtiles file set");
+
+        File file = new File(options.get("file"));
+        if (!file.exists()) {
+            return new OpenResult("file does not exist: " + file);
+        } else if (!file.isFile()) {
+            return new OpenResult("not a file: " + file);
+        } else if (!file.canRead()) {
+            return new OpenResult("cannot read file: " + file);
+        }
+
+        mUrl = "jdbc:sqlite:" + file.getPath();
+        mMetadata.clear();
+
+        Connection connection = null;
+        try {
+            connection = openConnection();
+            Statement st = connection.createStatement();
+            ResultSet rs = st.executeQuery("SELECT name, value FROM metadata");
+            while (rs.next())
+                mMetadata.put(rs.getString(1), rs.getString(2));
+            rs.close();
+            st.close();
+        } catch (SQLException e) {
+            log.error(e.getMessage());
+            mUrl = null;
+            return new OpenResult(e.getMessage());
+        } finally {
+            closeQuietly(connection);
+        }
+
+        mZoomMin = parseInt(mMetadata.get("minzoom"), mZoomMin);
+        mZoomMax = parseInt(mMetadata.get("maxzoom"), mZoomMax);
+
+        log.debug("{} format: {}, zoom: {}-{}", file, getFormat(), mZoomMin, mZoomMax);
+        return OpenResult.SUCCESS;
+    }
+
+    @Override
+    public ITileDataSource getDataSource() {
+        if (mUrl == null) {
+            log.debug("not opened");
+            return null;
+        }
+        return new MBTilesTileDataSource(this);
+    }
+
+    @Override
+    public void close() {
+        mUrl = null;
+    }
+
+    /**
+     * Opens a new read-only connection to the archive.
+     */
+    Connection openConnection() throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty("open_mode", OPEN_MODE_READ_ONLY);
+        return DriverManager.getConnection(mUrl, properties);
+    }
+
+    /**
+     * @return the value of an entry of the metadata table or null.
+     */
+    public String getMetadata(String name) {
+        return mMetadata.get(name);
+    }
+
+    /**
+     * @return the tile format, 'pbf' for vector tiles or the image format.
+     */
+    public String getFormat() {
+        String format = mMetadata.get("format");
+        return format == null ? "png" : format;
+    }
+
+    public boolean isVector() {
+        return FORMAT_PBF.equals(getFormat());
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    static void closeQuietly(Connection connection) {
+        if (connection == null)
+            return;
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.debug(e.getMessage());
+        }
+    }
+}
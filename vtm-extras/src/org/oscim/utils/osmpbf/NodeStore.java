@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.utils.osmpbf;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Node coordinates by id, in arrays sorted by id. Coordinates are stored in
+ * 1E7 degrees, the precision of OSM data.
+ */
+class NodeStore {
+
+    /**
+     * Coordinates of the nodes of one block, in file order.
+     */
+    static final class Chunk {
+        long[] ids = new long[256];
+        int[] lat = new int[256];
+        int[] lon = new int[256];
+        int size;
+
+        void add(long id, int latE7, int lonE7) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                lat = Arrays.copyOf(lat, size * 2);
+                lon = Arrays.copyOf(lon, size * 2);
+            }
+            ids[size] = id;
+            lat[size] = latE7;
+            lon[size] = lonE7;
+            size++;
+        }
+    }
+
+    private final long[] mIds;
+    private final int[] mLat;
+    private final int[] mLon;
+
+    /**
+     * @param chunks in file order, nodes of PBF files are usually sorted by
+     *               id so that the chunks only need to be concatenated.
+     */
+    NodeStore(List<Chunk> chunks) {
+        int size = 0;
+        for (Chunk c : chunks)
+            size += c.size;
+
+        mIds = new long[size];
+        mLat = new int[size];
+        mLon = new int[size];
+
+        int pos = 0;
+        for (Chunk c : chunks) {
+            System.arraycopy(c.ids, 0, mIds, pos, c.size);
+            System.arraycopy(c.lat, 0, mLat, pos, c.size);
+            System.arraycopy(c.lon, 0, mLon, pos, c.size);
+            pos += c.size;
+        }
+
+        for (int i = 1; i < size; i++) {
+            if (mIds[i - 1] > mIds[i]) {
+                sort(0, size - 1);
+                break;
+            }
+        }
+    }
+
+    int size() {
+        return mIds.length;
+    }
+
+    /**
+     * @return the index of node 'id' or a negative value if not found.
+     */
+    int indexOf(long id) {
+        return Arrays.binarySearch(mIds, id);
+    }
+
+    double getLat(int index) {
+        return mLat[index] / 1E7;
+    }
+
+    double getLon(int index) {
+        return mLon[index] / 1E7;
+    }
+
+    private void sort(int left, int right) {
+        while (left < right) {
+            long pivot = mIds[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (mIds[i] < pivot)
+                    i++;
+                while (mIds[j] > pivot)
+                    j--;
+                if (i <= j)
+                    swap(i++, j--);
+            }
+            /* recurse into the smaller part */
+            if (j - left < right - i) {
+                sort(left, j);
+                left = i;
+            } else {
+                sort(i, right);
+                right = j;
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        long id = mIds[a];
+        mIds[a] = mIds[b];
+        mIds[b] = id;
+
+        int v = mLat[a];
+        mLat[a] = mLat[b];
+        mLat[b] = v;
+
+        v = mLon[a];
+        mLon[a] = mLon[b];
+        mLon[b] = v;
+    }
+}
@@ -1,5 +1,6 @@
 /*
  * Copyright 2013 Hannes Janetzek
+ * Copyright 2016 devemux86
  *
  * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
  *
@@ -17,319 +18,566 @@
 
 package org.oscim.utils.osmpbf;
 
-import org.openstreetmap.osmosis.osmbinary.BinaryParser;
+import org.openstreetmap.osmosis.osmbinary.Fileformat;
 import org.openstreetmap.osmosis.osmbinary.Osmformat;
+import org.oscim.core.MapElement;
 import org.oscim.core.Tag;
 import org.oscim.core.TagSet;
 import org.oscim.core.osm.OsmData;
-import org.oscim.core.osm.OsmMember;
 import org.oscim.core.osm.OsmNode;
-import org.oscim.core.osm.OsmRelation;
 import org.oscim.core.osm.OsmWay;
-
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.QueryResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
- * Class that reads and parses binary files and sends the contained entities to
- * the sink.
+ * Reads binary OSM files. Blocks are inflated and decoded in parallel on a
+ * ForkJoinPool while the stream is read, way coordinates are resolved when
+ * all nodes are known.
+ * <p/>
+ * Node coordinates are kept in a {@link NodeStore}, only tagged nodes become
+ * elements. The strings of a block are interned once through its string
+ * table, so that its elements share Tag instances. Relations are skipped.
+ * <p/>
+ * References to nodes which are not in the file, e.g. of ways crossing the
+ * border of an extract, are dropped. Ways with less than two nodes left are
+ * skipped.
  */
-public class OsmPbfParser extends BinaryParser {
+public class OsmPbfParser {
+    static final Logger log = LoggerFactory.getLogger(OsmPbfParser.class);
 
-    @Override
-    public void complete() {
-        //sink.complete();
-    }
+    /**
+     * Max size of a BlobHeader and of a Blob, see the PBF format.
+     */
+    static final int MAX_HEADER_SIZE = 64 * 1024;
+    static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * Blocks read ahead of decoding, per thread of the pool.
+     */
+    static final int READ_AHEAD = 2;
+
+    private final ForkJoinPool mPool;
+    private final boolean mOwnPool;
+    private final ITileDataSink mSink;
+
+    private final ArrayList<Block> mBlocks = new ArrayList<Block>();
+
+    private final ArrayList<OsmNode> mNodes = new ArrayList<OsmNode>();
+    private final ArrayList<OsmWay> mWays = new ArrayList<OsmWay>();
+
+    /**
+     * Tags of way nodes, which are not elements themselves.
+     */
+    private final TagSet mNoTags = new TagSet(0);
 
-    //    /** Get the osmosis object representing a the user in a given Info protobuf.
-    //     * @param info The info protobuf.
-    //     * @return The OsmUser object */
-    //    OsmUser getUser(Osmformat.Info info) {
-    //        // System.out.println(info);
-    //        if (info.hasUid() && info.hasUserSid()) {
-    //            if (info.getUid() < 0) {
-    //              return OsmUser.NONE;
-    //            }
-    //            return new OsmUser(info.getUid(), getStringById(info.getUserSid()));
-    //        } else {
-    //            return OsmUser.NONE;
-    //        }
-    //    }
+    private NodeStore mNodeStore;
 
     /**
-     * The magic number used to indicate no version number metadata for this
-     * entity.
+     * Nodes of ways by index in mNodeStore for {@link #getData()}, so
+     * that ways share the instances of their nodes.
      */
-    static final int NOVERSION = -1;
+    private AtomicReferenceArray<OsmNode> mWayNodes;
+
     /**
-     * The magic number used to indicate no changeset metadata for this entity.
+     * Collect the elements for {@link #getData()}, using a pool with one
+     * thread per processor.
      */
-    static final int NOCHANGESET = -1;
+    public OsmPbfParser() {
+        mSink = null;
+        mPool = new ForkJoinPool();
+        mOwnPool = true;
+    }
 
-    HashMap<Long, OsmNode> mNodeMap = new HashMap<Long, OsmNode>();
-    HashMap<Long, OsmWay> mWayMap = new HashMap<Long, OsmWay>();
+    /**
+     * @param sink receives tagged nodes as points and ways as lines or, when
+     *             closed, polygons with longitude and latitude coordinates.
+     *             It is called from the threads of 'pool', one call at a
+     *             time, and completed() when the stream was read. Null to
+     *             collect the elements for {@link #getData()}.
+     * @param pool to decode blocks.
+     */
+    public OsmPbfParser(ITileDataSink sink, ForkJoinPool pool) {
+        mSink = sink;
+        mPool = pool;
+        mOwnPool = false;
+    }
 
-    @Override
-    protected void parseNodes(List<Osmformat.Node> nodes) {
-        for (Osmformat.Node i : nodes) {
-            int tagCnt = i.getKeysCount();
+    /**
+     * Read all blocks of 'is'. Can be called once.
+     */
+    public void parse(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        ArrayDeque<Block> pending = new ArrayDeque<Block>();
+        int maxPending = mPool.getParallelism() * READ_AHEAD;
+
+        try {
+            while (true) {
+                int headerSize;
+                try {
+                    headerSize = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (headerSize < 0 || headerSize > MAX_HEADER_SIZE)
+                    throw new IOException("invalid header size " + headerSize);
+
+                byte[] buf = new byte[headerSize];
+                in.readFully(buf);
+                Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(buf);
+
+                int size = header.getDatasize();
+                if (size < 0 || size > MAX_BLOB_SIZE)
+                    throw new IOException("invalid blob size " + size);
 
-            TagSet tags = new TagSet(tagCnt);
+                buf = new byte[size];
+                in.readFully(buf);
 
-            //  List<Tag> tags = new ArrayList<Tag>();
-            for (int j = 0; j < tagCnt; j++) {
-                tags.add(new Tag(getStringById(i.getKeys(j)), getStringById(i.getVals(j))));
+                Block block = new Block(header.getType(), buf);
+                mBlocks.add(block);
+                mPool.execute(block);
+                pending.add(block);
+
+                /* do not read the whole file ahead of decoding */
+                if (pending.size() > maxPending)
+                    join(pending.poll());
             }
-            // long id, int version, Date timestamp, OsmUser user,
-            // long changesetId, Collection<Tag> tags,
-            // double latitude, double longitude
-            OsmNode tmp;
-            long id = i.getId();
-            double latf = parseLat(i.getLat()), lonf = parseLon(i.getLon());
-
-            //            if (i.hasInfo()) {
-            //                Osmformat.Info info = i.getInfo();
-            //                tmp = new OsmNode(new CommonEntityData(id, info.getVersion(), getDate(info),
-            //                        getUser(info), info.getChangeset(), tags), latf, lonf);
-            //            } else {
-            tmp = new OsmNode(latf, lonf, tags, id);
-            //                tmp = new Node(new CommonEntityData(id, NOVERSION, NODATE, OsmUser.NONE,
-            //                        NOCHANGESET, tags), latf, lonf);
-            //            }
-            //sink.process(new NodeContainer(tmp));
-            mNodeMap.put(Long.valueOf(id), tmp);
+            while (!pending.isEmpty())
+                join(pending.poll());
+
+            resolveWays();
+        } catch (IOException | RuntimeException e) {
+            if (mSink != null)
+                mSink.completed(QueryResult.FAILED);
+            throw e;
+        } finally {
+            if (mOwnPool)
+                mPool.shutdown();
         }
+
+        if (mSink != null)
+            mSink.completed(QueryResult.SUCCESS);
     }
 
-    @Override
-    protected void parseDense(Osmformat.DenseNodes nodes) {
-        long lastId = 0, lastLat = 0, lastLon = 0;
-
-        int j = 0; // Index into the keysvals array.
-
-        // Stuff for dense info
-        //        long lasttimestamp = 0, lastchangeset = 0;
-        //        int lastuserSid = 0, lastuid = 0;
-        //    DenseInfo di = null;
-        //        if (nodes.hasDenseinfo()) {
-        //            di = nodes.getDenseinfo();
-        //        }
-
-        for (int i = 0; i < nodes.getIdCount(); i++) {
-            OsmNode tmp;
-            TagSet tags = new TagSet(4);
-            long lat = nodes.getLat(i) + lastLat;
-            lastLat = lat;
-            long lon = nodes.getLon(i) + lastLon;
-            lastLon = lon;
-            long id = nodes.getId(i) + lastId;
-            lastId = id;
-            double latf = parseLat(lat), lonf = parseLon(lon);
-            // If empty, assume that nothing here has keys or vals.
-            if (nodes.getKeysValsCount() > 0) {
-                while (nodes.getKeysVals(j) != 0) {
-                    int keyid = nodes.getKeysVals(j++);
-                    int valid = nodes.getKeysVals(j++);
-                    tags.add(new Tag(getStringById(keyid), getStringById(valid)));
+    public OsmData getData() {
+        return new OsmData(null, mNodes, mWays, null);
+    }
+
+    private static void join(Block block) throws IOException {
+        try {
+            block.join();
+        } catch (RuntimeException e) {
+            /* the exception may be wrapped when it was thrown by another thread */
+            for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+                if (t instanceof IOException)
+                    throw (IOException) t;
+            }
+            throw e;
+        }
+    }
+
+    private void resolveWays() {
+        ArrayList<NodeStore.Chunk> chunks = new ArrayList<NodeStore.Chunk>();
+        for (Block b : mBlocks) {
+            if (b.nodes != null)
+                chunks.add(b.nodes);
+        }
+        mNodeStore = new NodeStore(chunks);
+        chunks.clear();
+
+        if (mSink == null) {
+            /* tagged nodes are shared with ways */
+            mWayNodes = new AtomicReferenceArray<OsmNode>(mNodeStore.size());
+            for (Block b : mBlocks) {
+                if (b.osmNodes == null)
+                    continue;
+                for (OsmNode n : b.osmNodes)
+                    mWayNodes.set(mNodeStore.indexOf(n.id), n);
+            }
+        }
+
+        ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for (final Block b : mBlocks) {
+            b.nodes = null;
+            if (b.numWays == 0)
+                continue;
+
+            RecursiveAction task = new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    b.resolveWays();
                 }
-                j++; // Skip over the '0' delimiter.
+            };
+            mPool.execute(task);
+            tasks.add(task);
+        }
+        for (RecursiveAction task : tasks)
+            task.join();
+
+        int incomplete = 0;
+        for (Block b : mBlocks) {
+            if (b.osmNodes != null)
+                mNodes.addAll(b.osmNodes);
+            if (b.osmWays != null)
+                mWays.addAll(b.osmWays);
+            incomplete += b.incompleteWays;
+        }
+        if (incomplete > 0)
+            log.debug("{} ways with missing nodes", incomplete);
+
+        mBlocks.clear();
+        mNodeStore = null;
+        mWayNodes = null;
+    }
+
+    /**
+     * Tag instances of a block by pair of string table indices.
+     */
+    static final class TagTable {
+        private final String[] mStrings;
+        private long[] mKeys = new long[64];
+        private Tag[] mTags = new Tag[64];
+        private int mSize;
+
+        TagTable(String[] strings) {
+            mStrings = strings;
+        }
+
+        Tag get(int key, int value) {
+            long k = ((long) key << 32) | value;
+            int mask = mKeys.length - 1;
+            int i = hash(k) & mask;
+            while (mTags[i] != null) {
+                if (mKeys[i] == k)
+                    return mTags[i];
+                i = (i + 1) & mask;
+            }
+            Tag tag = new Tag(mStrings[key], mStrings[value]);
+            mKeys[i] = k;
+            mTags[i] = tag;
+
+            if (++mSize * 2 > mKeys.length)
+                grow();
+
+            return tag;
+        }
+
+        private void grow() {
+            long[] keys = mKeys;
+            Tag[] tags = mTags;
+            mKeys = new long[keys.length * 2];
+            mTags = new Tag[keys.length * 2];
+            int mask = mKeys.length - 1;
+            for (int j = 0; j < keys.length; j++) {
+                if (tags[j] == null)
+                    continue;
+                int i = hash(keys[j]) & mask;
+                while (mTags[i] != null)
+                    i = (i + 1) & mask;
+                mKeys[i] = keys[j];
+                mTags[i] = tags[j];
             }
-            // Handle dense info.
-            //            if (di != null) {
-            //              int uid = di.getUid(i) + lastuid; lastuid = uid;
-            //              int userSid = di.getUserSid(i) + lastuserSid; lastuserSid = userSid;
-            //              long timestamp = di.getTimestamp(i) + lasttimestamp; lasttimestamp = timestamp;
-            //              int version = di.getVersion(i);
-            //              long changeset = di.getChangeset(i) + lastchangeset; lastchangeset = changeset;
-            //
-            //              Date date = new Date(date_granularity * timestamp);
-
-            //OsmUser user;
-            //              if (uid < 0) {
-            //                user = OsmUser.NONE;
-            //              } else {
-            //                user = new OsmUser(uid, getStringById(userSid));
-            //              }
-            //
-            //              tmp = new OsmNode(id, tags, latf, lonf);
-            //            } else {
-            tmp = new OsmNode(latf, lonf, tags, id);
-
-            mNodeMap.put(Long.valueOf(id), tmp);
-
-            //            }
-
-            //sink.process(new NodeContainer(tmp));
+        }
+
+        private static int hash(long k) {
+            k *= 0x9E3779B97F4A7C15L;
+            return (int) (k ^ (k >>> 32));
         }
     }
 
-    @Override
-    protected void parseWays(List<Osmformat.Way> ways) {
-        for (Osmformat.Way i : ways) {
-            int tagCnt = i.getKeysCount();
-            TagSet tags = new TagSet(tagCnt);
+    /**
+     * Decodes one block of the file.
+     */
+    final class Block extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final String type;
+        private byte[] blob;
+
+        NodeStore.Chunk nodes;
+        ArrayList<OsmNode> osmNodes;
+
+        /* ways with unresolved node references */
+        long[] wayIds;
+        TagSet[] wayTags;
+        long[][] wayRefs;
+        int numWays;
 
-            //  List<Tag> tags = new ArrayList<Tag>();
-            for (int j = 0; j < tagCnt; j++) {
-                tags.add(new Tag(getStringById(i.getKeys(j)), getStringById(i.getVals(j))));
+        ArrayList<OsmWay> osmWays;
+        int incompleteWays;
+
+        /* reused for sink elements */
+        private MapElement mElement;
+
+        Block(String type, byte[] blob) {
+            this.type = type;
+            this.blob = blob;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                byte[] data = inflate(Fileformat.Blob.parseFrom(blob));
+                blob = null;
+
+                if ("OSMHeader".equals(type))
+                    checkHeader(Osmformat.HeaderBlock.parseFrom(data));
+                else if ("OSMData".equals(type))
+                    decode(Osmformat.PrimitiveBlock.parseFrom(data));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } catch (DataFormatException e) {
+                throw new RuntimeException(new IOException(e));
             }
-            //            List<Tag> tags = new ArrayList<Tag>();
-            //            for (int j = 0; j < ; j++) {
-            //                tags.add(new Tag(getStringById(i.getKeys(j)), getStringById(i.getVals(j))));
-            //            }
-
-            long lastId = 0;
-            List<OsmNode> nodes = new ArrayList<OsmNode>();
-            for (long j : i.getRefsList()) {
-                OsmNode n = mNodeMap.get(Long.valueOf(j + lastId));
-                if (n == null)
-                    n = new OsmNode(Double.NaN, Double.NaN, null, j + lastId);
-
-                nodes.add(n);
-                lastId = j + lastId;
+        }
+
+        private void decode(Osmformat.PrimitiveBlock block) {
+            Osmformat.StringTable table = block.getStringtable();
+            String[] strings = new String[table.getSCount()];
+            for (int i = 0; i < strings.length; i++)
+                strings[i] = table.getS(i).toStringUtf8().intern();
+
+            TagTable tags = new TagTable(strings);
+
+            /* coordinates in 1E7 degrees */
+            long granularity = block.getGranularity();
+            long latOffset = block.getLatOffset();
+            long lonOffset = block.getLonOffset();
+
+            for (Osmformat.PrimitiveGroup group : block.getPrimitivegroupList()) {
+                if (group.hasDense()) {
+                    Osmformat.DenseNodes dense = group.getDense();
+                    long id = 0, lat = 0, lon = 0;
+                    int kv = 0;
+                    for (int i = 0, n = dense.getIdCount(); i < n; i++) {
+                        id += dense.getId(i);
+                        lat += dense.getLat(i);
+                        lon += dense.getLon(i);
+
+                        TagSet tagSet = null;
+                        /* if empty, nothing here has keys or values */
+                        if (dense.getKeysValsCount() > 0) {
+                            int k;
+                            while ((k = dense.getKeysVals(kv++)) != 0) {
+                                if (tagSet == null)
+                                    tagSet = new TagSet(4);
+                                tagSet.add(tags.get(k, dense.getKeysVals(kv++)));
+                            }
+                        }
+                        addNode(id, (latOffset + granularity * lat) / 100,
+                                (lonOffset + granularity * lon) / 100, tagSet);
+                    }
+                }
+
+                for (Osmformat.Node node : group.getNodesList()) {
+                    TagSet tagSet = null;
+                    int numTags = node.getKeysCount();
+                    if (numTags > 0) {
+                        tagSet = new TagSet(numTags);
+                        for (int j = 0; j < numTags; j++)
+                            tagSet.add(tags.get(node.getKeys(j), node.getVals(j)));
+                    }
+                    addNode(node.getId(),
+                            (latOffset + granularity * node.getLat()) / 100,
+                            (lonOffset + granularity * node.getLon()) / 100, tagSet);
+                }
+
+                for (Osmformat.Way way : group.getWaysList()) {
+                    int numTags = way.getKeysCount();
+                    TagSet tagSet = new TagSet(numTags);
+                    for (int j = 0; j < numTags; j++)
+                        tagSet.add(tags.get(way.getKeys(j), way.getVals(j)));
+
+                    long[] refs = new long[way.getRefsCount()];
+                    long ref = 0;
+                    for (int j = 0; j < refs.length; j++) {
+                        ref += way.getRefs(j);
+                        refs[j] = ref;
+                    }
+                    addWay(way.getId(), tagSet, refs);
+                }
             }
+        }
 
-            long id = i.getId();
+        private void addNode(long id, long latE7, long lonE7, TagSet tags) {
+            if (nodes == null)
+                nodes = new NodeStore.Chunk();
+            nodes.add(id, (int) latE7, (int) lonE7);
 
-            // long id, int version, Date timestamp, OsmUser user,
-            // long changesetId, Collection<Tag> tags,
-            // List<WayNode> wayNodes
-            OsmWay tmp;
-            //            if (i.hasInfo()) {
-            //                Osmformat.Info info = i.getInfo();
-            //                tmp = new Way(new CommonEntityData(id, info.getVersion(), getDate(info),
-            //                        getUser(info), info.getChangeset(), tags), nodes);
-            //            } else {
-            tmp = new OsmWay(tags, id, nodes);
-            //            }
+            if (tags == null)
+                return;
 
-            mWayMap.put(Long.valueOf(id), tmp);
+            double lat = latE7 / 1E7;
+            double lon = lonE7 / 1E7;
 
-            //sink.process(new WayContainer(tmp));
+            if (mSink == null) {
+                if (osmNodes == null)
+                    osmNodes = new ArrayList<OsmNode>();
+                osmNodes.add(new OsmNode(lat, lon, tags, id));
+                return;
+            }
+
+            MapElement e = element(tags);
+            e.startPoints();
+            e.addPoint((float) lon, (float) lat);
+            process(e);
         }
-    }
 
-    @Override
-    protected void parseRelations(List<Osmformat.Relation> rels) {
-        for (Osmformat.Relation i : rels) {
-            int tagCnt = i.getKeysCount();
-            TagSet tags = new TagSet(tagCnt);
-
-            for (int j = 0; j < tagCnt; j++)
-                tags.add(new Tag(getStringById(i.getKeys(j)), getStringById(i.getVals(j))));
-
-            long id = i.getId();
-
-            long lastMid = 0;
-            List<OsmMember> nodes = new ArrayList<OsmMember>();
-            int memberCnt = i.getMemidsCount();
-
-            //            for (int j = 0; j < memberCnt; j++) {
-            //                long mid = lastMid + i.getMemids(j);
-            //                lastMid = mid;
-            //                String role = getStringById(i.getRolesSid(j));
-            //
-            //                Osmformat.Relation.MemberType t = i.getTypes(j);
-            //
-            //                if (t == Osmformat.Relation.MemberType.NODE) {
-            //                    etype = EntityType.Node;
-            //                } else if (t == Osmformat.Relation.MemberType.WAY) {
-            //                    etype = EntityType.Way;
-            //                } else if (t == Osmformat.Relation.MemberType.RELATION) {
-            //                    etype = EntityType.Relation;
-            //                } else {
-            //                    assert false; // TODO; Illegal file?
-            //                }
-            //
-            //                nodes.add(new OsmMember(mid, etype, role));
-            //            }
-
-            // long id, int version, TimestampContainer timestampContainer,
-            // OsmUser user,
-            // long changesetId, Collection<Tag> tags,
-            // List<RelationMember> members
-            OsmRelation tmp = new OsmRelation(tags, id, memberCnt);
-
-            //            if (i.hasInfo()) {
-            //                Osmformat.Info info = i.getInfo();
-            //                tmp = new Relation(new CommonEntityData(id, info.getVersion(), getDate(info),
-            //                        getUser(info), info.getChangeset(), tags), nodes);
-            //            } else {
-            //                tmp = new Relation(new CommonEntityData(id, NOVERSION, NODATE, OsmUser.NONE,
-            //                        NOCHANGESET, tags), nodes);
-            //            }
-            //            sink.process(new RelationContainer(tmp));
+        private void addWay(long id, TagSet tags, long[] refs) {
+            if (wayIds == null) {
+                wayIds = new long[64];
+                wayTags = new TagSet[64];
+                wayRefs = new long[64][];
+            } else if (numWays == wayIds.length) {
+                wayIds = Arrays.copyOf(wayIds, numWays * 2);
+                wayTags = Arrays.copyOf(wayTags, numWays * 2);
+                wayRefs = Arrays.copyOf(wayRefs, numWays * 2);
+            }
+            wayIds[numWays] = id;
+            wayTags[numWays] = tags;
+            wayRefs[numWays] = refs;
+            numWays++;
         }
-    }
 
-    @Override
-    public void parse(Osmformat.HeaderBlock block) {
-        for (String s : block.getRequiredFeaturesList()) {
-            if (s.equals("OsmSchema-V0.6")) {
-                continue; // We can parse this.
+        /**
+         * Called when all nodes are in mNodeStore.
+         */
+        void resolveWays() {
+            NodeStore store = mNodeStore;
+
+            if (mSink == null)
+                osmWays = new ArrayList<OsmWay>(numWays);
+
+            for (int i = 0; i < numWays; i++) {
+                long[] refs = wayRefs[i];
+
+                if (mSink == null) {
+                    List<OsmNode> wayNodes = new ArrayList<OsmNode>(refs.length);
+                    for (long ref : refs) {
+                        int idx = store.indexOf(ref);
+                        if (idx >= 0)
+                            wayNodes.add(wayNode(idx, ref));
+                    }
+                    if (wayNodes.size() < refs.length)
+                        incompleteWays++;
+                    if (wayNodes.size() >= 2)
+                        osmWays.add(new OsmWay(wayTags[i], wayIds[i], wayNodes));
+                } else {
+                    MapElement e = element(wayTags[i]);
+                    boolean closed = refs.length > 3 && refs[0] == refs[refs.length - 1];
+                    if (closed && isArea(wayTags[i]))
+                        e.startPolygon();
+                    else
+                        e.startLine();
+
+                    /* polygons are implicitly closed */
+                    int n = e.isPoly() ? refs.length - 1 : refs.length;
+                    for (int j = 0; j < n; j++) {
+                        int idx = store.indexOf(refs[j]);
+                        if (idx >= 0)
+                            e.addPoint((float) store.getLon(idx), (float) store.getLat(idx));
+                    }
+                    if (e.getNumPoints() < n)
+                        incompleteWays++;
+                    if (e.getNumPoints() >= 2)
+                        process(e);
+                }
+                wayRefs[i] = null;
+                wayTags[i] = null;
             }
-            if (s.equals("DenseNodes")) {
-                continue; // We can parse this.
+            wayIds = null;
+            wayTags = null;
+            wayRefs = null;
+        }
+
+        /**
+         * @return the shared node at 'index' of mNodeStore.
+         */
+        private OsmNode wayNode(int index, long id) {
+            OsmNode node = mWayNodes.get(index);
+            if (node != null)
+                return node;
+
+            node = new OsmNode(mNodeStore.getLat(index), mNodeStore.getLon(index), mNoTags, id);
+            if (mWayNodes.compareAndSet(index, null, node))
+                return node;
+
+            return mWayNodes.get(index);
+        }
+
+        private MapElement element(TagSet tags) {
+            if (mElement == null)
+                mElement = new MapElement();
+
+            MapElement e = mElement.clear();
+            e.tags.clear();
+            for (int i = 0; i < tags.numTags; i++)
+                e.tags.add(tags.tags[i]);
+            return e;
+        }
+
+        private void process(MapElement e) {
+            synchronized (mSink) {
+                mSink.process(e);
             }
-            throw new RuntimeException("File requires unknown feature: " + s);
         }
+    }
 
-        //        if (block.hasBbox()) {
-        //            String source = OsmosisConstants.VERSION;
-        //            if (block.hasSource()) {
-        //                source = block.getSource();
-        //            }
-        //
-        //            double multiplier = .000000001;
-        //            double rightf = block.getBbox().getRight() * multiplier;
-        //            double leftf = block.getBbox().getLeft() * multiplier;
-        //            double topf = block.getBbox().getTop() * multiplier;
-        //            double bottomf = block.getBbox().getBottom() * multiplier;
-        //
-        //            Bound bounds = new Bound(rightf, leftf, topf, bottomf, source);
-        //            sink.process(new BoundContainer(bounds));
-        //        }
+    /**
+     * Closed ways are areas unless they are highways or barriers, or
+     * explicitly tagged.
+     */
+    static boolean isArea(TagSet tags) {
+        String area = tags.getValue("area");
+        if (area != null)
+            return !Tag.VALUE_NO.equals(area);
+
+        return !tags.containsKey(Tag.KEY_HIGHWAY) && !tags.containsKey("barrier");
     }
 
-    public OsmData getData() {
+    static byte[] inflate(Fileformat.Blob blob) throws DataFormatException, IOException {
+        if (blob.hasRaw())
+            return blob.getRaw().toByteArray();
+
+        if (!blob.hasZlibData())
+            throw new IOException("unsupported blob compression");
+
+        byte[] data = new byte[blob.getRawSize()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob.getZlibData().toByteArray());
+            inflater.inflate(data);
+            if (!inflater.finished())
+                throw new DataFormatException("blob larger than raw size");
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
 
-        //        for (Entry<OsmRelation, List<TmpRelation>> entry : relationMembersForRelation
-        //                .entrySet()) {
-        //
-        //            OsmRelation relation = entry.getKey();
-        //
-        //            for (TmpRelation member : entry.getValue()) {
-        //
-        //                OsmElement memberObject = null;
-        //
-        //                if ("node".equals(member)) {
-        //                    memberObject = nodesById.get(member.id);
-        //                } else if ("way".equals(member)) {
-        //                    memberObject = waysById.get(member.id);
-        //                } else if ("relation".equals(member)) {
-        //                    memberObject = relationsById.get(member.id);
-        //                } else {
-        //                    // log("missing relation " + member.id);
-        //                    continue;
-        //                }
-        //
-        //                if (memberObject != null) {
-        //                    OsmMember ownMember = new OsmMember(member.role,
-        //                            memberObject);
-        //
-        //                    relation.relationMembers.add(ownMember);
-        //                }
-        //            }
-        //        }
-
-        // give up references to original collections
-
-        ArrayList<OsmWay> ways = new ArrayList<OsmWay>(mWayMap.values());
-        ArrayList<OsmNode> nodes = new ArrayList<OsmNode>(mNodeMap.values());
-
-        //log.debug("nodes: " + nodes.size() + " ways: " + ways.size());
-
-        return new OsmData(null, nodes, ways, null);
+    static void checkHeader(Osmformat.HeaderBlock block) {
+        for (String s : block.getRequiredFeaturesList()) {
+            if (s.equals("OsmSchema-V0.6"))
+                continue; // We can parse this.
+            if (s.equals("DenseNodes"))
+                continue; // We can parse this.
+
+            throw new RuntimeException("File requires unknown feature: " + s);
+        }
     }
 }
@@ -1,5 +1,6 @@
 /*
  * Copyright 2013 Hannes Janetzek
+ * Copyright 2016 devemux86
  *
  * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
  *
@@ -16,11 +17,12 @@
  */
 package org.oscim.utils.osmpbf;
 
-import org.openstreetmap.osmosis.osmbinary.file.BlockInputStream;
 import org.oscim.core.osm.OsmData;
+import org.oscim.tiling.ITileDataSink;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ForkJoinPool;
 
 public class OsmPbfReader {
 
@@ -28,7 +30,7 @@ public class OsmPbfReader {
         OsmPbfParser parser = new OsmPbfParser();
 
         try {
-            (new BlockInputStream(is, parser)).process();
+            parser.parse(is);
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -37,4 +39,13 @@ public class OsmPbfReader {
 
         return parser.getData();
     }
+
+    /**
+     * Stream the elements of 'is' to 'sink' instead of keeping them, see
+     * {@link OsmPbfParser#OsmPbfParser(ITileDataSink, ForkJoinPool)}.
+     */
+    public static void process(InputStream is, ITileDataSink sink, ForkJoinPool pool)
+            throws IOException {
+        new OsmPbfParser(sink, pool).parse(is);
+    }
 }
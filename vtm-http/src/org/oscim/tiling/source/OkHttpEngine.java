@@ -88,6 +88,11 @@ public class OkHttpEngine implements HttpEngine {
         }
     }
 
+    @Override
+    public void sendRequests(Tile[] tiles, int count) throws IOException {
+        /* requests are sent one by one */
+    }
+
     @Override
     public void close() {
         if (inputStream == null)
@@ -63,11 +63,19 @@ public class VectorLayer extends AbstractVectorLayer<Drawable> {
     //private final SpatialIndex<Drawable> mDrawables = new RTree<Drawable>();
     protected final SpatialIndex<Drawable> mDrawables = new QuadTree<Drawable>(1 << 30, 18);
 
-    protected final List<Drawable> tmpDrawables = new ArrayList<Drawable>(128);
-
-    protected final JtsConverter mConverter;
-    protected double mMinX;
-    protected double mMinY;
+    /**
+     * State for processing features on one thread.
+     */
+    protected static class VectorTask extends Task {
+        public final JtsConverter converter = new JtsConverter(Tile.SIZE / UNSCALE_COORD);
+        public final List<Drawable> drawables = new ArrayList<Drawable>(128);
+
+        /**
+         * min distance of line points
+         */
+        public double minX;
+        public double minY;
+    }
 
     private static class GeometryWithStyle implements Drawable {
         final Geometry geometry;
@@ -97,7 +105,19 @@ public class VectorLayer extends AbstractVectorLayer<Drawable> {
 
     public VectorLayer(Map map) {
         super(map);
-        mConverter = new JtsConverter(Tile.SIZE / UNSCALE_COORD);
+    }
+
+    /**
+     * @param tiled render per tile and cache the tiles, see
+     *              {@link AbstractVectorLayer#AbstractVectorLayer(Map, boolean)}.
+     */
+    public VectorLayer(Map map, boolean tiled) {
+        super(map, tiled);
+    }
+
+    @Override
+    protected Task createTask() {
+        return new VectorTask();
     }
 
     private static Box bbox(Geometry geometry, Style style) {
@@ -117,8 +137,9 @@ public class VectorLayer extends AbstractVectorLayer<Drawable> {
      *
      * @param drawable
      */
-    public void add(Drawable drawable) {
+    public synchronized void add(Drawable drawable) {
         mDrawables.insert(bbox(drawable.getGeometry(), drawable.getStyle()), drawable);
+        invalidate(drawable.getGeometry());
     }
 
     /**
@@ -130,6 +151,7 @@ public class VectorLayer extends AbstractVectorLayer<Drawable> {
      */
     public synchronized void add(Geometry geometry, Style style) {
         mDrawables.insert(bbox(geometry, style), new GeometryWithStyle(geometry, style));
+        invalidate(geometry);
     }
 
     /**
@@ -139,6 +161,7 @@ public class VectorLayer extends AbstractVectorLayer<Drawable> {
      */
     public synchronized void remove(Drawable drawable) {
         mDrawables.remove(bbox(drawable.getGeometry(), drawable.getStyle()), drawable);
+        invalidate(drawable.getGeometry());
     }
 
     /**
@@ -150,13 +173,11 @@ public class VectorLayer extends AbstractVectorLayer<Drawable> {
         Drawable toRemove = null;
         Box bbox = bbox(geometry, null);
 
-        synchronized (this) {
-            tmpDrawables.clear();
-            mDrawables.search(bbox, tmpDrawables);
-            for (Drawable d : tmpDrawables) {
-                if (d.getGeometry() == geometry)
-                    toRemove = d;
-            }
+        List<Drawable> drawables = new ArrayList<Drawable>();
+        mDrawables.search(bbox, drawables);
+        for (Drawable d : drawables) {
+            if (d.getGeometry() == geometry)
+                toRemove = d;
         }
 
         if (toRemove == null) {
@@ -165,15 +186,29 @@ public class VectorLayer extends AbstractVectorLayer<Drawable> {
         }
 
         mDrawables.remove(bbox, toRemove);
+        invalidate(geometry);
         //mMap.render();
     }
 
+    /**
+     * Reload the tiles of 'geometry' in tile mode.
+     */
+    private void invalidate(Geometry geometry) {
+        if (!isTiled())
+            return;
+
+        Envelope e = geometry.getEnvelopeInternal();
+        invalidate(new Box(e.getMinX(), e.getMinY(), e.getMaxX(), e.getMaxY()));
+    }
+
     @Override
-    protected void processFeatures(Task t, Box bbox) {
+    protected void processFeatures(Task task, Box bbox) {
         //log.debug("bbox {}", bbox);
         if (Double.isNaN(bbox.xmin))
             return;
 
+        VectorTask t = (VectorTask) task;
+
         //    mEnvelope = new GeomBuilder()
         //        .point(bbox.xmin, bbox.ymin)
         //        .point(bbox.xmin, bbox.ymax)
@@ -183,32 +218,41 @@ public class VectorLayer extends AbstractVectorLayer<Drawable> {
         //        .toPolygon();
 
         /* reduce lines points min distance */
-        mMinX = ((bbox.xmax - bbox.xmin) / mMap.getWidth());
-        mMinY = ((bbox.ymax - bbox.ymin) / mMap.getHeight());
+        if (isTiled()) {
+            double size = Tile.SIZE * (1 + 2 * CLIP_BUFFER);
+            t.minX = ((bbox.xmax - bbox.xmin) / size);
+            t.minY = ((bbox.ymax - bbox.ymin) / size);
+        } else {
+            t.minX = ((bbox.xmax - bbox.xmin) / mMap.getWidth());
+            t.minY = ((bbox.ymax - bbox.ymin) / mMap.getHeight());
+        }
 
-        mConverter.setPosition(t.position.x, t.position.y, t.position.scale);
+        t.converter.setPosition(t.position.x, t.position.y, t.position.scale);
 
         bbox.scale(1E6);
 
         int level = 0;
         Style lastStyle = null;
 
-        /* go through features, find the matching style and draw */
+        /* only the search needs to be in sync with add and remove,
+         * tiles are drawn by several threads */
         synchronized (this) {
-            tmpDrawables.clear();
-            mDrawables.search(bbox, tmpDrawables);
-            // TODO sort by some order...
+            t.drawables.clear();
+            mDrawables.search(bbox, t.drawables);
+        }
+        // TODO sort by some order...
 
-            for (Drawable d : tmpDrawables) {
-                Style style = d.getStyle();
-                draw(t, level, d, style);
+        /* go through features, find the matching style and draw */
+        for (Drawable d : t.drawables) {
+            Style style = d.getStyle();
+            draw(t, level, d, style);
 
-                if (style != lastStyle)
-                    level += 2;
+            if (style != lastStyle)
+                level += 2;
 
-                lastStyle = style;
-            }
+            lastStyle = style;
         }
+        t.drawables.clear();
     }
 
     protected void draw(Task task, int level, Drawable d, Style style) {
@@ -238,13 +282,13 @@ public class VectorLayer extends AbstractVectorLayer<Drawable> {
 
         for (int i = 0; i < points.getNumGeometries(); i++) {
             Point p = (Point) points.getGeometryN(i);
-            addCircle(mGeom.clear(), t.position, p.getX(), p.getY(), style);
+            addCircle(t.geom.clear(), t.position, p.getX(), p.getY(), style);
 
-            if (!mClipper.clip(mGeom))
+            if (!t.clipper.clip(t.geom))
                 continue;
 
-            mesh.addConvexMesh(mGeom);
-            ll.addLine(mGeom);
+            mesh.addConvexMesh(t.geom);
+            ll.addLine(t.geom);
         }
     }
 
@@ -274,17 +318,17 @@ public class VectorLayer extends AbstractVectorLayer<Drawable> {
         }
 
         if (style.generalization != Style.GENERALIZATION_NONE) {
-            line = DouglasPeuckerSimplifier.simplify(line, mMinX * style.generalization);
+            line = DouglasPeuckerSimplifier.simplify(line, ((VectorTask) t).minX * style.generalization);
         }
 
         //line = line.intersection(mEnvelope);
 
         for (int i = 0; i < line.getNumGeometries(); i++) {
-            mConverter.transformLineString(mGeom.clear(), (LineString) line.getGeometryN(i));
-            if (!mClipper.clip(mGeom))
+            ((VectorTask) t).converter.transformLineString(t.geom.clear(), (LineString) line.getGeometryN(i));
+            if (!t.clipper.clip(t.geom))
                 continue;
 
-            ll.addLine(mGeom);
+            ll.addLine(t.geom);
         }
     }
 
@@ -302,22 +346,22 @@ public class VectorLayer extends AbstractVectorLayer<Drawable> {
         }
 
         if (style.generalization != Style.GENERALIZATION_NONE) {
-            polygon = DouglasPeuckerSimplifier.simplify(polygon, mMinX * style.generalization);
+            polygon = DouglasPeuckerSimplifier.simplify(polygon, ((VectorTask) t).minX * style.generalization);
         }
 
         // if (polygon.isRectangle())
 
         for (int i = 0; i < polygon.getNumGeometries(); i++) {
-            mConverter.transformPolygon(mGeom.clear(), (Polygon) polygon.getGeometryN(i));
+            ((VectorTask) t).converter.transformPolygon(t.geom.clear(), (Polygon) polygon.getGeometryN(i));
 
-            if (mGeom.getNumPoints() < 3)
+            if (t.geom.getNumPoints() < 3)
                 continue;
 
-            if (!mClipper.clip(mGeom))
+            if (!t.clipper.clip(t.geom))
                 continue;
 
-            mesh.addMesh(mGeom);
-            ll.addLine(mGeom);
+            mesh.addMesh(t.geom);
+            ll.addLine(t.geom);
         }
     }
 
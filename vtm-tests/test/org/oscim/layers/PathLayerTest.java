@@ -0,0 +1,98 @@
+package org.oscim.layers;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.oscim.core.GeoPoint;
+import org.oscim.core.MapPosition;
+import org.oscim.map.Map;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+
+public class PathLayerTest {
+
+    private static final double LAT = 52.5;
+    private static final double LON = 13.4;
+
+    private Map mockMap;
+    private final MapPosition position = new MapPosition();
+
+    @Before
+    public void setUp() {
+        mockMap = Mockito.mock(Map.class);
+        when(mockMap.getMapPosition(any(MapPosition.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                ((MapPosition) invocation.getArguments()[0]).copy(position);
+                return true;
+            }
+        });
+        position.setPosition(LAT, LON);
+    }
+
+    /**
+     * Zigzag track with about 10m between points.
+     */
+    private static List<GeoPoint> track(int count, double offset) {
+        List<GeoPoint> points = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            points.add(new GeoPoint(LAT + offset + (i % 2) * 0.0001, LON + i * 0.0001));
+        return points;
+    }
+
+    private static int update(PathLayer layer) {
+        PathLayer.Task task = new PathLayer.Task();
+        layer.mWorker.doWork(task);
+        return task.bucket.getNumVertices();
+    }
+
+    @Test
+    public void shouldAppendPointsLikeFullUpdate() {
+        position.setZoomLevel(17);
+        List<GeoPoint> points = track(3000, 0);
+
+        PathLayer layer = new PathLayer(mockMap, 0xff000000);
+        layer.setIncremental(true);
+        for (int i = 0; i < points.size(); i += 500) {
+            layer.addPoints(points.subList(i, i + 500));
+            update(layer);
+        }
+
+        PathLayer full = new PathLayer(mockMap, 0xff000000);
+        full.setPoints(points);
+
+        int vertices = update(full);
+        assertThat(vertices).isGreaterThan(0);
+        assertThat(update(layer)).isEqualTo(vertices);
+
+        /* replaced points */
+        points = track(2000, 0.001);
+        layer.setPoints(points);
+        full.setPoints(points);
+        assertThat(update(layer)).isEqualTo(update(full));
+    }
+
+    @Test
+    public void shouldSimplifyAtLowZoomLevels() {
+        position.setZoomLevel(8);
+        List<GeoPoint> points = track(3000, 0);
+
+        PathLayer layer = new PathLayer(mockMap, 0xff000000);
+        layer.setIncremental(true);
+        layer.addPoints(points);
+
+        PathLayer full = new PathLayer(mockMap, 0xff000000);
+        full.setPoints(points);
+
+        int vertices = update(layer);
+        assertThat(vertices).isGreaterThan(0);
+        assertThat(vertices).isLessThan(update(full));
+    }
+}
@@ -0,0 +1,141 @@
+package org.oscim.layers.tile;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.oscim.layers.tile.MapTile.State.CANCEL;
+import static org.oscim.layers.tile.MapTile.State.LOADING;
+import static org.oscim.layers.tile.MapTile.State.NONE;
+
+public class JobQueueTest {
+    private JobQueue queue;
+    private MapTile[] tiles;
+
+    @Before
+    public void setUp() throws Exception {
+        queue = new JobQueue();
+        tiles = new MapTile[100];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new MapTile(null, i, 0, 10);
+            tiles[i].distance = (i * 37) % 101;
+            tiles[i].setState(LOADING);
+        }
+    }
+
+    @Test
+    public void shouldPollByDistance() throws Exception {
+        queue.setJobs(tiles);
+        assertThat(queue.size()).isEqualTo(tiles.length);
+
+        float prev = -1;
+        MapTile t;
+        while ((t = queue.poll()) != null) {
+            assertThat(t.distance).isGreaterThanOrEqualTo(prev);
+            prev = t.distance;
+        }
+        assertThat(queue.isEmpty()).isTrue();
+        assertThat(queue.running()).isEqualTo(tiles.length);
+    }
+
+    @Test
+    public void shouldKeepRequestedJobs() throws Exception {
+        queue.setJobs(tiles);
+
+        /* request only the first half, with new priorities */
+        MapTile[] half = new MapTile[50];
+        for (int i = 0; i < half.length; i++) {
+            half[i] = tiles[i];
+            half[i].distance = 50 - i;
+        }
+        queue.setJobs(half);
+
+        assertThat(queue.size()).isEqualTo(50);
+        assertThat(tiles[0].state(LOADING)).isTrue();
+        assertThat(tiles[99].state(NONE)).isTrue();
+        assertThat(queue.poll()).isSameAs(tiles[49]);
+    }
+
+    @Test
+    public void shouldKeepOrderWhenDistanceChanges() throws Exception {
+        queue.setJobs(tiles);
+
+        /* distances of queued tiles are updated by the TileManager */
+        for (MapTile t : tiles)
+            t.distance = 100 - t.distance;
+
+        float prev = -1;
+        MapTile t;
+        while ((t = queue.poll()) != null) {
+            float distance = 100 - t.distance;
+            assertThat(distance).isGreaterThanOrEqualTo(prev);
+            assertThat(t.jobPriority).isEqualTo(Float.floatToIntBits(distance));
+            prev = distance;
+        }
+    }
+
+    @Test
+    public void shouldPollByPrefetchStepThenDistance() throws Exception {
+        /* distances which are not distinct when added to a large
+         * offset per step */
+        for (MapTile t : tiles) {
+            t.prefetchStep = t.tileX % 4;
+            t.distance = (t.tileX * 7) % 13 + (1 << 20) * (t.tileX % 3);
+        }
+        queue.setJobs(tiles);
+
+        MapTile prev = null;
+        MapTile t;
+        while ((t = queue.poll()) != null) {
+            if (prev != null) {
+                assertThat(t.prefetchStep).isGreaterThanOrEqualTo(prev.prefetchStep);
+                if (t.prefetchStep == prev.prefetchStep)
+                    assertThat(t.distance).isGreaterThanOrEqualTo(prev.distance);
+            }
+            prev = t;
+        }
+        assertThat(prev.prefetchStep).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldIgnoreDuplicates() throws Exception {
+        queue.setJobs(new MapTile[]{tiles[0], tiles[1], tiles[0]});
+        assertThat(queue.size()).isEqualTo(2);
+
+        queue.setJobs(new MapTile[]{tiles[1], tiles[0]});
+        assertThat(queue.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldCancelRunningJobs() throws Exception {
+        queue.setJobs(new MapTile[]{tiles[0], tiles[1]});
+        MapTile a = queue.poll();
+        MapTile b = queue.poll();
+
+        /* running job 'a' is still requested and not queued again */
+        queue.setJobs(new MapTile[]{a});
+        assertThat(queue.isEmpty()).isTrue();
+        assertThat(a.state(LOADING)).isTrue();
+        assertThat(b.state(CANCEL)).isTrue();
+
+        queue.completed(a);
+        queue.completed(b);
+        assertThat(queue.running()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldResetClearedJobs() throws Exception {
+        queue.setJobs(tiles);
+        queue.poll();
+        queue.clear();
+
+        assertThat(queue.isEmpty()).isTrue();
+        assertThat(queue.running()).isEqualTo(1);
+        int loading = 0;
+        for (MapTile t : tiles) {
+            if (t.state(LOADING))
+                loading++;
+        }
+        assertThat(loading).isEqualTo(1);
+    }
+}
@@ -0,0 +1,63 @@
+package org.oscim.layers.tile;
+
+import org.junit.Test;
+import org.oscim.backend.canvas.Color;
+import org.oscim.layers.tile.vector.labeling.LabelTileData;
+import org.oscim.renderer.bucket.LineBucket;
+import org.oscim.renderer.bucket.RenderBuckets;
+import org.oscim.renderer.bucket.TextItem;
+import org.oscim.theme.styles.LineStyle;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TileCacheSizeTest {
+
+    @Test
+    public void shouldSumSizeOfTileData() {
+        MapTile tile = new MapTile(null, 0, 0, 0);
+        assertThat(tile.getDataSize()).isEqualTo(0);
+
+        RenderBuckets buckets = new RenderBuckets();
+        LineBucket lb = buckets.addLineBucket(0, new LineStyle(Color.BLACK, 2));
+        lb.addLine(new float[]{0, 0, 100, 0, 100, 100}, 6, false);
+        tile.data = buckets;
+
+        int size = buckets.getSize();
+        assertThat(size).isEqualTo(buckets.countVboSize() * 2);
+        assertThat(size).isGreaterThan(0);
+        assertThat(tile.getDataSize()).isEqualTo(size);
+
+        LabelTileData labels = new LabelTileData();
+        labels.labels.push(TextItem.pool.get());
+        labels.labels.push(TextItem.pool.get());
+        tile.addData(this, labels);
+
+        assertThat(labels.getSize()).isGreaterThan(0);
+        assertThat(tile.getDataSize()).isEqualTo(size + labels.getSize());
+
+        buckets.clear();
+    }
+
+    @Test
+    public void shouldRemoveLeastRecentlyVisibleTilesFirst() {
+        MapTile recent = new MapTile(null, 1, 0, 10);
+        MapTile old = new MapTile(null, 2, 0, 10);
+        MapTile visible = new MapTile(null, 0, 0, 10);
+        recent.distance = 8;
+        recent.lastUpdate = 100;
+        old.distance = 4;
+        old.lastUpdate = 0;
+        visible.distance = 0;
+        visible.lastUpdate = 100;
+
+        MapTile[] tiles = {old, visible, null, recent};
+        TileManager.addAge(tiles, tiles.length, 100);
+        TileDistanceSort.sortByEviction(tiles, 0, tiles.length);
+
+        /* tiles at the end are removed first */
+        assertThat(tiles).containsExactly(visible, recent, old, null);
+
+        /* the distance used to order jobs is not changed */
+        assertThat(old.distance).isEqualTo(4);
+    }
+}
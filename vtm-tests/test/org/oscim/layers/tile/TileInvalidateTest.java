@@ -0,0 +1,39 @@
+package org.oscim.layers.tile;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.oscim.core.Box;
+import org.oscim.map.Map;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.oscim.layers.tile.MapTile.State.LOADING;
+import static org.oscim.layers.tile.MapTile.State.NEW_DATA;
+
+public class TileInvalidateTest {
+
+    @Test
+    public void shouldRemoveOnlyTilesInBox() {
+        TileManager manager = new TileManager(Mockito.mock(Map.class), 10);
+        assertThat(manager.invalidate(new Box(0, 0, 1, 1), 0)).isFalse();
+        manager.init();
+
+        for (int x = 0; x < 4; x++)
+            manager.addTile(x, 0, 2).setState(NEW_DATA);
+        MapTile loading = manager.addTile(0, 1, 2);
+
+        /* tile 1,0 and its clip buffer of tile 2,0 */
+        Box box = new Box(0.3, 0.1, 0.49, 0.2);
+        assertThat(manager.invalidate(box, 1 / 8.0)).isTrue();
+
+        assertThat(manager.getTile(0, 0, 2)).isNotNull();
+        assertThat(manager.getTile(1, 0, 2)).isNull();
+        assertThat(manager.getTile(2, 0, 2)).isNull();
+        assertThat(manager.getTile(3, 0, 2)).isNotNull();
+        assertThat(manager.getCacheCount()).isEqualTo(3);
+
+        /* queued job loads the new data */
+        manager.invalidate(new Box(0, 0.25, 0.25, 0.5), 0);
+        assertThat(manager.getTile(0, 1, 2)).isSameAs(loading);
+        assertThat(loading.state(LOADING)).isTrue();
+    }
+}
@@ -0,0 +1,69 @@
+package org.oscim.layers.tile;
+
+import org.junit.Test;
+import org.oscim.layers.tile.TileMetrics.Histogram;
+import org.oscim.layers.tile.TileMetrics.Trace;
+import org.oscim.tiling.QueryResult;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TileMetricsTest {
+
+    @Test
+    public void histogramShouldBoundPercentiles() throws Exception {
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 100; i++)
+            h.add(i * 1000);
+
+        assertThat(h.getCount()).isEqualTo(100);
+        assertThat(h.getMean()).isEqualTo(50500);
+        assertThat(h.getMax()).isEqualTo(100000);
+
+        /* percentiles are rounded up to the next power of two */
+        long p50 = h.getPercentile(0.5);
+        assertThat(p50).isGreaterThanOrEqualTo(50000).isLessThan(2 * 50000);
+        assertThat(h.getPercentile(1)).isEqualTo(100000);
+
+        h.reset();
+        assertThat(h.getCount()).isEqualTo(0);
+        assertThat(h.getPercentile(0.5)).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldAggregateTraces() throws Exception {
+        TileMetrics metrics = new TileMetrics();
+        final int[] loaded = new int[1];
+        metrics.setListener(new TileMetrics.Listener() {
+            @Override
+            public void onTileLoaded(MapTile tile, Trace trace) {
+                loaded[0]++;
+            }
+
+            @Override
+            public void onTileUploaded(MapTile tile, long nanos, int bytes) {
+            }
+        });
+
+        MapTile tile = new MapTile(null, 0, 0, 0);
+        tile.queueTime = System.nanoTime() - 1000000;
+
+        Trace trace = new Trace();
+        trace.start(tile);
+        trace.add(TileMetrics.THEME, 10);
+        trace.elements = 5;
+        trace.skipped = 2;
+        trace.finish(QueryResult.SUCCESS);
+        metrics.tileLoaded(tile, trace);
+
+        trace.start(tile);
+        trace.finish(QueryResult.FAILED);
+        metrics.tileLoaded(tile, trace);
+
+        assertThat(loaded[0]).isEqualTo(2);
+        assertThat(metrics.getFailed()).isEqualTo(1);
+        assertThat(metrics.getStage(TileMetrics.QUEUE).getMax()).isGreaterThanOrEqualTo(1000000);
+        assertThat(metrics.getStage(TileMetrics.THEME).getTotal()).isEqualTo(10);
+        assertThat(metrics.getElements().getTotal()).isEqualTo(5);
+        assertThat(metrics.getSkipped().getTotal()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,106 @@
+package org.oscim.layers.tile;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.oscim.core.MapPosition;
+import org.oscim.map.Animator;
+import org.oscim.map.AnimatorTest;
+import org.oscim.map.Map;
+import org.oscim.map.ViewController;
+import org.oscim.utils.ThreadUtils;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyFloat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+public class TilePrefetchTest {
+    private static final int ZOOM = 10;
+
+    private MapPosition pos;
+    private Map map;
+
+    @Before
+    public void setUp() throws Exception {
+        ThreadUtils.init();
+
+        /* no parent tiles are loaded at this scale */
+        pos = new MapPosition();
+        pos.set(0.5 + 0.1 / (1 << ZOOM), 0.5, 1.6 * (1 << ZOOM), 0, 0);
+        map = AnimatorTest.mockMap(pos);
+        ViewController viewport = map.viewport();
+
+        /* 4000x3000 screen */
+        when(map.getWidth()).thenReturn(4000);
+        when(map.getHeight()).thenReturn(3000);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                float[] box = (float[]) invocation.getArguments()[0];
+                float add = (Float) invocation.getArguments()[1];
+                float w = 2000 + add;
+                float h = 1500 + add;
+                float[] corners = {w, -h, -w, -h, -w, h, w, h};
+                System.arraycopy(corners, 0, box, 0, 8);
+                return null;
+            }
+        }).when(viewport).getMapExtents(any(float[].class), anyFloat());
+
+        when(map.animator()).thenReturn(new Animator(map));
+    }
+
+    @Test
+    public void shouldPollVisibleTilesFirst() {
+        /* move three tiles to the right */
+        MapPosition end = new MapPosition();
+        end.set(pos.x + 3.0 / (1 << ZOOM), pos.y, pos.scale, 0, 0);
+        map.animator().animateTo(100000, end);
+
+        /* small cache, so that update() also updates the distances
+         * of all cached tiles while the jobs are queued */
+        TileManager manager = new TileManager(map, 10);
+        manager.update(pos);
+
+        TileSet visible = new TileSet();
+        manager.getActiveTiles(visible);
+        assertThat(visible.cnt).isGreaterThan(0);
+
+        int maxVisible = 0;
+        for (int i = 0; i < visible.cnt; i++)
+            maxVisible = Math.max(maxVisible, visible.tiles[i].tileX);
+
+        assertThat(manager.numTileJobs()).isGreaterThan(visible.cnt);
+
+        /* visible tiles first, then the tiles of each prefetch step */
+        int column = maxVisible;
+        for (int i = 0; manager.hasTileJobs(); i++) {
+            MapTile t = manager.getTileJob();
+            assertThat((int) t.zoomLevel).isEqualTo(ZOOM);
+            if (i < visible.cnt) {
+                assertThat(t.tileX).isLessThanOrEqualTo(maxVisible);
+            } else {
+                assertThat(t.tileX).isGreaterThanOrEqualTo(Math.max(column, maxVisible + 1));
+                column = t.tileX;
+            }
+        }
+        assertThat(column).isEqualTo(maxVisible + 3);
+    }
+
+    @Test
+    public void shouldNotPrefetchWhenDisabled() {
+        MapPosition end = new MapPosition();
+        end.set(pos.x + 3.0 / (1 << ZOOM), pos.y, pos.scale, 0, 0);
+        map.animator().animateTo(100000, end);
+
+        TileManager manager = new TileManager(map, 100);
+        manager.setPrefetch(false, false);
+        manager.update(pos);
+
+        TileSet visible = new TileSet();
+        manager.getActiveTiles(visible);
+        assertThat(manager.numTileJobs()).isEqualTo(visible.cnt);
+    }
+}
@@ -0,0 +1,193 @@
+package org.oscim.layers.tile.vector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.oscim.core.MapElement;
+import org.oscim.core.Tag;
+import org.oscim.core.Tile;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.layers.tile.TileMetrics;
+import org.oscim.renderer.bucket.CompiledBuckets;
+import org.oscim.renderer.bucket.RenderBucket;
+import org.oscim.theme.RenderTheme;
+import org.oscim.theme.rule.Rule;
+import org.oscim.theme.rule.RuleBuilder;
+import org.oscim.theme.styles.LineStyle;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.ITileDataSource;
+import org.oscim.tiling.QueryResult;
+import org.oscim.tiling.TileSource;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class VectorTileBatchTest {
+
+    private final AtomicInteger mCreated = new AtomicInteger();
+    private final AtomicInteger mDisposed = new AtomicInteger();
+
+    private RenderTheme mTheme;
+
+    /**
+     * Returns a diagonal road for each tile, fails for tiles with x == failX.
+     */
+    class TestTileSource extends TileSource {
+        final int failX;
+
+        TestTileSource(int failX) {
+            this.failX = failX;
+        }
+
+        @Override
+        public ITileDataSource getDataSource() {
+            mCreated.incrementAndGet();
+            return new ITileDataSource() {
+                final MapElement mElement = new MapElement();
+
+                @Override
+                public void query(MapTile tile, ITileDataSink sink) {
+                    if (tile.tileX == failX) {
+                        sink.completed(QueryResult.FAILED);
+                        return;
+                    }
+                    mElement.clear();
+                    mElement.tags.clear();
+                    mElement.tags.add(new Tag("highway", "primary"));
+                    mElement.startLine();
+                    mElement.addPoint(0, 0);
+                    mElement.addPoint(Tile.SIZE / 2, Tile.SIZE / 3);
+                    mElement.addPoint(Tile.SIZE, Tile.SIZE);
+                    sink.process(mElement);
+                    sink.completed(QueryResult.SUCCESS);
+                }
+
+                @Override
+                public void dispose() {
+                    mDisposed.incrementAndGet();
+                }
+
+                @Override
+                public void cancel() {
+                }
+            };
+        }
+
+        @Override
+        public OpenResult open() {
+            return OpenResult.SUCCESS;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        int[] level = {0};
+        Rule[] rules = {RuleBuilder.create("highway", "primary")
+                .addStyle(new LineStyle(0, 0xff000000, 2))
+                .onComplete(level)};
+        mTheme = new RenderTheme(0, 1, rules, level[0]);
+    }
+
+    @After
+    public void tearDown() {
+        mTheme.dispose();
+    }
+
+    @Test
+    public void shouldCompileEachTileOfRange() throws Exception {
+        VectorTileBatch batch = new VectorTileBatch(new TestTileSource(-1), mTheme, 4);
+        final ConcurrentMap<Long, CompiledBuckets> result = new ConcurrentHashMap<>();
+
+        int loaded = batch.run(12, 100, 200, 109, 205, new VectorTileBatch.TileHandler() {
+            @Override
+            public void onTile(MapTile tile, CompiledBuckets buckets) {
+                assertThat(tile.state(MapTile.State.LOADING)).isTrue();
+                result.put((long) tile.tileX << 32 | tile.tileY, buckets);
+            }
+        });
+        batch.dispose();
+
+        assertThat(loaded).isEqualTo(60);
+        assertThat(result).hasSize(60);
+
+        Set<Long> keys = result.keySet();
+        assertThat(keys).contains(100L << 32 | 200, 109L << 32 | 205);
+
+        CompiledBuckets first = result.get(100L << 32 | 200);
+        for (CompiledBuckets b : result.values()) {
+            assertThat(b.size()).isEqualTo(1);
+            assertThat(b.getType(0)).isEqualTo(RenderBucket.LINE);
+            assertThat(b.getNumVertices(0)).isGreaterThan(0);
+            assertThat(b.vertices).isEqualTo(first.vertices);
+        }
+        assertThat(mDisposed.get()).isEqualTo(mCreated.get());
+    }
+
+    @Test
+    public void shouldSerializeCompiledBuckets() throws Exception {
+        VectorTileBatch batch = new VectorTileBatch(new TestTileSource(-1), mTheme, 1);
+        batch.setAddFill(true);
+        final CompiledBuckets[] result = new CompiledBuckets[1];
+
+        batch.run(10, 5, 5, 5, 5, new VectorTileBatch.TileHandler() {
+            @Override
+            public void onTile(MapTile tile, CompiledBuckets buckets) {
+                result[0] = buckets;
+            }
+        });
+        batch.dispose();
+
+        CompiledBuckets b = result[0];
+        /* fill coordinates come before the line vertices */
+        assertThat(b.lineOffset).isEqualTo(8 * 2);
+        assertThat(b.vertices.length).isEqualTo(8 + b.getNumVertices(0) * 4);
+
+        CompiledBuckets copy = CompiledBuckets.fromByteArray(b.toByteArray());
+        assertThat(copy.size()).isEqualTo(b.size());
+        assertThat(copy.lineOffset).isEqualTo(b.lineOffset);
+        assertThat(copy.getLevel(0)).isEqualTo(b.getLevel(0));
+        assertThat(copy.getNumVertices(0)).isEqualTo(b.getNumVertices(0));
+        assertThat(copy.vertices).isEqualTo(b.vertices);
+        assertThat(copy.indices).isEqualTo(b.indices);
+    }
+
+    @Test
+    public void shouldCountFailedTiles() throws Exception {
+        VectorTileBatch batch = new VectorTileBatch(new TestTileSource(3), mTheme, 2);
+        TileMetrics metrics = new TileMetrics();
+        batch.setMetrics(metrics);
+        final AtomicInteger handled = new AtomicInteger();
+
+        int loaded = batch.run(8, 0, 0, 7, 3, new VectorTileBatch.TileHandler() {
+            @Override
+            public void onTile(MapTile tile, CompiledBuckets buckets) {
+                assertThat(tile.tileX).isNotEqualTo(3);
+                handled.incrementAndGet();
+            }
+        });
+        batch.dispose();
+
+        assertThat(loaded).isEqualTo(28);
+        assertThat(handled.get()).isEqualTo(28);
+        assertThat(metrics.getFailed()).isEqualTo(4);
+        assertThat(metrics.getElements().getCount()).isEqualTo(28);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidRange() throws Exception {
+        VectorTileBatch batch = new VectorTileBatch(new TestTileSource(-1), mTheme, 1);
+        try {
+            batch.run(2, 0, 0, 4, 1, null);
+        } finally {
+            batch.dispose();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.oscim.layers.tile.vector.labeling;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.oscim.utils.geom.OBB2D;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class LabelGridTest {
+
+    private static final float RADIUS = 1000;
+
+    private LabelGrid mGrid;
+
+    @Before
+    public void setUp() {
+        mGrid = new LabelGrid();
+        mGrid.init(RADIUS);
+    }
+
+    private Label wayLabel(Random random, float range) {
+        Label l = new Label();
+        l.x = (random.nextFloat() * 2 - 1) * range;
+        l.y = (random.nextFloat() * 2 - 1) * range;
+        float dx = 10 + random.nextFloat() * 100;
+        float dy = (random.nextFloat() * 2 - 1) * 100;
+        l.x1 = l.x - dx;
+        l.y1 = l.y - dy;
+        l.x2 = l.x + dx;
+        l.y2 = l.y + dy;
+        l.bbox = new OBB2D(l.x, l.y, l.x1, l.y1, 2 * dx + 3, 15);
+        return l;
+    }
+
+    private List<Label> query(OBB2D bbox) {
+        List<Label> result = new ArrayList<>();
+        int n = mGrid.query(bbox.vec);
+        mGrid.sort(n);
+        for (int i = 0; i < n; i++)
+            result.add(mGrid.get(i));
+        return result;
+    }
+
+    @Test
+    public void shouldFindAllOverlapsInListOrder() {
+        Random random = new Random(1);
+        List<Label> labels = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Label l = wayLabel(random, RADIUS * 1.2f);
+            mGrid.insert(l);
+            labels.add(0, l);
+        }
+
+        for (int q = 0; q < 200; q++) {
+            Label l = wayLabel(random, RADIUS * 1.2f);
+            List<Label> candidates = query(l.bbox);
+
+            /* same order as the label list, which is a subset */
+            int prev = -1;
+            for (Label c : candidates) {
+                int pos = labels.indexOf(c);
+                assertThat(pos).isGreaterThan(prev);
+                prev = pos;
+            }
+            for (Label o : labels) {
+                if (l.bbox.overlaps(o.bbox))
+                    assertThat(candidates).contains(o);
+            }
+        }
+    }
+
+    @Test
+    public void shouldFindLabelsByEndPoints() {
+        Random random = new Random(2);
+        Label l = wayLabel(random, 0);
+        mGrid.insert(l);
+
+        int n = mGrid.query(Math.max(l.x1, l.x2), Math.max(l.y1, l.y2),
+                Math.max(l.x1, l.x2) + 1, Math.max(l.y1, l.y2) + 1);
+        assertThat(n).isEqualTo(1);
+        assertThat(mGrid.get(0)).isSameAs(l);
+    }
+
+    @Test
+    public void shouldClampLabelsOutsideOfGrid() {
+        Random random = new Random(3);
+        Label far = wayLabel(random, 0);
+        far.x += 10 * RADIUS;
+        far.x1 += 10 * RADIUS;
+        far.x2 += 10 * RADIUS;
+        far.bbox = new OBB2D(far.x, far.y, far.x1, far.y1, 20, 15);
+        mGrid.insert(far);
+
+        assertThat(query(far.bbox)).containsOnly(far);
+    }
+
+    @Test
+    public void shouldRemoveLabels() {
+        Random random = new Random(4);
+        Label a = wayLabel(random, 0);
+        Label b = wayLabel(random, 0);
+        mGrid.insert(a);
+        mGrid.insert(b);
+
+        assertThat(query(a.bbox)).containsExactly(b, a);
+
+        mGrid.remove(b);
+        assertThat(query(a.bbox)).containsExactly(a);
+
+        mGrid.init(RADIUS);
+        assertThat(query(a.bbox)).isEmpty();
+    }
+
+    @Test
+    public void shouldReturnAllLabelsForNaNBounds() {
+        Random random = new Random(5);
+        Label a = wayLabel(random, RADIUS);
+        Label b = wayLabel(random, RADIUS);
+        mGrid.insert(a);
+        mGrid.insert(b);
+
+        assertThat(mGrid.query(Float.NaN, 0, 0, 0)).isEqualTo(2);
+    }
+}
@@ -0,0 +1,214 @@
+package org.oscim.layers.tile.vector.labeling;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.oscim.backend.CanvasAdapter;
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.backend.canvas.Canvas;
+import org.oscim.backend.canvas.Paint;
+import org.oscim.theme.styles.TextStyle;
+import org.oscim.utils.geom.OBB2D;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class LabelPlacementTest {
+
+    private static final float RADIUS = 1000;
+    private static final String[] NAMES = {"a", "b", "c", "d"};
+
+    /**
+     * Canvas backend for TextStyle paints.
+     */
+    static class MockCanvasAdapter extends CanvasAdapter {
+        static void init() {
+            CanvasAdapter.init(new MockCanvasAdapter());
+        }
+
+        @Override
+        protected Canvas newCanvasImpl() {
+            return mock(Canvas.class);
+        }
+
+        @Override
+        protected Paint newPaintImpl() {
+            return mock(Paint.class);
+        }
+
+        @Override
+        protected Bitmap newBitmapImpl(int width, int height, int format) {
+            return mock(Bitmap.class);
+        }
+
+        @Override
+        protected Bitmap decodeBitmapImpl(InputStream inputStream) {
+            return null;
+        }
+
+        @Override
+        protected Bitmap decodeSvgBitmapImpl(InputStream inputStream) {
+            return null;
+        }
+
+        @Override
+        protected Bitmap loadBitmapAssetImpl(String relativePathPrefix, String src) {
+            return null;
+        }
+    }
+
+    private TextStyle[] mWayStyles;
+    private TextStyle[] mCaptionStyles;
+
+    @Before
+    public void setUp() {
+        MockCanvasAdapter.init();
+        mWayStyles = new TextStyle[]{
+                TextStyle.builder().priority(1).build(),
+                TextStyle.builder().priority(5).build()};
+        mCaptionStyles = new TextStyle[]{
+                TextStyle.builder().isCaption(true).priority(2).build(),
+                TextStyle.builder().isCaption(true).priority(8).build()};
+    }
+
+    private static float random(Random random, float range) {
+        return (random.nextFloat() * 2 - 1) * range;
+    }
+
+    /**
+     * Labels of a random pass, the same for the same seed.
+     */
+    private List<Label> labels(long seed, int count) {
+        Random random = new Random(seed);
+        List<Label> labels = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Label l = new Label();
+            l.string = NAMES[random.nextInt(NAMES.length)];
+            l.width = 20 + random.nextInt(80);
+            l.length = (short) (50 + random.nextInt(250));
+            l.active = random.nextInt(4);
+            l.x = random(random, RADIUS * 1.2f);
+            l.y = random(random, RADIUS * 1.2f);
+
+            if (random.nextInt(3) == 0) {
+                l.text = mCaptionStyles[random.nextInt(2)];
+                l.bbox = new OBB2D();
+                l.bbox.setNormalized(l.x, l.y, 1, 0, l.width + 5, 20, 0);
+
+                /* end points of captions are not set, pooled labels
+                 * keep those of their previous use */
+                l.x1 = random(random, RADIUS * 1.2f);
+                l.y1 = random(random, RADIUS * 1.2f);
+                l.x2 = l.x1 + random(random, 200);
+                l.y2 = l.y1 + random(random, 200);
+            } else {
+                l.text = mWayStyles[random.nextInt(2)];
+                float dx = l.width / 2 + random.nextFloat() * 50;
+                float dy = random(random, 50);
+                l.x1 = l.x - dx;
+                l.y1 = l.y - dy;
+                l.x2 = l.x + dx;
+                l.y2 = l.y + dy;
+                l.bbox = new OBB2D(l.x, l.y, l.x1, l.y1, l.width + 3, 18);
+            }
+            labels.add(l);
+        }
+        return labels;
+    }
+
+    /**
+     * LabelPlacement.checkOverlap() when it walked the label list.
+     */
+    private static byte checkOverlap(List<Label> placed, Label l) {
+        for (Iterator<Label> it = placed.iterator(); it.hasNext(); ) {
+            Label o = it.next();
+            if (!Label.bboxOverlaps(l, o, 100))
+                continue;
+
+            if (Label.shareText(l, o)) {
+                if (o.active <= l.active)
+                    return 1;
+                if (o.length < l.length) {
+                    it.remove();
+                    continue;
+                }
+                return 2;
+            }
+            if (l.bbox.overlaps(o.bbox)) {
+                if (o.active <= l.active)
+                    return 1;
+                if (!o.text.caption
+                        && (o.text.priority > l.text.priority
+                        || o.length < l.length)) {
+                    it.remove();
+                    continue;
+                }
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * LabelPlacement.addNodeLabels() when it walked the label list.
+     */
+    private static boolean checkCaptionOverlap(List<Label> placed, Label l) {
+        for (Iterator<Label> it = placed.iterator(); it.hasNext(); ) {
+            Label o = it.next();
+            if (!l.bbox.overlaps(o.bbox))
+                continue;
+            if (l.text.priority < o.text.priority) {
+                it.remove();
+                continue;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void shouldPlaceSameLabelsAsListWalk() {
+        for (int seed = 0; seed < 10; seed++) {
+            List<Label> walked = labels(seed, 1500);
+            List<Label> expected = new ArrayList<>();
+            for (Label l : walked) {
+                boolean overlaps = l.text.caption
+                        ? checkCaptionOverlap(expected, l)
+                        : checkOverlap(expected, l) != 0;
+                if (!overlaps)
+                    expected.add(0, l);
+            }
+
+            List<Label> labels = labels(seed, 1500);
+            LabelPlacement placement = new LabelPlacement(null, null);
+            placement.initLabels(RADIUS);
+            List<Label> added = new ArrayList<>();
+            for (Label l : labels) {
+                boolean overlaps = l.text.caption
+                        ? placement.checkCaptionOverlap(l)
+                        : placement.checkOverlap(l) != 0;
+                if (!overlaps) {
+                    placement.addLabel(l);
+                    added.add(l);
+                }
+            }
+
+            List<Integer> expectedIds = new ArrayList<>();
+            for (Label l : expected)
+                expectedIds.add(walked.indexOf(l));
+
+            List<Integer> placedIds = new ArrayList<>();
+            for (int i = added.size() - 1; i >= 0; i--) {
+                if (!added.get(i).removed)
+                    placedIds.add(labels.indexOf(added.get(i)));
+            }
+            assertThat(placedIds).isNotEmpty();
+            assertThat(placedIds).isEqualTo(expectedIds);
+        }
+    }
+}
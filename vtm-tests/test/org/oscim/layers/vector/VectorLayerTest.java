@@ -0,0 +1,327 @@
+package org.oscim.layers.vector;
+
+import com.badlogic.gdx.utils.SharedLibraryLoader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.oscim.core.Box;
+import org.oscim.core.GeometryBuffer;
+import org.oscim.core.MapPosition;
+import org.oscim.core.Tile;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.layers.tile.TileManager;
+import org.oscim.layers.tile.TileSet;
+import org.oscim.layers.vector.geometries.Drawable;
+import org.oscim.layers.vector.geometries.LineDrawable;
+import org.oscim.layers.vector.geometries.Style;
+import org.oscim.map.AnimatorTest;
+import org.oscim.map.Map;
+import org.oscim.map.ViewController;
+import org.oscim.renderer.bucket.RenderBuckets;
+import org.oscim.utils.ThreadUtils;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.offset;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyFloat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+import static org.oscim.core.MercatorProjection.toLatitude;
+import static org.oscim.core.MercatorProjection.toLongitude;
+import static org.oscim.layers.tile.MapTile.State.NEW_DATA;
+import static org.oscim.layers.tile.MapTile.State.READY;
+
+public class VectorLayerTest {
+    private static final int ZOOM = 10;
+    private static final double SIZE = 1.0 / (1 << ZOOM);
+
+    static {
+        /* native GLMatrix of the VectorTileRenderer, from vtm-desktop */
+        new SharedLibraryLoader().load("vtm-jni");
+    }
+
+    private MapPosition pos;
+    private Map map;
+    private TestLayer layer;
+    private TileManager manager;
+
+    /**
+     * Runnables posted to the main-thread, run by the test.
+     */
+    private final LinkedBlockingQueue<Runnable> posted = new LinkedBlockingQueue<>();
+
+    /**
+     * Input of processFeatures() for one tile.
+     */
+    static class Processed {
+        String tile;
+        MapPosition position = new MapPosition();
+        Box bbox;
+        float clipMin, clipMax;
+    }
+
+    static class TestLayer extends VectorLayer {
+        final List<Processed> processed = Collections.synchronizedList(new ArrayList<Processed>());
+
+        TestLayer(Map map) {
+            super(map, true);
+        }
+
+        @Override
+        protected void processFeatures(Task t, Box bbox) {
+            Processed p = new Processed();
+            p.position.copy(t.position);
+            p.tile = tile((int) Math.round(t.position.x * (1 << t.position.zoomLevel)),
+                    (int) Math.round(t.position.y * (1 << t.position.zoomLevel)));
+            p.bbox = new Box(bbox);
+
+            /* a line through the tile and far beyond */
+            GeometryBuffer g = new GeometryBuffer(4, 2);
+            g.startLine();
+            g.addPoint(-Tile.SIZE, Tile.SIZE / 2);
+            g.addPoint(2 * Tile.SIZE, Tile.SIZE / 2);
+            assertThat(t.clipper.clip(g)).isTrue();
+            p.clipMin = g.getPointX(0);
+            p.clipMax = g.getPointX(g.getNumPoints() - 1);
+            processed.add(p);
+
+            super.processFeatures(t, bbox);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ThreadUtils.init();
+
+        /* centered on tile 512/512, no parent tiles are loaded at this scale */
+        pos = new MapPosition();
+        pos.set(0.5 + SIZE / 2, 0.5 + SIZE / 2, 1.6 * (1 << ZOOM), 0, 0);
+        map = AnimatorTest.mockMap(pos);
+        when(map.getMapPosition()).thenReturn(pos);
+        ViewController viewport = map.viewport();
+
+        /* 1200x300 screen, a row of at least three visible tiles */
+        when(map.getWidth()).thenReturn(1200);
+        when(map.getHeight()).thenReturn(300);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                float[] box = (float[]) invocation.getArguments()[0];
+                float add = (Float) invocation.getArguments()[1];
+                float w = 600 + add;
+                float h = 150 + add;
+                float[] corners = {w, -h, -w, -h, -w, h, w, h};
+                System.arraycopy(corners, 0, box, 0, 8);
+                return null;
+            }
+        }).when(viewport).getMapExtents(any(float[].class), anyFloat());
+
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                posted.add((Runnable) invocation.getArguments()[0]);
+                return true;
+            }
+        }).when(map).post(any(Runnable.class));
+
+        /* canceled tiles which are still visible are loaded again */
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                posted.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        layer.onMapEvent(Map.POSITION_EVENT, pos);
+                    }
+                });
+                return null;
+            }
+        }).when(map).updateMap(anyBoolean());
+
+        layer = new TestLayer(map);
+        manager = layer.mTiles.getManager();
+    }
+
+    @After
+    public void tearDown() {
+        layer.onDetach();
+    }
+
+    private static String tile(int tileX, int tileY) {
+        return tileX + "/" + tileY;
+    }
+
+    /**
+     * @return the area of tile 'tileX/tileY' in degrees, shrunk by
+     * 'inset' of the tile size on each side.
+     */
+    private static Box tileBox(int tileX, int tileY, double inset) {
+        double x = tileX * SIZE;
+        double y = tileY * SIZE;
+        double m = SIZE * inset;
+        return new Box(toLongitude(x + m), toLatitude(y + SIZE - m),
+                toLongitude(x + SIZE - m), toLatitude(y + m));
+    }
+
+    private TileSet activeTiles() {
+        TileSet tiles = new TileSet();
+        manager.getActiveTiles(tiles);
+        return tiles;
+    }
+
+    /**
+     * Run the posted Runnables, like invalidating tiles, and the events
+     * of completed jobs until all visible tiles are loaded by the
+     * loader threads.
+     *
+     * @return the tiles which were processed meanwhile.
+     */
+    private Set<String> loadTiles() throws Exception {
+        int start = layer.processed.size();
+
+        for (Runnable r; (r = posted.poll()) != null; )
+            r.run();
+
+        while (true) {
+            TileSet tiles = activeTiles();
+            boolean loaded = tiles.cnt > 0;
+            for (int i = 0; i < tiles.cnt; i++)
+                loaded &= tiles.tiles[i].state(NEW_DATA | READY);
+            tiles.releaseTiles();
+
+            if (loaded)
+                break;
+
+            Runnable r = posted.poll(10, TimeUnit.SECONDS);
+            assertThat(r).isNotNull();
+            r.run();
+        }
+
+        Set<String> processed = new TreeSet<>();
+        synchronized (layer.processed) {
+            for (Processed p : layer.processed.subList(start, layer.processed.size()))
+                processed.add(p.tile);
+        }
+        return processed;
+    }
+
+    private static boolean isCompiled(MapTile tile) throws Exception {
+        Field vboData = RenderBuckets.class.getDeclaredField("mVboData");
+        vboData.setAccessible(true);
+        return vboData.get(tile.data) != null;
+    }
+
+    @Test
+    public void shouldLoadTilesWithClipBuffer() throws Exception {
+        /* a line through all visible tiles */
+        Box row = tileBox(512, 512, 0);
+        double lat = (row.ymin + row.ymax) / 2;
+        layer.add(new LineDrawable(new double[]{-10, lat, 10, lat}, Style.defaultStyle()));
+
+        /* no tiles to reload yet */
+        posted.take().run();
+
+        layer.onMapEvent(Map.POSITION_EVENT, pos);
+        loadTiles();
+
+        TileSet tiles = activeTiles();
+        assertThat(tiles.cnt).isGreaterThanOrEqualTo(3);
+        assertThat(layer.processed).hasSize(tiles.cnt);
+
+        for (int i = 0; i < tiles.cnt; i++) {
+            MapTile t = tiles.tiles[i];
+            assertThat(t.zoomLevel).isEqualTo((byte) ZOOM);
+
+            Processed p = null;
+            for (Processed q : layer.processed)
+                if (q.tile.equals(tile(t.tileX, t.tileY)))
+                    p = q;
+            assertThat(p).isNotNull();
+
+            /* output coordinates relative to the tile */
+            assertThat(p.position.x).isEqualTo(t.x);
+            assertThat(p.position.y).isEqualTo(t.y);
+            assertThat(p.position.scale).isEqualTo((1 << ZOOM) * AbstractVectorLayer.UNSCALE_COORD);
+
+            /* the tile area with clip buffer in degrees */
+            Box expected = tileBox(t.tileX, t.tileY, -AbstractVectorLayer.CLIP_BUFFER);
+            assertThat(p.bbox.xmin).isEqualTo(expected.xmin, offset(1e-9));
+            assertThat(p.bbox.ymin).isEqualTo(expected.ymin, offset(1e-9));
+            assertThat(p.bbox.xmax).isEqualTo(expected.xmax, offset(1e-9));
+            assertThat(p.bbox.ymax).isEqualTo(expected.ymax, offset(1e-9));
+
+            /* lines are clipped to the tile with clip buffer */
+            assertThat(p.clipMin).isEqualTo(-Tile.SIZE / 8f);
+            assertThat(p.clipMax).isEqualTo(Tile.SIZE * 9 / 8f);
+
+            /* vertex data was compiled on the loader thread */
+            assertThat(t.state(NEW_DATA)).isTrue();
+            assertThat(isCompiled(t)).isTrue();
+        }
+        tiles.releaseTiles();
+    }
+
+    @Test
+    public void shouldReloadInvalidatedTilesOnly() throws Exception {
+        layer.onMapEvent(Map.POSITION_EVENT, pos);
+        loadTiles();
+
+        /* areas are collected until the tiles are reloaded */
+        layer.invalidate(tileBox(511, 512, 3 / 8.0));
+        layer.invalidate(tileBox(513, 512, 3 / 8.0));
+        assertThat(posted).hasSize(1);
+
+        assertThat(loadTiles()).containsOnly(tile(511, 512), tile(513, 512));
+
+        /* nothing to reload */
+        assertThat(posted).isEmpty();
+        assertThat(loadTiles()).isEmpty();
+    }
+
+    @Test
+    public void shouldMergeAreasAboveMaxDirty() throws Exception {
+        layer.onMapEvent(Map.POSITION_EVENT, pos);
+        loadTiles();
+
+        for (int i = 0; i < 16; i++)
+            layer.invalidate(tileBox(511, 512, 3 / 8.0));
+
+        /* merged into the first area, which now covers tile 512 too */
+        layer.invalidate(tileBox(513, 512, 3 / 8.0));
+        assertThat(posted).hasSize(1);
+
+        assertThat(loadTiles()).containsOnly(tile(511, 512), tile(512, 512), tile(513, 512));
+    }
+
+    @Test
+    public void shouldReloadTilesOfAddedAndRemovedDrawable() throws Exception {
+        layer.onMapEvent(Map.POSITION_EVENT, pos);
+        loadTiles();
+
+        Box b = tileBox(512, 512, 3 / 8.0);
+        Drawable line = new LineDrawable(new double[]{b.xmin, b.ymin, b.xmax, b.ymax},
+                Style.defaultStyle());
+
+        layer.add(line);
+        assertThat(loadTiles()).containsOnly(tile(512, 512));
+        assertThat(isCompiled(manager.getTile(512, 512, ZOOM))).isTrue();
+        assertThat(isCompiled(manager.getTile(513, 512, ZOOM))).isFalse();
+
+        layer.remove(line);
+        assertThat(loadTiles()).containsOnly(tile(512, 512));
+        assertThat(isCompiled(manager.getTile(512, 512, ZOOM))).isFalse();
+    }
+}
@@ -0,0 +1,130 @@
+package org.oscim.map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.oscim.core.MapPosition;
+import org.oscim.event.Event;
+import org.oscim.event.EventDispatcher;
+import org.oscim.utils.ThreadUtils;
+
+import java.lang.reflect.Field;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.offset;
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyFloat;
+import static org.mockito.Mockito.when;
+
+public class AnimatorTest {
+    private MapPosition start;
+    private Animator animator;
+
+    /**
+     * Map at 'position' which is not changed by animations.
+     */
+    public static Map mockMap(final MapPosition position) throws Exception {
+        Map map = Mockito.mock(Map.class);
+        ViewController viewport = Mockito.mock(ViewController.class);
+        when(map.viewport()).thenReturn(viewport);
+        when(viewport.limitScale(anyDouble())).thenAnswer(returnsFirstArg());
+        when(viewport.limitTilt(anyFloat())).thenAnswer(returnsFirstArg());
+        when(map.getMapPosition(any(MapPosition.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                ((MapPosition) invocation.getArguments()[0]).copy(position);
+                return false;
+            }
+        });
+
+        Field events = Map.class.getField("events");
+        events.setAccessible(true);
+        events.set(map, new EventDispatcher<Map.UpdateListener, MapPosition>() {
+            @Override
+            public void tell(Map.UpdateListener l, Event event, MapPosition data) {
+                l.onMapEvent(event, data);
+            }
+        });
+        return map;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ThreadUtils.init();
+        start = new MapPosition();
+        start.set(0.25, 0.5, 1 << 10, 10, 0);
+        animator = new Animator(mockMap(start));
+    }
+
+    @Test
+    public void shouldNotPredictWhenIdle() {
+        assertThat(animator.isActive()).isFalse();
+        assertThat(animator.getAdvance()).isEqualTo(1);
+        assertThat(animator.getPosition(0.5f, new MapPosition())).isFalse();
+    }
+
+    @Test
+    public void shouldPredictPositionOnPath() {
+        MapPosition end = new MapPosition();
+        end.set(0.75, 0.25, 1 << 10, 100, 40);
+        animator.animateTo(100000, end);
+
+        assertThat(animator.isActive()).isTrue();
+        assertThat(animator.getAdvance()).isGreaterThanOrEqualTo(0).isLessThan(0.1f);
+
+        MapPosition p = new MapPosition();
+        assertThat(animator.getPosition(0, p)).isTrue();
+        assertThat(p.x).isEqualTo(start.x, offset(1e-9));
+        assertThat(p.y).isEqualTo(start.y, offset(1e-9));
+        assertThat(p.bearing).isEqualTo(10);
+
+        assertThat(animator.getPosition(0.5f, p)).isTrue();
+        assertThat(p.x).isEqualTo(0.5, offset(1e-9));
+        assertThat(p.y).isEqualTo(0.375, offset(1e-9));
+        assertThat(p.bearing).isEqualTo(55);
+        assertThat(p.tilt).isEqualTo(20);
+
+        assertThat(animator.getPosition(1, p)).isTrue();
+        assertThat(p.x).isEqualTo(end.x, offset(1e-9));
+        assertThat(p.y).isEqualTo(end.y, offset(1e-9));
+        assertThat(p.scale).isEqualTo(end.scale, offset(1e-6));
+        assertThat(p.bearing).isEqualTo(100);
+
+        /* advance is clamped to the end */
+        MapPosition q = new MapPosition();
+        animator.getPosition(2, q);
+        assertThat(q.x).isEqualTo(p.x);
+        assertThat(q.y).isEqualTo(p.y);
+    }
+
+    @Test
+    public void shouldPredictScale() {
+        MapPosition end = new MapPosition();
+        end.set(start.x, start.y, 1 << 14, start.bearing, 0);
+        animator.animateTo(100000, end);
+
+        MapPosition p = new MapPosition();
+        animator.getPosition(0.25f, p);
+        assertThat(p.scale).isEqualTo(start.scale + (end.scale - start.scale) * 0.5, offset(1e-6));
+        assertThat(p.zoomLevel).isEqualTo(13);
+
+        animator.getPosition(1, p);
+        assertThat(p.scale).isEqualTo(end.scale, offset(1e-6));
+        assertThat(p.zoomLevel).isEqualTo(14);
+    }
+
+    @Test
+    public void shouldNotPredictAfterCancel() {
+        MapPosition end = new MapPosition();
+        end.set(0.75, 0.25, 1 << 10, 0, 0);
+        animator.animateTo(100000, end);
+        animator.cancel();
+
+        assertThat(animator.getAdvance()).isEqualTo(1);
+        assertThat(animator.getPosition(0.5f, new MapPosition())).isFalse();
+    }
+}
@@ -0,0 +1,61 @@
+package org.oscim.renderer;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class DirectBufferPoolTest {
+
+    @Test
+    public void shouldReuseBuffersOfSameSizeClass() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+
+        ShortBuffer a = pool.get(100);
+        assertThat(a.isDirect()).isTrue();
+        assertThat(a.capacity()).isEqualTo(1 << 14);
+
+        a.put((short) 1);
+        pool.release(a);
+        assertThat(pool.getPooledBytes()).isEqualTo(1 << 15);
+
+        ShortBuffer b = pool.get(1 << 14);
+        assertThat(b).isSameAs(a);
+        assertThat(b.position()).isEqualTo(0);
+        assertThat(pool.getPooledBytes()).isEqualTo(0);
+
+        ShortBuffer c = pool.get((1 << 14) + 1);
+        assertThat(c.capacity()).isEqualTo(1 << 15);
+    }
+
+    @Test
+    public void shouldDropBuffersWhenFull() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 16);
+
+        ShortBuffer a = pool.get(1);
+        ShortBuffer b = pool.get(1);
+        ShortBuffer c = pool.get(1);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertThat(pool.getPooledBytes()).isEqualTo(1 << 16);
+
+        assertThat(pool.get(1)).isSameAs(b);
+        assertThat(pool.get(1)).isSameAs(a);
+        assertThat(pool.get(1)).isNotSameAs(c);
+    }
+
+    @Test
+    public void shouldReleaseLaterAfterFrame() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+
+        ShortBuffer a = pool.get(1);
+        pool.releaseLater(a);
+        assertThat(pool.getPooledBytes()).isEqualTo(0);
+        assertThat(pool.get(1)).isNotSameAs(a);
+
+        pool.releasePending();
+        assertThat(pool.get(1)).isSameAs(a);
+    }
+}
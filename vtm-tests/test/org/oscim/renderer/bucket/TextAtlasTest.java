@@ -0,0 +1,151 @@
+package org.oscim.renderer.bucket;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.oscim.backend.CanvasAdapter;
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.backend.canvas.Canvas;
+import org.oscim.backend.canvas.Paint;
+import org.oscim.theme.styles.TextStyle;
+
+import java.io.InputStream;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyFloat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TextAtlasTest {
+
+    /**
+     * Canvas backend which only records drawing.
+     */
+    static class MockCanvasAdapter extends CanvasAdapter {
+        final Canvas canvas = mock(Canvas.class);
+
+        static MockCanvasAdapter init() {
+            MockCanvasAdapter adapter = new MockCanvasAdapter();
+            CanvasAdapter.init(adapter);
+            return adapter;
+        }
+
+        @Override
+        protected Canvas newCanvasImpl() {
+            return canvas;
+        }
+
+        @Override
+        protected Paint newPaintImpl() {
+            Paint paint = mock(Paint.class);
+            when(paint.measureText(anyString())).thenReturn(60f);
+            when(paint.getFontHeight()).thenReturn(14f);
+            when(paint.getFontDescent()).thenReturn(3f);
+            return paint;
+        }
+
+        @Override
+        protected Bitmap newBitmapImpl(int width, int height, int format) {
+            return mock(Bitmap.class);
+        }
+
+        @Override
+        protected Bitmap decodeBitmapImpl(InputStream inputStream) {
+            return null;
+        }
+
+        @Override
+        protected Bitmap decodeSvgBitmapImpl(InputStream inputStream) {
+            return null;
+        }
+
+        @Override
+        protected Bitmap loadBitmapAssetImpl(String relativePathPrefix, String src) {
+            return null;
+        }
+    }
+
+    private Canvas canvas;
+    private TextStyle style;
+    private TextAtlas atlas;
+
+    @Before
+    public void setUp() {
+        canvas = MockCanvasAdapter.init().canvas;
+        style = TextStyle.builder().fontSize(12).isCaption(true).build();
+        atlas = new TextAtlas();
+    }
+
+    /**
+     * Prepare a bucket with one label per string, like a label pass.
+     */
+    private TextBucket prepare(String... strings) {
+        TextBucket tb = new TextBucket(atlas);
+        for (String s : strings)
+            tb.addText(TextItem.pool.get().set(0, 0, s, style));
+        tb.prepare();
+        return tb;
+    }
+
+    private static String[] strings(String prefix, int count) {
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++)
+            strings[i] = prefix + i;
+        return strings;
+    }
+
+    @Test
+    public void shouldDrawStringsOnce() {
+        TextBucket tb = prepare("A", "B", "A");
+        verify(canvas, times(2)).drawText(anyString(), anyFloat(), anyFloat(),
+                any(Paint.class), any(Paint.class));
+        assertThat(tb.textures.indices).isEqualTo(3 * TextureBucket.INDICES_PER_SPRITE);
+        tb.clear();
+
+        /* next pass reuses the regions */
+        tb = prepare("B", "A");
+        verify(canvas, times(2)).drawText(anyString(), anyFloat(), anyFloat(),
+                any(Paint.class), any(Paint.class));
+        assertThat(tb.textures.indices).isEqualTo(2 * TextureBucket.INDICES_PER_SPRITE);
+        assertThat(tb.textures.next).isNull();
+    }
+
+    @Test
+    public void shouldRedrawWhenTextSizeChanged() {
+        prepare("A").clear();
+
+        style.fontHeight = 20;
+        prepare("A").clear();
+        verify(canvas, times(2)).drawText(eq("A"), anyFloat(), anyFloat(),
+                any(Paint.class), any(Paint.class));
+    }
+
+    @Test
+    public void shouldKeepPagesOfThePreviousPass() {
+        /* a page holds 256 labels */
+        prepare(concat("X", strings("a", 300))).clear();
+
+        /* the page of "X" is still rendered */
+        prepare(strings("b", 300)).clear();
+        assertThat(atlas.getNumPages()).isEqualTo(3);
+
+        /* now it is reused */
+        prepare(strings("c", 300)).clear();
+        assertThat(atlas.getNumPages()).isEqualTo(3);
+
+        prepare("X").clear();
+        verify(canvas, times(2)).drawText(eq("X"), anyFloat(), anyFloat(),
+                any(Paint.class), any(Paint.class));
+    }
+
+    private static String[] concat(String first, String[] others) {
+        String[] strings = new String[others.length + 1];
+        strings[0] = first;
+        System.arraycopy(others, 0, strings, 1, others.length);
+        return strings;
+    }
+}
@@ -0,0 +1,92 @@
+package org.oscim.renderer.bucket;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class VertexDataTest {
+
+    private static VertexData fill(int chunks) {
+        VertexData vd = new VertexData();
+        for (int i = 0; i < chunks * VertexData.SIZE / 4; i++)
+            vd.add((short) i, (short) 1, (short) 2, (short) 3);
+        return vd;
+    }
+
+    @Test
+    public void shouldCompileAllChunks() {
+        VertexData vd = fill(3);
+        vd.add((short) 7, (short) 8);
+        assertThat(vd.countSize()).isEqualTo(3 * VertexData.SIZE + 2);
+
+        ShortBuffer buf = ShortBuffer.allocate(vd.countSize());
+        assertThat(vd.compile(buf)).isEqualTo(3 * VertexData.SIZE + 2);
+        assertThat(buf.get(4)).isEqualTo((short) 1);
+        assertThat(buf.get(3 * VertexData.SIZE + 1)).isEqualTo((short) 8);
+        assertThat(vd.empty()).isTrue();
+    }
+
+    @Test
+    public void shouldReuseChunksOfSameThread() {
+        fill(10).dispose();
+
+        int allocated = VertexData.getAllocatedChunks();
+        for (int i = 0; i < 100; i++)
+            fill(10).dispose();
+
+        assertThat(VertexData.getAllocatedChunks()).isEqualTo(allocated);
+    }
+
+    @Test
+    public void shouldPassChunksReleasedByOtherThread() throws Exception {
+        final List<VertexData> data = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            data.add(fill(10));
+
+        /* e.g. the GL thread releasing chunks of compiled buckets */
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                for (VertexData vd : data)
+                    vd.dispose();
+            }
+        };
+        t.start();
+        t.join();
+
+        int allocated = VertexData.getAllocatedChunks();
+        for (int i = 0; i < 20; i++)
+            data.set(i, fill(10));
+
+        /* at most MAX_ARENA chunks stay with the other thread */
+        assertThat(VertexData.getAllocatedChunks() - allocated).isLessThanOrEqualTo(128);
+        assertThat(VertexData.getHighWaterChunks()).isGreaterThanOrEqualTo(200);
+
+        for (VertexData vd : data)
+            vd.dispose();
+
+        assertThat(VertexData.getPooledChunks()).isGreaterThan(0);
+    }
+
+    @Test
+    public void shouldReturnChunksOfEndedThread() throws Exception {
+        final VertexData vd = fill(100);
+        int pooled = VertexData.getPooledChunks();
+
+        /* the chunks stay in the arena of the thread */
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                vd.dispose();
+            }
+        };
+        t.start();
+        t.join();
+
+        assertThat(VertexData.getPooledChunks()).isGreaterThan(pooled);
+    }
+}
@@ -0,0 +1,285 @@
+package org.oscim.theme;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oscim.core.GeometryBuffer.GeometryType;
+import org.oscim.core.Tag;
+import org.oscim.core.TagSet;
+import org.oscim.theme.rule.Rule;
+import org.oscim.theme.rule.RuleBuilder;
+import org.oscim.theme.styles.LineStyle;
+import org.oscim.theme.styles.RenderStyle;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RenderThemeTest {
+    private static final String[] VALUES = {"primary", "secondary", "residential", "footway"};
+
+    private Rule[] rules;
+
+    @Before
+    public void setUp() {
+        RuleBuilder highway = RuleBuilder.create("highway", null);
+        for (int i = 0; i < VALUES.length; i++) {
+            highway.addSubRule(RuleBuilder.create(null, VALUES[i])
+                    .zoom((byte) (10 + i), (byte) 20)
+                    .addStyle(new LineStyle(i, 0xff000000 | i, 1 + i)));
+        }
+        RuleBuilder bridge = RuleBuilder.create("bridge", "yes")
+                .addStyle(new LineStyle(10, 0xff00ff00, 3));
+
+        int[] level = {0};
+        rules = new Rule[]{highway.onComplete(level), bridge.onComplete(level)};
+    }
+
+    private static TagSet tags(int i) {
+        TagSet tags = new TagSet();
+        tags.add(new Tag("highway", VALUES[i % VALUES.length]));
+        if (i % 3 == 0)
+            tags.add(new Tag("bridge", "yes"));
+        return tags;
+    }
+
+    private static List<RenderStyle> asList(RenderStyle[] styles) {
+        return styles == null ? null : Arrays.asList(styles);
+    }
+
+    private static List<Integer> colors(RenderStyle[] styles) {
+        if (styles == null)
+            return null;
+        List<Integer> colors = new ArrayList<>();
+        for (RenderStyle style : styles)
+            colors.add(((LineStyle) style).color);
+        return colors;
+    }
+
+    /**
+     * Matching as RenderTheme did with one shared cache per element type:
+     * all rules under a lock, with duplicate styles removed.
+     */
+    private static synchronized RenderStyle[] matchSynchronized(Rule[] rules,
+            GeometryType type, TagSet tags, int zoomLevel) {
+        List<RenderStyle> matches = new ArrayList<>();
+        Tag[] elementTags = Arrays.copyOf(tags.tags, tags.numTags);
+        for (Rule rule : rules)
+            rule.matchElement(1 << (type.nativeInt - 1), elementTags, 1 << zoomLevel, matches);
+
+        List<RenderStyle> result = new ArrayList<>();
+        for (RenderStyle style : matches) {
+            if (!result.contains(style))
+                result.add(style);
+        }
+        return result.isEmpty() ? null : result.toArray(new RenderStyle[result.size()]);
+    }
+
+    @Test
+    public void shouldMatchConsistentlyFromSeveralThreads() throws Exception {
+        final RenderTheme theme = new RenderTheme(0, 1, rules, 20);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 10000; i++) {
+                            TagSet tags = tags(i + offset);
+                            int zoom = 8 + (i + offset) % 12;
+                            RenderStyle[] expected =
+                                    matchSynchronized(rules, GeometryType.LINE, tags, zoom);
+                            RenderStyle[] actual = theme.matchElement(GeometryType.LINE, tags, zoom);
+                            Assert.assertEquals(asList(expected), asList(actual));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+
+    @Test
+    public void shouldNotKeepThemeAliveFromMatchingThread() throws Exception {
+        RenderTheme theme = new RenderTheme(0, 1, rules, 20);
+        Assert.assertNotNull(theme.matchElement(GeometryType.LINE, tags(0), 12));
+
+        /* the current thread outlives the theme, like a loader thread,
+         * even without dispose() its caches must not reference the theme */
+        WeakReference<RenderTheme> ref = new WeakReference<>(theme);
+        theme = null;
+        for (int i = 0; i < 10 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(ref.get());
+    }
+
+    private static final String[] KEYS = {"highway", "landuse", "natural", "bridge", "tunnel", "name"};
+    private static final String[] KEY_VALUES = {"a", "b", "c", "d", "yes", "no"};
+
+    private static int style;
+
+    private static RuleBuilder randomRule(Random random, int depth) {
+        RuleBuilder rule;
+        String key = KEYS[random.nextInt(KEYS.length)];
+        String value = KEY_VALUES[random.nextInt(KEY_VALUES.length)];
+        switch (random.nextInt(8)) {
+            case 0:
+                rule = RuleBuilder.create(key, null);
+                break;
+            case 1:
+                rule = RuleBuilder.create(null, value);
+                break;
+            case 2:
+                rule = RuleBuilder.create(key + "|" + KEYS[random.nextInt(KEYS.length)], value + "|b");
+                break;
+            case 3:
+                rule = RuleBuilder.create(key, "~|" + value);
+                break;
+            case 4:
+                rule = RuleBuilder.create(key, "-|" + value);
+                break;
+            case 5:
+                rule = RuleBuilder.create(key + "|landuse", null);
+                break;
+            case 6:
+                rule = new RuleBuilder();
+                break;
+            default:
+                rule = RuleBuilder.create(key, value);
+                break;
+        }
+        if (random.nextInt(4) == 0)
+            rule.select(Rule.Selector.FIRST);
+        if (random.nextInt(5) == 0)
+            rule.select(Rule.Selector.WHEN_MATCHED);
+        if (random.nextInt(3) == 0)
+            rule.zoom((byte) random.nextInt(15), (byte) (10 + random.nextInt(10)));
+        if (random.nextInt(4) == 0)
+            rule.element(1 << random.nextInt(3));
+
+        if (depth < 3 && random.nextInt(3) != 0) {
+            int numSubRules = random.nextInt(8);
+            for (int i = 0; i < numSubRules; i++)
+                rule.addSubRule(randomRule(random, depth + 1));
+        }
+        if (random.nextInt(2) == 0)
+            rule.addStyle(new LineStyle(style, 0xff000000 | style++, 1));
+
+        return rule;
+    }
+
+    private static Rule[] randomRules(long seed) {
+        Random random = new Random(seed);
+        style = 0;
+        Rule[] rules = new Rule[40];
+        int[] level = {0};
+        for (int i = 0; i < rules.length; i++)
+            rules[i] = randomRule(random, 0).onComplete(level);
+        return rules;
+    }
+
+    @Test
+    public void shouldMatchSameWhenCompiled() {
+        for (int seed = 0; seed < 20; seed++) {
+            RenderTheme expected = new RenderTheme(0, 1, randomRules(seed), 20);
+            RenderTheme compiled = new RenderTheme(0, 1, randomRules(seed), 20);
+            compiled.compile();
+
+            Random random = new Random(seed);
+            GeometryType[] types = {GeometryType.POINT, GeometryType.LINE, GeometryType.POLY};
+            for (int i = 0; i < 2000; i++) {
+                TagSet tags = new TagSet();
+                int numTags = random.nextInt(4);
+                for (int j = 0; j < numTags; j++) {
+                    tags.add(new Tag(KEYS[random.nextInt(KEYS.length)],
+                            KEY_VALUES[random.nextInt(KEY_VALUES.length)]));
+                }
+                GeometryType type = types[random.nextInt(3)];
+                int zoom = random.nextInt(20);
+
+                Assert.assertEquals(tags + " zoom:" + zoom,
+                        colors(expected.matchElement(type, tags, zoom)),
+                        colors(compiled.matchElement(type, tags, zoom)));
+            }
+        }
+    }
+
+    @Test
+    public void shouldMatchZoomRanges() {
+        RenderTheme theme = new RenderTheme(0, 1, rules, 20);
+
+        Assert.assertNull(theme.matchElement(GeometryType.LINE, tags(1), 10));
+        Assert.assertEquals(1, theme.matchElement(GeometryType.LINE, tags(1), 11).length);
+        Assert.assertEquals(2, theme.matchElement(GeometryType.LINE, tags(0), 12).length);
+
+        TagSet other = new TagSet();
+        other.add(new Tag("natural", "water"));
+        Assert.assertNull(theme.matchElement(GeometryType.POLY, other, 12));
+    }
+
+    @Test
+    public void shouldAcceptTagsRequiredAtZoomLevel() {
+        RenderTheme theme = new RenderTheme(0, 1, rules, 20);
+
+        /* footway is rendered from zoom 13 */
+        Assert.assertTrue(theme.accept(new Tag("highway", "primary"), GeometryType.LINE, 10));
+        Assert.assertFalse(theme.accept(new Tag("highway", "footway"), GeometryType.LINE, 10));
+        Assert.assertTrue(theme.accept(new Tag("highway", "footway"), GeometryType.LINE, 13));
+        Assert.assertTrue(theme.accept(new Tag("highway", null), GeometryType.LINE, 10));
+        Assert.assertFalse(theme.accept(new Tag("highway", null), GeometryType.LINE, 9));
+
+        Assert.assertTrue(theme.accept(new Tag("bridge", "yes"), GeometryType.POINT, 5));
+        Assert.assertFalse(theme.accept(new Tag("natural", "water"), GeometryType.POLY, 12));
+    }
+
+    @Test
+    public void shouldAcceptATagOfEachMatchedElement() {
+        GeometryType[] types = {GeometryType.POINT, GeometryType.LINE, GeometryType.POLY};
+
+        for (int seed = 0; seed < 20; seed++) {
+            /* with few rules most tags are not required */
+            RenderTheme theme = new RenderTheme(0, 1, Arrays.copyOf(randomRules(seed), 3), 20);
+            theme.compile();
+
+            Random random = new Random(seed);
+            for (int i = 0; i < 2000; i++) {
+                TagSet tags = new TagSet();
+                int numTags = 1 + random.nextInt(3);
+                for (int j = 0; j < numTags; j++) {
+                    tags.add(new Tag(KEYS[random.nextInt(KEYS.length)],
+                            KEY_VALUES[random.nextInt(KEY_VALUES.length)]));
+                }
+                GeometryType type = types[random.nextInt(3)];
+                int zoom = random.nextInt(20);
+
+                boolean accepted = false;
+                for (int j = 0; j < tags.numTags; j++) {
+                    Tag tag = tags.tags[j];
+                    if (theme.accept(tag, type, zoom)) {
+                        accepted = true;
+                        /* a tag without value stands for any value */
+                        Assert.assertTrue(theme.accept(new Tag(tag.key, null), type, zoom));
+                    }
+                }
+                if (theme.matchElement(type, tags, zoom) != null)
+                    Assert.assertTrue(tags + " zoom:" + zoom, accepted);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.oscim.tiling.cache;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oscim.core.Tile;
+import org.oscim.tiling.ITileCache.TileReader;
+import org.oscim.tiling.ITileCache.TileWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+public class FileTileCacheTest {
+    private File file;
+    private FileTileCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("vtm", ".cache");
+        file.delete();
+        cache = new FileTileCache(file);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.dispose();
+        file.delete();
+    }
+
+    private static byte[] data(Tile tile, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (tile.tileX * 31 + tile.tileY * 17 + tile.zoomLevel + i);
+        return data;
+    }
+
+    private static void write(FileTileCache cache, Tile tile, byte[] data) throws Exception {
+        TileWriter writer = cache.writeTile(tile);
+        writer.getOutputStream().write(data);
+        writer.complete(true);
+    }
+
+    private static byte[] read(FileTileCache cache, Tile tile) throws Exception {
+        TileReader reader = cache.getTile(tile);
+        if (reader == null)
+            return null;
+
+        InputStream is = reader.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = is.read(buf)) >= 0)
+            out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void shouldReadWrittenTiles() throws Exception {
+        Tile a = new Tile(1, 2, (byte) 3);
+        Tile b = new Tile(2, 1, (byte) 3);
+        write(cache, a, data(a, 100));
+        write(cache, b, data(b, 200));
+
+        Assert.assertArrayEquals(data(a, 100), read(cache, a));
+        Assert.assertArrayEquals(data(b, 200), read(cache, b));
+        Assert.assertNull(read(cache, new Tile(1, 2, (byte) 4)));
+
+        /* failed writes are discarded */
+        TileWriter writer = cache.writeTile(new Tile(5, 5, (byte) 5));
+        writer.getOutputStream().write(1);
+        writer.complete(false);
+        Assert.assertNull(read(cache, new Tile(5, 5, (byte) 5)));
+
+        /* replaced tiles */
+        write(cache, a, data(a, 50));
+        Assert.assertArrayEquals(data(a, 50), read(cache, a));
+        Assert.assertEquals(2, cache.getTileCount());
+        Assert.assertEquals(250, cache.getCacheSize());
+    }
+
+    @Test
+    public void shouldRecoverAfterReopen() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            Tile t = new Tile(i, i + 1, (byte) 10);
+            write(cache, t, data(t, 100 + i));
+        }
+        cache.dispose();
+
+        cache = new FileTileCache(file);
+        Assert.assertEquals(10, cache.getTileCount());
+        for (int i = 0; i < 10; i++) {
+            Tile t = new Tile(i, i + 1, (byte) 10);
+            Assert.assertArrayEquals(data(t, 100 + i), read(cache, t));
+        }
+    }
+
+    @Test
+    public void shouldDropIncompleteRecord() throws Exception {
+        Tile a = new Tile(1, 1, (byte) 1);
+        Tile b = new Tile(2, 2, (byte) 2);
+        write(cache, a, data(a, 100));
+        write(cache, b, data(b, 100));
+        long size = cache.getFileSize();
+        cache.dispose();
+
+        /* simulate a crash while the last record was written */
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(size - 10);
+        raf.close();
+
+        cache = new FileTileCache(file);
+        Assert.assertArrayEquals(data(a, 100), read(cache, a));
+        Assert.assertNull(read(cache, b));
+
+        /* appending continues after the last valid record */
+        write(cache, b, data(b, 20));
+        cache.dispose();
+        cache = new FileTileCache(file);
+        Assert.assertArrayEquals(data(b, 20), read(cache, b));
+        Assert.assertEquals(2, cache.getTileCount());
+    }
+
+    @Test
+    public void shouldDropCorruptRecord() throws Exception {
+        Tile a = new Tile(1, 1, (byte) 1);
+        Tile b = new Tile(2, 2, (byte) 2);
+        write(cache, a, data(a, 100));
+        write(cache, b, data(b, 100));
+        long size = cache.getFileSize();
+        cache.dispose();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(size - 1);
+        int last = raf.read();
+        raf.seek(size - 1);
+        raf.write(last + 1);
+        raf.close();
+
+        cache = new FileTileCache(file);
+        Assert.assertArrayEquals(data(a, 100), read(cache, a));
+        Assert.assertNull(read(cache, b));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() throws Exception {
+        cache.setCacheSize(1000);
+
+        Tile[] tiles = new Tile[4];
+        for (int i = 0; i < 4; i++) {
+            tiles[i] = new Tile(i, 0, (byte) 8);
+            write(cache, tiles[i], data(tiles[i], 300));
+        }
+        /* the first tile was evicted for the fourth */
+        Assert.assertNull(read(cache, tiles[0]));
+
+        /* touch the second tile, so the third is evicted next */
+        Assert.assertNotNull(read(cache, tiles[1]));
+        Tile t = new Tile(9, 9, (byte) 8);
+        write(cache, t, data(t, 300));
+
+        Assert.assertNotNull(read(cache, tiles[1]));
+        Assert.assertNull(read(cache, tiles[2]));
+        Assert.assertNotNull(read(cache, tiles[3]));
+        Assert.assertTrue(cache.getCacheSize() <= 1000);
+
+        cache.setCacheSize(300);
+        Assert.assertEquals(1, cache.getTileCount());
+    }
+
+    @Test
+    public void shouldCompact() throws Exception {
+        int size = 64 * 1024;
+        int count = (int) (FileTileCache.MIN_COMPACT_SIZE / size);
+        cache.setCacheSize(4 * size);
+
+        for (int i = 0; i < 3 * count; i++) {
+            Tile t = new Tile(i, i, (byte) 14);
+            write(cache, t, data(t, size));
+        }
+        cache.awaitCompaction();
+
+        Assert.assertTrue(cache.getFileSize() < FileTileCache.MIN_COMPACT_SIZE + 5 * size);
+        Assert.assertEquals(cache.getFileSize(), file.length());
+
+        for (int i = 3 * count - 4; i < 3 * count; i++) {
+            Tile t = new Tile(i, i, (byte) 14);
+            Assert.assertTrue(Arrays.equals(data(t, size), read(cache, t)));
+        }
+        cache.dispose();
+
+        cache = new FileTileCache(file, 4 * size);
+        Assert.assertEquals(4, cache.getTileCount());
+        Tile t = new Tile(3 * count - 1, 3 * count - 1, (byte) 14);
+        Assert.assertArrayEquals(data(t, size), read(cache, t));
+    }
+}
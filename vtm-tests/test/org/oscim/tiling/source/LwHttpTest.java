@@ -0,0 +1,243 @@
+package org.oscim.tiling.source;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.oscim.core.Tile;
+import org.oscim.tiling.source.oscimap4.OSciMap4TileSource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class LwHttpTest {
+
+    /**
+     * Stand-in HTTP server which answers each request with its path.
+     */
+    static class Server extends Thread {
+        final ServerSocket socket;
+        final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+        /**
+         * responses per connection, the last one is sent with
+         * 'Connection: close' when sendClose is set
+         */
+        int keepAlive = Integer.MAX_VALUE;
+        boolean sendClose;
+
+        volatile int connections;
+
+        Server() throws IOException {
+            socket = new ServerSocket(0);
+        }
+
+        String getUrl() {
+            return "http://127.0.0.1:" + socket.getLocalPort() + "/tiles/vtm";
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket s = socket.accept();
+                    final int connection = connections++;
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                serve(s, connection);
+                            } catch (IOException e) {
+                                /* closed */
+                            }
+                        }
+                    }.start();
+                }
+            } catch (IOException e) {
+                /* closed */
+            }
+        }
+
+        private void serve(Socket s, int connection) throws IOException {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(s.getInputStream(), "ISO-8859-1"));
+            OutputStream out = s.getOutputStream();
+
+            for (int n = 1; ; n++) {
+                String line = in.readLine();
+                if (line == null)
+                    break;
+
+                String path = line.split(" ")[1];
+                requests.add(connection + " " + path);
+
+                /* skip header */
+                while ((line = in.readLine()) != null && !line.isEmpty()) ;
+
+                boolean last = (n == keepAlive);
+                byte[] body = path.getBytes("ISO-8859-1");
+                String header = "HTTP/1.1 200 OK\r\n"
+                        + "Content-Length: " + body.length + "\r\n"
+                        + (last && sendClose ? "Connection: close\r\n" : "")
+                        + "\r\n";
+                out.write(header.getBytes("ISO-8859-1"));
+                out.write(body);
+                out.flush();
+
+                if (last)
+                    break;
+            }
+            s.close();
+        }
+    }
+
+    private Server server;
+    private LwHttp engine;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new Server();
+        server.start();
+        engine = (LwHttp) new LwHttp.LwHttpFactory()
+                .create(new OSciMap4TileSource(server.getUrl()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        engine.close();
+        server.socket.close();
+    }
+
+    private static Tile[] tiles(int count) {
+        Tile[] tiles = new Tile[count];
+        for (int i = 0; i < count; i++)
+            tiles[i] = new Tile(i, 2, (byte) 3);
+        return tiles;
+    }
+
+    private String load(Tile tile) throws IOException {
+        engine.sendRequest(tile);
+        InputStream is = engine.read();
+        String response = new BufferedReader(new InputStreamReader(is)).readLine();
+        engine.requestCompleted(true);
+        return response;
+    }
+
+    @Test
+    public void shouldPipelineRequestsOnOneConnection() throws Exception {
+        Tile[] tiles = tiles(3);
+        engine.sendRequests(tiles, 3);
+
+        assertThat(load(tiles[0])).isEqualTo("/tiles/vtm/3/0/2.vtm");
+        assertThat(load(tiles[1])).isEqualTo("/tiles/vtm/3/1/2.vtm");
+        assertThat(load(tiles[2])).isEqualTo("/tiles/vtm/3/2/2.vtm");
+
+        assertThat(server.requests).containsExactly(
+                "0 /tiles/vtm/3/0/2.vtm",
+                "0 /tiles/vtm/3/1/2.vtm",
+                "0 /tiles/vtm/3/2/2.vtm");
+    }
+
+    @Test
+    public void shouldSkipResponsesOfTilesNotRequested() throws Exception {
+        Tile[] tiles = tiles(3);
+        engine.sendRequests(tiles, 3);
+
+        assertThat(load(tiles[1])).isEqualTo("/tiles/vtm/3/1/2.vtm");
+        assertThat(load(tiles[2])).isEqualTo("/tiles/vtm/3/2/2.vtm");
+        assertThat(load(new Tile(5, 5, (byte) 5))).isEqualTo("/tiles/vtm/5/5/5.vtm");
+
+        assertThat(server.requests).hasSize(4);
+        assertThat(server.requests.get(3)).isEqualTo("0 /tiles/vtm/5/5/5.vtm");
+    }
+
+    @Test
+    public void shouldFallBackWhenServerClosesConnection() throws Exception {
+        server.keepAlive = 1;
+        server.sendClose = true;
+
+        Tile[] tiles = tiles(3);
+        engine.sendRequests(tiles, 3);
+
+        assertThat(load(tiles[0])).isEqualTo("/tiles/vtm/3/0/2.vtm");
+        assertThat(load(tiles[1])).isEqualTo("/tiles/vtm/3/1/2.vtm");
+
+        /* requests are no longer pipelined */
+        engine.sendRequests(tiles, 3);
+        assertThat(load(tiles[2])).isEqualTo("/tiles/vtm/3/2/2.vtm");
+
+        assertThat(server.requests).containsExactly(
+                "0 /tiles/vtm/3/0/2.vtm",
+                "1 /tiles/vtm/3/1/2.vtm",
+                "2 /tiles/vtm/3/2/2.vtm");
+    }
+
+    @Test
+    public void shouldResendDroppedRequests() throws Exception {
+        /* close without 'Connection: close', e.g. on keep-alive timeout */
+        server.keepAlive = 2;
+
+        Tile[] tiles = tiles(4);
+        engine.sendRequests(tiles, 4);
+
+        for (int i = 0; i < 4; i++)
+            assertThat(load(tiles[i])).isEqualTo("/tiles/vtm/3/" + i + "/2.vtm");
+
+        assertThat(server.requests).contains(
+                "0 /tiles/vtm/3/0/2.vtm",
+                "0 /tiles/vtm/3/1/2.vtm",
+                "1 /tiles/vtm/3/2/2.vtm");
+    }
+
+    @Test
+    public void shouldReconnectAfterClose() throws Exception {
+        assertThat(load(new Tile(0, 2, (byte) 3))).isEqualTo("/tiles/vtm/3/0/2.vtm");
+        engine.requestCompleted(true);
+        engine.close();
+
+        assertThat(load(new Tile(1, 2, (byte) 3))).isEqualTo("/tiles/vtm/3/1/2.vtm");
+        assertThat(server.connections).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldAbortBlockedRead() throws Exception {
+        /* accepts the connection but never answers */
+        ServerSocket silent = new ServerSocket(0);
+        final LwHttp engine = (LwHttp) new LwHttp.LwHttpFactory().create(
+                new OSciMap4TileSource("http://127.0.0.1:" + silent.getLocalPort() + "/tiles/vtm"));
+
+        final IOException[] error = new IOException[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    engine.sendRequest(new Tile(0, 2, (byte) 3));
+                    engine.read();
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            }
+        };
+        reader.start();
+        Socket s = silent.accept();
+        Thread.sleep(100);
+
+        long start = System.currentTimeMillis();
+        engine.close();
+        reader.join(2000);
+        assertThat(System.currentTimeMillis() - start).isLessThan(2000);
+        assertThat(error[0]).isNotNull();
+
+        s.close();
+        silent.close();
+    }
+}
@@ -0,0 +1,132 @@
+package org.oscim.tiling.source;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.core.MapElement;
+import org.oscim.core.Tile;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.ITileDataSource;
+import org.oscim.tiling.QueryResult;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TileFetcherTest {
+
+    static class Sink implements ITileDataSink {
+        String data;
+        QueryResult result;
+
+        @Override
+        public void process(MapElement element) {
+        }
+
+        @Override
+        public void setTileImage(Bitmap bitmap) {
+        }
+
+        @Override
+        public void completed(QueryResult result) {
+            this.result = result;
+        }
+    }
+
+    /**
+     * Decodes the path sent back by the server.
+     */
+    static class TestTileSource extends UrlTileSource {
+        TestTileSource(String url) {
+            super(url, "/{Z}/{X}/{Y}.vtm");
+        }
+
+        @Override
+        public ITileDataSource getDataSource() {
+            return new UrlTileDataSource(this, new ITileDecoder() {
+                @Override
+                public boolean decode(Tile tile, ITileDataSink sink, InputStream is)
+                        throws IOException {
+                    ((Sink) sink).data = new BufferedReader(new InputStreamReader(is)).readLine();
+                    return true;
+                }
+            }, getHttpEngine());
+        }
+    }
+
+    private LwHttpTest.Server server;
+    private TestTileSource tileSource;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LwHttpTest.Server();
+        server.start();
+        tileSource = new TestTileSource(server.getUrl());
+        tileSource.setFetchThreads(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.socket.close();
+    }
+
+    private static MapTile[] tiles(int count) {
+        MapTile[] tiles = new MapTile[count];
+        for (int i = 0; i < count; i++)
+            tiles[i] = new MapTile(null, i, 2, 3);
+        return tiles;
+    }
+
+    @Test
+    public void shouldFetchRequestsAhead() throws Exception {
+        UrlTileDataSource dataSource = (UrlTileDataSource) tileSource.getDataSource();
+        assertThat(dataSource.getBatchSize()).isEqualTo(4);
+
+        MapTile[] tiles = tiles(4);
+        dataSource.sendRequests(tiles, 4);
+
+        /* tile 1 is skipped, e.g. canceled */
+        for (int i : new int[]{0, 2, 3}) {
+            Sink sink = new Sink();
+            dataSource.query(tiles[i], sink);
+            assertThat(sink.result).isEqualTo(QueryResult.SUCCESS);
+            assertThat(sink.data).isEqualTo("/tiles/vtm/3/" + i + "/2.vtm");
+        }
+        dataSource.dispose();
+
+        /* one connection per fetch thread */
+        assertThat(server.connections).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    public void shouldFetchTileNotSentAhead() throws Exception {
+        UrlTileDataSource dataSource = (UrlTileDataSource) tileSource.getDataSource();
+
+        Sink sink = new Sink();
+        dataSource.query(new MapTile(null, 5, 5, 5), sink);
+        assertThat(sink.result).isEqualTo(QueryResult.SUCCESS);
+        assertThat(sink.data).isEqualTo("/tiles/vtm/5/5/5.vtm");
+
+        dataSource.dispose();
+    }
+
+    @Test
+    public void shouldFailRequestsWhenDisposed() throws Exception {
+        TileFetcher fetcher = new TileFetcher(tileSource, 1);
+        fetcher.dispose();
+
+        TileFetcher.Request r = fetcher.fetch(new Tile(1, 2, (byte) 3));
+        assertThat(r.isDone()).isTrue();
+        try {
+            r.get();
+        } catch (IOException e) {
+            return;
+        }
+        throw new AssertionError("expected IOException");
+    }
+}
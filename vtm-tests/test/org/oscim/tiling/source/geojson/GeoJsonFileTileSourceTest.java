@@ -0,0 +1,149 @@
+package org.oscim.tiling.source.geojson;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.core.GeometryBuffer.GeometryType;
+import org.oscim.core.MapElement;
+import org.oscim.core.Tile;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.ITileDataSource;
+import org.oscim.tiling.QueryResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class GeoJsonFileTileSourceTest {
+
+    private static String feature(String geometry, String properties) {
+        return "{\"type\":\"Feature\",\"geometry\":" + geometry
+                + ",\"properties\":" + properties + "}";
+    }
+
+    /**
+     * A straight line along the equator, a building, a cafe and
+     * a feature without properties.
+     */
+    private static String geoJson() {
+        StringBuilder line = new StringBuilder();
+        for (int lon = -170; lon <= 170; lon++)
+            line.append(lon == -170 ? "" : ",").append("[").append(lon).append(",0.0]");
+
+        return "{\"type\":\"FeatureCollection\",\"features\":["
+                + feature("{\"type\":\"LineString\",\"coordinates\":[" + line + "]}",
+                "{\"highway\":\"primary\",\"lanes\":2,\"ref\":{\"nested\":1}}") + ","
+                + feature("{\"type\":\"Polygon\",\"coordinates\":"
+                        + "[[[10,10],[20,10],[20,20],[10,20],[10,10]]]}",
+                "{\"building\":\"yes\"}") + ","
+                + feature("{\"type\":\"Point\",\"coordinates\":[92.8125,50.0]}",
+                "{\"amenity\":\"cafe\"}") + ","
+                + feature("{\"type\":\"Point\",\"coordinates\":[0,0]}", "{}")
+                + "]}";
+    }
+
+    private static class Sink implements ITileDataSink {
+        final List<MapElement> elements = new ArrayList<>();
+        QueryResult result;
+
+        @Override
+        public void process(MapElement element) {
+            MapElement e = new MapElement();
+            e.type = element.type;
+            for (int i = 0; i < element.pointPos; i += 2)
+                e.addPoint(element.points[i], element.points[i + 1]);
+            e.tags.set(element.tags.asArray());
+            elements.add(e);
+        }
+
+        @Override
+        public void setTileImage(Bitmap bitmap) {
+        }
+
+        @Override
+        public void completed(QueryResult result) {
+            this.result = result;
+        }
+    }
+
+    private GeoJsonFileTileSource tileSource;
+
+    @Before
+    public void setUp() throws IOException {
+        tileSource = new GeoJsonFileTileSource();
+        tileSource.setIndexLimits(3, 1);
+        tileSource.read(new ByteArrayInputStream(geoJson().getBytes("UTF-8")));
+    }
+
+    private Sink query(int tileX, int tileY, int zoomLevel) {
+        Sink sink = new Sink();
+        ITileDataSource dataSource = tileSource.getDataSource();
+        dataSource.query(new MapTile(null, tileX, tileY, zoomLevel), sink);
+        return sink;
+    }
+
+    @Test
+    public void shouldBuildIndex() {
+        GeoJsonTileIndex index = tileSource.getIndex();
+        assertThat(index.features).hasSize(3);
+        assertThat(index.getNumNodes()).isGreaterThan(1 + 4 + 16);
+
+        /* deeper tiles get the features of their ancestor */
+        assertThat(index.getFeatures(10, 600, 300))
+                .isEqualTo(index.getFeatures(3, 600 >> 7, 300 >> 7));
+    }
+
+    @Test
+    public void shouldSimplifyWorldTile() {
+        Sink sink = query(0, 0, 0);
+        assertThat(sink.result).isEqualTo(QueryResult.SUCCESS);
+        assertThat(sink.elements).hasSize(3);
+
+        MapElement line = sink.elements.get(0);
+        assertThat(line.type).isEqualTo(GeometryType.LINE);
+        assertThat(line.getNumPoints()).isEqualTo(2);
+        assertThat(line.tags.getValue("lanes")).isEqualTo("2");
+        assertThat(line.tags.containsKey("ref")).isFalse();
+
+        MapElement building = sink.elements.get(1);
+        assertThat(building.type).isEqualTo(GeometryType.POLY);
+        assertThat(building.getNumPoints()).isEqualTo(4);
+
+        MapElement cafe = sink.elements.get(2);
+        assertThat(cafe.type).isEqualTo(GeometryType.POINT);
+        assertThat(cafe.getPointX(0)).isEqualTo(Tile.SIZE * (272.8125f / 360));
+    }
+
+    @Test
+    public void shouldClipToTile() {
+        /* tile south of the equator at lon 0.35 - 0.7 */
+        Sink sink = query(513, 512, 10);
+        assertThat(sink.result).isEqualTo(QueryResult.SUCCESS);
+        assertThat(sink.elements).hasSize(1);
+
+        MapElement line = sink.elements.get(0);
+        float buffer = (float) (Tile.SIZE * GeoJsonTileIndex.CLIP_BUFFER);
+        assertThat(line.getNumPoints()).isEqualTo(2);
+        assertThat(line.getPointX(0)).isEqualTo(-buffer);
+        assertThat(line.getPointX(1)).isEqualTo(Tile.SIZE + buffer);
+        assertThat(line.getPointY(0)).isEqualTo(0);
+
+        /* the cafe is only in its own tile, not in the buffer of its neighbour */
+        assertThat(query(6, 2, 3).elements).hasSize(1);
+        assertThat(query(5, 2, 3).elements).isEmpty();
+
+        /* from the tile cache */
+        assertThat(tileSource.getIndex().getTile(GeoJsonTileIndex.key(3, 6, 2))).hasSize(1);
+        assertThat(query(6, 2, 3).elements).hasSize(1);
+    }
+
+    @Test
+    public void shouldFailWhenClosed() {
+        tileSource.close();
+        assertThat(query(0, 0, 0).result).isEqualTo(QueryResult.FAILED);
+    }
+}
@@ -0,0 +1,143 @@
+package org.oscim.tiling.source.mapfile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+public class IndexCacheTest {
+    private static final int INDEX_START = 10;
+    private static final int NUM_ENTRIES = 128 * 20;
+    private static final int INDEX_END = INDEX_START + NUM_ENTRIES * 5;
+
+    private File file;
+    private RandomAccessFile inputFile;
+    private ReadBuffer readBuffer;
+
+    @Before
+    public void setUp() throws Exception {
+        byte[] data = new byte[INDEX_END];
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            long entry = i * 1000L;
+            int pos = INDEX_START + i * 5;
+            for (int b = 0; b < 5; b++)
+                data[pos + b] = (byte) (entry >> (32 - 8 * b));
+        }
+        file = File.createTempFile("vtm", ".map");
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(data);
+        fos.close();
+
+        inputFile = new RandomAccessFile(file, "r");
+        readBuffer = new ReadBuffer(inputFile);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        inputFile.close();
+        file.delete();
+    }
+
+    private long get(IndexCache cache, int indexBlock) {
+        return get(cache, indexBlock, readBuffer);
+    }
+
+    private static long get(IndexCache cache, int indexBlock, AbstractReadBuffer readBuffer) {
+        return cache.getIndexEntry(INDEX_START, INDEX_END, indexBlock * 128 + 5, readBuffer);
+    }
+
+    /**
+     * Reads 'indexBlock' from a new thread which is interrupted before.
+     */
+    private static long getInterrupted(final IndexCache cache, final int indexBlock,
+                                       final AbstractReadBuffer readBuffer) throws Exception {
+        final long[] entry = {-2};
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                interrupt();
+                entry[0] = get(cache, indexBlock, readBuffer);
+            }
+        };
+        reader.start();
+        reader.join();
+        return entry[0];
+    }
+
+    @Test
+    public void shouldKeepConfiguredCapacity() {
+        int[] capacities = {0, 1, 7, 8, 64, 100, 1000};
+        int[] stripes = {1, 1, 1, 1, 8, 8, 16};
+
+        for (int i = 0; i < capacities.length; i++) {
+            IndexCache cache = new IndexCache(capacities[i]);
+            Assert.assertEquals(capacities[i], cache.getCapacity());
+            Assert.assertEquals(stripes[i], cache.getNumStripes());
+        }
+    }
+
+    @Test
+    public void shouldReadEntriesWithoutCache() {
+        IndexCache cache = new IndexCache(0);
+        for (int i = 0; i < 20; i++)
+            Assert.assertEquals((i * 128 + 5) * 1000L, get(cache, i));
+
+        Assert.assertEquals((NUM_ENTRIES - 1) * 1000L,
+                cache.getIndexEntry(INDEX_START, INDEX_END, NUM_ENTRIES - 1, readBuffer));
+        Assert.assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() {
+        IndexCache cache = new IndexCache(4);
+        for (int i = 0; i < 4; i++)
+            get(cache, i);
+        Assert.assertEquals(4, cache.getMisses());
+
+        /* block 1 is now the least recently used */
+        get(cache, 0);
+        get(cache, 4);
+        Assert.assertEquals(1, cache.getHits());
+
+        Assert.assertEquals(5 * 1000L, get(cache, 0));
+        Assert.assertEquals(2, cache.getHits());
+
+        Assert.assertEquals((128 + 5) * 1000L, get(cache, 1));
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(6, cache.getMisses());
+    }
+
+    @Test
+    public void shouldReadIndexAfterReaderWasInterrupted() throws Exception {
+        IndexCache cache = new IndexCache(64);
+        RandomAccessFile otherFile = new RandomAccessFile(file, "r");
+        try {
+            Assert.assertEquals(5 * 1000L, getInterrupted(cache, 0, new ReadBuffer(otherFile)));
+            Assert.assertEquals((128 + 5) * 1000L, getInterrupted(cache, 1, new ReadBuffer(otherFile)));
+
+            /* the interrupted reader did not close the file of other readers */
+            Assert.assertEquals((2 * 128 + 5) * 1000L, get(cache, 2));
+            Assert.assertEquals(5 * 1000L, get(cache, 0));
+            Assert.assertEquals(1, cache.getHits());
+        } finally {
+            otherFile.close();
+        }
+    }
+
+    @Test
+    public void shouldReadMappedIndexAfterReaderWasInterrupted() throws Exception {
+        IndexCache cache = new IndexCache(0);
+        MappedFile mappedFile = new MappedFile(inputFile.getChannel(), 1024);
+
+        Assert.assertEquals((3 * 128 + 5) * 1000L,
+                getInterrupted(cache, 3, new MappedReadBuffer(mappedFile)));
+        Assert.assertTrue(inputFile.getChannel().isOpen());
+
+        Assert.assertEquals((4 * 128 + 5) * 1000L, get(cache, 4, new MappedReadBuffer(mappedFile)));
+        Assert.assertEquals((5 * 128 + 5) * 1000L, get(cache, 5));
+    }
+}
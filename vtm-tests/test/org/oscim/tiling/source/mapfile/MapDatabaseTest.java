@@ -0,0 +1,175 @@
+package org.oscim.tiling.source.mapfile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.benchmark.MapFileWriter;
+import org.oscim.core.MapElement;
+import org.oscim.core.Tile;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.theme.RenderTheme;
+import org.oscim.theme.rule.Rule;
+import org.oscim.theme.rule.Rule.Element;
+import org.oscim.theme.rule.RuleBuilder;
+import org.oscim.theme.styles.AreaStyle;
+import org.oscim.theme.styles.LineStyle;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.QueryResult;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class MapDatabaseTest {
+
+    private File file;
+    private MapFileWriter writer;
+    private RenderTheme theme;
+
+    /**
+     * Collects the elements which 'theme' renders at 'zoomLevel'.
+     */
+    static class RenderedSink implements ITileDataSink {
+        final RenderTheme theme;
+        final int zoomLevel;
+        final List<String> rendered = new ArrayList<>();
+        int elements;
+
+        RenderedSink(RenderTheme theme, int zoomLevel) {
+            this.theme = theme;
+            this.zoomLevel = zoomLevel;
+        }
+
+        @Override
+        public void process(MapElement element) {
+            elements++;
+            if (theme.matchElement(element.type, element.tags, zoomLevel) == null)
+                return;
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(element.type).append(' ').append(element.layer).append(' ')
+                    .append(element.tags).append(' ').append(element.labelPosition);
+            for (int i = 0; i < element.pointPos; i++)
+                sb.append(' ').append(element.points[i]);
+            for (int i = 0; i < element.index.length && element.index[i] >= 0; i++)
+                sb.append(" #").append(element.index[i]);
+            rendered.add(sb.toString());
+        }
+
+        @Override
+        public void setTileImage(Bitmap bitmap) {
+        }
+
+        @Override
+        public void completed(QueryResult result) {
+            assertThat(result).isEqualTo(QueryResult.SUCCESS);
+        }
+    }
+
+    private static Rule rule(String key, String value, int element, int zoomMin) {
+        RuleBuilder b = RuleBuilder.create(key, value)
+                .element(element)
+                .zoom((byte) zoomMin, (byte) 20);
+        if (element == Element.LINE)
+            b.addStyle(new LineStyle(0, 0xff000000, 1));
+        else
+            b.addStyle(new AreaStyle(0xff000000));
+        return b.onComplete(new int[]{0});
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("vtm", ".map");
+        writer = new MapFileWriter(new Random(42), 8800, 5373, 2);
+        writer.setOptionalFeatures(true);
+        writer.write(file, 200, 100);
+
+        /* names, refs and house numbers are only rendered from zoom 16 */
+        theme = new RenderTheme(0, 1, new Rule[]{
+                rule("highway", "motorway|trunk|primary", Element.LINE, 12),
+                rule("highway", "residential|service", Element.LINE, 15),
+                rule("ref", null, Element.LINE, 16),
+                rule("natural", "water", Element.POLY, 12),
+                rule("building", null, Element.POLY, 16),
+                rule("addr:housenumber", null, Element.POLY, 16),
+                rule("amenity", "restaurant|pharmacy", Element.NODE, 12),
+                rule("name", null, Element.NODE, 16),
+                rule("ele", null, Element.NODE, 14),
+        }, 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    private RenderedSink query(boolean memoryMapped, boolean tagFilter, int zoomLevel)
+            throws Exception {
+        MapFileTileSource tileSource = new MapFileTileSource();
+        tileSource.setMapFile(file.getPath());
+        tileSource.setMemoryMapped(memoryMapped);
+        assertThat(tileSource.open().isSuccess()).isTrue();
+
+        RenderedSink sink = new RenderedSink(theme, zoomLevel);
+        MapDatabase mapDatabase = new MapDatabase(tileSource);
+        try {
+            if (tagFilter)
+                mapDatabase.setTagFilter(theme);
+
+            for (Tile tile : writer.getTiles(zoomLevel))
+                mapDatabase.query(new MapTile(null, tile.tileX, tile.tileY, zoomLevel), sink);
+        } finally {
+            mapDatabase.dispose();
+            tileSource.close();
+        }
+        return sink;
+    }
+
+    private void assertSameRenderedElements(boolean memoryMapped, int zoomLevel)
+            throws Exception {
+        RenderedSink all = query(memoryMapped, false, zoomLevel);
+        RenderedSink filtered = query(memoryMapped, true, zoomLevel);
+
+        assertThat(all.rendered).isNotEmpty();
+        assertThat(filtered.rendered).isEqualTo(all.rendered);
+
+        /* elements without rendered tags or features were skipped */
+        assertThat(filtered.elements).isLessThan(all.elements);
+    }
+
+    @Test
+    public void shouldSkipWaysByDataSize() throws Exception {
+        /* the tile bitmask is ignored at the base zoom level */
+        assertSameRenderedElements(false, MapFileWriter.BASE_ZOOM);
+        assertSameRenderedElements(true, MapFileWriter.BASE_ZOOM);
+    }
+
+    @Test
+    public void shouldSkipWaysByTileBitmask() throws Exception {
+        assertSameRenderedElements(false, MapFileWriter.BASE_ZOOM + 2);
+        assertSameRenderedElements(true, MapFileWriter.BASE_ZOOM + 2);
+    }
+
+    @Test
+    public void shouldKeepElementsWithRenderedFeatures() throws Exception {
+        /* refs, house numbers and names get elements rendered from zoom 16 */
+        RenderedSink features = query(false, true, MapFileWriter.BASE_ZOOM + 2);
+
+        int refs = 0, houseNumbers = 0, names = 0;
+        for (String element : features.rendered) {
+            if (element.contains("Tag[ref,"))
+                refs++;
+            if (element.contains("Tag[addr:housenumber,"))
+                houseNumbers++;
+            if (element.startsWith("POINT") && element.contains("Tag[name,"))
+                names++;
+        }
+        assertThat(refs).isGreaterThan(0);
+        assertThat(houseNumbers).isGreaterThan(0);
+        assertThat(names).isGreaterThan(0);
+    }
+}
@@ -0,0 +1,133 @@
+package org.oscim.tiling.source.mapfile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+public class MappedReadBufferTest {
+    private static final int NUM_VALUES = 1000;
+
+    private File file;
+    private RandomAccessFile inputFile;
+    private int length;
+
+    private static void writeUnsigned(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeSigned(ByteArrayOutputStream out, int value) {
+        int sign = value < 0 ? 0x40 : 0;
+        value = Math.abs(value);
+        while ((value & ~0x3f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value | sign);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        /* some padding so that the block does not start at 0 */
+        out.write(new byte[17]);
+
+        for (int i = 0; i < NUM_VALUES; i++) {
+            writeUnsigned(out, random.nextInt(1 << (1 + i % 30)));
+            writeSigned(out, random.nextInt(1 << (1 + i % 28)) - (1 << (i % 28)));
+            out.write(random.nextInt());
+        }
+        byte[] text = "Straße".getBytes("UTF-8");
+        writeUnsigned(out, text.length);
+        out.write(text);
+
+        byte[] data = out.toByteArray();
+        length = data.length - 17;
+
+        file = File.createTempFile("vtm", ".map");
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(data);
+        fos.close();
+
+        inputFile = new RandomAccessFile(file, "r");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        inputFile.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldDecodeSameAsReadBuffer() throws Exception {
+        ReadBuffer expected = new ReadBuffer(inputFile);
+        AbstractReadBuffer mapped = new MappedReadBuffer(new MappedFile(inputFile.getChannel()));
+
+        Assert.assertTrue(expected.readFromFile(17, length));
+        Assert.assertTrue(mapped.readFromFile(17, length));
+
+        for (int i = 0; i < NUM_VALUES; i++) {
+            Assert.assertEquals(expected.readUnsignedInt(), mapped.readUnsignedInt());
+            Assert.assertEquals(expected.readSignedInt(), mapped.readSignedInt());
+            Assert.assertEquals(expected.readByte(), mapped.readByte());
+        }
+        Assert.assertEquals("Straße", mapped.readUTF8EncodedString());
+        Assert.assertEquals(expected.readUTF8EncodedString(), "Straße");
+        Assert.assertEquals(expected.getBufferPosition(), mapped.getBufferPosition());
+
+        expected.setBufferPosition(3);
+        mapped.setBufferPosition(3);
+        Assert.assertEquals(expected.readInt(), mapped.readInt());
+        Assert.assertEquals(expected.readLong(), mapped.readLong());
+        Assert.assertEquals(expected.readShort(), mapped.readShort());
+    }
+
+    @Test
+    public void shouldReadAcrossChunkBoundaries() throws Exception {
+        /* small chunks so that blocks start in and span several chunks */
+        MappedFile mappedFile = new MappedFile(inputFile.getChannel(), 64);
+        ReadBuffer expected = new ReadBuffer(inputFile);
+        AbstractReadBuffer mapped = new MappedReadBuffer(mappedFile);
+
+        Assert.assertTrue(mapped.readFromFile(17, length));
+        Assert.assertTrue(expected.readFromFile(17, length));
+        for (int i = 0; i < NUM_VALUES; i++) {
+            Assert.assertEquals(expected.readUnsignedInt(), mapped.readUnsignedInt());
+            Assert.assertEquals(expected.readSignedInt(), mapped.readSignedInt());
+            Assert.assertEquals(expected.readByte(), mapped.readByte());
+        }
+        Assert.assertEquals("Straße", mapped.readUTF8EncodedString());
+
+        long fileSize = length + 17;
+        for (long offset : new long[]{60, 64, 130, fileSize - 200}) {
+            int size = (int) (fileSize - offset);
+            Assert.assertTrue(expected.readFromFile(offset, size));
+            Assert.assertTrue(mapped.readFromFile(offset, size));
+            for (int i = 0; i < size; i++)
+                Assert.assertEquals(expected.readByte(), mapped.readByte());
+
+            /* reads which cross a chunk boundary */
+            expected.setBufferPosition(124 - (int) (offset % 64));
+            mapped.setBufferPosition(124 - (int) (offset % 64));
+            Assert.assertEquals(expected.readLong(), mapped.readLong());
+        }
+    }
+
+    @Test
+    public void shouldRejectBlocksBeyondFile() throws Exception {
+        AbstractReadBuffer mapped = new MappedReadBuffer(new MappedFile(inputFile.getChannel()));
+        Assert.assertFalse(mapped.readFromFile(17, length + 1));
+    }
+}
@@ -0,0 +1,198 @@
+package org.oscim.tiling.source.mapfile;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.core.GeometryBuffer.GeometryType;
+import org.oscim.core.MapElement;
+import org.oscim.core.Tag;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.QueryResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MultiMapDatabaseTest {
+
+    static class Sink implements ITileDataSink {
+        final List<String> elements = new ArrayList<>();
+        QueryResult result;
+
+        @Override
+        public void process(MapElement element) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(element.type).append(' ').append(element.layer).append(' ')
+                    .append(element.tags);
+            for (int i = 0; i < element.pointPos; i++)
+                sb.append(' ').append(element.points[i]);
+            for (int i = 0; i < element.index.length && element.index[i] >= 0; i++)
+                sb.append(" #").append(element.index[i]);
+            elements.add(sb.toString());
+        }
+
+        @Override
+        public void setTileImage(Bitmap bitmap) {
+        }
+
+        @Override
+        public void completed(QueryResult result) {
+            this.result = result;
+        }
+    }
+
+    private static MapElement line(MapElement e, float offset, String value) {
+        e.clear();
+        e.tags.clear();
+        e.tags.add(new Tag("highway", value));
+        e.startLine();
+        e.addPoint(offset, 0);
+        e.addPoint(offset + 10, 10);
+        e.addPoint(offset + 20, 0);
+        e.setLayer(7);
+        return e;
+    }
+
+    @Test
+    public void shouldReplayCopiesOfElements() {
+        /* decoders reuse one element */
+        MapElement e = new MapElement();
+        Sink expected = new Sink();
+        MultiMapDatabase.ElementBuffer buffer = new MultiMapDatabase.ElementBuffer();
+
+        for (int i = 0; i < 3; i++) {
+            line(e, i, "primary" + i);
+            expected.process(e);
+            buffer.process(e);
+        }
+        buffer.completed(QueryResult.SUCCESS);
+
+        Sink sink = new Sink();
+        buffer.replay(sink);
+        assertThat(sink.elements).isEqualTo(expected.elements);
+        assertThat(sink.elements.get(2)).contains("LINE 7 Tag[highway,primary2]");
+        assertThat(sink.result).isEqualTo(QueryResult.SUCCESS);
+
+        /* elements are reused after clear */
+        buffer.clear();
+        buffer.process(line(e, 5, "secondary"));
+        buffer.completed(QueryResult.SUCCESS);
+
+        sink = new Sink();
+        buffer.replay(sink);
+        assertThat(sink.elements).hasSize(1);
+        assertThat(sink.elements.get(0)).contains("Tag[highway,secondary]");
+    }
+
+    @Test
+    public void shouldSucceedWhenAnyDatabaseSucceeds() {
+        Sink sink = new Sink();
+        MultiMapDataSink multiMapDataSink = new MultiMapDataSink(sink);
+
+        multiMapDataSink.completed(QueryResult.FAILED);
+        assertThat(multiMapDataSink.getResult()).isEqualTo(QueryResult.FAILED);
+
+        multiMapDataSink.completed(QueryResult.SUCCESS);
+        multiMapDataSink.completed(QueryResult.FAILED);
+        assertThat(multiMapDataSink.getResult()).isEqualTo(QueryResult.SUCCESS);
+    }
+
+    /**
+     * Map database which passes on a line with 'value' and runs 'action' before.
+     */
+    private static MapDatabase mapDatabase(final String value, final Runnable action) {
+        MapDatabase mapDatabase = mock(MapDatabase.class);
+        when(mapDatabase.getTileSource()).thenReturn(mock(MapFileTileSource.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                if (action != null)
+                    action.run();
+                ITileDataSink sink = (ITileDataSink) invocation.getArguments()[1];
+                sink.process(line(new MapElement(), 0, value));
+                sink.completed(QueryResult.SUCCESS);
+                return null;
+            }
+        }).when(mapDatabase).query(any(MapTile.class), any(ITileDataSink.class));
+        return mapDatabase;
+    }
+
+    @Test
+    public void shouldWaitForRunningQueriesWhenInterrupted() throws Exception {
+        final AtomicBoolean interrupt = new AtomicBoolean(true);
+        final AtomicBoolean running = new AtomicBoolean();
+
+        /* the first database is queried on the calling thread */
+        MapDatabase first = mapDatabase("first", new Runnable() {
+            @Override
+            public void run() {
+                if (!interrupt.get())
+                    return;
+                while (!running.get())
+                    Thread.yield();
+                Thread.currentThread().interrupt();
+            }
+        });
+        MapDatabase slow = mapDatabase("slow", new Runnable() {
+            @Override
+            public void run() {
+                if (!interrupt.get())
+                    return;
+                running.set(true);
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                running.set(false);
+            }
+        });
+        MapDatabase pending = mapDatabase("pending", null);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        MultiMapFileTileSource tileSource = mock(MultiMapFileTileSource.class);
+        when(tileSource.getExecutor()).thenReturn(executor);
+
+        MultiMapDatabase multiMapDatabase = new MultiMapDatabase(tileSource);
+        multiMapDatabase.add(first);
+        multiMapDatabase.add(slow);
+        multiMapDatabase.add(pending);
+
+        MapTile tile = new MapTile(null, 0, 0, 0);
+        Sink sink = new Sink();
+        multiMapDatabase.query(tile, sink);
+
+        assertThat(Thread.interrupted()).isTrue();
+        assertThat(sink.elements).hasSize(1);
+        assertThat(sink.elements.get(0)).contains("first");
+        assertThat(running.get()).isFalse();
+        verify(pending, never()).query(any(MapTile.class), any(ITileDataSink.class));
+
+        /* buffers are not replayed again */
+        interrupt.set(false);
+        sink = new Sink();
+        multiMapDatabase.query(tile, sink);
+
+        assertThat(sink.result).isEqualTo(QueryResult.SUCCESS);
+        assertThat(sink.elements).hasSize(3);
+        assertThat(sink.elements.get(0)).contains("first");
+        assertThat(sink.elements.get(1)).contains("slow");
+        assertThat(sink.elements.get(2)).contains("pending");
+        verify(slow, times(2)).query(any(MapTile.class), any(ITileDataSink.class));
+
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,134 @@
+package org.oscim.tiling.source.mbtiles;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.core.MapElement;
+import org.oscim.core.Tile;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.QueryResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class MBTilesTileSourceTest {
+    private File file;
+    private MBTilesTileSource tileSource;
+
+    static class Sink implements ITileDataSink {
+        QueryResult result;
+
+        @Override
+        public void process(MapElement element) {
+        }
+
+        @Override
+        public void setTileImage(Bitmap bitmap) {
+        }
+
+        @Override
+        public void completed(QueryResult result) {
+            this.result = result;
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gz = new GZIPOutputStream(out);
+        gz.write(data);
+        gz.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] zlib(byte[] data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream z = new DeflaterOutputStream(out);
+        z.write(data);
+        z.close();
+        return out.toByteArray();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("vtm", ".mbtiles");
+        Connection c = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        Statement st = c.createStatement();
+        st.execute("CREATE TABLE metadata (name TEXT, value TEXT)");
+        st.execute("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER, "
+                + "tile_row INTEGER, tile_data BLOB)");
+        st.execute("INSERT INTO metadata VALUES ('format', 'pbf')");
+        st.execute("INSERT INTO metadata VALUES ('minzoom', '2')");
+        st.execute("INSERT INTO metadata VALUES ('maxzoom', '14')");
+        st.close();
+
+        /* an empty vector tile, row 2 is y 1 at zoom 2 */
+        PreparedStatement ps = c.prepareStatement("INSERT INTO tiles VALUES (2, 1, 2, ?)");
+        ps.setBytes(1, gzip(new byte[0]));
+        ps.execute();
+        ps.close();
+        c.close();
+
+        tileSource = new MBTilesTileSource(file.getPath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tileSource.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldReadMetadata() throws Exception {
+        Assert.assertTrue(tileSource.open().isSuccess());
+        Assert.assertTrue(tileSource.isVector());
+        Assert.assertEquals(2, tileSource.getZoomLevelMin());
+        Assert.assertEquals(14, tileSource.getZoomLevelMax());
+    }
+
+    @Test
+    public void shouldFailForMissingFile() throws Exception {
+        MBTilesTileSource missing = new MBTilesTileSource(file.getPath() + ".missing");
+        Assert.assertFalse(missing.open().isSuccess());
+    }
+
+    @Test
+    public void shouldQueryTmsRows() throws Exception {
+        Assert.assertTrue(tileSource.open().isSuccess());
+        MBTilesTileDataSource dataSource = (MBTilesTileDataSource) tileSource.getDataSource();
+
+        Sink sink = new Sink();
+        dataSource.query(new MapTile(null, 1, 1, 2), sink);
+        Assert.assertEquals(QueryResult.SUCCESS, sink.result);
+
+        dataSource.query(new MapTile(null, 1, 2, 2), sink);
+        Assert.assertEquals(QueryResult.TILE_NOT_FOUND, sink.result);
+
+        Assert.assertNotNull(dataSource.readTile(new Tile(1, 1, (byte) 2)));
+        dataSource.dispose();
+    }
+
+    @Test
+    public void shouldInflateIntoBuffer() throws Exception {
+        Assert.assertTrue(tileSource.open().isSuccess());
+        MBTilesTileDataSource dataSource = (MBTilesTileDataSource) tileSource.getDataSource();
+
+        /* larger than the initial buffer */
+        byte[] data = new byte[200 * 1024];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (i * 7 % 251);
+
+        Assert.assertEquals(data.length, dataSource.inflate(gzip(data)));
+        Assert.assertEquals(data.length, dataSource.inflate(zlib(data)));
+        Assert.assertEquals(3, dataSource.inflate(new byte[]{10, 1, 2}));
+        dataSource.dispose();
+    }
+}
@@ -0,0 +1,130 @@
+package org.oscim.tiling.source.mvt;
+
+import org.junit.Test;
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.core.MapElement;
+import org.oscim.core.Tile;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.QueryResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TileDecoderTest {
+
+    static class Sink implements ITileDataSink {
+        final List<String> tags = new ArrayList<>();
+        final List<Float> points = new ArrayList<>();
+
+        @Override
+        public void process(MapElement element) {
+            tags.add(element.tags.toString());
+            for (int i = 0; i < element.pointPos; i++)
+                points.add(element.points[i]);
+        }
+
+        @Override
+        public void setTileImage(Bitmap bitmap) {
+        }
+
+        @Override
+        public void completed(QueryResult result) {
+        }
+    }
+
+    private static void varint(ByteArrayOutputStream out, int val) {
+        while ((val & ~0x7f) != 0) {
+            out.write((val & 0x7f) | 0x80);
+            val >>>= 7;
+        }
+        out.write(val);
+    }
+
+    private static void message(ByteArrayOutputStream out, int tag, byte[] data) {
+        varint(out, (tag << 3) | 2);
+        varint(out, data.length);
+        out.write(data, 0, data.length);
+    }
+
+    private static byte[] stringValue(String s) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message(out, 1, s.getBytes("UTF-8"));
+        return out.toByteArray();
+    }
+
+    private static byte[] pointFeature(int x, int y, int... tags) {
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        for (int t : tags)
+            varint(packed, t);
+
+        ByteArrayOutputStream geom = new ByteArrayOutputStream();
+        varint(geom, (1 << 3) | 1);
+        varint(geom, x << 1);
+        varint(geom, y << 1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message(out, 2, packed.toByteArray());
+        varint(out, 3 << 3);
+        varint(out, 1);
+        message(out, 4, geom.toByteArray());
+        return out.toByteArray();
+    }
+
+    /**
+     * Layer with two point features, value "unused" is not referenced.
+     */
+    private static byte[] createTile() throws IOException {
+        ByteArrayOutputStream layer = new ByteArrayOutputStream();
+        message(layer, 1, "roads".getBytes("UTF-8"));
+        message(layer, 2, pointFeature(64, 128, 0, 0));
+        message(layer, 2, pointFeature(256, 512, 0, 2, 1, 3));
+        message(layer, 3, "highway".getBytes("UTF-8"));
+        message(layer, 3, "name".getBytes("UTF-8"));
+        message(layer, 4, stringValue("primary"));
+        message(layer, 4, stringValue("unused"));
+        message(layer, 4, stringValue("secondary"));
+        message(layer, 4, stringValue("Straße"));
+
+        ByteArrayOutputStream tile = new ByteArrayOutputStream();
+        message(tile, 3, layer.toByteArray());
+        return tile.toByteArray();
+    }
+
+    private final Tile mTile = new Tile(0, 0, (byte) 14);
+
+    @Test
+    public void shouldDecodeByteArrayLikeStream() throws Exception {
+        byte[] data = createTile();
+        TileDecoder decoder = new TileDecoder();
+
+        Sink fromStream = new Sink();
+        assertThat(decoder.decode(mTile, fromStream, new ByteArrayInputStream(data))).isTrue();
+        assertThat(fromStream.tags).hasSize(2);
+        assertThat(fromStream.tags.get(1)).contains("Straße");
+
+        /* at an offset, with trailing bytes */
+        byte[] padded = new byte[data.length + 20];
+        System.arraycopy(data, 0, padded, 7, data.length);
+
+        Sink fromArray = new Sink();
+        assertThat(decoder.decode(mTile, fromArray, padded, 7, data.length)).isTrue();
+        assertThat(fromArray.tags).isEqualTo(fromStream.tags);
+        assertThat(fromArray.points).isEqualTo(fromStream.points);
+
+        /* the decoder switches back to reading streams */
+        Sink again = new Sink();
+        assertThat(decoder.decode(mTile, again, new ByteArrayInputStream(data))).isTrue();
+        assertThat(again.tags).isEqualTo(fromStream.tags);
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailOnTruncatedByteArray() throws Exception {
+        byte[] data = createTile();
+        new TileDecoder().decode(mTile, new Sink(), data, 0, data.length - 3);
+    }
+}
@@ -0,0 +1,238 @@
+package org.oscim.utils.osmpbf;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.Test;
+import org.openstreetmap.osmosis.osmbinary.Fileformat;
+import org.openstreetmap.osmosis.osmbinary.Osmformat;
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.core.MapElement;
+import org.oscim.core.osm.OsmData;
+import org.oscim.core.osm.OsmNode;
+import org.oscim.core.osm.OsmWay;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.QueryResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.offset;
+
+public class OsmPbfParserTest {
+
+    private static final String[] STRINGS = {"", "highway", "residential",
+            "building", "yes", "amenity", "cafe"};
+
+    /**
+     * Dense nodes from id 'first' on a diagonal, the last one is a cafe.
+     */
+    private static Osmformat.PrimitiveBlock nodes(long first, int count) {
+        Osmformat.DenseNodes.Builder dense = Osmformat.DenseNodes.newBuilder();
+        for (int i = 0; i < count; i++) {
+            dense.addId(i == 0 ? first : 1);
+            dense.addLat(i == 0 ? 52000000L : 1000);
+            dense.addLon(i == 0 ? 13000000L : 1000);
+            if (i == count - 1) {
+                dense.addKeysVals(5);
+                dense.addKeysVals(6);
+            }
+            dense.addKeysVals(0);
+        }
+        return block(Osmformat.PrimitiveGroup.newBuilder().setDense(dense));
+    }
+
+    private static Osmformat.PrimitiveBlock ways() {
+        Osmformat.PrimitiveGroup.Builder group = Osmformat.PrimitiveGroup.newBuilder();
+        /* road 1-2-3 */
+        group.addWays(Osmformat.Way.newBuilder().setId(100)
+                .addKeys(1).addVals(2)
+                .addRefs(1).addRefs(1).addRefs(1));
+        /* building 4-5-6-4 */
+        group.addWays(Osmformat.Way.newBuilder().setId(101)
+                .addKeys(3).addVals(4)
+                .addRefs(4).addRefs(1).addRefs(1).addRefs(-2));
+        return block(group);
+    }
+
+    private static Osmformat.PrimitiveBlock block(Osmformat.PrimitiveGroup.Builder group) {
+        Osmformat.StringTable.Builder table = Osmformat.StringTable.newBuilder();
+        for (String s : STRINGS)
+            table.addS(ByteString.copyFromUtf8(s));
+
+        return Osmformat.PrimitiveBlock.newBuilder()
+                .setStringtable(table)
+                .addPrimitivegroup(group)
+                .build();
+    }
+
+    private static void write(DataOutputStream out, String type, byte[] data, boolean zlib)
+            throws IOException {
+        Fileformat.Blob.Builder blob = Fileformat.Blob.newBuilder();
+        if (zlib) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buf = new byte[data.length + 64];
+            int size = deflater.deflate(buf);
+            deflater.end();
+            blob.setZlibData(ByteString.copyFrom(buf, 0, size)).setRawSize(data.length);
+        } else {
+            blob.setRaw(ByteString.copyFrom(data));
+        }
+        byte[] blobData = blob.build().toByteArray();
+
+        byte[] header = Fileformat.BlobHeader.newBuilder()
+                .setType(type)
+                .setDatasize(blobData.length)
+                .build().toByteArray();
+
+        out.writeInt(header.length);
+        out.write(header);
+        out.write(blobData);
+    }
+
+    /**
+     * Ways with references to nodes which are not in the file.
+     */
+    private static Osmformat.PrimitiveBlock incompleteWays() {
+        Osmformat.PrimitiveGroup.Builder group = Osmformat.PrimitiveGroup.newBuilder();
+        /* road 2-99-3 */
+        group.addWays(Osmformat.Way.newBuilder().setId(102)
+                .addKeys(1).addVals(2)
+                .addRefs(2).addRefs(97).addRefs(-96));
+        /* road 1-99 */
+        group.addWays(Osmformat.Way.newBuilder().setId(103)
+                .addKeys(1).addVals(2)
+                .addRefs(1).addRefs(98));
+        return block(group);
+    }
+
+    private static InputStream file() throws IOException {
+        return file("DenseNodes", ways());
+    }
+
+    private static InputStream file(String feature, Osmformat.PrimitiveBlock ways)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        write(out, "OSMHeader", Osmformat.HeaderBlock.newBuilder()
+                .addRequiredFeatures("OsmSchema-V0.6")
+                .addRequiredFeatures(feature)
+                .build().toByteArray(), false);
+        write(out, "OSMData", nodes(1, 3).toByteArray(), true);
+        write(out, "OSMData", nodes(4, 3).toByteArray(), false);
+        write(out, "OSMData", ways.toByteArray(), true);
+        out.close();
+
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    @Test
+    public void shouldReadOsmData() throws IOException {
+        OsmPbfParser parser = new OsmPbfParser();
+        parser.parse(file());
+        OsmData data = parser.getData();
+
+        /* only tagged nodes */
+        assertThat(data.getNodes()).hasSize(2);
+        OsmNode cafe = data.getNodes().iterator().next();
+        assertThat(cafe.id).isEqualTo(3);
+        assertThat(cafe.tags.getValue("amenity")).isEqualTo("cafe");
+        assertThat(cafe.lat).isEqualTo(5.2002, offset(1E-9));
+        assertThat(cafe.lon).isEqualTo(1.3002, offset(1E-9));
+
+        List<OsmWay> ways = new ArrayList<>(data.getWays());
+        assertThat(ways).hasSize(2);
+        assertThat(ways.get(0).tags.getValue("highway")).isEqualTo("residential");
+        assertThat(ways.get(0).nodes).hasSize(3);
+        assertThat(ways.get(0).nodes.get(1).lat).isEqualTo(5.2001, offset(1E-9));
+        assertThat(ways.get(1).isClosed()).isTrue();
+    }
+
+    @Test
+    public void shouldShareWayNodes() throws IOException {
+        OsmPbfParser parser = new OsmPbfParser();
+        parser.parse(file());
+        OsmData data = parser.getData();
+
+        List<OsmNode> nodes = new ArrayList<>(data.getNodes());
+        List<OsmWay> ways = new ArrayList<>(data.getWays());
+        OsmWay building = ways.get(1);
+        assertThat(building.nodes.get(0)).isSameAs(building.nodes.get(3));
+
+        /* cafe 6 is a node of the building */
+        assertThat(nodes.get(1).id).isEqualTo(6);
+        assertThat(building.nodes.get(2)).isSameAs(nodes.get(1));
+    }
+
+    @Test
+    public void shouldDropMissingWayNodes() throws IOException {
+        OsmPbfParser parser = new OsmPbfParser();
+        parser.parse(file("DenseNodes", incompleteWays()));
+
+        List<OsmWay> ways = new ArrayList<>(parser.getData().getWays());
+        assertThat(ways).hasSize(1);
+        assertThat(ways.get(0).id).isEqualTo(102);
+        assertThat(ways.get(0).nodes).hasSize(2);
+        assertThat(ways.get(0).nodes.get(1).id).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldFailOnUnknownFeature() throws IOException {
+        Sink sink = new Sink();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            new OsmPbfParser(sink, pool).parse(file("HistoricalInformation", ways()));
+            throw new AssertionError("expected RuntimeException");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage()).contains("HistoricalInformation");
+        } finally {
+            pool.shutdown();
+        }
+        assertThat(sink.results).containsExactly(QueryResult.FAILED);
+    }
+
+    static class Sink implements ITileDataSink {
+        final List<String> elements = new ArrayList<>();
+        final List<QueryResult> results = new ArrayList<>();
+
+        @Override
+        public void process(MapElement element) {
+            elements.add(element.type + " " + element.getNumPoints() + " "
+                    + element.tags.asArray()[0].key);
+        }
+
+        @Override
+        public void setTileImage(Bitmap bitmap) {
+        }
+
+        @Override
+        public void completed(QueryResult result) {
+            results.add(result);
+        }
+    }
+
+    @Test
+    public void shouldStreamElements() throws IOException {
+        Sink sink = new Sink();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        OsmPbfReader.process(file(), sink, pool);
+        pool.shutdown();
+
+        assertThat(sink.elements).containsOnly(
+                "POINT 1 amenity",
+                "LINE 3 highway",
+                "POLY 3 building");
+        assertThat(sink.elements).hasSize(4);
+        assertThat(sink.results).containsExactly(QueryResult.SUCCESS);
+    }
+}
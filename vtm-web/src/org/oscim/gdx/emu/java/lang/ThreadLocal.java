@@ -0,0 +1,29 @@
+package java.lang;
+
+public class ThreadLocal<T> {
+
+    private boolean mInitialized;
+    private T mValue;
+
+    protected T initialValue() {
+        return null;
+    }
+
+    public T get() {
+        if (!mInitialized) {
+            mValue = initialValue();
+            mInitialized = true;
+        }
+        return mValue;
+    }
+
+    public void set(T value) {
+        mValue = value;
+        mInitialized = true;
+    }
+
+    public void remove() {
+        mValue = null;
+        mInitialized = false;
+    }
+}
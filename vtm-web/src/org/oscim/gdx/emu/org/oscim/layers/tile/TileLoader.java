@@ -89,6 +89,24 @@ public abstract class TileLoader implements ITileDataSink {
     protected boolean mWorking;
     protected MapTile mTile;
 
+    /**
+     * metrics are not collected here
+     */
+    protected TileMetrics.Trace mTrace;
+
+    public boolean isIdle() {
+        return !mWorking;
+    }
+
+    /**
+     * jobs are loaded one by one here
+     */
+    public void setBatchSize(int size) {
+    }
+
+    protected void prepareJobs(MapTile[] jobs, int count) {
+    }
+
     public void go() {
         if (mWorking)
             return;
@@ -120,12 +138,13 @@ public abstract class TileLoader implements ITileDataSink {
         //log.debug("completed {}  diff time:{}", mTile, (now - lastLoadTime));
         lastLoadTime = now;
 
-        mTileManager.jobCompleted(mTile, result);
+        if (mTileManager != null)
+            mTileManager.jobCompleted(mTile, result);
         mTile = null;
 
         mWorking = false;
 
-        if (mPausing || !mTileManager.hasTileJobs())
+        if (mPausing || mTileManager == null || !mTileManager.hasTileJobs())
             return;
 
         Gdx.app.postRunnable(new Runnable() {
@@ -126,4 +126,8 @@ public class LwHttp implements HttpEngine {
     @Override
     public void sendRequest(Tile tile) throws IOException {
     }
+
+    @Override
+    public void sendRequests(Tile[] tiles, int count) throws IOException {
+    }
 }
@@ -83,6 +83,13 @@ public class UrlTileDataSource implements ITileDataSource {
         mSink = null;
     }
 
+    public int getBatchSize() {
+        return 1;
+    }
+
+    public void sendRequests(MapTile[] tiles, int count) {
+    }
+
     @Override
     public void dispose() {
         mConn.close();
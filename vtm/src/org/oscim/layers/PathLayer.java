@@ -35,8 +35,10 @@ import org.oscim.theme.styles.LineStyle;
 import org.oscim.utils.FastMath;
 import org.oscim.utils.async.SimpleWorker;
 import org.oscim.utils.geom.LineClipper;
+import org.oscim.utils.geom.SimplifyDP;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -51,6 +53,16 @@ public class PathLayer extends Layer {
     protected final ArrayList<GeoPoint> mPoints;
     protected boolean mUpdatePoints;
 
+    /**
+     * Points were replaced, not only appended.
+     */
+    protected boolean mResetPoints;
+
+    /**
+     * Only project and simplify appended points.
+     */
+    protected boolean mIncremental;
+
     /**
      * Line style
      */
@@ -79,12 +91,34 @@ public class PathLayer extends Layer {
         mLineStyle = style;
     }
 
+    /**
+     * In incremental mode only points appended since the last update are
+     * projected. The path is kept in chunks which are simplified once per
+     * zoom level and skipped when they are not visible, so that long live
+     * tracks stay cheap to update and draw.
+     * <p/>
+     * Points must then only be changed by the methods of this layer, not
+     * through {@link #getPoints()}.
+     */
+    public void setIncremental(boolean incremental) {
+        synchronized (mPoints) {
+            mIncremental = incremental;
+            mResetPoints = true;
+        }
+        updatePoints();
+    }
+
+    public boolean isIncremental() {
+        return mIncremental;
+    }
+
     public void clearPath() {
         if (mPoints.isEmpty())
             return;
 
         synchronized (mPoints) {
             mPoints.clear();
+            mResetPoints = true;
         }
         updatePoints();
     }
@@ -93,6 +127,7 @@ public class PathLayer extends Layer {
         synchronized (mPoints) {
             mPoints.clear();
             mPoints.addAll(pts);
+            mResetPoints = true;
         }
         updatePoints();
     }
@@ -245,6 +280,50 @@ public class PathLayer extends Layer {
         MapPosition pos = new MapPosition();
     }
 
+    /**
+     * Range of pre-projected points in incremental mode. The last point is
+     * also the first point of the next chunk.
+     */
+    final static class Chunk {
+        final int start;
+        int end;
+
+        double minX, minY, maxX, maxY;
+
+        /**
+         * Points left by simplification at zoomLevel, -1 when not simplified
+         */
+        int zoomLevel = -1;
+        int[] indices = new int[0];
+        int numIndices;
+
+        Chunk(double[] points, int start) {
+            this.start = end = start;
+            minX = maxX = points[start * 2];
+            minY = maxY = points[start * 2 + 1];
+        }
+
+        void add(double[] points, int i) {
+            double x = points[i * 2];
+            double y = points[i * 2 + 1];
+            if (x < minX)
+                minX = x;
+            if (x > maxX)
+                maxX = x;
+            if (y < minY)
+                minY = y;
+            if (y > maxY)
+                maxY = y;
+
+            end = i;
+            zoomLevel = -1;
+        }
+
+        boolean intersects(double x1, double y1, double x2, double y2) {
+            return minX <= x2 && maxX >= x1 && minY <= y2 && maxY >= y1;
+        }
+    }
+
     final class Worker extends SimpleWorker<Task> {
 
         // limit coords
@@ -258,6 +337,12 @@ public class PathLayer extends Layer {
 
         private static final int MIN_DIST = 3;
 
+        /* points per chunk in incremental mode */
+        private static final int CHUNK_SIZE = 1024;
+
+        /* max distance of simplified to original path, in pixels */
+        private static final float SIMPLIFY_TOLERANCE = 0.5f;
+
         // pre-projected points
         private double[] mPreprojected = new double[2];
 
@@ -266,6 +351,13 @@ public class PathLayer extends Layer {
         private final LineClipper mClipper;
         private int mNumPoints;
 
+        // incremental mode
+        private boolean mUseChunks;
+        private final ArrayList<Chunk> mChunks = new ArrayList<>();
+        private final SimplifyDP mSimplifyDP = new SimplifyDP();
+        private float[] mSimplified = new float[0];
+        private double[] mVisible = new double[0];
+
         @Override
         public boolean doWork(Task task) {
 
@@ -274,18 +366,15 @@ public class PathLayer extends Layer {
             if (mUpdatePoints) {
                 synchronized (mPoints) {
                     mUpdatePoints = false;
-                    mNumPoints = size = mPoints.size();
-
-                    ArrayList<GeoPoint> geopoints = mPoints;
-                    double[] points = mPreprojected;
-
-                    if (size * 2 >= points.length) {
-                        points = mPreprojected = new double[size * 2];
-                        mPPoints = new float[size * 2];
+                    mUseChunks = mIncremental;
+
+                    if (mUseChunks) {
+                        size = appendPoints();
+                    } else {
+                        mResetPoints = false;
+                        mChunks.clear();
+                        size = projectPoints();
                     }
-
-                    for (int i = 0; i < size; i++)
-                        MercatorProjection.project(geopoints.get(i), points, i);
                 }
 
             } else if (mGeom != null) {
@@ -306,6 +395,10 @@ public class PathLayer extends Layer {
                             i >> 1);
                 mNumPoints = size = size >> 1;
 
+                if (mUseChunks) {
+                    mChunks.clear();
+                    addChunks(0, size);
+                }
             }
             if (size == 0) {
                 if (task.bucket.get() != null) {
@@ -336,11 +429,182 @@ public class PathLayer extends Layer {
             double scale = Tile.SIZE * task.pos.scale;
 
             // flip around dateline
-            int flip = 0;
             int maxx = Tile.SIZE << (zoomlevel - 1);
 
-            int x = (int) ((mPreprojected[0] - mx) * scale);
-            int y = (int) ((mPreprojected[1] - my) * scale);
+            if (mUseChunks)
+                addVisibleChunks(ll, zoomlevel, mx, my, scale, maxx);
+            else
+                addLines(ll, mPreprojected, size, mx, my, scale, maxx);
+
+            // trigger redraw to let renderer fetch the result.
+            mMap.render();
+
+            return true;
+        }
+
+        /**
+         * Project all points.
+         */
+        private int projectPoints() {
+            int size = mNumPoints = mPoints.size();
+
+            ArrayList<GeoPoint> geopoints = mPoints;
+            double[] points = mPreprojected;
+
+            if (size * 2 >= points.length) {
+                points = mPreprojected = new double[size * 2];
+                mPPoints = new float[size * 2];
+            }
+
+            for (int i = 0; i < size; i++)
+                MercatorProjection.project(geopoints.get(i), points, i);
+
+            return size;
+        }
+
+        /**
+         * Project points appended since the last update, or all points when
+         * they were replaced.
+         */
+        private int appendPoints() {
+            int size = mPoints.size();
+            int start = mNumPoints;
+
+            if (mResetPoints || size < start) {
+                mResetPoints = false;
+                mChunks.clear();
+                start = 0;
+            }
+
+            if (size * 2 > mPreprojected.length)
+                mPreprojected = Arrays.copyOf(mPreprojected,
+                        Math.max(size * 2, mPreprojected.length * 2));
+
+            for (int i = start; i < size; i++)
+                MercatorProjection.project(mPoints.get(i), mPreprojected, i);
+
+            mNumPoints = size;
+            addChunks(start, size);
+
+            return size;
+        }
+
+        private void addChunks(int start, int size) {
+            double[] points = mPreprojected;
+
+            for (int i = start; i < size; i++) {
+                if (mChunks.isEmpty()) {
+                    mChunks.add(new Chunk(points, i));
+                    continue;
+                }
+                Chunk c = mChunks.get(mChunks.size() - 1);
+                if (c.end - c.start == CHUNK_SIZE) {
+                    c = new Chunk(points, c.end);
+                    mChunks.add(c);
+                }
+                c.add(points, i);
+            }
+        }
+
+        /**
+         * Simplify the points of a chunk for zoomLevel.
+         */
+        private void simplify(Chunk c, int zoomLevel) {
+            int n = c.end - c.start + 1;
+
+            if (c.indices.length < n)
+                c.indices = new int[n];
+
+            c.zoomLevel = zoomLevel;
+            c.numIndices = n;
+
+            if (n < 3) {
+                for (int i = 0; i < n; i++)
+                    c.indices[i] = c.start + i;
+                return;
+            }
+
+            /* pixel coordinates relative to the first point */
+            double[] points = mPreprojected;
+            double scale = Tile.SIZE * (double) (1 << zoomLevel);
+            double ox = points[c.start * 2];
+            double oy = points[c.start * 2 + 1];
+
+            if (mSimplified.length < n * 4)
+                mSimplified = new float[n * 4];
+
+            float[] pts = mSimplified;
+            for (int i = 0, j = c.start * 2; i < n * 2; i += 2, j += 2) {
+                pts[i + 0] = (float) ((points[j + 0] - ox) * scale);
+                pts[i + 1] = (float) ((points[j + 1] - oy) * scale);
+            }
+
+            /* simplified points follow the points */
+            int end = mSimplifyDP.simplify(pts, 0, n * 2, n * 2,
+                    SIMPLIFY_TOLERANCE * SIMPLIFY_TOLERANCE);
+
+            /* find the index of each remaining point */
+            int num = 0;
+            for (int o = n * 2, i = 0; o < end; o += 2) {
+                while (pts[i] != pts[o] || pts[i + 1] != pts[o + 1])
+                    i += 2;
+                c.indices[num++] = c.start + (i >> 1);
+            }
+            c.numIndices = num;
+        }
+
+        /**
+         * Add the simplified points of chunks within the clip region,
+         * consecutive chunks are added as one line.
+         */
+        private void addVisibleChunks(LineBucket ll, int zoomLevel,
+                                      double mx, double my, double scale, int maxx) {
+            double d = max / scale;
+            double[] points = mPreprojected;
+            int n = 0;
+
+            for (int k = 0, nk = mChunks.size(); k < nk; k++) {
+                Chunk c = mChunks.get(k);
+
+                /* also check the map copies at the dateline */
+                if (!c.intersects(mx - d, my - d, mx + d, my + d)
+                        && !c.intersects(mx - d - 1, my - d, mx + d - 1, my + d)
+                        && !c.intersects(mx - d + 1, my - d, mx + d + 1, my + d)) {
+                    if (n > 1)
+                        addLines(ll, mVisible, n, mx, my, scale, maxx);
+                    n = 0;
+                    continue;
+                }
+
+                if (c.zoomLevel != zoomLevel)
+                    simplify(c, zoomLevel);
+
+                if ((n + c.numIndices) * 2 > mVisible.length)
+                    mVisible = Arrays.copyOf(mVisible,
+                            Math.max((n + c.numIndices) * 2, mVisible.length * 2));
+
+                /* the first point is the last of the previous chunk */
+                for (int i = (n == 0 ? 0 : 1); i < c.numIndices; i++) {
+                    int p = c.indices[i] * 2;
+                    mVisible[n * 2 + 0] = points[p + 0];
+                    mVisible[n * 2 + 1] = points[p + 1];
+                    n++;
+                }
+            }
+            if (n > 1)
+                addLines(ll, mVisible, n, mx, my, scale, maxx);
+        }
+
+        private void addLines(LineBucket ll, double[] points, int size,
+                              double mx, double my, double scale, int maxx) {
+            if (mPPoints.length < size * 2)
+                mPPoints = new float[size * 2];
+
+            // flip around dateline
+            int flip = 0;
+
+            int x = (int) ((points[0] - mx) * scale);
+            int y = (int) ((points[1] - my) * scale);
 
             if (x > maxx) {
                 x -= (maxx * 2);
@@ -361,8 +625,8 @@ public class PathLayer extends Layer {
             float[] segment = null;
 
             for (int j = 2; j < size * 2; j += 2) {
-                x = (int) ((mPreprojected[j + 0] - mx) * scale);
-                y = (int) ((mPreprojected[j + 1] - my) * scale);
+                x = (int) ((points[j + 0] - mx) * scale);
+                y = (int) ((points[j + 1] - my) * scale);
 
                 int flipDirection = 0;
                 if (x > maxx) {
@@ -416,11 +680,6 @@ public class PathLayer extends Layer {
             }
             if (i > 2)
                 ll.addLine(projected, i, false);
-
-            // trigger redraw to let renderer fetch the result.
-            mMap.render();
-
-            return true;
         }
 
         @Override
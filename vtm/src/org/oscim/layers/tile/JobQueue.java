@@ -1,5 +1,6 @@
 /*
  * Copyright 2012, 2013 Hannes Janetzek
+ * Copyright 2016 devemux86
  *
  * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
  *
@@ -19,78 +20,229 @@ package org.oscim.layers.tile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+
 import static org.oscim.layers.tile.MapTile.State.CANCEL;
+import static org.oscim.layers.tile.MapTile.State.DEADBEEF;
 import static org.oscim.layers.tile.MapTile.State.LOADING;
 import static org.oscim.layers.tile.MapTile.State.NONE;
 
 /**
  * A JobQueue keeps the list of pending jobs for a MapView and prioritizes them.
+ * <p/>
+ * Pending jobs are kept in a binary heap ordered by {@link MapTile#prefetchStep}
+ * and {@link MapTile#distance} at the time they were set, so that visible tiles
+ * are loaded before prefetched ones, polling the nearest tile does not require
+ * sorting all jobs and later changes of the distance, e.g. when the TileManager
+ * updates the distances of all cached tiles, do not break the heap. Jobs
+ * remain queued across updates as long as they are still requested, running
+ * jobs which are no longer requested are canceled.
  */
 public class JobQueue {
 
     static final Logger log = LoggerFactory.getLogger(JobQueue.class);
 
-    private int mCurrentJob = 0;
-    private MapTile[] mJobs;
+    /**
+     * {@link MapTile#queueIndex} of tiles which are not queued.
+     */
+    static final int NOT_QUEUED = -1;
+
+    /**
+     * {@link MapTile#queueIndex} of tiles which are being loaded.
+     */
+    static final int RUNNING = -2;
+
+    private MapTile[] mJobs = new MapTile[64];
+    private int mSize;
+
+    /**
+     * Tiles polled by TileLoaders and not completed yet.
+     */
+    private final ArrayList<MapTile> mRunning = new ArrayList<MapTile>();
+
+    private int mSerial;
+
+    private boolean mRecordTime;
+
+    /**
+     * Record the time when tiles are added, to measure how long they wait.
+     */
+    public synchronized void setRecordTime(boolean recordTime) {
+        mRecordTime = recordTime;
+    }
 
     /**
+     * Set the tiles which should be loaded. Tiles must be in state LOADING,
+     * duplicates are ignored.
+     * <p/>
+     * Pending jobs which are not contained in 'tiles' are removed and reset
+     * to state NONE. Running jobs which are not contained are set to CANCEL,
+     * so that the TileLoader can stop early and the result is discarded.
+     * Pending jobs are reordered by their current distance.
+     *
      * @param tiles the jobs to be added to this queue.
      */
     public synchronized void setJobs(MapTile[] tiles) {
-        mJobs = tiles;
-        mCurrentJob = 0;
+        int serial = ++mSerial;
+        for (MapTile t : tiles) {
+            t.jobSerial = serial;
+            t.jobPriority = priority(t);
+        }
+
+        /* remove pending jobs which are no longer requested */
+        int size = 0;
+        for (int i = 0; i < mSize; i++) {
+            MapTile t = mJobs[i];
+            mJobs[i] = null;
+            if (t.jobSerial == serial) {
+                mJobs[size++] = t;
+                continue;
+            }
+            t.queueIndex = NOT_QUEUED;
+            reset(t);
+        }
+        mSize = size;
+
+        /* cancel running jobs which are no longer requested */
+        for (int i = 0, n = mRunning.size(); i < n; i++) {
+            MapTile t = mRunning.get(i);
+            if (t.jobSerial != serial && t.state(LOADING))
+                t.setState(CANCEL);
+        }
+
+        /* add new jobs */
+        long now = mRecordTime ? System.nanoTime() : 0;
+        for (MapTile t : tiles) {
+            if (t.queueIndex != NOT_QUEUED)
+                continue;
+
+            t.queueTime = now;
+            if (mSize == mJobs.length) {
+                MapTile[] tmp = new MapTile[mSize * 2];
+                System.arraycopy(mJobs, 0, tmp, 0, mSize);
+                mJobs = tmp;
+            }
+            t.queueIndex = mSize;
+            mJobs[mSize++] = t;
+        }
+
+        heapify();
     }
 
     /**
-     * Removes all jobs from this queue.
+     * Removes all pending jobs from this queue.
      */
     public synchronized void clear() {
-        if (mJobs == null) {
-            mCurrentJob = 0;
-            return;
-        }
-        MapTile[] tiles = mJobs;
-
-        for (int i = mCurrentJob, n = mJobs.length; i < n; i++) {
-            MapTile t = tiles[i];
-            if (t.state(LOADING | CANCEL)) {
-                t.setState(NONE);
-            } else {
-                log.error("Wrong tile in queue {} {}", t, t.state());
-            }
-            tiles[i] = null;
+        for (int i = 0; i < mSize; i++) {
+            MapTile t = mJobs[i];
+            mJobs[i] = null;
+            t.queueIndex = NOT_QUEUED;
+            reset(t);
         }
-        mCurrentJob = 0;
-        mJobs = null;
+        mSize = 0;
     }
 
     /**
-     * @return true if this queue contains no jobs, false otherwise.
+     * @return true if this queue contains no pending jobs, false otherwise.
      */
     public synchronized boolean isEmpty() {
-        return (mJobs == null);
+        return mSize == 0;
+    }
+
+    /**
+     * @return the number of pending jobs.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the number of jobs which are being loaded.
+     */
+    public synchronized int running() {
+        return mRunning.size();
     }
 
     /**
      * @return the most important job from this queue or null, if empty.
      */
     public synchronized MapTile poll() {
-        if (mJobs == null)
+        if (mSize == 0)
             return null;
 
-        if (mCurrentJob == 0) {
-            int len = mJobs.length;
-            if (len > 1)
-                TileDistanceSort.sort(mJobs, 0, len);
+        MapTile t = mJobs[0];
+        MapTile last = mJobs[--mSize];
+        mJobs[mSize] = null;
+        if (mSize > 0) {
+            mJobs[0] = last;
+            last.queueIndex = 0;
+            siftDown(0);
         }
+        t.queueIndex = RUNNING;
+        mRunning.add(t);
+        return t;
+    }
 
-        MapTile t = mJobs[mCurrentJob];
-        mJobs[mCurrentJob] = null;
+    /**
+     * Called when a job returned by {@link #poll()} is completed.
+     */
+    public synchronized void completed(MapTile tile) {
+        if (tile.queueIndex != RUNNING)
+            return;
 
-        if (++mCurrentJob == mJobs.length)
-            mJobs = null;
+        tile.queueIndex = NOT_QUEUED;
+        mRunning.remove(tile);
+    }
 
-        return t;
+    /**
+     * @return true if 'tile' was polled and is not completed yet.
+     */
+    public synchronized boolean isRunning(MapTile tile) {
+        return tile.queueIndex == RUNNING;
+    }
+
+    private static void reset(MapTile t) {
+        if (t.state(LOADING | CANCEL))
+            t.setState(NONE);
+        else if (!t.state(DEADBEEF))
+            log.error("Wrong tile in queue {} {}", t, t.state());
+    }
 
+    /**
+     * @return the prefetch step in the upper and the distance in the lower
+     * 32 bits. The bits of a non-negative float have the same order as its
+     * value, so jobs are ordered by step and then by distance.
+     */
+    static long priority(MapTile t) {
+        return ((long) t.prefetchStep << 32) | Float.floatToIntBits(t.distance);
+    }
+
+    private void heapify() {
+        for (int i = (mSize >> 1) - 1; i >= 0; i--)
+            siftDown(i);
+    }
+
+    private void siftDown(int pos) {
+        MapTile[] jobs = mJobs;
+        int size = mSize;
+        MapTile t = jobs[pos];
+        int half = size >> 1;
+
+        while (pos < half) {
+            int child = (pos << 1) + 1;
+            MapTile c = jobs[child];
+            int right = child + 1;
+            if (right < size && jobs[right].jobPriority < c.jobPriority)
+                c = jobs[child = right];
+
+            if (t.jobPriority <= c.jobPriority)
+                break;
+
+            jobs[pos] = c;
+            c.queueIndex = pos;
+            pos = child;
+        }
+        jobs[pos] = t;
+        t.queueIndex = pos;
     }
 }
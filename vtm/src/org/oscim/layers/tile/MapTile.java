@@ -1,5 +1,6 @@
 /*
  * Copyright 2012, 2013 Hannes Janetzek
+ * Copyright 2016 devemux86
  *
  * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
  *
@@ -115,6 +116,53 @@ public class MapTile extends Tile {
      */
     public float distance;
 
+    /**
+     * {@link #distance} increased by the time since the tile was last
+     * visible, tiles with the largest value are removed from cache first.
+     * Set by {@link TileManager#addAge(MapTile[], int, int)}.
+     */
+    float evictionDistance;
+
+    /**
+     * Position in {@link JobQueue}, guarded by the JobQueue.
+     */
+    int queueIndex = JobQueue.NOT_QUEUED;
+
+    /**
+     * Last {@link JobQueue#setJobs(MapTile[])} which requested this tile.
+     */
+    int jobSerial;
+
+    /**
+     * Step on the path of a map animation for which the tile is prefetched,
+     * 0 for visible tiles. Set by {@link TileManager}.
+     */
+    int prefetchStep;
+
+    /**
+     * {@link #prefetchStep} and {@link #distance} when the tile was passed to
+     * the {@link JobQueue}, the queue is ordered by this value. Guarded by the
+     * JobQueue, so that {@link #distance} can be updated while loaders poll jobs.
+     */
+    long jobPriority;
+
+    /**
+     * Data size counted by {@link TileManager} for the cache budget.
+     */
+    int cacheSize;
+
+    /**
+     * Last {@link TileManager#update(MapPosition)} which found the tile
+     * visible.
+     */
+    int lastUpdate;
+
+    /**
+     * Time when the tile was added to {@link JobQueue}, only set when
+     * {@link TileMetrics} are enabled.
+     */
+    long queueTime;
+
     /**
      * Tile is in view region. Set by TileRenderer.
      */
@@ -153,6 +201,14 @@ public class MapTile extends Tile {
 
         protected abstract void dispose();
 
+        /**
+         * @return the approximate size of the data in bytes, on the heap
+         * and in native or GL buffers and textures.
+         */
+        public int getSize() {
+            return 0;
+        }
+
         public TileData next() {
             return (TileData) next;
         }
@@ -294,6 +350,16 @@ public class MapTile extends Tile {
         return (RenderBuckets) data;
     }
 
+    /**
+     * @return the approximate size of all TileData in bytes.
+     */
+    public int getDataSize() {
+        int size = 0;
+        for (TileData d = data; d != null; d = d.next)
+            size += d.getSize();
+        return size;
+    }
+
     public TileData getData(Object id) {
         for (TileData d = data; d != null; d = d.next)
             if (d.id == id)
@@ -1,5 +1,6 @@
 /*
  * Copyright 2013 Hannes Janetzek
+ * Copyright 2016 devemux86
  *
  * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
  *
@@ -39,6 +40,20 @@ public class TileDistanceSort extends TimSort<MapTile> {
         }
     }
 
+    /**
+     * Sort by {@link MapTile#evictionDistance}, null last.
+     */
+    public static void sortByEviction(MapTile[] a, int lo, int hi) {
+        int nRemaining = hi - lo;
+        if (nRemaining < 2) {
+            return;
+        }
+
+        synchronized (INSTANCE) {
+            INSTANCE.doSort(a, EvictionComparator, lo, hi);
+        }
+    }
+
     final static Comparator<MapTile> DistanceComparator = new Comparator<MapTile>() {
         @Override
         public int compare(MapTile a, MapTile b) {
@@ -60,4 +75,26 @@ public class TileDistanceSort extends TimSort<MapTile> {
             return 0;
         }
     };
+
+    final static Comparator<MapTile> EvictionComparator = new Comparator<MapTile>() {
+        @Override
+        public int compare(MapTile a, MapTile b) {
+            if (a == null) {
+                if (b == null)
+                    return 0;
+
+                return 1;
+            }
+            if (b == null)
+                return -1;
+
+            if (a.evictionDistance < b.evictionDistance) {
+                return -1;
+            }
+            if (a.evictionDistance > b.evictionDistance) {
+                return 1;
+            }
+            return 0;
+        }
+    };
 }
@@ -17,6 +17,7 @@
  */
 package org.oscim.layers.tile;
 
+import org.oscim.core.Box;
 import org.oscim.core.MapPosition;
 import org.oscim.event.Event;
 import org.oscim.layers.Layer;
@@ -109,6 +110,23 @@ public abstract class TileLayer extends Layer implements UpdateListener {
         }
     }
 
+    /**
+     * Reload the tiles which intersect 'box', see
+     * {@link TileManager#invalidate(Box, double)}. Other tiles are kept.
+     * Must be called on the main-thread.
+     */
+    public void invalidate(Box box, double margin) {
+        /* sync with TileRenderer, which would draw no tiles until
+         * the TileManager locked the current tiles again */
+        synchronized (mRenderer) {
+            tileRenderer().clearTiles();
+
+            if (mTileManager.invalidate(box, margin)
+                    && mTileManager.update(mMap.getMapPosition()))
+                notifyLoaders();
+        }
+    }
+
     @Override
     public void onDetach() {
         for (TileLoader loader : mTileLoader) {
@@ -118,9 +136,22 @@ public abstract class TileLayer extends Layer implements UpdateListener {
         }
     }
 
+    /**
+     * Wake up idle loaders, one per pending job. Busy loaders poll the
+     * next job when they are done.
+     */
     void notifyLoaders() {
-        for (TileLoader loader : mTileLoader)
-            loader.go();
+        int jobs = mTileManager.numTileJobs();
+
+        for (TileLoader loader : mTileLoader) {
+            if (jobs <= 0)
+                break;
+
+            if (loader.isIdle()) {
+                loader.go();
+                jobs--;
+            }
+        }
     }
 
     protected void pauseLoaders(boolean wait) {
@@ -24,6 +24,8 @@ import org.oscim.utils.PausableThread;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static org.oscim.layers.tile.MapTile.State.CANCEL;
+import static org.oscim.layers.tile.MapTile.State.DEADBEEF;
 import static org.oscim.tiling.QueryResult.FAILED;
 import static org.oscim.tiling.QueryResult.SUCCESS;
 
@@ -41,6 +43,28 @@ public abstract class TileLoader extends PausableThread implements ITileDataSink
      */
     protected MapTile mTile;
 
+    /**
+     * true while a tile is being loaded
+     */
+    private volatile boolean mWorking;
+
+    /**
+     * trace of the current tile, null when metrics are disabled
+     */
+    protected TileMetrics.Trace mTrace;
+    private TileMetrics mMetrics;
+    private final TileMetrics.Trace mTraceBuffer = new TileMetrics.Trace();
+
+    /**
+     * max number of jobs taken at once, see {@link #setBatchSize(int)}
+     */
+    private volatile int mBatchSize = 1;
+    private MapTile[] mJobs = new MapTile[1];
+
+    /**
+     * @param tileManager to take jobs from, may be null for loaders which
+     *                    are driven by {@link #loadJob(MapTile, TileMetrics)}.
+     */
     public TileLoader(TileManager tileManager) {
         super();
         mTileManager = tileManager;
@@ -55,12 +79,84 @@ public abstract class TileLoader extends PausableThread implements ITileDataSink
         }
     }
 
+    /**
+     * @return true if this loader is not loading a tile.
+     */
+    public boolean isIdle() {
+        return !mWorking;
+    }
+
+    /**
+     * Set the max number of jobs which are taken at once from the
+     * TileManager, e.g. to pipeline their requests. Jobs of a batch are
+     * loaded in order, see {@link #prepareJobs(MapTile[], int)}.
+     * Default is 1.
+     */
+    public void setBatchSize(int size) {
+        mBatchSize = Math.max(size, 1);
+    }
+
+    /**
+     * Called before a batch of more than one job is loaded.
+     *
+     * @param jobs  the tiles to be loaded next, in this order.
+     * @param count number of jobs.
+     */
+    protected void prepareJobs(MapTile[] jobs, int count) {
+    }
+
     @Override
     protected void doWork() {
-        mTile = mTileManager.getTileJob();
+        mWorking = true;
+
+        if (mJobs.length != mBatchSize)
+            mJobs = new MapTile[mBatchSize];
+
+        MapTile[] jobs = mJobs;
+        int count = 0;
+        int i = 0;
+        try {
+            count = mTileManager.getTileJobs(jobs);
+
+            if (count > 1)
+                prepareJobs(jobs, count);
+
+            for (; i < count; i++) {
+                MapTile tile = jobs[i];
+                jobs[i] = null;
+                loadJob(tile, mTileManager.getMetrics());
+            }
+        } finally {
+            /* jobs that were not loaded MUST be completed too */
+            for (; i < count; i++) {
+                if (jobs[i] != null)
+                    mTileManager.jobCompleted(jobs[i], FAILED);
+                jobs[i] = null;
+            }
+            mWorking = false;
+        }
+    }
 
-        if (mTile == null)
+    /**
+     * Load 'tile' on the calling thread. {@link #completed(QueryResult)}
+     * is called in any case.
+     *
+     * @param metrics to collect the trace of 'tile', may be null.
+     */
+    protected void loadJob(MapTile tile, TileMetrics metrics) {
+        mTile = tile;
+
+        mMetrics = metrics;
+        if (mMetrics != null) {
+            mTrace = mTraceBuffer;
+            mTrace.start(mTile);
+        }
+
+        /* tile was canceled while queued */
+        if (mTile.state(CANCEL | DEADBEEF)) {
+            completed(FAILED);
             return;
+        }
 
         try {
             loadTile(mTile);
@@ -100,7 +196,14 @@ public abstract class TileLoader extends PausableThread implements ITileDataSink
         if (ok && (isCanceled() || isInterrupted()))
             result = QueryResult.FAILED;
 
-        mTileManager.jobCompleted(mTile, result);
+        if (mTrace != null) {
+            mTrace.finish(result);
+            mMetrics.tileLoaded(mTile, mTrace);
+            mTrace = null;
+        }
+
+        if (mTileManager != null)
+            mTileManager.jobCompleted(mTile, result);
         mTile = null;
     }
 
@@ -1,5 +1,6 @@
 /*
  * Copyright 2013 Hannes Janetzek
+ * Copyright 2016 devemux86
  *
  * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
  *
@@ -17,12 +18,14 @@
 
 package org.oscim.layers.tile;
 
+import org.oscim.core.Box;
 import org.oscim.core.MapPosition;
 import org.oscim.core.Tile;
 import org.oscim.event.Event;
 import org.oscim.event.EventDispatcher;
 import org.oscim.event.EventListener;
 import org.oscim.layers.tile.MapTile.TileNode;
+import org.oscim.map.Animator;
 import org.oscim.map.Map;
 import org.oscim.map.Viewport;
 import org.oscim.renderer.BufferObject;
@@ -70,6 +73,28 @@ public class TileManager {
     private static final int CACHE_THRESHOLD = 25;
     private static final int CACHE_CLEAR_THRESHOLD = 10;
 
+    /**
+     * When over the byte budget, remove tiles until its 1/10 is free.
+     */
+    private static final int CACHE_BYTES_CLEAR_DIV = 10;
+
+    /**
+     * Number of updates after which a cached tile counts twice as far
+     * away when limiting the cache.
+     */
+    private static final int CACHE_AGE_UPDATES = 64;
+
+    /**
+     * Number of positions on the path of a map animation for which tiles
+     * are prefetched, the last one is the destination.
+     */
+    private static final int PREFETCH_STEPS = 3;
+
+    /**
+     * Maximal number of prefetched tiles per update.
+     */
+    private static final int MAX_PREFETCH = 64;
+
     private final Map mMap;
     private final Viewport mViewport;
 
@@ -93,6 +118,38 @@ public class TileManager {
      */
     private int mTilesToUpload;
 
+    /**
+     * byte budget for cached tiles, 0 when only the number of tiles is
+     * limited
+     */
+    private long mCacheBytesLimit;
+
+    /**
+     * sum of MapTile.cacheSize of cached tiles
+     */
+    private long mCacheBytes;
+
+    /**
+     * counter of update() calls, for MapTile.lastUpdate
+     */
+    private int mUpdateCnt;
+
+    private boolean mPrefetch = true;
+    private boolean mPrefetchZoomLevels;
+
+    /**
+     * jobs for tiles on the path of a map animation
+     */
+    private final MapTile[] mPrefetchJobs = new MapTile[MAX_PREFETCH];
+    private int mPrefetchCnt;
+
+    /**
+     * true while ScanBox adds tiles to mPrefetchJobs
+     */
+    private boolean mScanPrefetch;
+
+    private final MapPosition mPrefetchPos = new MapPosition();
+
     /**
      * new tile jobs for MapWorkers
      */
@@ -116,6 +173,11 @@ public class TileManager {
      */
     private final JobQueue jobQueue;
 
+    /**
+     * pipeline metrics, null when disabled
+     */
+    private TileMetrics mMetrics;
+
     private final float[] mMapPlane = new float[8];
 
     private boolean mLoadParent;
@@ -173,6 +235,67 @@ public class TileManager {
         mUpdateSerial = 0;
     }
 
+    /**
+     * Enable collecting {@link TileMetrics} of the loading pipeline.
+     *
+     * @param metrics the metrics to update or null to disable.
+     */
+    public void setMetrics(TileMetrics metrics) {
+        mMetrics = metrics;
+        jobQueue.setRecordTime(metrics != null);
+    }
+
+    /**
+     * @return the current metrics or null when disabled.
+     */
+    public TileMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Limit the size of cached tiles, see {@link MapTile#getDataSize()}.
+     * The farthest and least recently visible tiles are removed first.
+     * The limit of the number of tiles still applies.
+     *
+     * @param bytes the budget in bytes or 0 to disable.
+     */
+    public void setCacheBytesLimit(long bytes) {
+        mCacheBytesLimit = bytes;
+    }
+
+    public long getCacheBytesLimit() {
+        return mCacheBytesLimit;
+    }
+
+    /**
+     * @return the size of all loaded tiles in cache in bytes.
+     */
+    public long getCacheBytes() {
+        return mCacheBytes;
+    }
+
+    /**
+     * @return the number of tiles in cache.
+     */
+    public int getCacheCount() {
+        return mTilesCount;
+    }
+
+    /**
+     * Prefetch tiles on the path and at the destination of map
+     * animations and flings. Enabled by default.
+     * <p/>
+     * Prefetch jobs are queued after the jobs of visible tiles and
+     * dropped when the animation ends.
+     *
+     * @param zoomLevels also prefetch the zoom-levels above and below
+     *                   the destination.
+     */
+    public void setPrefetch(boolean enable, boolean zoomLevels) {
+        mPrefetch = enable;
+        mPrefetchZoomLevels = zoomLevels;
+    }
+
     public void setZoomTable(int[] zoomTable) {
         mZoomTable = zoomTable;
     }
@@ -218,6 +341,7 @@ public class TileManager {
         Arrays.fill(mTiles, null);
         mTilesEnd = 0;
         mTilesCount = 0;
+        mCacheBytes = 0;
 
         /* set up TileSet large enough to hold current tiles */
         int num = Math.max(mMap.getWidth(), mMap.getHeight());
@@ -228,6 +352,57 @@ public class TileManager {
         mCurrentTiles = new TileSet(numTiles);
     }
 
+    /**
+     * Remove cached tiles which intersect 'box' so that they are loaded
+     * again, e.g. when the data of a layer changed within 'box'. Running
+     * jobs of these tiles are canceled, queued jobs are kept.
+     * <p/>
+     * Current tiles are released and locked again by the next
+     * {@link #update(MapPosition)}, which should follow immediately. Like
+     * {@link #init()} this must be called on the main-thread after the
+     * TileRenderer released its tiles. Tiles which are still locked by
+     * another TileSet are kept.
+     *
+     * @param box    the area in map coordinates [0..1].
+     * @param margin tiles are extended by this fraction of their size on
+     *               each side, e.g. the clip buffer of the tile data.
+     * @return false when there are no tiles yet.
+     */
+    public boolean invalidate(Box box, double margin) {
+        if (mCurrentTiles == null)
+            return false;
+
+        synchronized (mTilelock) {
+            mCurrentTiles.releaseTiles();
+        }
+
+        for (int i = 0; i < mTilesEnd; i++) {
+            MapTile t = mTiles[i];
+            if (t == null)
+                continue;
+
+            double size = 1.0 / (1 << t.zoomLevel);
+            double m = size * margin;
+            if (t.x + size + m < box.xmin || t.x - m > box.xmax
+                    || t.y + size + m < box.ymin || t.y - m > box.ymax)
+                continue;
+
+            if (t.state(LOADING)) {
+                /* a queued job loads the new data anyway */
+                if (jobQueue.isRunning(t))
+                    t.setState(CANCEL);
+                continue;
+            }
+
+            if (t.state(CANCEL | DEADBEEF))
+                continue;
+
+            if (removeFromCache(t))
+                mTiles[i] = null;
+        }
+        return true;
+    }
+
     /**
      * 1. Update mCurrentTiles TileSet of currently visible tiles.
      * 2. Add not yet loaded (or loading) tiles to JobQueue.
@@ -243,15 +418,14 @@ public class TileManager {
             mPrevZoomlevel = pos.zoomLevel;
             init();
         }
-        /* clear JobQueue and set tiles to state == NONE.
-         * one could also append new tiles and sort in JobQueue
-         * but this has the nice side-effect that MapWorkers dont
-         * start with old jobs while new jobs are calculated, which
-         * should increase the chance that they are free when new
-         * jobs come in. */
-        jobQueue.clear();
+        /* pending jobs are kept until the new set of jobs is
+         * known. jobs which are still requested keep their place
+         * in JobQueue, others are removed or canceled. */
+        mJobs.clear();
+        mUpdateCnt++;
 
         if (pos.zoomLevel < mMinZoom) {
+            jobQueue.clear();
             if (mCurrentTiles.cnt > 0 && pos.zoomLevel < mMinZoom - 4) {
                 synchronized (mTilelock) {
                     mCurrentTiles.releaseTiles();
@@ -293,8 +467,10 @@ public class TileManager {
                 if (z <= tileZoom && z > match)
                     match = z;
             }
-            if (match == 0)
+            if (match == 0) {
+                jobQueue.clear();
                 return false;
+            }
 
             tileZoom = match;
         }
@@ -347,18 +523,28 @@ public class TileManager {
             mMap.render();
         }
 
-        /* Add tile jobs to queue */
-        if (mJobs.isEmpty())
-            return false;
+        /* Update tile jobs in queue */
+        int numJobs = mJobs.size();
+        updatePrefetch(tileZoom);
 
-        MapTile[] jobs = new MapTile[mJobs.size()];
-        jobs = mJobs.toArray(jobs);
-        updateDistances(jobs, jobs.length, pos);
+        MapTile[] jobs = new MapTile[numJobs + mPrefetchCnt];
+        for (int i = 0; i < numJobs; i++) {
+            jobs[i] = mJobs.get(i);
+            jobs[i].prefetchStep = 0;
+        }
+        updateDistances(jobs, numJobs, pos);
 
-        /* sets tiles to state == LOADING */
+        System.arraycopy(mPrefetchJobs, 0, jobs, numJobs, mPrefetchCnt);
+        Arrays.fill(mPrefetchJobs, 0, mPrefetchCnt, null);
+        mPrefetchCnt = 0;
+
+        /* tiles are in state == LOADING */
         jobQueue.setJobs(jobs);
         mJobs.clear();
 
+        if (jobs.length == 0)
+            return false;
+
         if (mCacheReduce < mCacheLimit / 2) {
             if (BufferObject.isMaxFill()) {
                 mCacheReduce += 10;
@@ -372,9 +558,15 @@ public class TileManager {
         /* limit cache items */
         int remove = mTilesCount - (mCacheLimit - mCacheReduce);
 
-        if (remove > CACHE_THRESHOLD || mTilesToUpload > MAX_TILES_IN_QUEUE) {
+        long removeBytes = 0;
+        if (mCacheBytesLimit > 0 && mCacheBytes > mCacheBytesLimit)
+            removeBytes = mCacheBytes - mCacheBytesLimit
+                    + mCacheBytesLimit / CACHE_BYTES_CLEAR_DIV;
+
+        if (remove > CACHE_THRESHOLD || removeBytes > 0
+                || mTilesToUpload > MAX_TILES_IN_QUEUE) {
             synchronized (mTilelock) {
-                limitCache(pos, remove);
+                limitCache(pos, remove, removeBytes);
             }
         }
         return true;
@@ -388,10 +580,33 @@ public class TileManager {
         return !jobQueue.isEmpty();
     }
 
+    /**
+     * @return the number of pending tile jobs.
+     */
+    public int numTileJobs() {
+        return jobQueue.size();
+    }
+
     public MapTile getTileJob() {
         return jobQueue.poll();
     }
 
+    /**
+     * Take up to jobs.length of the most important jobs.
+     *
+     * @return the number of jobs.
+     */
+    public int getTileJobs(MapTile[] jobs) {
+        int count = 0;
+        while (count < jobs.length) {
+            MapTile tile = jobQueue.poll();
+            if (tile == null)
+                break;
+            jobs[count++] = tile;
+        }
+        return count;
+    }
+
     /**
      * Retrive a TileSet of current tiles. Tiles remain locked in cache until
      * the set is unlocked by either passing it again to this function or to
@@ -419,19 +634,88 @@ public class TileManager {
         return true;
     }
 
+    /**
+     * Scan tiles at positions on the path of a running map animation,
+     * see {@link Animator#getPosition(float, MapPosition)}, and add them
+     * to mPrefetchJobs.
+     */
+    private void updatePrefetch(int tileZoom) {
+        Animator animator = mMap.animator();
+        if (!mPrefetch || animator == null || !animator.isActive())
+            return;
+
+        MapPosition p = mPrefetchPos;
+        float adv = animator.getAdvance();
+
+        mScanPrefetch = true;
+        for (int step = 1; step <= PREFETCH_STEPS; step++) {
+            if (!animator.getPosition(adv + (1 - adv) * step / PREFETCH_STEPS, p))
+                break;
+
+            int zoom = tileZoom;
+            if (mZoomTable == null)
+                zoom = clamp(p.zoomLevel, mMinZoom, mMaxZoom);
+
+            int start = mPrefetchCnt;
+            mScanBox.scan(p.x, p.y, p.scale, zoom, mMapPlane);
+
+            if (mPrefetchZoomLevels && step == PREFETCH_STEPS && mZoomTable == null) {
+                if (zoom > mMinZoom)
+                    mScanBox.scan(p.x, p.y, p.scale, zoom - 1, mMapPlane);
+                if (zoom < mMaxZoom)
+                    mScanBox.scan(p.x, p.y, p.scale, zoom + 1, mMapPlane);
+            }
+
+            updateDistances(mPrefetchJobs, start, mPrefetchCnt, p);
+            for (int i = start; i < mPrefetchCnt; i++)
+                mPrefetchJobs[i].prefetchStep = step;
+        }
+        mScanPrefetch = false;
+    }
+
+    private void addPrefetch(int x, int y, int zoomLevel) {
+        if (mPrefetchCnt == MAX_PREFETCH)
+            return;
+
+        MapTile tile = mIndex.getTile(x, y, zoomLevel);
+
+        if (tile == null) {
+            TileNode n = mIndex.add(x, y, zoomLevel);
+            tile = n.item = new MapTile(n, x, y, zoomLevel);
+            tile.setState(LOADING);
+            addToCache(tile);
+        } else if (tile.lastUpdate == mUpdateCnt) {
+            /* visible or already added */
+            return;
+        } else if (!tile.isActive()) {
+            tile.setState(LOADING);
+        } else if (!tile.state(LOADING)) {
+            /* keep loaded tile in cache */
+            tile.lastUpdate = mUpdateCnt;
+            return;
+        }
+        tile.lastUpdate = mUpdateCnt;
+        mPrefetchJobs[mPrefetchCnt++] = tile;
+    }
+
     MapTile addTile(int x, int y, int zoomLevel) {
         MapTile tile = mIndex.getTile(x, y, zoomLevel);
 
         if (tile == null) {
             TileNode n = mIndex.add(x, y, zoomLevel);
             tile = n.item = new MapTile(n, x, y, zoomLevel);
+            tile.lastUpdate = mUpdateCnt;
             tile.setState(LOADING);
             mJobs.add(tile);
             addToCache(tile);
         } else if (!tile.isActive()) {
             tile.setState(LOADING);
             mJobs.add(tile);
+        } else if (tile.state(LOADING)) {
+            /* keep queued or running job */
+            mJobs.add(tile);
         }
+        tile.lastUpdate = mUpdateCnt;
 
         if (mLoadParent && (zoomLevel > mMinZoom) && (mZoomTable == null)) {
             /* prefetch parent */
@@ -446,7 +730,10 @@ public class TileManager {
             } else if (!p.isActive()) {
                 p.setState(LOADING);
                 mJobs.add(p);
+            } else if (p.state(LOADING)) {
+                mJobs.add(p);
             }
+            p.lastUpdate = mUpdateCnt;
         }
         return tile;
     }
@@ -489,13 +776,21 @@ public class TileManager {
 
         t.clear();
 
+        mCacheBytes -= t.cacheSize;
+        t.cacheSize = 0;
+
         mIndex.removeItem(t);
         mTilesCount--;
         return true;
     }
 
-    private void limitCache(MapPosition pos, int remove) {
+    /**
+     * @param remove      number of tiles to remove
+     * @param removeBytes size of tiles to remove
+     */
+    private void limitCache(MapPosition pos, int remove, long removeBytes) {
         MapTile[] tiles = mTiles;
+        long minBytes = mCacheBytes - removeBytes;
 
         /* count tiles that have new data */
         int newTileCnt = 0;
@@ -523,23 +818,26 @@ public class TileManager {
             }
         }
 
-        if ((remove < CACHE_CLEAR_THRESHOLD) && (newTileCnt < MAX_TILES_IN_QUEUE))
+        if ((remove < CACHE_CLEAR_THRESHOLD) && (mCacheBytes <= minBytes)
+                && (newTileCnt < MAX_TILES_IN_QUEUE))
             return;
 
         updateDistances(tiles, mTilesEnd, pos);
-        TileDistanceSort.sort(tiles, 0, mTilesEnd);
+        addAge(tiles, mTilesEnd, mUpdateCnt);
+        TileDistanceSort.sortByEviction(tiles, 0, mTilesEnd);
 
         /* sorting also repacks the 'sparse' filled array
          * so end of mTiles is at mTilesCount now */
         mTilesEnd = mTilesCount;
 
         /* start with farest away tile */
-        for (int i = mTilesCount - 1; i >= 0 && remove > 0; i--) {
+        for (int i = mTilesCount - 1; i >= 0 && (remove > 0 || mCacheBytes > minBytes); i--) {
             MapTile t = tiles[i];
 
             /* dont remove tile used by TileRenderer, or somewhere else
-             * try again in next run. */
-            if (t.isLocked()) {
+             * try again in next run. Keep tiles requested by this update,
+             * i.e. prefetched tiles. */
+            if (t.isLocked() || t.lastUpdate == mUpdateCnt) {
                 if (dbg)
                     log.debug("{} locked (state={}, d={})",
                             t, t.state(), t.distance);
@@ -577,7 +875,7 @@ public class TileManager {
 
         for (int i = mTilesCount - 1; i >= 0 && newTileCnt > MAX_TILES_IN_QUEUE; i--) {
             MapTile t = tiles[i];
-            if ((t != null) && (t.state(NEW_DATA))) {
+            if ((t != null) && (t.state(NEW_DATA)) && t.lastUpdate != mUpdateCnt) {
                 if (removeFromCache(t)) {
                     tiles[i] = null;
                     newTileCnt--;
@@ -620,7 +918,13 @@ public class TileManager {
 
         @Override
         public void run() {
+            /* the tile stays a running job until its state is updated,
+             * so that it cannot be queued again meanwhile */
+            jobQueue.completed(tile);
+
             if (result == QueryResult.SUCCESS && tile.state(LOADING)) {
+                tile.cacheSize = tile.getDataSize();
+                mCacheBytes += tile.cacheSize;
                 tile.setState(NEW_DATA);
                 events.fire(TILE_LOADED, tile);
                 mTilesToUpload++;
@@ -637,17 +941,48 @@ public class TileManager {
                 return;
             }
 
+            boolean canceled = tile.state(CANCEL);
             tile.clear();
+
+            mCacheBytes -= tile.cacheSize;
+            tile.cacheSize = 0;
+
+            /* load again when the tile became visible after canceling */
+            if (canceled && tile.isLocked())
+                mMap.updateMap(false);
+        }
+    }
+
+    /**
+     * Set the eviction distance of tiles: their distance, increased for
+     * tiles that were not visible recently so that they are removed from
+     * cache first. The distance itself is left unchanged.
+     */
+    static void addAge(MapTile[] tiles, int size, int updateCnt) {
+        for (int i = 0; i < size; i++) {
+            MapTile t = tiles[i];
+            if (t == null)
+                continue;
+
+            float d = t.distance;
+            int age = updateCnt - t.lastUpdate;
+            if (age > 0)
+                d += d * age / CACHE_AGE_UPDATES + age;
+            t.evictionDistance = d;
         }
     }
 
     private static void updateDistances(MapTile[] tiles, int size, MapPosition pos) {
+        updateDistances(tiles, 0, size, pos);
+    }
+
+    private static void updateDistances(MapTile[] tiles, int start, int end, MapPosition pos) {
         /* TODO there is probably a better quad-tree distance function */
         int zoom = 20;
         long x = (long) (pos.x * (1 << zoom));
         long y = (long) (pos.y * (1 << zoom));
 
-        for (int i = 0; i < size; i++) {
+        for (int i = start; i < end; i++) {
             MapTile t = tiles[i];
             if (t == null)
                 continue;
@@ -706,6 +1041,11 @@ public class TileManager {
                         continue;
                 }
 
+                if (mScanPrefetch) {
+                    addPrefetch(xx, y, mZoom);
+                    continue;
+                }
+
                 /* check if tile is already added */
                 for (int i = 0; i < cnt; i++)
                     if (tiles[i].tileX == xx && tiles[i].tileY == y) {
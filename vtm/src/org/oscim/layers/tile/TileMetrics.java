@@ -0,0 +1,335 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.layers.tile;
+
+import org.oscim.tiling.QueryResult;
+
+/**
+ * Collects timings and counters of the tile loading pipeline.
+ * <p/>
+ * Metrics are enabled by passing an instance to
+ * {@link TileManager#setMetrics(TileMetrics)}. When no instance is set the
+ * pipeline does not take any timestamps.
+ * <p/>
+ * For every stage a histogram of nanoseconds is kept. The time spent in the
+ * tile data source is reported as {@link #QUERY} excluding the time of
+ * theme matching and bucket building, which run in callbacks while the
+ * source decodes the tile.
+ */
+public class TileMetrics {
+
+    /**
+     * Time from adding a tile to the JobQueue until a TileLoader takes it.
+     */
+    public static final int QUEUE = 0;
+
+    /**
+     * Time in ITileDataSource.query, i.e. I/O and decoding. Data sources
+     * decode while they read and pass elements through ITileDataSink, which
+     * has no decode callback, so both are timed in this one stage.
+     */
+    public static final int QUERY = 1;
+
+    /**
+     * Time in RenderTheme matching.
+     */
+    public static final int THEME = 2;
+
+    /**
+     * Time to add elements to buckets, including loader hooks.
+     */
+    public static final int BUCKETS = 3;
+
+    /**
+     * Time in RenderBuckets.prepare(), e.g. tessellation, and compilation
+     * of vertex data on the loader thread.
+     */
+    public static final int PREPARE = 4;
+
+    /**
+     * Time to upload RenderBuckets on the GL thread, including compilation
+     * when it was not done by the loader.
+     */
+    public static final int UPLOAD = 5;
+
+    public static final int NUM_STAGES = 6;
+
+    static final String[] STAGE_NAMES = {
+            "queue", "query", "theme", "buckets", "prepare", "upload"
+    };
+
+    public interface Listener {
+        /**
+         * Called on the TileLoader thread when loading a tile is completed.
+         * The trace is reused after this call returns.
+         */
+        void onTileLoaded(MapTile tile, Trace trace);
+
+        /**
+         * Called on the GL thread when the data of a tile was uploaded.
+         */
+        void onTileUploaded(MapTile tile, long nanos, int bytes);
+    }
+
+    /**
+     * Timings and counters of one tile, owned by a TileLoader.
+     */
+    public static final class Trace {
+        final long[] nanos = new long[NUM_STAGES];
+        long startTime;
+
+        /**
+         * Number of processed map elements.
+         */
+        public int elements;
+
+        /**
+         * Number of map elements which were skipped by
+         * VectorTileLoader.filterTags().
+         */
+        public int skipped;
+
+        /**
+         * Number of vertices in all buckets.
+         */
+        public int vertices;
+
+        /**
+         * Size of vertex and index data in bytes.
+         */
+        public int bytes;
+
+        public QueryResult result;
+
+        void start(MapTile tile) {
+            long now = System.nanoTime();
+            for (int i = 0; i < NUM_STAGES; i++)
+                nanos[i] = 0;
+
+            elements = 0;
+            skipped = 0;
+            vertices = 0;
+            bytes = 0;
+            result = null;
+
+            if (tile.queueTime != 0)
+                nanos[QUEUE] = now - tile.queueTime;
+            startTime = now;
+        }
+
+        void finish(QueryResult result) {
+            long elapsed = System.nanoTime() - startTime;
+            long query = elapsed - nanos[THEME] - nanos[BUCKETS] - nanos[PREPARE];
+            nanos[QUERY] = Math.max(0, query);
+            this.result = result;
+        }
+
+        public void add(int stage, long nanos) {
+            this.nanos[stage] += nanos;
+        }
+
+        /**
+         * @return the nanoseconds spent in 'stage'.
+         */
+        public long getNanos(int stage) {
+            return nanos[stage];
+        }
+    }
+
+    /**
+     * A histogram with power of two buckets.
+     */
+    public static final class Histogram {
+        private final long[] mBuckets = new long[64];
+        private long mCount;
+        private long mTotal;
+        private long mMax;
+
+        public synchronized void add(long value) {
+            if (value < 0)
+                value = 0;
+
+            mBuckets[64 - Long.numberOfLeadingZeros(value) - (value == 0 ? 0 : 1)]++;
+            mCount++;
+            mTotal += value;
+            if (value > mMax)
+                mMax = value;
+        }
+
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        public synchronized long getTotal() {
+            return mTotal;
+        }
+
+        public synchronized long getMax() {
+            return mMax;
+        }
+
+        public synchronized long getMean() {
+            return mCount == 0 ? 0 : mTotal / mCount;
+        }
+
+        /**
+         * @param p percentile in the range [0..1]
+         * @return the upper bound of the bucket containing the percentile.
+         */
+        public synchronized long getPercentile(double p) {
+            if (mCount == 0)
+                return 0;
+
+            long rank = (long) Math.ceil(p * mCount);
+            long sum = 0;
+            for (int i = 0; i < 64; i++) {
+                sum += mBuckets[i];
+                if (sum >= rank && sum > 0)
+                    return Math.min(mMax, i == 63 ? Long.MAX_VALUE : (2L << i) - 1);
+            }
+            return mMax;
+        }
+
+        public synchronized void reset() {
+            for (int i = 0; i < 64; i++)
+                mBuckets[i] = 0;
+            mCount = 0;
+            mTotal = 0;
+            mMax = 0;
+        }
+    }
+
+    private final Histogram[] mStages = new Histogram[NUM_STAGES];
+    private final Histogram mElements = new Histogram();
+    private final Histogram mSkipped = new Histogram();
+    private final Histogram mVertices = new Histogram();
+    private final Histogram mBytes = new Histogram();
+    private long mFailed;
+
+    private Listener mListener;
+
+    public TileMetrics() {
+        for (int i = 0; i < NUM_STAGES; i++)
+            mStages[i] = new Histogram();
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return the histogram of nanoseconds spent in 'stage'.
+     */
+    public Histogram getStage(int stage) {
+        return mStages[stage];
+    }
+
+    /**
+     * @return the histogram of map elements per tile.
+     */
+    public Histogram getElements() {
+        return mElements;
+    }
+
+    /**
+     * @return the histogram of skipped map elements per tile.
+     */
+    public Histogram getSkipped() {
+        return mSkipped;
+    }
+
+    /**
+     * @return the histogram of vertices per tile.
+     */
+    public Histogram getVertices() {
+        return mVertices;
+    }
+
+    /**
+     * @return the histogram of vertex and index bytes per tile.
+     */
+    public Histogram getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return the number of tiles which could not be loaded.
+     */
+    public synchronized long getFailed() {
+        return mFailed;
+    }
+
+    void tileLoaded(MapTile tile, Trace trace) {
+        if (trace.result == QueryResult.SUCCESS) {
+            for (int i = 0; i < UPLOAD; i++)
+                mStages[i].add(trace.nanos[i]);
+
+            mElements.add(trace.elements);
+            mSkipped.add(trace.skipped);
+            mVertices.add(trace.vertices);
+            mBytes.add(trace.bytes);
+        } else {
+            synchronized (this) {
+                mFailed++;
+            }
+        }
+        Listener l = mListener;
+        if (l != null)
+            l.onTileLoaded(tile, trace);
+    }
+
+    void tileUploaded(MapTile tile, long nanos, int bytes) {
+        mStages[UPLOAD].add(nanos);
+
+        Listener l = mListener;
+        if (l != null)
+            l.onTileUploaded(tile, nanos, bytes);
+    }
+
+    public void reset() {
+        for (Histogram h : mStages)
+            h.reset();
+        mElements.reset();
+        mSkipped.reset();
+        mVertices.reset();
+        mBytes.reset();
+        synchronized (this) {
+            mFailed = 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("tiles: ").append(mStages[QUERY].getCount())
+                .append(" failed: ").append(getFailed());
+
+        for (int i = 0; i < NUM_STAGES; i++) {
+            Histogram h = mStages[i];
+            sb.append("\n").append(STAGE_NAMES[i])
+                    .append(" mean: ").append(h.getMean() / 1000)
+                    .append("us p50: ").append(h.getPercentile(0.5) / 1000)
+                    .append("us p95: ").append(h.getPercentile(0.95) / 1000)
+                    .append("us max: ").append(h.getMax() / 1000).append("us");
+        }
+        sb.append("\nelements mean: ").append(mElements.getMean())
+                .append(" skipped mean: ").append(mSkipped.getMean())
+                .append(" vertices mean: ").append(mVertices.getMean())
+                .append(" bytes mean: ").append(mBytes.getMean());
+        return sb.toString();
+    }
+}
@@ -119,7 +119,8 @@ public abstract class TileRenderer extends LayerRenderer {
             }
         }
         /* prepare tiles for rendering */
-        if (compileTileLayers(mDrawTiles.tiles, mDrawTiles.cnt + mProxyTileCnt) > 0) {
+        if (compileTileLayers(mDrawTiles.tiles, mDrawTiles.cnt + mProxyTileCnt,
+                mTileManager.getMetrics()) > 0) {
             mUploadSerial++;
             BufferObject.checkBufferUsage(false);
         }
@@ -139,7 +140,7 @@ public abstract class TileRenderer extends LayerRenderer {
     /**
      * compile tile layer data and upload to VBOs
      */
-    private static int compileTileLayers(MapTile[] tiles, int tileCnt) {
+    private static int compileTileLayers(MapTile[] tiles, int tileCnt, TileMetrics metrics) {
         int uploadCnt = 0;
 
         for (int i = 0; i < tileCnt; i++) {
@@ -152,14 +153,14 @@ public abstract class TileRenderer extends LayerRenderer {
                 continue;
 
             if (tile.state(NEW_DATA)) {
-                uploadCnt += uploadTileData(tile);
+                uploadCnt += uploadTileData(tile, metrics);
                 continue;
             }
 
             /* load tile that is referenced by this holder */
             MapTile proxy = tile.holder;
             if (proxy != null && proxy.state(NEW_DATA)) {
-                uploadCnt += uploadTileData(proxy);
+                uploadCnt += uploadTileData(proxy, metrics);
                 tile.state = proxy.state;
                 continue;
             }
@@ -167,7 +168,7 @@ public abstract class TileRenderer extends LayerRenderer {
             /* check near relatives than can serve as proxy */
             proxy = tile.getProxy(PROXY_PARENT, NEW_DATA);
             if (proxy != null) {
-                uploadCnt += uploadTileData(proxy);
+                uploadCnt += uploadTileData(proxy, metrics);
                 /* dont load child proxies */
                 continue;
             }
@@ -175,7 +176,7 @@ public abstract class TileRenderer extends LayerRenderer {
             for (int c = 0; c < 4; c++) {
                 proxy = tile.getProxyChild(c, NEW_DATA);
                 if (proxy != null)
-                    uploadCnt += uploadTileData(proxy);
+                    uploadCnt += uploadTileData(proxy, metrics);
             }
 
             if (uploadCnt >= MAX_TILE_LOAD)
@@ -184,7 +185,7 @@ public abstract class TileRenderer extends LayerRenderer {
         return uploadCnt;
     }
 
-    private static int uploadTileData(MapTile tile) {
+    private static int uploadTileData(MapTile tile, TileMetrics metrics) {
         tile.setState(READY);
         RenderBuckets buckets = tile.getBuckets();
 
@@ -192,11 +193,16 @@ public abstract class TileRenderer extends LayerRenderer {
         if (buckets == null)
             return 0;
 
+        long start = metrics == null ? 0 : System.nanoTime();
+
         if (!buckets.compile(true)) {
             buckets.clear();
             return 0;
         }
 
+        if (metrics != null)
+            metrics.tileUploaded(tile, System.nanoTime() - start, buckets.getSize());
+
         return 1;
     }
 
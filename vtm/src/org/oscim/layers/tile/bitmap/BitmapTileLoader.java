@@ -1,5 +1,6 @@
 /*
  * Copyright 2013 Hannes Janetzek
+ * Copyright 2016 devemux86
  *
  * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
  *
@@ -24,6 +25,7 @@ import org.oscim.renderer.bucket.BitmapBucket;
 import org.oscim.renderer.bucket.RenderBuckets;
 import org.oscim.tiling.ITileDataSource;
 import org.oscim.tiling.TileSource;
+import org.oscim.tiling.source.UrlTileDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +42,15 @@ public class BitmapTileLoader extends TileLoader {
         super(tileLayer.getManager());
         mTileDataSource = tileSource.getDataSource();
         mLayer = tileLayer;
+
+        if (mTileDataSource instanceof UrlTileDataSource)
+            setBatchSize(((UrlTileDataSource) mTileDataSource).getBatchSize());
+    }
+
+    @Override
+    protected void prepareJobs(MapTile[] jobs, int count) {
+        if (mTileDataSource instanceof UrlTileDataSource)
+            ((UrlTileDataSource) mTileDataSource).sendRequests(jobs, count);
     }
 
     @Override
@@ -70,7 +81,7 @@ public class BitmapTileLoader extends TileLoader {
 
     @Override
     public void dispose() {
-        mTileDataSource.cancel();
+        mTileDataSource.dispose();
     }
 
     @Override
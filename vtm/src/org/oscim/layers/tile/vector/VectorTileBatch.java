@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.layers.tile.vector;
+
+import org.oscim.layers.tile.MapTile;
+import org.oscim.layers.tile.TileMetrics;
+import org.oscim.renderer.bucket.CompiledBuckets;
+import org.oscim.renderer.bucket.RenderBuckets;
+import org.oscim.theme.IRenderTheme;
+import org.oscim.tiling.QueryResult;
+import org.oscim.tiling.TileSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static org.oscim.layers.tile.MapTile.State.LOADING;
+
+/**
+ * Runs the {@link VectorTileLoader} pipeline - query, theme matching,
+ * bucket building, prepare and compilation to vertex and index arrays -
+ * for ranges of tiles on a fork-join pool, without Map, TileManager or GL.
+ * <p/>
+ * Each worker thread has its own loader and ITileDataSource. Loader hooks
+ * of VectorTileLayer, e.g. for labels and buildings, are not available.
+ */
+public class VectorTileBatch {
+
+    /**
+     * Number of tiles below which a range is not split further.
+     */
+    private static final int SPLIT_THRESHOLD = 4;
+
+    public interface TileHandler {
+        /**
+         * Called from the worker threads for each loaded tile.
+         *
+         * @param buckets compiled data of the tile or null when the tile
+         *                has no vertices.
+         */
+        void onTile(MapTile tile, CompiledBuckets buckets);
+    }
+
+    private final TileSource mTileSource;
+    private final IRenderTheme mTheme;
+    private final ForkJoinPool mPool;
+
+    private final List<BatchLoader> mLoaders = new ArrayList<>();
+    private final ThreadLocal<BatchLoader> mLoader = new ThreadLocal<BatchLoader>() {
+        @Override
+        protected BatchLoader initialValue() {
+            BatchLoader loader = new BatchLoader(mTheme);
+            loader.setDataSource(mTileSource.getDataSource());
+            synchronized (mLoaders) {
+                mLoaders.add(loader);
+            }
+            return loader;
+        }
+    };
+
+    private TileMetrics mMetrics;
+    private boolean mAddFill;
+
+    /**
+     * @param tileSource an opened tile source.
+     */
+    public VectorTileBatch(TileSource tileSource, IRenderTheme theme) {
+        this(tileSource, theme, Runtime.getRuntime().availableProcessors());
+    }
+
+    public VectorTileBatch(TileSource tileSource, IRenderTheme theme, int parallelism) {
+        if (theme == null)
+            throw new IllegalArgumentException("no theme");
+
+        mTileSource = tileSource;
+        mTheme = theme;
+        mPool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Collect {@link TileMetrics} of the loaded tiles.
+     */
+    public void setMetrics(TileMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Add fill coordinates in front of the vertices,
+     * see {@link RenderBuckets#compile(boolean)}.
+     */
+    public void setAddFill(boolean addFill) {
+        mAddFill = addFill;
+    }
+
+    /**
+     * Load and compile all tiles from minX/minY to maxX/maxY inclusive
+     * on 'zoomLevel'. Blocks until all tiles are done.
+     *
+     * @return the number of successfully loaded tiles.
+     */
+    public int run(int zoomLevel, int minX, int minY, int maxX, int maxY, TileHandler handler) {
+        int max = (1 << zoomLevel) - 1;
+        if (minX < 0 || minY < 0 || maxX > max || maxY > max || minX > maxX || minY > maxY)
+            throw new IllegalArgumentException("invalid tile range "
+                    + minX + "," + minY + " - " + maxX + "," + maxY + " on " + zoomLevel);
+
+        int cols = maxX - minX + 1;
+        int rows = maxY - minY + 1;
+
+        return mPool.invoke(new TileRange(handler, zoomLevel, minX, minY, cols,
+                0, cols * rows));
+    }
+
+    /**
+     * Shut down the pool and dispose the data sources.
+     */
+    public void dispose() {
+        mPool.shutdown();
+        synchronized (mLoaders) {
+            for (BatchLoader loader : mLoaders)
+                loader.dispose();
+            mLoaders.clear();
+        }
+    }
+
+    /**
+     * Loads tiles start to end of a range in row order, splits larger
+     * ranges in halves.
+     */
+    class TileRange extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        final TileHandler handler;
+        final int zoomLevel, minX, minY, cols;
+        final int start, end;
+
+        TileRange(TileHandler handler, int zoomLevel, int minX, int minY, int cols,
+                  int start, int end) {
+            this.handler = handler;
+            this.zoomLevel = zoomLevel;
+            this.minX = minX;
+            this.minY = minY;
+            this.cols = cols;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (end - start <= SPLIT_THRESHOLD) {
+                BatchLoader loader = mLoader.get();
+                int loaded = 0;
+                for (int i = start; i < end; i++) {
+                    MapTile tile = new MapTile(null, minX + i % cols, minY + i / cols, zoomLevel);
+                    if (loader.load(tile, mMetrics, mAddFill, handler))
+                        loaded++;
+                }
+                return loaded;
+            }
+            int mid = (start + end) >>> 1;
+            TileRange left = new TileRange(handler, zoomLevel, minX, minY, cols, start, mid);
+            TileRange right = new TileRange(handler, zoomLevel, minX, minY, cols, mid, end);
+            left.fork();
+            return right.compute() + left.join();
+        }
+    }
+
+    static class BatchLoader extends VectorTileLoader {
+        private QueryResult mResult;
+
+        BatchLoader(IRenderTheme theme) {
+            super(theme);
+        }
+
+        boolean load(MapTile tile, TileMetrics metrics, boolean addFill, TileHandler handler) {
+            mResult = null;
+            tile.setState(LOADING);
+
+            loadJob(tile, metrics);
+
+            /* query failed without calling completed() */
+            if (mTile != null)
+                completed(QueryResult.FAILED);
+
+            RenderBuckets buckets = tile.getBuckets();
+            try {
+                if (mResult != QueryResult.SUCCESS)
+                    return false;
+
+                CompiledBuckets data = null;
+                if (buckets != null)
+                    data = CompiledBuckets.compile(buckets, addFill);
+
+                handler.onTile(tile, data);
+                return true;
+            } finally {
+                if (buckets != null)
+                    buckets.clear();
+                tile.data = null;
+            }
+        }
+
+        @Override
+        public void completed(QueryResult result) {
+            mResult = result;
+            super.completed(result);
+        }
+    }
+}
@@ -193,6 +193,13 @@ public class VectorTileLayer extends TileLayer {
         }
     }
 
+    /**
+     * @return true when process hooks are added, these get all elements.
+     */
+    public boolean hasProcessHooks() {
+        return mLoaderProcessHooks.head() != null;
+    }
+
     public boolean callProcessHooks(MapTile tile, RenderBuckets layers, MapElement element) {
 
         LList<TileLoaderProcessHook> ph = mLoaderProcessHooks.head();
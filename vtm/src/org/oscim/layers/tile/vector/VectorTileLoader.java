@@ -25,6 +25,7 @@ import org.oscim.core.TagSet;
 import org.oscim.core.Tile;
 import org.oscim.layers.tile.MapTile;
 import org.oscim.layers.tile.TileLoader;
+import org.oscim.layers.tile.TileMetrics;
 import org.oscim.renderer.bucket.LineBucket;
 import org.oscim.renderer.bucket.LineTexBucket;
 import org.oscim.renderer.bucket.MeshBucket;
@@ -39,8 +40,10 @@ import org.oscim.theme.styles.LineStyle;
 import org.oscim.theme.styles.RenderStyle;
 import org.oscim.theme.styles.SymbolStyle;
 import org.oscim.theme.styles.TextStyle;
+import org.oscim.tiling.ITagFilter;
 import org.oscim.tiling.ITileDataSource;
 import org.oscim.tiling.QueryResult;
+import org.oscim.tiling.source.UrlTileDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -92,6 +95,16 @@ public class VectorTileLoader extends TileLoader implements RenderStyle.Callback
         mTileLayer = tileLayer;
     }
 
+    /**
+     * Create a loader without layer, i.e. without TileManager and hooks,
+     * that always uses 'theme'. See {@link VectorTileBatch}.
+     */
+    protected VectorTileLoader(IRenderTheme theme) {
+        super(null);
+        mTileLayer = null;
+        renderTheme = theme;
+    }
+
     @Override
     public void dispose() {
         if (mTileDataSource != null)
@@ -111,7 +124,8 @@ public class VectorTileLoader extends TileLoader implements RenderStyle.Callback
             log.error("no tile source is set");
             return false;
         }
-        renderTheme = mTileLayer.getTheme();
+        if (mTileLayer != null)
+            renderTheme = mTileLayer.getTheme();
         if (renderTheme == null) {
             log.error("no theme is set");
             return false;
@@ -119,6 +133,10 @@ public class VectorTileLoader extends TileLoader implements RenderStyle.Callback
 
         //mTileLayer.getLoaderHooks();
 
+        /* let the data source skip elements which are not rendered */
+        if (mTileDataSource instanceof ITagFilter.Filterable)
+            ((ITagFilter.Filterable) mTileDataSource).setTagFilter(getTagFilter());
+
         /* account for area changes with latitude */
         double lat = MercatorProjection.toLatitude(tile.y);
         mLineScale = (float) Math.pow(STROKE_INCREASE, tile.zoomLevel - STROKE_MIN_ZOOM);
@@ -148,15 +166,34 @@ public class VectorTileLoader extends TileLoader implements RenderStyle.Callback
     public void completed(QueryResult result) {
         boolean ok = (result == QueryResult.SUCCESS);
 
-        mTileLayer.callHooksComplete(mTile, ok);
+        if (mTileLayer != null)
+            mTileLayer.callHooksComplete(mTile, ok);
 
         /* finish buckets- tessellate and cleanup on worker-thread */
-        mBuckets.prepare();
+        TileMetrics.Trace trace = mTrace;
+        if (trace != null) {
+            long start = System.nanoTime();
+            prepareBuckets(ok);
+            trace.add(TileMetrics.PREPARE, System.nanoTime() - start);
+            trace.vertices = mBuckets.getNumVertices();
+            trace.bytes = mBuckets.getSize();
+        } else {
+            prepareBuckets(ok);
+        }
         clearState();
 
         super.completed(result);
     }
 
+    private void prepareBuckets(boolean ok) {
+        mBuckets.prepare();
+
+        /* compile vertex data for the TileRenderer of the layer,
+         * so that the GL thread only needs to upload it */
+        if (ok && mTileLayer != null)
+            mBuckets.compileData(true);
+    }
+
     protected static int getValidLayer(int layer) {
         if (layer < 0) {
             return 0;
@@ -170,6 +207,35 @@ public class VectorTileLoader extends TileLoader implements RenderStyle.Callback
     public void setDataSource(ITileDataSource dataSource) {
         dispose();
         mTileDataSource = dataSource;
+
+        if (dataSource instanceof UrlTileDataSource)
+            setBatchSize(((UrlTileDataSource) dataSource).getBatchSize());
+        else
+            setBatchSize(1);
+    }
+
+    @Override
+    protected void prepareJobs(MapTile[] jobs, int count) {
+        if (mTileDataSource instanceof UrlTileDataSource)
+            ((UrlTileDataSource) mTileDataSource).sendRequests(jobs, count);
+    }
+
+    /**
+     * Returns the filter for data sources to skip elements which cannot
+     * match the theme. Override to return null when {@link #filterTags(TagSet)}
+     * adds tags.
+     *
+     * @return the filter, or null when all elements must be read.
+     */
+    protected ITagFilter getTagFilter() {
+        /* process hooks get all elements */
+        if (mTileLayer != null && mTileLayer.hasProcessHooks())
+            return null;
+
+        if (renderTheme instanceof ITagFilter)
+            return (ITagFilter) renderTheme;
+
+        return null;
     }
 
     static class TagReplacement {
@@ -196,23 +262,49 @@ public class VectorTileLoader extends TileLoader implements RenderStyle.Callback
         if (isCanceled() || !mTile.state(LOADING))
             return;
 
-        if (mTileLayer.callProcessHooks(mTile, mBuckets, element))
+        TileMetrics.Trace trace = mTrace;
+        long start = 0;
+        if (trace != null) {
+            trace.elements++;
+            start = System.nanoTime();
+        }
+
+        if (mTileLayer != null && mTileLayer.callProcessHooks(mTile, mBuckets, element)) {
+            if (trace != null)
+                trace.add(TileMetrics.BUCKETS, System.nanoTime() - start);
             return;
+        }
 
         TagSet tags = filterTags(element.tags);
-        if (tags == null)
+        if (tags == null) {
+            if (trace != null) {
+                trace.skipped++;
+                trace.add(TileMetrics.THEME, System.nanoTime() - start);
+            }
             return;
+        }
 
         mElement = element;
 
         /* get and apply render instructions */
+        RenderStyle[] styles = renderTheme.matchElement(element.type, tags, mTile.zoomLevel);
+
+        long matched = 0;
+        if (trace != null) {
+            matched = System.nanoTime();
+            trace.add(TileMetrics.THEME, matched - start);
+        }
+
         if (element.type == GeometryType.POINT) {
-            renderNode(renderTheme.matchElement(element.type, tags, mTile.zoomLevel));
+            renderNode(styles);
         } else {
             mCurBucket = getValidLayer(element.layer) * renderTheme.getLevels();
-            renderWay(renderTheme.matchElement(element.type, tags, mTile.zoomLevel));
+            renderWay(styles);
         }
         clearState();
+
+        if (trace != null)
+            trace.add(TileMetrics.BUCKETS, System.nanoTime() - matched);
     }
 
     protected void renderWay(RenderStyle[] style) {
@@ -320,12 +412,14 @@ public class VectorTileLoader extends TileLoader implements RenderStyle.Callback
 
     @Override
     public void renderSymbol(SymbolStyle symbol) {
-        mTileLayer.callThemeHooks(mTile, mBuckets, mElement, symbol, 0);
+        if (mTileLayer != null)
+            mTileLayer.callThemeHooks(mTile, mBuckets, mElement, symbol, 0);
     }
 
     @Override
     public void renderExtrusion(ExtrusionStyle extrusion, int level) {
-        mTileLayer.callThemeHooks(mTile, mBuckets, mElement, extrusion, level);
+        if (mTileLayer != null)
+            mTileLayer.callThemeHooks(mTile, mBuckets, mElement, extrusion, level);
     }
 
     @Override
@@ -334,6 +428,7 @@ public class VectorTileLoader extends TileLoader implements RenderStyle.Callback
 
     @Override
     public void renderText(TextStyle text) {
-        mTileLayer.callThemeHooks(mTile, mBuckets, mElement, text, 0);
+        if (mTileLayer != null)
+            mTileLayer.callThemeHooks(mTile, mBuckets, mElement, text, 0);
     }
 }
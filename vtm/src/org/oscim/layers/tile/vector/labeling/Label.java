@@ -34,6 +34,14 @@ final class Label extends TextItem {
     public int active;
     public OBB2D bbox;
 
+    /* cell range, insertion order and query mark in LabelGrid */
+    int gridX1, gridY1, gridX2, gridY2;
+    int gridSeq;
+    int gridMark;
+
+    /* removed from LabelPlacement, but not yet unlinked */
+    boolean removed;
+
     public Label clone(TextItem ti) {
         this.string = ti.string;
         this.text = ti.text;
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.layers.tile.vector.labeling;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the labeled area around the map center to find the
+ * placed labels that may overlap a new one.
+ * <p/>
+ * A label is stored in all cells touched by the bounds of its bbox and
+ * its end points, as way labels are queried by their end points and
+ * captions by their bbox. Bounds outside of the grid are clamped
+ * to the border cells. Query results which pass the exact overlap test
+ * are then ordered like the label list, i.e. the last inserted label
+ * first, see {@link #sort(int)}, so that overlap resolution gives the
+ * same result as walking the list.
+ */
+final class LabelGrid {
+
+    static final int CELL_SIZE = 128;
+
+    private int mSize;
+    private float mMin;
+
+    private Label[][] mCells = new Label[0][];
+    private int[] mCounts = new int[0];
+
+    /**
+     * insertion counter, to order query results
+     */
+    private int mSeq;
+
+    /**
+     * incremented each query, to add labels only once
+     */
+    private int mMark;
+
+    private Label[] mResult = new Label[32];
+    private int mResultCnt;
+
+    /**
+     * Remove all labels and cover the square of +/-radius.
+     */
+    void init(float radius) {
+        int size = (int) Math.ceil(2 * radius / CELL_SIZE);
+        if (size < 1)
+            size = 1;
+
+        if (size * size != mCounts.length) {
+            mCells = new Label[size * size][];
+            mCounts = new int[size * size];
+        } else {
+            clear();
+        }
+        mSize = size;
+        mMin = -size * CELL_SIZE / 2f;
+        mSeq = 0;
+    }
+
+    void clear() {
+        for (int i = 0; i < mCounts.length; i++) {
+            if (mCounts[i] > 0)
+                Arrays.fill(mCells[i], 0, mCounts[i], null);
+            mCounts[i] = 0;
+        }
+        Arrays.fill(mResult, 0, mResultCnt, null);
+        mResultCnt = 0;
+    }
+
+    private int cell(float v) {
+        int c = (int) ((v - mMin) / CELL_SIZE);
+        if (c < 0)
+            return 0;
+        if (c >= mSize)
+            return mSize - 1;
+        return c;
+    }
+
+    /**
+     * Set the cell range of l for the given bounds. NaN bounds, e.g. of
+     * a degenerated bbox, cover the whole grid. Math.min/max propagate NaN.
+     */
+    private void setCells(Label l, float minX, float minY, float maxX, float maxY) {
+        if (minX <= maxX && minY <= maxY) {
+            l.gridX1 = cell(minX);
+            l.gridY1 = cell(minY);
+            l.gridX2 = cell(maxX);
+            l.gridY2 = cell(maxY);
+        } else {
+            l.gridX1 = l.gridY1 = 0;
+            l.gridX2 = l.gridY2 = mSize - 1;
+        }
+    }
+
+    /**
+     * Insert l by the bounds of its bbox and its end points x1/y1 and x2/y2.
+     */
+    void insert(Label l) {
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+
+        if (l.bbox != null) {
+            float[] v = l.bbox.vec;
+            for (int i = 0; i < 8; i += 2) {
+                minX = Math.min(minX, v[i]);
+                maxX = Math.max(maxX, v[i]);
+                minY = Math.min(minY, v[i + 1]);
+                maxY = Math.max(maxY, v[i + 1]);
+            }
+        }
+        minX = Math.min(minX, Math.min(l.x1, l.x2));
+        maxX = Math.max(maxX, Math.max(l.x1, l.x2));
+        minY = Math.min(minY, Math.min(l.y1, l.y2));
+        maxY = Math.max(maxY, Math.max(l.y1, l.y2));
+
+        setCells(l, minX, minY, maxX, maxY);
+        l.gridSeq = mSeq++;
+
+        for (int y = l.gridY1; y <= l.gridY2; y++) {
+            for (int x = l.gridX1; x <= l.gridX2; x++) {
+                int c = y * mSize + x;
+                Label[] cell = mCells[c];
+                int cnt = mCounts[c];
+                if (cell == null) {
+                    cell = mCells[c] = new Label[4];
+                } else if (cnt == cell.length) {
+                    cell = mCells[c] = Arrays.copyOf(cell, cnt * 2);
+                }
+                cell[cnt] = l;
+                mCounts[c] = cnt + 1;
+            }
+        }
+    }
+
+    void remove(Label l) {
+        for (int y = l.gridY1; y <= l.gridY2; y++) {
+            for (int x = l.gridX1; x <= l.gridX2; x++) {
+                int c = y * mSize + x;
+                Label[] cell = mCells[c];
+                int cnt = mCounts[c];
+                for (int i = 0; i < cnt; i++) {
+                    if (cell[i] == l) {
+                        cell[i] = cell[--cnt];
+                        cell[cnt] = null;
+                        mCounts[c] = cnt;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find all labels in cells touched by the given bounds, in no
+     * particular order.
+     *
+     * @return the number of results, see {@link #get(int)}.
+     */
+    int query(float minX, float minY, float maxX, float maxY) {
+        Arrays.fill(mResult, 0, mResultCnt, null);
+        int n = 0;
+        int mark = ++mMark;
+
+        int x1, y1, x2, y2;
+        if (minX <= maxX && minY <= maxY) {
+            x1 = cell(minX);
+            y1 = cell(minY);
+            x2 = cell(maxX);
+            y2 = cell(maxY);
+        } else {
+            x1 = y1 = 0;
+            x2 = y2 = mSize - 1;
+        }
+
+        for (int y = y1; y <= y2; y++) {
+            for (int x = x1; x <= x2; x++) {
+                int c = y * mSize + x;
+                Label[] cell = mCells[c];
+                for (int i = 0, cnt = mCounts[c]; i < cnt; i++) {
+                    Label l = cell[i];
+                    if (l.gridMark == mark)
+                        continue;
+                    l.gridMark = mark;
+
+                    if (n == mResult.length)
+                        mResult = Arrays.copyOf(mResult, n * 2);
+
+                    mResult[n++] = l;
+                }
+            }
+        }
+        mResultCnt = n;
+        return n;
+    }
+
+    /**
+     * Query bounds of an OBB.
+     */
+    int query(float[] v) {
+        float minX = v[0], maxX = v[0];
+        float minY = v[1], maxY = v[1];
+        for (int i = 2; i < 8; i += 2) {
+            minX = Math.min(minX, v[i]);
+            maxX = Math.max(maxX, v[i]);
+            minY = Math.min(minY, v[i + 1]);
+            maxY = Math.max(maxY, v[i + 1]);
+        }
+        return query(minX, minY, maxX, maxY);
+    }
+
+    Label get(int i) {
+        return mResult[i];
+    }
+
+    void set(int i, Label l) {
+        mResult[i] = l;
+    }
+
+    /**
+     * Order the first n results like the label list, last inserted first.
+     */
+    void sort(int n) {
+        for (int i = 1; i < n; i++) {
+            Label l = mResult[i];
+            int j = i;
+            for (; j > 0 && mResult[j - 1].gridSeq < l.gridSeq; j--)
+                mResult[j] = mResult[j - 1];
+            mResult[j] = l;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.oscim.layers.tile.MapTile;
 import org.oscim.layers.tile.TileManager;
 import org.oscim.layers.tile.vector.VectorTileLayer;
 import org.oscim.map.Map;
+import org.oscim.renderer.bucket.TextAtlas;
 import org.oscim.utils.async.SimpleWorker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +37,7 @@ public class LabelLayer extends Layer implements Map.UpdateListener, TileManager
     private final static long MAX_RELABEL_DELAY = 100;
 
     private final LabelPlacement mLabelPlacer;
+    private final TextAtlas mTextAtlas;
     private final Worker mWorker;
 
     public LabelLayer(Map map, VectorTileLayer l) {
@@ -44,6 +46,7 @@ public class LabelLayer extends Layer implements Map.UpdateListener, TileManager
         l.addHook(new LabelTileLoaderHook());
 
         mLabelPlacer = new LabelPlacement(map, l.tileRenderer());
+        mTextAtlas = new TextAtlas();
         mWorker = new Worker(map);
         mRenderer = new TextRenderer(mWorker);
     }
@@ -51,7 +54,8 @@ public class LabelLayer extends Layer implements Map.UpdateListener, TileManager
     class Worker extends SimpleWorker<LabelTask> {
 
         public Worker(Map map) {
-            super(map, 50, new LabelTask(), new LabelTask());
+            /* both tasks draw label strings to the same atlas */
+            super(map, 50, new LabelTask(mTextAtlas), new LabelTask(mTextAtlas));
         }
 
         @Override
@@ -72,6 +76,7 @@ public class LabelLayer extends Layer implements Map.UpdateListener, TileManager
         @Override
         public void finish() {
             mLabelPlacer.cleanup();
+            mTextAtlas.clear();
         }
 
         public synchronized boolean isRunning() {
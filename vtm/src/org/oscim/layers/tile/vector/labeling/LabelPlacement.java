@@ -59,6 +59,11 @@ public class LabelPlacement {
      */
     private Label mLabels;
 
+    /**
+     * index of mLabels to find overlap candidates
+     */
+    private final LabelGrid mGrid = new LabelGrid();
+
     private float mSquareRadius;
 
     /**
@@ -73,27 +78,76 @@ public class LabelPlacement {
     }
 
     /**
-     * remove Label l from mLabels and return l.next
+     * remove Label l from the grid. It is unlinked from mLabels by
+     * purgeLabels(), to not walk the list for each removal.
+     */
+    private void removeLabel(Label l) {
+        mGrid.remove(l);
+        l.removed = true;
+    }
+
+    /**
+     * unlink and release labels marked by removeLabel()
      */
-    private Label removeLabel(Label l) {
-        Label ret = (Label) l.next;
-        mLabels = (Label) mPool.release(mLabels, l);
-        return ret;
+    private void purgeLabels() {
+        Label prev = null;
+        for (Label l = mLabels; l != null; ) {
+            if (!l.removed) {
+                prev = l;
+                l = (Label) l.next;
+                continue;
+            }
+            Label next = (Label) l.next;
+            if (prev == null)
+                mLabels = next;
+            else
+                prev.next = next;
+
+            l.removed = false;
+            mPool.releaseAndGetNext(l);
+            l = next;
+        }
     }
 
     public void addLabel(Label l) {
+        l.removed = false;
         l.next = mLabels;
         mLabels = l;
+        mGrid.insert(l);
     }
 
-    private byte checkOverlap(Label l) {
+    /**
+     * remove all labels and cover the labeled area of 'radius'
+     */
+    void initLabels(float radius) {
+        mLabels = null;
+        mGrid.init(radius);
+    }
 
-        for (Label o = mLabels; o != null; ) {
-            //check bounding box
-            if (!Label.bboxOverlaps(l, o, 100)) {
-                o = (Label) o.next;
-                continue;
-            }
+    /**
+     * check way label l against the placed labels, by their end points
+     * and bbox. Removes placed labels which give way to l.
+     *
+     * @return 0 when l can be placed.
+     */
+    byte checkOverlap(Label l) {
+        final float add = 100;
+
+        int n = mGrid.query(Math.min(l.x1, l.x2) - add, Math.min(l.y1, l.y2) - add,
+                Math.max(l.x1, l.x2) + add, Math.max(l.y1, l.y2) + add);
+
+        //check bounding box
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            Label o = mGrid.get(i);
+            if (Label.bboxOverlaps(l, o, add))
+                mGrid.set(m++, o);
+        }
+        /* resolve in order of mLabels */
+        mGrid.sort(m);
+
+        for (int i = 0; i < m; i++) {
+            Label o = mGrid.get(i);
 
             if (Label.shareText(l, o)) {
                 // keep the label that was active earlier
@@ -102,7 +156,7 @@ public class LabelPlacement {
 
                 // keep the label with longer segment
                 if (o.length < l.length) {
-                    o = removeLabel(o);
+                    removeLabel(o);
                     continue;
                 }
                 // keep other
@@ -116,17 +170,44 @@ public class LabelPlacement {
                         && (o.text.priority > l.text.priority
                         || o.length < l.length)) {
 
-                    o = removeLabel(o);
+                    removeLabel(o);
                     continue;
                 }
                 // keep other
                 return 1;
             }
-            o = (Label) o.next;
         }
         return 0;
     }
 
+    /**
+     * check caption l against the placed labels by their bbox. Removes
+     * placed labels with lower priority than l.
+     *
+     * @return true when l overlaps a label that is kept.
+     */
+    boolean checkCaptionOverlap(Label l) {
+        int n = mGrid.query(l.bbox.vec);
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            Label o = mGrid.get(i);
+            if (l.bbox.overlaps(o.bbox))
+                mGrid.set(m++, o);
+        }
+        /* resolve in order of mLabels */
+        mGrid.sort(m);
+
+        for (int i = 0; i < m; i++) {
+            Label o = mGrid.get(i);
+            if (l.text.priority < o.text.priority) {
+                removeLabel(o);
+                continue;
+            }
+            return true;
+        }
+        return false;
+    }
+
     private boolean isVisible(float x, float y) {
         // rough filter
         float dist = x * x + y * y;
@@ -246,7 +327,6 @@ public class LabelPlacement {
         if (ld == null)
             return l;
 
-        O:
         for (TextItem ti : ld.labels) {
             if (!ti.text.caption)
                 continue;
@@ -269,16 +349,8 @@ public class LabelPlacement {
                     l.text.fontHeight + MIN_CAPTION_DIST,
                     l.text.dy);
 
-            for (Label o = mLabels; o != null; ) {
-                if (l.bbox.overlaps(o.bbox)) {
-                    if (l.text.priority < o.text.priority) {
-                        o = removeLabel(o);
-                        continue;
-                    }
-                    continue O;
-                }
-                o = (Label) o.next;
-            }
+            if (checkCaptionOverlap(l))
+                continue;
 
             addLabel(l);
             l.item = TextItem.copy(ti);
@@ -337,7 +409,7 @@ public class LabelPlacement {
         Label prevLabels = mLabels;
 
         /* new labels */
-        mLabels = null;
+        initLabels((float) Math.sqrt(mSquareRadius));
         Label l = null;
 
         /* add currently active labels first */
@@ -423,6 +495,8 @@ public class LabelPlacement {
             l = addNodeLabels(t, l, dx, dy, scale, cos, sin);
         }
 
+        purgeLabels();
+
         for (Label ti = mLabels; ti != null; ti = (Label) ti.next) {
             /* add caption symbols */
             if (ti.text.caption) {
@@ -503,6 +577,7 @@ public class LabelPlacement {
     }
 
     public void cleanup() {
+        mGrid.clear();
         mLabels = (Label) mPool.releaseAll(mLabels);
         mTileSet.releaseTiles();
     }
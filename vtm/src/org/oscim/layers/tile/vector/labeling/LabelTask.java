@@ -2,6 +2,7 @@ package org.oscim.layers.tile.vector.labeling;
 
 import org.oscim.core.MapPosition;
 import org.oscim.renderer.bucket.SymbolBucket;
+import org.oscim.renderer.bucket.TextAtlas;
 import org.oscim.renderer.bucket.TextBucket;
 import org.oscim.renderer.bucket.TextureBucket;
 
@@ -14,10 +15,14 @@ final class LabelTask {
     final MapPosition pos;
 
     LabelTask() {
+        this(null);
+    }
+
+    LabelTask(TextAtlas textAtlas) {
         pos = new MapPosition();
 
         symbolLayer = new SymbolBucket();
-        textLayer = new TextBucket();
+        textLayer = new TextBucket(textAtlas);
 
         layers = symbolLayer;
         symbolLayer.next = textLayer;
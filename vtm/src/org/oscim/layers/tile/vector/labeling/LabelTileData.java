@@ -5,6 +5,11 @@ import org.oscim.renderer.bucket.SymbolItem;
 import org.oscim.renderer.bucket.TextItem;
 
 public class LabelTileData extends TileData {
+    /**
+     * Estimated size of one TextItem or SymbolItem.
+     */
+    static final int ITEM_SIZE = 64;
+
     public final List<SymbolItem> symbols = new List<SymbolItem>();
     public final List<TextItem> labels = new List<TextItem>();
 
@@ -13,4 +18,9 @@ public class LabelTileData extends TileData {
         TextItem.pool.releaseAll(labels.clear());
         SymbolItem.pool.releaseAll(symbols.clear());
     }
+
+    @Override
+    public int getSize() {
+        return (labels.size() + symbols.size()) * ITEM_SIZE;
+    }
 }
@@ -3,24 +3,48 @@ package org.oscim.layers.vector;
 import org.oscim.core.Box;
 import org.oscim.core.GeometryBuffer;
 import org.oscim.core.MapPosition;
+import org.oscim.core.Tile;
 import org.oscim.event.Event;
 import org.oscim.layers.Layer;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.layers.tile.TileLayer;
+import org.oscim.layers.tile.TileLoader;
+import org.oscim.layers.tile.TileManager;
+import org.oscim.layers.tile.VectorTileRenderer;
 import org.oscim.map.Map;
 import org.oscim.map.Map.UpdateListener;
 import org.oscim.map.Viewport;
 import org.oscim.renderer.BucketRenderer;
 import org.oscim.renderer.GLViewport;
 import org.oscim.renderer.bucket.RenderBuckets;
+import org.oscim.tiling.QueryResult;
 import org.oscim.utils.async.SimpleWorker;
 import org.oscim.utils.geom.TileClipper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+
+import static org.oscim.core.MercatorProjection.latitudeToY;
+import static org.oscim.core.MercatorProjection.longitudeToX;
+import static org.oscim.tiling.QueryResult.FAILED;
+import static org.oscim.tiling.QueryResult.SUCCESS;
+
 public abstract class AbstractVectorLayer<T> extends Layer implements UpdateListener {
     public static final Logger log = LoggerFactory.getLogger(AbstractVectorLayer.class);
 
     protected final static double UNSCALE_COORD = 4;
 
+    /**
+     * Clip buffer of tiles in tile mode, relative to the tile size.
+     */
+    protected final static double CLIP_BUFFER = 1 / 8.0;
+
+    /**
+     * Merge pending areas to invalidate above this count.
+     */
+    private final static int MAX_DIRTY = 16;
+
     protected final GeometryBuffer mGeom = new GeometryBuffer(128, 4);
     protected final TileClipper mClipper = new TileClipper(-1024, -1024, 1024, 1024);
 
@@ -29,10 +53,43 @@ public abstract class AbstractVectorLayer<T> extends Layer implements UpdateList
 
     protected boolean mUpdate = true;
 
+    /**
+     * Renders features per tile in tile mode, null otherwise.
+     */
+    protected final Tiles mTiles;
+
+    /**
+     * Areas in map coordinates to invalidate on the main-thread.
+     */
+    private final ArrayList<Box> mDirty = new ArrayList<>();
+
     public AbstractVectorLayer(Map map) {
+        this(map, false);
+    }
+
+    /**
+     * @param tiled in tile mode features are rendered per tile by several
+     *              threads and the tiles are cached until features within
+     *              them are added or removed, see {@link #invalidate(Box)}.
+     *              Otherwise all features of the viewport are rendered
+     *              again when the map moves. In tile mode
+     *              {@link #processFeatures(Task, Box)} must be thread-safe.
+     */
+    public AbstractVectorLayer(Map map, boolean tiled) {
         super(map);
         mWorker = new Worker(mMap);
-        mRenderer = new Renderer();
+
+        if (tiled) {
+            mTiles = new Tiles(map);
+            mRenderer = mTiles.getRenderer();
+        } else {
+            mTiles = null;
+            mRenderer = new Renderer();
+        }
+    }
+
+    public boolean isTiled() {
+        return mTiles != null;
     }
 
     @Override
@@ -40,11 +97,16 @@ public abstract class AbstractVectorLayer<T> extends Layer implements UpdateList
         super.onDetach();
 
         mWorker.cancel(true);
+
+        if (mTiles != null)
+            mTiles.onDetach();
     }
 
     @Override
     public void onMapEvent(Event e, MapPosition pos) {
-        if (mUpdate) {
+        if (mTiles != null) {
+            mTiles.onMapEvent(e, pos);
+        } else if (mUpdate) {
             mUpdate = false;
             mWorker.submit(0);
         } else if (e == Map.POSITION_EVENT || e == Map.CLEAR_EVENT) {
@@ -54,20 +116,96 @@ public abstract class AbstractVectorLayer<T> extends Layer implements UpdateList
     }
 
     public void update() {
-        mWorker.submit(0);
+        if (mTiles != null)
+            invalidate(new Box(-180, -90, 180, 90));
+        else
+            mWorker.submit(0);
     }
 
+    /**
+     * Reload the tiles which intersect 'bbox' in tile mode, e.g. after a
+     * feature within 'bbox' was added or removed. Can be called from any
+     * thread, the areas are collected until the tiles are reloaded on the
+     * main-thread.
+     *
+     * @param bbox the area in degrees.
+     */
+    protected void invalidate(Box bbox) {
+        if (mTiles == null)
+            return;
+
+        Box box = new Box(longitudeToX(bbox.xmin), latitudeToY(bbox.ymax),
+                longitudeToX(bbox.xmax), latitudeToY(bbox.ymin));
+
+        synchronized (mDirty) {
+            if (mDirty.isEmpty())
+                mMap.post(mInvalidate);
+
+            if (mDirty.size() < MAX_DIRTY)
+                mDirty.add(box);
+            else
+                mDirty.get(0).add(box);
+        }
+    }
+
+    private final Runnable mInvalidate = new Runnable() {
+        @Override
+        public void run() {
+            Box[] boxes;
+            synchronized (mDirty) {
+                boxes = mDirty.toArray(new Box[mDirty.size()]);
+                mDirty.clear();
+            }
+            for (Box box : boxes)
+                mTiles.invalidate(box, CLIP_BUFFER);
+        }
+    };
+
+    /**
+     * Add the features within 'b' to t.buckets, using the coordinate
+     * transformation of t.position, t.geom and t.clipper.
+     *
+     * @param b the area in degrees.
+     */
     abstract protected void processFeatures(Task t, Box b);
 
+    /**
+     * Create the state for processing features on one thread.
+     */
+    protected Task createTask() {
+        return new Task();
+    }
+
     protected static class Task {
-        public final RenderBuckets buckets = new RenderBuckets();
+        public RenderBuckets buckets = new RenderBuckets();
+
+        /**
+         * Position of the output coordinates. In tile mode this is the
+         * position of the tile, with scale (1 << zoomLevel) * UNSCALE_COORD.
+         */
         public final MapPosition position = new MapPosition();
+
+        public final GeometryBuffer geom = new GeometryBuffer(128, 4);
+        public final TileClipper clipper = new TileClipper(-1024, -1024, 1024, 1024);
     }
 
     protected class Worker extends SimpleWorker<Task> {
 
         public Worker(Map map) {
-            super(map, 50, new Task(), new Task());
+            super(map, 50, null, null);
+        }
+
+        /**
+         * Tasks are created with the first submit, when the subclass
+         * is constructed.
+         */
+        @Override
+        public synchronized void submit(long delay) {
+            if (mTaskLocked == null) {
+                mTaskTodo = createTask();
+                mTaskLocked = createTask();
+            }
+            super.submit(delay);
         }
 
         /**
@@ -163,4 +301,88 @@ public abstract class AbstractVectorLayer<T> extends Layer implements UpdateList
             compile();
         }
     }
+
+    /**
+     * Renders features per tile in tile mode, using the TileManager and
+     * VectorTileRenderer of vector tiles.
+     */
+    protected class Tiles extends TileLayer {
+
+        Tiles(Map map) {
+            super(map, new TileManager(map, 100), new VectorTileRenderer());
+            initLoader(getNumLoaders());
+        }
+
+        @Override
+        protected TileLoader createLoader() {
+            return new Loader(mTileManager);
+        }
+    }
+
+    class Loader extends TileLoader {
+        private Task mTask;
+
+        Loader(TileManager tileManager) {
+            super(tileManager);
+        }
+
+        @Override
+        protected boolean loadTile(MapTile tile) {
+            if (mTask == null)
+                mTask = createTask();
+
+            Task t = mTask;
+            t.buckets = new RenderBuckets();
+            tile.data = t.buckets;
+
+            double size = 1.0 / (1 << tile.zoomLevel);
+            t.position.x = tile.x;
+            t.position.y = tile.y;
+            t.position.zoomLevel = tile.zoomLevel;
+            t.position.scale = (1 << tile.zoomLevel) * UNSCALE_COORD;
+
+            float c = (float) (Tile.SIZE * CLIP_BUFFER);
+            t.clipper.setRect(-c, -c, Tile.SIZE + c, Tile.SIZE + c);
+
+            double m = size * CLIP_BUFFER;
+            Box bbox = new Box(tile.x - m, tile.y - m,
+                    tile.x + size + m, tile.y + size + m);
+            bbox.map2mercator();
+
+            boolean ok = true;
+            try {
+                processFeatures(t, bbox);
+            } catch (Exception e) {
+                log.error("{} processing features failed", tile, e);
+                ok = false;
+            }
+            completed(ok ? SUCCESS : FAILED);
+            return ok;
+        }
+
+        @Override
+        public void completed(QueryResult result) {
+            /* no task when canceled before the first tile */
+            RenderBuckets buckets = null;
+            if (mTask != null) {
+                buckets = mTask.buckets;
+                mTask.buckets = null;
+            }
+
+            if (buckets != null) {
+                buckets.prepare();
+                if (result == SUCCESS)
+                    buckets.compileData(true);
+            }
+            super.completed(result);
+        }
+
+        @Override
+        public void dispose() {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
 }
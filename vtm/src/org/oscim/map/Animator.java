@@ -297,4 +297,72 @@ public class Animator {
     public boolean isActive() {
         return mState != ANIM_NONE;
     }
+
+    /**
+     * @return the advance of the running animation from 0 (start)
+     * to 1 (end).
+     */
+    public float getAdvance() {
+        if (mState == ANIM_NONE)
+            return 1;
+
+        long millisLeft = mAnimEnd - System.currentTimeMillis();
+        return clamp(1.0f - millisLeft / mDuration, 0, 1);
+    }
+
+    /**
+     * Predict the position of the running animation, e.g. to prefetch
+     * tiles. The pivot of animateZoom is not considered.
+     *
+     * @param adv advance from 0 (start) to 1 (end), see {@link #getAdvance()}.
+     * @param pos receives the position.
+     * @return false when no animation is running.
+     */
+    public boolean getPosition(float adv, MapPosition pos) {
+        if (mState == ANIM_NONE)
+            return false;
+
+        adv = clamp(adv, 0, 1);
+        pos.copy(mCurPos);
+
+        double scaleAdv = 1;
+        if ((mState & ANIM_SCALE) != 0) {
+            double scale = mStartPos.scale + mDeltaPos.scale * Math.sqrt(adv);
+            scaleAdv = scale / (mStartPos.scale + mDeltaPos.scale);
+            pos.setScale(scale);
+        }
+
+        if ((mState & ANIM_MOVE) != 0) {
+            pos.x = mStartPos.x + mDeltaPos.x * (adv / scaleAdv);
+            pos.y = mStartPos.y + mDeltaPos.y * (adv / scaleAdv);
+        }
+
+        if ((mState & ANIM_FLING) != 0) {
+            /* remaining move in pixels, see ViewController.moveMap() */
+            double a = Math.sqrt(adv);
+            double mx = mVelocity.x * a - mScroll.x;
+            double my = mVelocity.y * a - mScroll.y;
+            if (pos.bearing != 0) {
+                double rad = Math.toRadians(pos.bearing);
+                double rcos = Math.cos(rad);
+                double rsin = Math.sin(rad);
+                double x = mx * rcos + my * rsin;
+                my = mx * -rsin + my * rcos;
+                mx = x;
+            }
+            double tileScale = pos.scale * Tile.SIZE;
+            pos.x -= mx / tileScale;
+            pos.y -= my / tileScale;
+        }
+
+        if ((mState & ANIM_ROTATE) != 0)
+            pos.bearing = mStartPos.bearing + mDeltaPos.bearing * adv;
+
+        if ((mState & ANIM_TILT) != 0)
+            pos.tilt = mStartPos.tilt + mDeltaPos.tilt * adv;
+
+        pos.y = clamp(pos.y, 0, 1);
+        pos.x -= Math.floor(pos.x);
+        return true;
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.renderer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+
+/**
+ * Thread-safe pool of native ShortBuffers, to compile vertex data on
+ * TileLoader threads which is then uploaded on the GL thread.
+ * <p/>
+ * Buffers have power-of-two capacities of at least 32kb. Buffers that
+ * were uploaded are returned with {@link #releaseLater(ShortBuffer)}
+ * and only reused after the frame, see {@link NativeBufferPool}.
+ */
+public class DirectBufferPool {
+
+    private static final int MIN_BITS = 15;
+    private static final int MAX_BITS = 30;
+
+    private final int mMaxBytes;
+
+    @SuppressWarnings("unchecked")
+    private final ArrayList<ShortBuffer>[] mFree =
+            (ArrayList<ShortBuffer>[]) new ArrayList<?>[MAX_BITS + 1];
+
+    private final ArrayList<ShortBuffer> mPending = new ArrayList<>();
+
+    private int mPooledBytes;
+
+    /**
+     * @param maxBytes maximal size of buffers kept in the pool.
+     */
+    public DirectBufferPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+        for (int i = MIN_BITS; i <= MAX_BITS; i++)
+            mFree[i] = new ArrayList<>();
+    }
+
+    private static int sizeClass(int bytes) {
+        int bits = 32 - Integer.numberOfLeadingZeros(bytes - 1);
+        return Math.max(bits, MIN_BITS);
+    }
+
+    /**
+     * Get a cleared buffer with room for at least 'size' shorts.
+     */
+    public ShortBuffer get(int size) {
+        int bits = sizeClass(size * 2);
+        if (bits > MAX_BITS)
+            throw new IllegalArgumentException("buffer too large: " + size);
+
+        synchronized (this) {
+            ArrayList<ShortBuffer> free = mFree[bits];
+            if (!free.isEmpty()) {
+                ShortBuffer buf = free.remove(free.size() - 1);
+                mPooledBytes -= 1 << bits;
+                buf.clear();
+                return buf;
+            }
+        }
+        return ByteBuffer.allocateDirect(1 << bits)
+                .order(ByteOrder.nativeOrder())
+                .asShortBuffer();
+    }
+
+    /**
+     * Return 'buf' to the pool. It is dropped when the pool is full.
+     */
+    public void release(ShortBuffer buf) {
+        if (buf == null)
+            return;
+
+        int bytes = buf.capacity() * 2;
+        synchronized (this) {
+            if (mPooledBytes + bytes > mMaxBytes)
+                return;
+
+            mPooledBytes += bytes;
+            mFree[sizeClass(bytes)].add(buf);
+        }
+    }
+
+    /**
+     * Return 'buf' to the pool on the next {@link #releasePending()},
+     * i.e. when GL is done with its data.
+     */
+    public void releaseLater(ShortBuffer buf) {
+        if (buf == null)
+            return;
+
+        synchronized (mPending) {
+            mPending.add(buf);
+        }
+    }
+
+    /**
+     * Called by MapRenderer after each frame.
+     */
+    public void releasePending() {
+        synchronized (mPending) {
+            for (int i = 0, n = mPending.size(); i < n; i++)
+                release(mPending.get(i));
+            mPending.clear();
+        }
+    }
+
+    /**
+     * @return the size of buffers in the pool in bytes.
+     */
+    public synchronized int getPooledBytes() {
+        return mPooledBytes;
+    }
+
+    public synchronized void clear() {
+        for (int i = MIN_BITS; i <= MAX_BITS; i++)
+            mFree[i].clear();
+        mPooledBytes = 0;
+    }
+}
@@ -97,6 +97,7 @@ public class MapRenderer {
         mMap.doneFrame(rerender);
 
         mBufferPool.releaseBuffers();
+        RenderBuckets.bufferPool.releasePending();
         TextureItem.disposeTextures();
     }
 
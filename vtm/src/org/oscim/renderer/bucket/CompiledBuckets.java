@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.renderer.bucket;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Vertex and index data of {@link RenderBuckets} compiled without GL, in
+ * the layout that {@link RenderBuckets#compile(boolean)} uploads to the
+ * vbo and ibo. Styles are not included, buckets are identified by their
+ * type and level.
+ */
+public class CompiledBuckets {
+
+    private static final int VERSION = 1;
+    private static final int BUCKET_INTS = 6;
+
+    /**
+     * Type, level, vertex offset, indice offset, number of vertices and
+     * number of indices of each bucket.
+     */
+    private final int[] mBuckets;
+
+    /**
+     * Byte offset of line vertices, see {@link RenderBuckets#offset}.
+     */
+    public final int lineOffset;
+
+    public final short[] vertices;
+    public final short[] indices;
+
+    CompiledBuckets(int[] buckets, int lineOffset, short[] vertices, short[] indices) {
+        mBuckets = buckets;
+        this.lineOffset = lineOffset;
+        this.vertices = vertices;
+        this.indices = indices;
+    }
+
+    /**
+     * Compile 'buckets' into new arrays. Must be called after
+     * {@link RenderBuckets#prepare()}.
+     *
+     * @return the compiled data or null when there are no vertices
+     * or compilation failed.
+     */
+    public static CompiledBuckets compile(RenderBuckets buckets, boolean addFill) {
+        int vboSize = buckets.countVboSize();
+        if (vboSize <= 0)
+            return null;
+
+        if (addFill)
+            vboSize += 8;
+
+        short[] vertices = new short[vboSize];
+        short[] indices = new short[buckets.countIboSize()];
+
+        ShortBuffer iboData = indices.length > 0 ? ShortBuffer.wrap(indices) : null;
+        if (!buckets.compile(ShortBuffer.wrap(vertices), iboData, addFill))
+            return null;
+
+        int cnt = 0;
+        for (RenderBucket b = buckets.get(); b != null; b = b.next)
+            cnt++;
+
+        int[] info = new int[cnt * BUCKET_INTS];
+        int pos = 0;
+        for (RenderBucket b = buckets.get(); b != null; b = b.next) {
+            info[pos++] = b.type;
+            info[pos++] = b.level;
+            info[pos++] = b.vertexOffset;
+            info[pos++] = b.indiceOffset;
+            info[pos++] = b.numVertices;
+            info[pos++] = b.numIndices;
+        }
+        return new CompiledBuckets(info, buckets.offset[RenderBucket.LINE], vertices, indices);
+    }
+
+    /**
+     * @return the number of buckets.
+     */
+    public int size() {
+        return mBuckets.length / BUCKET_INTS;
+    }
+
+    public int getType(int bucket) {
+        return mBuckets[bucket * BUCKET_INTS];
+    }
+
+    public int getLevel(int bucket) {
+        return mBuckets[bucket * BUCKET_INTS + 1];
+    }
+
+    public int getVertexOffset(int bucket) {
+        return mBuckets[bucket * BUCKET_INTS + 2];
+    }
+
+    public int getIndiceOffset(int bucket) {
+        return mBuckets[bucket * BUCKET_INTS + 3];
+    }
+
+    public int getNumVertices(int bucket) {
+        return mBuckets[bucket * BUCKET_INTS + 4];
+    }
+
+    public int getNumIndices(int bucket) {
+        return mBuckets[bucket * BUCKET_INTS + 5];
+    }
+
+    /**
+     * Serialize to a big-endian byte array:
+     * version, number of buckets, line offset, number of vertex and index
+     * shorts, bucket info and the vertex and index data.
+     */
+    public byte[] toByteArray() {
+        int size = 5 * 4 + mBuckets.length * 4 + (vertices.length + indices.length) * 2;
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(VERSION);
+        buf.putInt(size());
+        buf.putInt(lineOffset);
+        buf.putInt(vertices.length);
+        buf.putInt(indices.length);
+        buf.asIntBuffer().put(mBuckets);
+        buf.position(buf.position() + mBuckets.length * 4);
+        buf.asShortBuffer().put(vertices).put(indices);
+        return buf.array();
+    }
+
+    /**
+     * Read data written by {@link #toByteArray()}.
+     *
+     * @throws IllegalArgumentException on unknown version.
+     */
+    public static CompiledBuckets fromByteArray(byte[] data) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int version = buf.getInt();
+        if (version != VERSION)
+            throw new IllegalArgumentException("unknown version " + version);
+
+        int[] info = new int[buf.getInt() * BUCKET_INTS];
+        int lineOffset = buf.getInt();
+        short[] vertices = new short[buf.getInt()];
+        short[] indices = new short[buf.getInt()];
+
+        buf.asIntBuffer().get(info);
+        buf.position(buf.position() + info.length * 4);
+        buf.asShortBuffer().get(vertices).get(indices);
+
+        return new CompiledBuckets(info, lineOffset, vertices, indices);
+    }
+}
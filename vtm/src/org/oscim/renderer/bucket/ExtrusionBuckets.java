@@ -57,6 +57,17 @@ public class ExtrusionBuckets extends TileData {
 
     }
 
+    /**
+     * @return the size of vertex and index data in bytes.
+     */
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (ExtrusionBucket b = buckets; b != null; b = b.next())
+            size += (b.numVertices * 4 + b.numIndices) * 2;
+        return size;
+    }
+
     public void prepare() {
         for (RenderBucket b = buckets; b != null; b = b.next)
             b.prepare();
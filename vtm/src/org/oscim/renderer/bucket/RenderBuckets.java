@@ -20,6 +20,7 @@ import org.oscim.backend.GL;
 import org.oscim.core.Tile;
 import org.oscim.layers.tile.MapTile.TileData;
 import org.oscim.renderer.BufferObject;
+import org.oscim.renderer.DirectBufferPool;
 import org.oscim.renderer.MapRenderer;
 import org.oscim.theme.styles.AreaStyle;
 import org.oscim.theme.styles.LineStyle;
@@ -56,6 +57,11 @@ public class RenderBuckets extends TileData {
 
     private final static int SHORT_BYTES = 2;
 
+    /**
+     * Native buffers for {@link #compileData(boolean)}, keeps up to 8MB.
+     */
+    public static final DirectBufferPool bufferPool = new DirectBufferPool(1 << 23);
+
     private RenderBucket buckets;
 
     /**
@@ -79,6 +85,13 @@ public class RenderBuckets extends TileData {
 
     private RenderBucket mCurBucket;
 
+    /**
+     * Vertex and index data compiled by {@link #compileData(boolean)},
+     * to be uploaded by {@link #compile(boolean)}.
+     */
+    private ShortBuffer mVboData, mIboData;
+    private int mVboSize, mIboSize;
+
     /**
      * add the LineBucket for a level with a given Line style. Levels are
      * ordered from bottom (0) to top
@@ -254,7 +267,38 @@ public class RenderBuckets extends TileData {
         return bucket;
     }
 
-    private int countVboSize() {
+    /**
+     * @return the number of vertices of all buckets.
+     */
+    public int getNumVertices() {
+        int numVertices = 0;
+
+        for (RenderBucket l = buckets; l != null; l = l.next)
+            numVertices += l.numVertices;
+
+        return numVertices;
+    }
+
+    /**
+     * @return the size of vertex and index data and of textures in bytes.
+     */
+    @Override
+    public int getSize() {
+        int size = (countVboSize() + countIboSize()) * SHORT_BYTES;
+
+        for (RenderBucket l = buckets; l != null; l = l.next) {
+            if (!(l instanceof TextureBucket))
+                continue;
+            for (TextureItem t = ((TextureBucket) l).textures; t != null; t = t.next)
+                size += t.width * t.height * 4;
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of shorts of vertex data in all buckets.
+     */
+    public int countVboSize() {
         int vboShorts = 0;
 
         for (RenderBucket l = buckets; l != null; l = l.next)
@@ -263,7 +307,10 @@ public class RenderBuckets extends TileData {
         return vboShorts;
     }
 
-    private int countIboSize() {
+    /**
+     * @return the number of indices in all buckets.
+     */
+    public int countIboSize() {
         int numIndices = 0;
 
         for (RenderBucket l = buckets; l != null; l = l.next)
@@ -291,6 +338,8 @@ public class RenderBuckets extends TileData {
         set(null);
         mCurBucket = null;
 
+        releaseData();
+
         vbo = BufferObject.release(vbo);
         ibo = BufferObject.release(ibo);
     }
@@ -325,8 +374,93 @@ public class RenderBuckets extends TileData {
 
     }
 
+    /**
+     * Compile vertex and index data into native buffers without GL, e.g.
+     * on the TileLoader thread, so that {@link #compile(boolean)} only
+     * needs to upload them. Does nothing when buckets need GL to compile,
+     * i.e. for TextureBuckets.
+     * <p/>
+     * On failure the buckets are cleared.
+     *
+     * @return true when data was compiled.
+     */
+    public boolean compileData(boolean addFill) {
+        releaseData();
+
+        for (RenderBucket l = buckets; l != null; l = l.next)
+            if (l instanceof TextureBucket)
+                return false;
+
+        int vboSize = countVboSize();
+        if (vboSize <= 0)
+            return false;
+
+        if (addFill)
+            vboSize += 8;
+
+        int iboSize = countIboSize();
+
+        ShortBuffer vboData = bufferPool.get(vboSize);
+        ShortBuffer iboData = iboSize > 0 ? bufferPool.get(iboSize) : null;
+
+        if (!compile(vboData, iboData, addFill)) {
+            bufferPool.release(vboData);
+            bufferPool.release(iboData);
+            clear();
+            return false;
+        }
+        vboData.flip();
+        if (iboData != null)
+            iboData.flip();
+
+        mVboData = vboData;
+        mIboData = iboData;
+        mVboSize = vboSize;
+        mIboSize = iboSize;
+        return true;
+    }
+
+    private void releaseData() {
+        bufferPool.release(mVboData);
+        bufferPool.release(mIboData);
+        mVboData = null;
+        mIboData = null;
+    }
+
+    /**
+     * Upload data of {@link #compileData(boolean)}.
+     */
+    private boolean uploadData() {
+        if (vbo == null)
+            vbo = BufferObject.get(GL.ARRAY_BUFFER, mVboSize);
+
+        vbo.loadBufferData(mVboData, mVboSize * 2);
+
+        if (mIboSize > 0) {
+            if (ibo == null)
+                ibo = BufferObject.get(GL.ELEMENT_ARRAY_BUFFER, mIboSize);
+
+            ibo.loadBufferData(mIboData, mIboSize * 2);
+        }
+
+        /* GL might read the data until the frame is done */
+        bufferPool.releaseLater(mVboData);
+        bufferPool.releaseLater(mIboData);
+        mVboData = null;
+        mIboData = null;
+        return true;
+    }
+
+    /**
+     * Compile and upload vertex and index data to vbo and ibo, or only
+     * upload when data was compiled by {@link #compileData(boolean)}.
+     * Must be called on the GL thread.
+     */
     public boolean compile(boolean addFill) {
 
+        if (mVboData != null)
+            return uploadData();
+
         int vboSize = countVboSize();
 
         if (vboSize <= 0) {
@@ -340,9 +474,6 @@ public class RenderBuckets extends TileData {
 
         ShortBuffer vboData = MapRenderer.getShortBuffer(vboSize);
 
-        if (addFill)
-            vboData.put(fillCoords, 0, 8);
-
         ShortBuffer iboData = null;
 
         int iboSize = countIboSize();
@@ -350,6 +481,44 @@ public class RenderBuckets extends TileData {
             iboData = MapRenderer.getShortBuffer(iboSize);
         }
 
+        if (!compile(vboData, iboData, addFill))
+            return false;
+
+        if (vbo == null)
+            vbo = BufferObject.get(GL.ARRAY_BUFFER, vboSize);
+
+        vbo.loadBufferData(vboData.flip(), vboSize * 2);
+
+        if (iboSize > 0) {
+            if (ibo == null)
+                ibo = BufferObject.get(GL.ELEMENT_ARRAY_BUFFER, iboSize);
+
+            ibo.loadBufferData(iboData.flip(), iboSize * 2);
+        }
+
+        return true;
+    }
+
+    /**
+     * Write vertex and index data of all buckets into vboData and iboData
+     * in the layout used by {@link #compile(boolean)}, without GL. This
+     * does not flip the buffers.
+     *
+     * @param vboData with room for {@link #countVboSize()} shorts, plus 8
+     *                when addFill is set.
+     * @param iboData with room for {@link #countIboSize()} shorts, may be
+     *                null when there are no indices.
+     * @return false when the buckets did not fill the expected sizes.
+     */
+    public boolean compile(ShortBuffer vboData, ShortBuffer iboData, boolean addFill) {
+        int vboSize = vboData.position() + countVboSize() + (addFill ? 8 : 0);
+        int iboSize = countIboSize();
+        if (iboData != null)
+            iboSize += iboData.position();
+
+        if (addFill)
+            vboData.put(fillCoords, 0, 8);
+
         int pos = addFill ? 4 : 0;
 
         for (RenderBucket l = buckets; l != null; l = l.next) {
@@ -386,7 +555,7 @@ public class RenderBuckets extends TileData {
             return false;
         }
 
-        if (iboSize > 0 && iboSize != iboData.position()) {
+        if (iboData != null && iboSize != iboData.position()) {
             log.debug("wrong indice buffer size: "
                     + " new size: " + iboSize
                     + " buffer pos: " + iboData.position()
@@ -395,18 +564,6 @@ public class RenderBuckets extends TileData {
             return false;
         }
 
-        if (vbo == null)
-            vbo = BufferObject.get(GL.ARRAY_BUFFER, vboSize);
-
-        vbo.loadBufferData(vboData.flip(), vboSize * 2);
-
-        if (iboSize > 0) {
-            if (ibo == null)
-                ibo = BufferObject.get(GL.ELEMENT_ARRAY_BUFFER, iboSize);
-
-            ibo.loadBufferData(iboData.flip(), iboSize * 2);
-        }
-
         return true;
     }
 
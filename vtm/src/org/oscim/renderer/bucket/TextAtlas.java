@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.renderer.bucket;
+
+import org.oscim.backend.CanvasAdapter;
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.backend.canvas.Canvas;
+import org.oscim.backend.canvas.Color;
+import org.oscim.renderer.atlas.TextureAtlas;
+import org.oscim.renderer.atlas.TextureAtlas.Rect;
+import org.oscim.theme.styles.TextStyle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.oscim.renderer.bucket.TextureBucket.TEXTURE_HEIGHT;
+import static org.oscim.renderer.bucket.TextureBucket.TEXTURE_WIDTH;
+
+/**
+ * Cache of label strings drawn to {@link TextureAtlas} pages, shared by the
+ * {@link TextBucket}s of subsequent label passes. A string is drawn once and
+ * its region is reused as long as the label stays placed.
+ * <p/>
+ * Pages are evicted as a whole, least recently used first, when none of
+ * their strings was used in the current or the previous pass. The previous
+ * pass is still rendered while the current one is prepared.
+ * <p/>
+ * [Worker-Thread], except {@link Page#upload()}.
+ */
+public class TextAtlas {
+
+    /**
+     * Unused pages above this count are released.
+     */
+    final static int MAX_PAGES = 4;
+
+    static final class Entry {
+        final TextStyle text;
+        final String string;
+        final Page page;
+
+        final float width;
+        final float height;
+        final int x;
+        final int y;
+
+        Entry(TextStyle text, String string, Page page,
+              float width, float height, Rect r) {
+            this.text = text;
+            this.string = string;
+            this.page = page;
+            this.width = width;
+            this.height = height;
+            this.x = r.x;
+            this.y = r.y;
+        }
+    }
+
+    static final class Page {
+        final TextureAtlas atlas;
+        final Bitmap bitmap;
+        final ArrayList<Entry> entries = new ArrayList<>();
+
+        /**
+         * last pass using a string of this page
+         */
+        int used;
+
+        /**
+         * strings were drawn since the last upload
+         */
+        boolean dirty;
+
+        Page() {
+            bitmap = CanvasAdapter.newBitmap(TEXTURE_WIDTH, TEXTURE_HEIGHT, 0);
+            atlas = new TextureAtlas(TEXTURE_WIDTH, TEXTURE_HEIGHT);
+            atlas.texture = new TextureItem(bitmap);
+        }
+
+        /**
+         * Upload strings drawn since the last upload.
+         * [GL-Thread]
+         */
+        synchronized void upload() {
+            if (!dirty)
+                return;
+
+            atlas.texture.loaded = false;
+            atlas.texture.upload();
+            dirty = false;
+        }
+    }
+
+    private final HashMap<TextStyle, HashMap<String, Entry>> mEntries = new HashMap<>();
+    private final ArrayList<Page> mPages = new ArrayList<>();
+    private final Canvas mCanvas;
+
+    private int mPass;
+
+    public TextAtlas() {
+        mCanvas = CanvasAdapter.newCanvas();
+    }
+
+    /**
+     * Start a label pass, pages which were not used in the last two passes
+     * are released above {@link #MAX_PAGES}.
+     */
+    void begin() {
+        mPass++;
+
+        while (mPages.size() > MAX_PAGES) {
+            Page p = getUnusedPage();
+            if (p == null)
+                break;
+
+            removeEntries(p);
+            mPages.remove(p);
+            p.atlas.texture = p.atlas.texture.dispose();
+        }
+    }
+
+    /**
+     * Get the region of 'it.string' drawn with 'it.text', draws the string
+     * when it is not cached yet.
+     */
+    Entry get(TextItem it, float width, float height) {
+        HashMap<String, Entry> strings = mEntries.get(it.text);
+        if (strings == null) {
+            strings = new HashMap<>();
+            mEntries.put(it.text, strings);
+        }
+
+        Entry e = strings.get(it.string);
+
+        /* the text size of a style may have been scaled */
+        if (e != null && e.width == width && e.height == height) {
+            e.page.used = mPass;
+            return e;
+        }
+
+        int w = (int) Math.ceil(width);
+        int h = (int) Math.ceil(height);
+
+        Page page = null;
+        Rect r = null;
+        for (int i = 0, n = mPages.size(); i < n; i++) {
+            r = mPages.get(i).atlas.getRegion(w, h);
+            if (r != null) {
+                page = mPages.get(i);
+                break;
+            }
+        }
+
+        if (r == null) {
+            page = getUnusedPage();
+            if (page != null) {
+                erase(page);
+            } else {
+                page = new Page();
+                mPages.add(page);
+            }
+            r = page.atlas.getRegion(w, h);
+        }
+
+        e = new Entry(it.text, it.string, page, width, height, r);
+
+        synchronized (page) {
+            mCanvas.setBitmap(page.bitmap);
+            mCanvas.drawText(it.string, r.x, r.y + height - it.text.fontDescent,
+                    it.text.paint, it.text.stroke);
+            page.dirty = true;
+        }
+
+        page.entries.add(e);
+        page.used = mPass;
+        strings.put(it.string, e);
+
+        return e;
+    }
+
+    /**
+     * Drop all cached strings, e.g. when the theme changed. The pages are
+     * kept while the last passes may still use them.
+     */
+    public void clear() {
+        for (int i = 0, n = mPages.size(); i < n; i++)
+            mPages.get(i).entries.clear();
+
+        mEntries.clear();
+    }
+
+    int getNumPages() {
+        return mPages.size();
+    }
+
+    /**
+     * @return the least recently used page which is not used by the current
+     * or the previous pass, or null.
+     */
+    private Page getUnusedPage() {
+        Page page = null;
+        for (int i = 0, n = mPages.size(); i < n; i++) {
+            Page p = mPages.get(i);
+            if (p.used < mPass - 1 && (page == null || p.used < page.used))
+                page = p;
+        }
+        return page;
+    }
+
+    private void erase(Page p) {
+        removeEntries(p);
+        p.atlas.clear();
+
+        synchronized (p) {
+            p.bitmap.eraseColor(Color.TRANSPARENT);
+            p.dirty = true;
+        }
+    }
+
+    private void removeEntries(Page p) {
+        for (int i = 0, n = p.entries.size(); i < n; i++) {
+            Entry e = p.entries.get(i);
+            HashMap<String, Entry> strings = mEntries.get(e.text);
+
+            /* the string may be cached on another page by now */
+            if (strings != null && strings.get(e.string) == e)
+                strings.remove(e.string);
+        }
+        p.entries.clear();
+    }
+}
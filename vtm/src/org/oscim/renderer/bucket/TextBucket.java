@@ -21,6 +21,9 @@ import org.oscim.backend.canvas.Canvas;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+
 import static org.oscim.renderer.MapRenderer.COORD_SCALE;
 
 public class TextBucket extends TextureBucket {
@@ -34,6 +37,16 @@ public class TextBucket extends TextureBucket {
     public TextItem labels;
     protected final Canvas mCanvas;
 
+    /**
+     * cache of drawn strings, shared with the buckets of other label passes
+     */
+    protected final TextAtlas mAtlas;
+
+    /**
+     * atlas pages used by this bucket
+     */
+    private final ArrayList<TextAtlas.Page> mPages = new ArrayList<>();
+
     public TextItem getLabels() {
         return labels;
     }
@@ -43,8 +56,17 @@ public class TextBucket extends TextureBucket {
     }
 
     public TextBucket() {
+        this(null);
+    }
+
+    /**
+     * @param atlas the cache of strings drawn by previous label passes,
+     *              or null to draw all strings to new textures on prepare.
+     */
+    public TextBucket(TextAtlas atlas) {
         super(RenderBucket.SYMBOL);
         mCanvas = CanvasAdapter.newCanvas();
+        mAtlas = atlas;
         fixed = true;
         level = -1;
     }
@@ -83,6 +105,11 @@ public class TextBucket extends TextureBucket {
 
     @Override
     public void prepare() {
+        if (mAtlas != null) {
+            prepareAtlas();
+            return;
+        }
+
         int numIndices = 0;
         int offsetIndices = 0;
 
@@ -158,6 +185,92 @@ public class TextBucket extends TextureBucket {
         t.indices = (numIndices - offsetIndices);
     }
 
+    /**
+     * Like prepare() but only draws strings which are not in mAtlas.
+     */
+    protected void prepareAtlas() {
+        mAtlas.begin();
+
+        /* first item and cached region of each string */
+        ArrayList<TextItem> items = new ArrayList<>();
+        ArrayList<TextAtlas.Entry> entries = new ArrayList<>();
+
+        for (TextItem it = labels; it != null; it = it.next) {
+
+            float width = it.width + 2 * mFontPadX;
+            float height = (int) (it.text.fontHeight) + 0.5f;
+
+            /* keep the atlas border */
+            if (height > TEXTURE_HEIGHT - 2)
+                height = TEXTURE_HEIGHT - 2;
+
+            if (width > TEXTURE_WIDTH - 2)
+                width = TEXTURE_WIDTH - 2;
+
+            TextAtlas.Entry e = mAtlas.get(it, width, height);
+            items.add(it);
+            entries.add(e);
+
+            if (!mPages.contains(e.page))
+                mPages.add(e.page);
+
+            /* skip items with the same string */
+            while (it.next != null
+                    && it.next.text == it.text
+                    && it.next.string == it.string)
+                it = it.next;
+        }
+
+        /* add vertices ordered by page */
+        int numIndices = 0;
+        TextureItem last = null;
+
+        for (int p = 0, np = mPages.size(); p < np; p++) {
+            TextAtlas.Page page = mPages.get(p);
+
+            TextureItem t = TextureItem.clone(page.atlas.texture);
+            /* get the texture id on upload, the page may be uploaded
+             * on the GL-Thread meanwhile */
+            t.loaded = false;
+            t.offset = numIndices;
+
+            for (int i = 0, n = items.size(); i < n; i++) {
+                TextAtlas.Entry e = entries.get(i);
+                if (e.page != page)
+                    continue;
+
+                for (TextItem it = items.get(i); it != null; it = it.next) {
+                    addItem(it, e.width, e.height, e.x, e.y);
+
+                    /* six indices to draw the four vertices */
+                    numIndices += TextureBucket.INDICES_PER_SPRITE;
+                    numVertices += 4;
+
+                    if (it.next == null
+                            || (it.next.text != it.text)
+                            || (it.next.string != it.string))
+                        break;
+                }
+            }
+            t.indices = numIndices - t.offset;
+
+            if (last == null)
+                textures = t;
+            else
+                last.next = t;
+            last = t;
+        }
+    }
+
+    @Override
+    protected void compile(ShortBuffer vboData, ShortBuffer iboData) {
+        /* upload strings drawn for this pass */
+        for (int i = 0, n = mPages.size(); i < n; i++)
+            mPages.get(i).upload();
+
+        super.compile(vboData, iboData);
+    }
+
     protected void addItem(TextItem it,
                            float width, float height, float x, float y) {
         /* texture coordinates */
@@ -219,6 +332,7 @@ public class TextBucket extends TextureBucket {
     public void clear() {
         super.clear();
         clearLabels();
+        mPages.clear();
     }
 
     public void clearLabels() {
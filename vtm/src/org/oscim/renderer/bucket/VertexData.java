@@ -1,5 +1,6 @@
 /*
  * Copyright 2012 Hannes Janetzek
+ * Copyright 2016 devemux86
  *
  * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
  *
@@ -19,11 +20,12 @@ package org.oscim.renderer.bucket;
 import org.oscim.renderer.bucket.VertexData.Chunk;
 import org.oscim.utils.FastMath;
 import org.oscim.utils.pool.Inlist;
-import org.oscim.utils.pool.SyncPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A linked list of array chunks to hold temporary vertex data.
@@ -42,32 +44,232 @@ public class VertexData extends Inlist.List<Chunk> {
     public static final int SIZE = 360;
 
     /**
-     * Shared chunk pool size.
+     * Maximal number of chunks in the shared pool.
      */
-    private static final int MAX_POOL = 500;
+    private static final int MAX_POOL = 512;
+
+    /**
+     * Maximal number of chunks kept by each thread.
+     */
+    private static final int MAX_ARENA = 128;
+
+    /**
+     * Number of chunks moved at once between thread arenas and the
+     * shared pool.
+     */
+    private static final int BATCH = 32;
 
     public static class Chunk extends Inlist<Chunk> {
         public final short[] vertices = new short[SIZE];
         public int used;
     }
 
-    ;
+    /**
+     * Free chunks of one thread. Only accessed by its thread.
+     */
+    private static final class Arena {
+        final Thread thread = Thread.currentThread();
+
+        Chunk free;
+        int fill;
+
+        /**
+         * fill as last added to Pool.mArenaFill
+         */
+        int published;
+    }
 
-    private static class Pool extends SyncPool<Chunk> {
-        public Pool() {
-            super(MAX_POOL);
+    /**
+     * Chunks are taken from and released to an arena of the calling
+     * thread, so that loader threads and the GL thread do not contend
+     * for one lock. Arenas exchange chunks with a bounded shared pool in
+     * batches. Chunks beyond MAX_POOL are left to the GC.
+     * <p/>
+     * The arenas of threads which ended are returned to the shared pool
+     * when batches are released or chunks are counted, i.e. only while
+     * the lock is held anyway. Allocation of new chunks does not lock.
+     */
+    private static final class Pool {
+        private final ThreadLocal<Arena> mArena = new ThreadLocal<Arena>() {
+            @Override
+            protected Arena initialValue() {
+                Arena a = new Arena();
+                synchronized (Pool.this) {
+                    mArenas.add(a);
+                }
+                return a;
+            }
+        };
+
+        /**
+         * Arenas of all threads, guarded by this.
+         */
+        private final ArrayList<Arena> mArenas = new ArrayList<>();
+
+        /**
+         * Batches of BATCH chunks, linked by Chunk.next
+         */
+        private final Chunk[] mBatches = new Chunk[MAX_POOL / BATCH];
+
+        /**
+         * Number of batches, only modified while holding the lock on this.
+         */
+        private volatile int mBatchCnt;
+
+        private final AtomicInteger mAllocated = new AtomicInteger();
+        private final AtomicInteger mDropped = new AtomicInteger();
+        private final AtomicInteger mArenaFill = new AtomicInteger();
+        private final AtomicInteger mHighWater = new AtomicInteger();
+
+        Chunk get() {
+            Arena a = mArena.get();
+            if (a.free == null) {
+                if (mBatchCnt > 0) {
+                    synchronized (this) {
+                        if (mBatchCnt > 0) {
+                            a.free = mBatches[--mBatchCnt];
+                            mBatches[mBatchCnt] = null;
+                            a.fill = BATCH;
+                        }
+                    }
+                }
+                publish(a);
+                if (a.free == null)
+                    return allocate();
+            }
+            Chunk c = a.free;
+            a.free = c.next;
+            a.fill--;
+            c.next = null;
+            return c;
         }
 
-        @Override
-        protected Chunk createItem() {
+        private Chunk allocate() {
+            int allocated = mAllocated.incrementAndGet();
+            int inUse = allocated - mDropped.get()
+                    - mBatchCnt * BATCH - mArenaFill.get();
+            for (int max = mHighWater.get(); inUse > max; max = mHighWater.get()) {
+                if (mHighWater.compareAndSet(max, inUse))
+                    break;
+            }
             return new Chunk();
         }
 
-        @Override
-        protected boolean clearItem(Chunk it) {
-            it.used = 0;
-            return true;
+        void releaseAll(Chunk list) {
+            if (list == null)
+                return;
+
+            Arena a = mArena.get();
+            while (list != null) {
+                Chunk next = list.next;
+                list.used = 0;
+                list.next = a.free;
+                a.free = list;
+                a.fill++;
+                list = next;
+
+                if (a.fill > MAX_ARENA)
+                    releaseBatch(a);
+            }
+        }
+
+        /**
+         * Move BATCH chunks from arena to the shared pool.
+         */
+        private void releaseBatch(Arena a) {
+            Chunk batch = takeBatch(a);
+            synchronized (this) {
+                addBatch(batch);
+                removeArenas();
+            }
+            publish(a);
+        }
+
+        /**
+         * Remove BATCH chunks from the arena.
+         */
+        private static Chunk takeBatch(Arena a) {
+            Chunk batch = a.free;
+            Chunk last = batch;
+            for (int i = 1; i < BATCH; i++)
+                last = last.next;
+            a.free = last.next;
+            last.next = null;
+            a.fill -= BATCH;
+            return batch;
+        }
+
+        /**
+         * Add a batch to the shared pool, or drop it when the pool is
+         * full. Must hold the lock on this.
+         */
+        private void addBatch(Chunk batch) {
+            if (mBatchCnt < mBatches.length)
+                mBatches[mBatchCnt++] = batch;
+            else
+                mDropped.addAndGet(BATCH);
+        }
+
+        private void publish(Arena a) {
+            mArenaFill.addAndGet(a.fill - a.published);
+            a.published = a.fill;
+        }
+
+        /**
+         * Return the chunks of arenas whose thread ended to the shared
+         * pool and remove their fill. Must hold the lock on this.
+         */
+        private void removeArenas() {
+            for (int i = mArenas.size() - 1; i >= 0; i--) {
+                Arena a = mArenas.get(i);
+                /* the arena is not accessed anymore by its thread */
+                if (a.thread.isAlive())
+                    continue;
+
+                mArenas.remove(i);
+                while (a.fill >= BATCH)
+                    addBatch(takeBatch(a));
+
+                mDropped.addAndGet(a.fill);
+                a.free = null;
+                a.fill = 0;
+                publish(a);
+            }
         }
+
+        int getPooled() {
+            synchronized (this) {
+                removeArenas();
+                return mBatchCnt * BATCH + mArenaFill.get();
+            }
+        }
+    }
+
+    private final static Pool pool = new Pool();
+
+    /**
+     * @return the number of chunks created.
+     */
+    public static int getAllocatedChunks() {
+        return pool.mAllocated.get();
+    }
+
+    /**
+     * @return the number of free chunks in the shared pool and in thread
+     * arenas. Arena fill is updated when chunks are exchanged with the
+     * shared pool, so this is approximate.
+     */
+    public static int getPooledChunks() {
+        return pool.getPooled();
+    }
+
+    /**
+     * @return the highest number of chunks in use, sampled when new
+     * chunks are allocated. Chunks of ended threads which were not yet
+     * returned count as pooled.
+     */
+    public static int getHighWaterChunks() {
+        return pool.mHighWater.get();
     }
 
     public int countSize() {
@@ -96,8 +298,6 @@ public class VertexData extends Inlist.List<Chunk> {
         return super.clear();
     }
 
-    private final static Pool pool = new Pool();
-
     public void dispose() {
         pool.releaseAll(super.clear());
         used = SIZE; /* set SIZE to get new item on add */
@@ -1,5 +1,6 @@
 /*
  * Copyright 2014 Hannes Janetzek
+ * Copyright 2016 devemux86
  *
  * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
  *
@@ -17,11 +18,15 @@
 package org.oscim.theme;
 
 import org.oscim.core.GeometryBuffer.GeometryType;
+import org.oscim.core.Tag;
 import org.oscim.core.TagSet;
+import org.oscim.theme.rule.RequiredTags;
 import org.oscim.theme.rule.Rule;
 import org.oscim.theme.rule.Rule.Element;
 import org.oscim.theme.rule.Rule.RuleVisitor;
+import org.oscim.theme.rule.RuleIndex;
 import org.oscim.theme.styles.RenderStyle;
+import org.oscim.tiling.ITagFilter;
 import org.oscim.utils.LRUCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,7 +35,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-public class RenderTheme implements IRenderTheme {
+public class RenderTheme implements IRenderTheme, ITagFilter {
     static final Logger log = LoggerFactory.getLogger(RenderTheme.class);
 
     private static final int MATCHING_CACHE_SIZE = 512;
@@ -41,7 +46,18 @@ public class RenderTheme implements IRenderTheme {
     private final int mLevels;
     private final Rule[] mRules;
 
-    class RenderStyleCache {
+    /**
+     * Index over mRules, created by {@link #compile()}.
+     */
+    private RuleIndex mRuleIndex;
+
+    /**
+     * Tags required per element type and zoom level, created on demand by
+     * {@link #accept(Tag, GeometryType, int)}.
+     */
+    private final RequiredTags[][] mRequiredTags = new RequiredTags[3][32];
+
+    static class RenderStyleCache {
         final int matchType;
         final LRUCache<MatchingCacheKey, RenderStyleItem> cache;
         final MatchingCacheKey cacheKey;
@@ -63,14 +79,50 @@ public class RenderTheme implements IRenderTheme {
         }
     }
 
-    class RenderStyleItem {
+    static class RenderStyleItem {
         RenderStyleItem next;
         int zoom;
         RenderStyle[] list;
         MatchingCacheKey key;
     }
 
-    private final RenderStyleCache[] mStyleCache;
+    /**
+     * Each thread matching elements gets its own set of caches, so that
+     * loader threads do not contend for a shared lock. Caches are created
+     * on first use and registered so that dispose() can clear them.
+     */
+    static class StyleCacheLocal extends ThreadLocal<RenderStyleCache[]> {
+        /* the caches must not reference the theme which owns this
+         * ThreadLocal, otherwise the entries of long-lived loader
+         * threads keep disposed themes alive. */
+        final ArrayList<RenderStyleCache[]> caches = new ArrayList<>();
+
+        @Override
+        protected RenderStyleCache[] initialValue() {
+            RenderStyleCache[] c = new RenderStyleCache[3];
+            c[0] = new RenderStyleCache(Element.NODE);
+            c[1] = new RenderStyleCache(Element.LINE);
+            c[2] = new RenderStyleCache(Element.POLY);
+
+            synchronized (caches) {
+                caches.add(c);
+            }
+            return c;
+        }
+
+        void clear() {
+            synchronized (caches) {
+                for (RenderStyleCache[] c : caches) {
+                    for (int i = 0; i < 3; i++)
+                        c[i].cache.clear();
+                }
+                caches.clear();
+            }
+            remove();
+        }
+    }
+
+    private final StyleCacheLocal mStyleCache = new StyleCacheLocal();
 
     public RenderTheme(int mapBackground, float baseTextSize, Rule[] rules, int levels) {
         if (rules == null)
@@ -80,18 +132,24 @@ public class RenderTheme implements IRenderTheme {
         mBaseTextSize = baseTextSize;
         mLevels = levels;
         mRules = rules;
+    }
 
-        mStyleCache = new RenderStyleCache[3];
-        mStyleCache[0] = new RenderStyleCache(Element.NODE);
-        mStyleCache[1] = new RenderStyleCache(Element.LINE);
-        mStyleCache[2] = new RenderStyleCache(Element.POLY);
+    /**
+     * Builds rule indexes so that cache misses only evaluate rules which can
+     * match the tags of an element. Matching results are the same as without
+     * compiling. Must be called before the theme is used.
+     */
+    public void compile() {
+        for (Rule rule : mRules)
+            rule.compile();
+
+        mRuleIndex = RuleIndex.create(mRules);
     }
 
     @Override
     public void dispose() {
 
-        for (int i = 0; i < 3; i++)
-            mStyleCache[i].cache.clear();
+        mStyleCache.clear();
 
         for (Rule rule : mRules)
             rule.dispose();
@@ -126,129 +184,156 @@ public class RenderTheme implements IRenderTheme {
             return null;
         }
 
-        RenderStyleCache cache = mStyleCache[type - 1];
+        /* the cache is only accessed by the current thread */
+        RenderStyleCache cache = mStyleCache.get()[type - 1];
 
         /* NOTE: maximum zoom level supported is 32 */
         int zoomMask = 1 << zoomLevel;
 
-        synchronized (cache) {
-
-            if ((cache.prevItem == null) || (cache.prevItem.zoom & zoomMask) == 0) {
-                /* previous instructions zoom does not match */
-                cache.cacheKey.set(tags, null);
-            } else {
-                /* compare if tags match previous instructions */
-                if (cache.cacheKey.set(tags, cache.prevItem.key)) {
-                    ri = cache.prevItem;
-                    //log.debug(hitCount + "/" + sameCount.incrementAndGet()
-                    //        + "/" + missCount + "same hit " + tags);
-                }
+        if ((cache.prevItem == null) || (cache.prevItem.zoom & zoomMask) == 0) {
+            /* previous instructions zoom does not match */
+            cache.cacheKey.set(tags, null);
+        } else {
+            /* compare if tags match previous instructions */
+            if (cache.cacheKey.set(tags, cache.prevItem.key)) {
+                ri = cache.prevItem;
+                //log.debug(hitCount + "/" + sameCount.incrementAndGet()
+                //        + "/" + missCount + "same hit " + tags);
             }
+        }
 
-            if (ri == null) {
-                /* get instruction for current cacheKey */
-                ris = cache.getRenderInstructions();
+        if (ri == null) {
+            /* get instruction for current cacheKey */
+            ris = cache.getRenderInstructions();
 
-                for (ri = ris; ri != null; ri = ri.next) {
-                    if ((ri.zoom & zoomMask) != 0) {
-                        /* cache hit */
+            for (ri = ris; ri != null; ri = ri.next) {
+                if ((ri.zoom & zoomMask) != 0) {
+                    /* cache hit */
 
-                        //log.debug(hitCount.incrementAndGet()
-                        //       + "/" + sameCount + "/" + missCount
-                        //       + " cache hit " + tags);
-                        break;
-                    }
+                    //log.debug(hitCount.incrementAndGet()
+                    //       + "/" + sameCount + "/" + missCount
+                    //       + " cache hit " + tags);
+                    break;
                 }
             }
+        }
 
-            if (ri == null) {
-                /* cache miss */
-                //missCount.incrementAndGet();
+        if (ri == null) {
+            /* cache miss */
+            //missCount.incrementAndGet();
 
-                List<RenderStyle> matches = cache.instructionList;
-                matches.clear();
+            List<RenderStyle> matches = cache.instructionList;
+            matches.clear();
 
+            Tag[] elementTags = cache.cacheKey.mTags;
+            if (mRuleIndex == null) {
                 for (Rule rule : mRules)
-                    rule.matchElement(cache.matchType, cache.cacheKey.mTags, zoomMask, matches);
-
-                int size = matches.size();
-                if (size > 1) {
-                    for (int i = 0; i < size - 1; i++) {
-                        RenderStyle r = matches.get(i);
-                        for (int j = i + 1; j < size; j++) {
-                            if (matches.get(j) == r) {
-                                log.debug("fix duplicate instruction! "
-                                        + Arrays.deepToString(cache.cacheKey.mTags)
-                                        + " zoom:" + zoomLevel + " "
-                                        + r.getClass().getName());
-                                matches.remove(j--);
-                                size--;
-                            }
+                    rule.matchElement(cache.matchType, elementTags, zoomMask, matches);
+            } else {
+                long[] candidates = mRuleIndex.candidates(elementTags);
+                for (int i = 0; (i = RuleIndex.next(candidates, i)) >= 0; i++)
+                    mRules[i].matchElement(cache.matchType, elementTags, zoomMask, matches);
+            }
+
+            int size = matches.size();
+            if (size > 1) {
+                for (int i = 0; i < size - 1; i++) {
+                    RenderStyle r = matches.get(i);
+                    for (int j = i + 1; j < size; j++) {
+                        if (matches.get(j) == r) {
+                            log.debug("fix duplicate instruction! "
+                                    + Arrays.deepToString(cache.cacheKey.mTags)
+                                    + " zoom:" + zoomLevel + " "
+                                    + r.getClass().getName());
+                            matches.remove(j--);
+                            size--;
                         }
                     }
                 }
-                /* check if same instructions are used in another level */
-                for (ri = ris; ri != null; ri = ri.next) {
-                    if (size == 0) {
-                        if (ri.list != null)
-                            continue;
+            }
+            /* check if same instructions are used in another level */
+            for (ri = ris; ri != null; ri = ri.next) {
+                if (size == 0) {
+                    if (ri.list != null)
+                        continue;
 
-                        /* both matchinglists are empty */
-                        break;
-                    }
+                    /* both matchinglists are empty */
+                    break;
+                }
 
-                    if (ri.list == null)
-                        continue;
+                if (ri.list == null)
+                    continue;
 
-                    if (ri.list.length != size)
-                        continue;
+                if (ri.list.length != size)
+                    continue;
 
-                    int i = 0;
-                    for (RenderStyle r : ri.list) {
-                        if (r != matches.get(i))
-                            break;
-                        i++;
-                    }
-                    if (i == size)
-                        /* both matching lists contain the same items */
+                int i = 0;
+                for (RenderStyle r : ri.list) {
+                    if (r != matches.get(i))
                         break;
+                    i++;
                 }
+                if (i == size)
+                    /* both matching lists contain the same items */
+                    break;
+            }
 
-                if (ri != null) {
-                    /* we found a same matchting list on another zoomlevel add
-                     * this zoom level to the existing RenderInstructionItem. */
-                    ri.zoom |= zoomMask;
+            if (ri != null) {
+                /* we found a same matchting list on another zoomlevel add
+                 * this zoom level to the existing RenderInstructionItem. */
+                ri.zoom |= zoomMask;
 
-                    //log.debug(zoomLevel + " same instructions " + size + " "
-                    //                + Arrays.deepToString(tags));
-                } else {
-                    //log.debug(zoomLevel + " new instructions " + size + " "
-                    //                + Arrays.deepToString(tags));
+                //log.debug(zoomLevel + " same instructions " + size + " "
+                //                + Arrays.deepToString(tags));
+            } else {
+                //log.debug(zoomLevel + " new instructions " + size + " "
+                //                + Arrays.deepToString(tags));
 
-                    ri = new RenderStyleItem();
-                    ri.zoom = zoomMask;
+                ri = new RenderStyleItem();
+                ri.zoom = zoomMask;
 
-                    if (size > 0) {
-                        ri.list = new RenderStyle[size];
-                        matches.toArray(ri.list);
-                    }
+                if (size > 0) {
+                    ri.list = new RenderStyle[size];
+                    matches.toArray(ri.list);
+                }
 
-                    /* attach this list to the one found for MatchingKey */
-                    if (ris != null) {
-                        ri.next = ris.next;
-                        ri.key = ris.key;
-                        ris.next = ri;
-                    } else {
-                        ri.key = new MatchingCacheKey(cache.cacheKey);
-                        cache.cache.put(ri.key, ri);
-                    }
+                /* attach this list to the one found for MatchingKey */
+                if (ris != null) {
+                    ri.next = ris.next;
+                    ri.key = ris.key;
+                    ris.next = ri;
+                } else {
+                    ri.key = new MatchingCacheKey(cache.cacheKey);
+                    cache.cache.put(ri.key, ri);
                 }
             }
-            cache.prevItem = ri;
         }
+        cache.prevItem = ri;
         return ri.list;
     }
 
+    /**
+     * Elements are only rendered when at least one of their tags is required
+     * by a rule that applies to the element type and zoom level.
+     */
+    @Override
+    public boolean accept(Tag tag, GeometryType geometryType, int zoomLevel) {
+        int type = geometryType.nativeInt;
+        if (type < 1 || type > 3 || zoomLevel < 0 || zoomLevel > 31)
+            return true;
+
+        RequiredTags required;
+        synchronized (mRequiredTags) {
+            required = mRequiredTags[type - 1][zoomLevel];
+            if (required == null) {
+                /* Element.NODE, LINE or POLY */
+                required = RequiredTags.create(mRules, 1 << (type - 1), zoomLevel);
+                mRequiredTags[type - 1][zoomLevel] = required;
+            }
+        }
+        return required.contains(tag);
+    }
+
     @Override
     public void scaleTextSize(float scaleFactor) {
         for (Rule rule : mRules)
@@ -153,6 +153,7 @@ public class XmlThemeBuilder extends DefaultHandler {
             rules[i] = mRulesList.get(i).onComplete(null);
 
         mRenderTheme = new RenderTheme(mMapBackground, mTextScale, rules, mLevels);
+        mRenderTheme.compile();
 
         mRulesList.clear();
         mStyles.clear();
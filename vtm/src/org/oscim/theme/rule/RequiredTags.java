@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.theme.rule;
+
+import org.oscim.core.Tag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The tags of which an element must have at least one for any rule to add a
+ * style at a given zoom level, for one element type.
+ * <p/>
+ * Like {@link RuleIndex} this is derived from the tags that the rules
+ * require, but rules which do not apply to the element type or zoom level
+ * are left out, which makes the set much smaller at low zoom levels.
+ */
+public final class RequiredTags {
+
+    private final boolean mAny;
+
+    private final HashSet<String> mKeys = new HashSet<>();
+    private final HashMap<String, HashSet<String>> mKeyValues = new HashMap<>();
+    private final HashSet<String> mValues = new HashSet<>();
+
+    private RequiredTags(List<Tag> required) {
+        mAny = (required == null);
+        if (mAny)
+            return;
+
+        for (Tag t : required) {
+            if (t.key == null) {
+                mValues.add(t.value);
+            } else if (t.value == null) {
+                mKeys.add(t.key);
+            } else {
+                HashSet<String> values = mKeyValues.get(t.key);
+                if (values == null) {
+                    values = new HashSet<>();
+                    mKeyValues.put(t.key, values);
+                }
+                values.add(t.value);
+            }
+        }
+    }
+
+    /**
+     * @param element   one of {@link Rule.Element}.
+     * @param zoomLevel the zoom level.
+     */
+    public static RequiredTags create(Rule[] rules, int element, int zoomLevel) {
+        int zoomMask = 1 << zoomLevel;
+
+        List<Tag> union = new ArrayList<>();
+        for (Rule rule : rules) {
+            List<Tag> required = requiredTags(rule, element, zoomMask);
+            if (required == null) {
+                union = null;
+                break;
+            }
+            union.addAll(required);
+        }
+        return new RequiredTags(union);
+    }
+
+    /**
+     * @return true when elements may be styled without any required tag.
+     */
+    public boolean isAny() {
+        return mAny;
+    }
+
+    /**
+     * @param tag the tag, a null value stands for any value.
+     * @return true when 'tag' is one of the required tags.
+     */
+    public boolean contains(Tag tag) {
+        if (mAny || mKeys.contains(tag.key))
+            return true;
+
+        if (tag.value == null)
+            return mKeyValues.containsKey(tag.key) || !mValues.isEmpty();
+
+        if (mValues.contains(tag.value))
+            return true;
+
+        HashSet<String> values = mKeyValues.get(tag.key);
+        return values != null && values.contains(tag.value);
+    }
+
+    /**
+     * Like {@link RuleIndex#requiredTags(Rule)}, for the given element type
+     * and zoom level.
+     *
+     * @return the tags, empty when the rule cannot add a style, or null when
+     * the rule may match without any of them.
+     */
+    static List<Tag> requiredTags(Rule rule, int element, int zoomMask) {
+        if ((rule.element & element) == 0 || (rule.zoom & zoomMask) == 0)
+            return Collections.emptyList();
+
+        List<Tag> required = rule.requiredTags();
+
+        /* a rule with own styles matches with its own tags */
+        if (rule.styles != Rule.EMPTY_STYLE)
+            return required;
+
+        /* otherwise it only adds styles when one of its sub-rules matches */
+        List<Tag> union = new ArrayList<>();
+        for (Rule subRule : rule.subRules) {
+            List<Tag> sub = requiredTags(subRule, element, zoomMask);
+            if (sub == null) {
+                union = null;
+                break;
+            }
+            union.addAll(sub);
+        }
+
+        if (union == null)
+            return required;
+
+        /* both the tags of the rule and of its sub-rules are required, the
+         * sub-rules are usually more specific */
+        return union;
+    }
+}
@@ -22,6 +22,8 @@ import org.oscim.theme.rule.RuleBuilder.RuleType;
 import org.oscim.theme.styles.RenderStyle;
 import org.oscim.utils.Utils;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Rule {
@@ -57,6 +59,11 @@ public class Rule {
     public final boolean selectFirstMatch;
     public final boolean selectWhenMatched;
 
+    /**
+     * Index over subRules, created by {@link #compile()}.
+     */
+    private RuleIndex subRuleIndex;
+
     Rule(int element, int zoom, int selector, Rule[] subRules, RenderStyle[] styles) {
         this.element = element;
         this.zoom = zoom;
@@ -72,33 +79,59 @@ public class Rule {
         return true;
     }
 
+    /**
+     * Returns the tags of which at least one must be present for
+     * {@link #matchesTags(Tag[])} to succeed. A null key or value stands for
+     * any key or value.
+     *
+     * @return the tags or null when the rule does not require any tag.
+     */
+    List<Tag> requiredTags() {
+        return null;
+    }
+
+    /**
+     * Builds indexes over the sub-rules of this rule and its descendants,
+     * so that only sub-rules which can match the tags of an element are
+     * evaluated. Must be called once the rule tree is complete.
+     */
+    public void compile() {
+        subRuleIndex = RuleIndex.create(subRules);
+
+        for (Rule subRule : subRules)
+            subRule.compile();
+    }
+
     public boolean matchElement(int type, Tag[] tags, int zoomLevel, List<RenderStyle> result) {
         if (((element & type) == 0) || ((zoom & zoomLevel) == 0) || !matchesTags(tags))
             return false;
 
         boolean matched = false;
         if (subRules != EMPTY_RULES) {
-            if (selectFirstMatch) {
-                /* only add first matching rule and when-matched rules iff a
-                 * previous rule matched */
-                for (Rule r : subRules) {
+            /* sub-rules which are not candidates cannot match */
+            long[] candidates = (subRuleIndex == null) ? null : subRuleIndex.candidates(tags);
+
+            for (int i = 0, n = subRules.length; i < n; i++) {
+                if (candidates != null && (i = RuleIndex.next(candidates, i)) < 0)
+                    break;
+
+                Rule r = subRules[i];
+                if (selectFirstMatch) {
+                    /* only add first matching rule and when-matched rules iff a
+                     * previous rule matched */
+
                     /* continue if matched xor selectWhenMatch */
                     if (matched ^ r.selectWhenMatched)
                         continue;
-
-                    if (r.matchElement(type, tags, zoomLevel, result))
-                        matched = true;
-                }
-            } else {
-                /* add all rules and when-matched rules iff a previous rule
-                 * matched */
-                for (Rule r : subRules) {
+                } else {
+                    /* add all rules and when-matched rules iff a previous rule
+                     * matched */
                     if (r.selectWhenMatched && !matched)
                         continue;
-
-                    if (r.matchElement(type, tags, zoomLevel, result))
-                        matched = true;
                 }
+
+                if (r.matchElement(type, tags, zoomLevel, result))
+                    matched = true;
             }
         }
 
@@ -196,6 +229,11 @@ public class Rule {
 
             return false;
         }
+
+        @Override
+        List<Tag> requiredTags() {
+            return Collections.singletonList(new Tag(mKey, null));
+        }
     }
 
     static class PositiveRuleV extends Rule {
@@ -215,6 +253,11 @@ public class Rule {
 
             return false;
         }
+
+        @Override
+        List<Tag> requiredTags() {
+            return Collections.singletonList(new Tag(null, mValue));
+        }
     }
 
     static class PositiveRuleKV extends Rule {
@@ -237,6 +280,11 @@ public class Rule {
 
             return false;
         }
+
+        @Override
+        List<Tag> requiredTags() {
+            return Collections.singletonList(new Tag(mKey, mValue));
+        }
     }
 
     static class PositiveRuleMultiKV extends Rule {
@@ -285,6 +333,23 @@ public class Rule {
                 }
             return false;
         }
+
+        @Override
+        List<Tag> requiredTags() {
+            List<Tag> required = new ArrayList<>();
+            if (mKeys == null) {
+                for (String value : mValues)
+                    required.add(new Tag(null, value));
+            } else if (mValues == null) {
+                for (String key : mKeys)
+                    required.add(new Tag(key, null));
+            } else {
+                for (String key : mKeys)
+                    for (String value : mValues)
+                        required.add(new Tag(key, value));
+            }
+            return required;
+        }
     }
 
     static class NegativeRule extends Rule {
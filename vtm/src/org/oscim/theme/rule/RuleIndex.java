@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.theme.rule;
+
+import org.oscim.core.Tag;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An index over a list of sibling rules which finds the rules that can
+ * possibly match a set of tags, without evaluating every rule.
+ * <p/>
+ * Most rules can only match when a tag with a given key (and value) is
+ * present. The index maps interned keys, then values, to a bitset of these
+ * rules. Rules without such a requirement are always candidates. Candidates
+ * are returned as a bitset so that they can be evaluated in the original
+ * order, which keeps the results identical to walking all rules.
+ */
+public final class RuleIndex {
+    /**
+     * Minimum number of rules for which an index is built.
+     */
+    static final int MIN_RULES = 4;
+
+    private final int mNumWords;
+
+    /**
+     * Rules which must always be evaluated.
+     */
+    private final long[] mAlways;
+
+    /**
+     * Rules which require a key, with any value.
+     */
+    private final HashMap<String, long[]> mKeys = new HashMap<>();
+
+    /**
+     * Rules which require a key with a specific value.
+     */
+    private final HashMap<String, HashMap<String, long[]>> mKeyValues = new HashMap<>();
+
+    /**
+     * Rules which require a value, with any key.
+     */
+    private final HashMap<String, long[]> mValues = new HashMap<>();
+
+    private RuleIndex(Rule[] rules) {
+        mNumWords = (rules.length + 63) >>> 6;
+        mAlways = new long[mNumWords];
+
+        for (int i = 0; i < rules.length; i++) {
+            List<Tag> required = requiredTags(rules[i]);
+            if (required == null) {
+                set(mAlways, i);
+                continue;
+            }
+            for (Tag t : required) {
+                if (t.key == null) {
+                    set(get(mValues, t.value), i);
+                } else if (t.value == null) {
+                    set(get(mKeys, t.key), i);
+                } else {
+                    HashMap<String, long[]> values = mKeyValues.get(t.key);
+                    if (values == null) {
+                        values = new HashMap<>();
+                        mKeyValues.put(t.key, values);
+                    }
+                    set(get(values, t.value), i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates an index for the given rules.
+     *
+     * @return the index or null when an index would not reduce the number
+     * of evaluated rules.
+     */
+    public static RuleIndex create(Rule[] rules) {
+        if (rules.length < MIN_RULES)
+            return null;
+
+        RuleIndex index = new RuleIndex(rules);
+        if (index.mKeys.isEmpty() && index.mKeyValues.isEmpty() && index.mValues.isEmpty())
+            return null;
+
+        return index;
+    }
+
+    /**
+     * Returns the rules that can match the given tags as bitset, to be
+     * iterated with {@link #next(long[], int)}.
+     */
+    public long[] candidates(Tag[] tags) {
+        long[] result = mAlways.clone();
+
+        for (Tag t : tags) {
+            or(result, mKeys.get(t.key));
+            or(result, mValues.get(t.value));
+
+            HashMap<String, long[]> values = mKeyValues.get(t.key);
+            if (values != null)
+                or(result, values.get(t.value));
+        }
+        return result;
+    }
+
+    /**
+     * @return the index of the first candidate at or after 'from', or -1.
+     */
+    public static int next(long[] candidates, int from) {
+        int word = from >>> 6;
+        if (word >= candidates.length)
+            return -1;
+
+        long bits = candidates[word] & (-1L << (from & 63));
+        while (true) {
+            if (bits != 0)
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            if (++word == candidates.length)
+                return -1;
+            bits = candidates[word];
+        }
+    }
+
+    /**
+     * Returns the tags of which at least one must be present for the rule
+     * to add any style, including those required by its sub-rules. A null
+     * key or value stands for any key or value.
+     *
+     * @return the tags or null when the rule may match without any of them.
+     */
+    static List<Tag> requiredTags(Rule rule) {
+        List<Tag> required = rule.requiredTags();
+        if (required != null)
+            return required;
+
+        /* a rule with own styles matches any tags */
+        if (rule.styles != Rule.EMPTY_STYLE)
+            return null;
+
+        /* otherwise it only adds styles when one of its sub-rules matches */
+        List<Tag> union = new ArrayList<>();
+        for (Rule subRule : rule.subRules) {
+            List<Tag> sub = requiredTags(subRule);
+            if (sub == null)
+                return null;
+            union.addAll(sub);
+        }
+        return union;
+    }
+
+    private long[] get(HashMap<String, long[]> map, String key) {
+        long[] bits = map.get(key);
+        if (bits == null) {
+            bits = new long[mNumWords];
+            map.put(key, bits);
+        }
+        return bits;
+    }
+
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << (index & 63);
+    }
+
+    private static void or(long[] result, long[] bits) {
+        if (bits == null)
+            return;
+        for (int i = 0; i < result.length; i++)
+            result[i] |= bits[i];
+    }
+}
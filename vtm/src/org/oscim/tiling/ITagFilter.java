@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.tiling;
+
+import org.oscim.core.GeometryBuffer.GeometryType;
+import org.oscim.core.Tag;
+
+/**
+ * Tells a data source which tags can get an element rendered, so that it can
+ * skip elements with none of them before decoding geometry and strings.
+ */
+public interface ITagFilter {
+
+    /**
+     * An element of 'type' can only be rendered at 'zoomLevel' when this
+     * returns true for at least one of its tags.
+     *
+     * @param tag  the tag, a null value stands for any value.
+     * @param type POINT, LINE or POLY.
+     */
+    boolean accept(Tag tag, GeometryType type, int zoomLevel);
+
+    /**
+     * Implemented by data sources which can skip elements that the filter
+     * does not accept.
+     */
+    interface Filterable {
+        /**
+         * @param filter the filter, or null to read all elements.
+         */
+        void setTagFilter(ITagFilter filter);
+    }
+}
@@ -0,0 +1,689 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.tiling.cache;
+
+import org.oscim.core.Tile;
+import org.oscim.tiling.ITileCache;
+import org.oscim.utils.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A portable {@link ITileCache} which stores all tiles in one append-only
+ * file.
+ * <p/>
+ * Each tile is appended as a record with its coordinates, length and a CRC32
+ * of the data. An in-memory index maps tile coordinates to the latest record.
+ * When the file is opened the index is rebuilt by scanning the records; the
+ * file is truncated at the first incomplete or corrupt record, so tiles which
+ * were written completely survive a crash of the process.
+ * <p/>
+ * The total size of cached tiles is bounded by {@link #setCacheSize(long)},
+ * least recently used tiles are evicted first. Evicted and replaced records
+ * remain in the file until a background compaction rewrites it.
+ */
+public class FileTileCache implements ITileCache {
+    static final Logger log = LoggerFactory.getLogger(FileTileCache.class);
+    static final boolean dbg = false;
+
+    public static final long DEFAULT_CACHE_SIZE = 100 * 1024 * 1024;
+
+    /**
+     * Minimum amount of garbage in the file before it is compacted.
+     */
+    static final long MIN_COMPACT_SIZE = 4 * 1024 * 1024;
+
+    static final int FILE_MAGIC = 0x56544D43; // VTMC
+    static final int FILE_VERSION = 1;
+    static final int FILE_HEADER_SIZE = 8;
+
+    static final int RECORD_MAGIC = 0x54494C45; // TILE
+    /**
+     * magic, zoom, x, y, length, crc
+     */
+    static final int RECORD_HEADER_SIZE = 24;
+
+    /**
+     * Maximum size of one tile which is considered valid.
+     */
+    static final int MAX_TILE_SIZE = 16 * 1024 * 1024;
+
+    static final class Entry {
+        final long key;
+        long offset;
+        final int length;
+
+        Entry(long key, long offset, int length) {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        int recordSize() {
+            return RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    class CacheTileReader implements TileReader {
+        final InputStream mInputStream;
+        final Tile mTile;
+
+        CacheTileReader(Tile tile, InputStream is) {
+            mTile = tile;
+            mInputStream = is;
+        }
+
+        @Override
+        public Tile getTile() {
+            return mTile;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return mInputStream;
+        }
+    }
+
+    class CacheTileWriter implements TileWriter {
+        final ByteArrayOutputStream mOutputStream;
+        final Tile mTile;
+
+        CacheTileWriter(Tile tile, ByteArrayOutputStream os) {
+            mTile = tile;
+            mOutputStream = os;
+        }
+
+        @Override
+        public Tile getTile() {
+            return mTile;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return mOutputStream;
+        }
+
+        @Override
+        public void complete(boolean success) {
+            saveTile(mTile, mOutputStream, success);
+        }
+    }
+
+    private final File mFile;
+
+    /**
+     * Tile key to record, in access order. Guarded by itself, together with
+     * mLiveBytes, mFileSize and mCacheSize.
+     */
+    private final LinkedHashMap<Long, Entry> mIndex =
+            new LinkedHashMap<Long, Entry>(1024, 0.75f, true);
+
+    private long mLiveBytes;
+    private long mFileSize;
+    private long mCacheSize = DEFAULT_CACHE_SIZE;
+
+    /**
+     * Read lock for file I/O, write lock to replace the file on compaction.
+     */
+    private final ReentrantReadWriteLock mFileLock = new ReentrantReadWriteLock();
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+
+    /**
+     * Serializes appends, so that records are written without gaps.
+     */
+    private final Object mAppendLock = new Object();
+
+    private final ArrayList<ByteArrayOutputStream> mCacheBuffers =
+            new ArrayList<ByteArrayOutputStream>();
+
+    private Thread mCompactor;
+    private boolean mClosed;
+
+    /**
+     * Opens the cache file, creating it if it does not exist.
+     *
+     * @param file the cache file.
+     * @throws IOException if the file cannot be opened or created.
+     */
+    public FileTileCache(File file) throws IOException {
+        this(file, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Opens the cache file, creating it if it does not exist. Tiles which
+     * exceed the cache size are evicted least recently used first, where
+     * reading a tile counts as a use. Tiles recovered from the file are
+     * ordered by the time they were written.
+     *
+     * @param file      the cache file.
+     * @param cacheSize the maximum size of all cached tiles in bytes.
+     * @throws IOException if the file cannot be opened or created.
+     */
+    public FileTileCache(File file, long cacheSize) throws IOException {
+        mFile = file;
+        mCacheSize = cacheSize;
+        open();
+    }
+
+    private void open() throws IOException {
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+
+        if (!readHeader()) {
+            log.debug("create cache {}", mFile);
+            mChannel.truncate(0);
+            writeHeader(mChannel);
+            mFileSize = FILE_HEADER_SIZE;
+            return;
+        }
+
+        mFileSize = recover();
+        if (mFileSize < mChannel.size()) {
+            log.debug("truncate cache {} at {}", mFile, mFileSize);
+            mChannel.truncate(mFileSize);
+        }
+        evict();
+    }
+
+    private boolean readHeader() throws IOException {
+        if (mChannel.size() < FILE_HEADER_SIZE)
+            return false;
+
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        readFully(mChannel, header, 0);
+        header.flip();
+
+        return header.getInt() == FILE_MAGIC && header.getInt() == FILE_VERSION;
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(FILE_MAGIC);
+        header.putInt(FILE_VERSION);
+        header.flip();
+        writeFully(channel, header, 0);
+    }
+
+    /**
+     * Rebuilds the index from the records in the file.
+     *
+     * @return the end of the last valid record.
+     */
+    private long recover() throws IOException {
+        long size = mChannel.size();
+        long position = FILE_HEADER_SIZE;
+
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        byte[] data = new byte[32 * 1024];
+        CRC32 crc = new CRC32();
+
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(mChannel, header, position);
+            header.flip();
+
+            int magic = header.getInt();
+            int z = header.getInt();
+            int x = header.getInt();
+            int y = header.getInt();
+            int length = header.getInt();
+            int checksum = header.getInt();
+
+            if (magic != RECORD_MAGIC || length < 0 || length > MAX_TILE_SIZE
+                    || position + RECORD_HEADER_SIZE + length > size)
+                break;
+
+            if (data.length < length)
+                data = new byte[length];
+
+            readFully(mChannel, ByteBuffer.wrap(data, 0, length),
+                    position + RECORD_HEADER_SIZE);
+
+            crc.reset();
+            crc.update(data, 0, length);
+            if ((int) crc.getValue() != checksum)
+                break;
+
+            long key = key(x, y, z);
+            Entry e = new Entry(key, position, length);
+            Entry prev = mIndex.put(key, e);
+            if (prev != null)
+                mLiveBytes -= prev.length;
+            mLiveBytes += length;
+
+            position += RECORD_HEADER_SIZE + length;
+        }
+        if (dbg)
+            log.debug("recovered {} tiles, {} bytes", mIndex.size(), mLiveBytes);
+
+        return position;
+    }
+
+    static long key(int x, int y, int z) {
+        return ((long) z << 58) | ((long) x << 29) | y;
+    }
+
+    static long key(Tile tile) {
+        return key(tile.tileX, tile.tileY, tile.zoomLevel);
+    }
+
+    @Override
+    public TileWriter writeTile(Tile tile) {
+        ByteArrayOutputStream os;
+
+        synchronized (mCacheBuffers) {
+            if (mCacheBuffers.size() == 0)
+                os = new ByteArrayOutputStream(32 * 1024);
+            else
+                os = mCacheBuffers.remove(mCacheBuffers.size() - 1);
+        }
+        return new CacheTileWriter(tile, os);
+    }
+
+    public void saveTile(Tile tile, ByteArrayOutputStream data, boolean success) {
+        byte[] bytes = null;
+
+        if (success)
+            bytes = data.toByteArray();
+
+        synchronized (mCacheBuffers) {
+            data.reset();
+            mCacheBuffers.add(data);
+        }
+
+        if (dbg)
+            log.debug("store tile {} {}", tile, Boolean.valueOf(success));
+
+        if (!success || bytes.length > MAX_TILE_SIZE)
+            return;
+
+        try {
+            putTile(tile, bytes);
+        } catch (IOException e) {
+            log.debug("{} Cache write: {}", tile, e.getMessage());
+        }
+    }
+
+    void putTile(Tile tile, byte[] bytes) throws IOException {
+        long key = key(tile);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bytes.length);
+        record.putInt(RECORD_MAGIC);
+        record.putInt(tile.zoomLevel);
+        record.putInt(tile.tileX);
+        record.putInt(tile.tileY);
+        record.putInt(bytes.length);
+        record.putInt((int) crc.getValue());
+        record.put(bytes);
+        record.flip();
+
+        mFileLock.readLock().lock();
+        try {
+            if (mClosed)
+                return;
+
+            synchronized (mAppendLock) {
+                long position;
+                synchronized (mIndex) {
+                    position = mFileSize;
+                }
+                writeFully(mChannel, record, position);
+
+                synchronized (mIndex) {
+                    mFileSize = position + record.limit();
+
+                    Entry prev = mIndex.put(key, new Entry(key, position, bytes.length));
+                    if (prev != null)
+                        mLiveBytes -= prev.length;
+                    mLiveBytes += bytes.length;
+
+                    evict();
+                }
+            }
+        } finally {
+            mFileLock.readLock().unlock();
+        }
+        maybeCompact();
+    }
+
+    @Override
+    public TileReader getTile(Tile tile) {
+        long key = key(tile);
+
+        mFileLock.readLock().lock();
+        try {
+            if (mClosed)
+                return null;
+
+            Entry e;
+            long offset;
+            synchronized (mIndex) {
+                e = mIndex.get(key);
+                if (e == null) {
+                    if (dbg)
+                        log.debug("not in cache {}", tile);
+                    return null;
+                }
+                offset = e.offset;
+            }
+
+            byte[] data = new byte[e.length];
+            readFully(mChannel, ByteBuffer.wrap(data), offset + RECORD_HEADER_SIZE);
+
+            if (dbg)
+                log.debug("load tile {}", tile);
+
+            return new CacheTileReader(tile, new ByteArrayInputStream(data));
+        } catch (IOException ex) {
+            log.debug("{} Cache read: {}", tile, ex.getMessage());
+            return null;
+        } finally {
+            mFileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param size the maximum size of all cached tiles in bytes.
+     */
+    @Override
+    public void setCacheSize(long size) {
+        synchronized (mIndex) {
+            mCacheSize = size;
+            evict();
+        }
+        maybeCompact();
+    }
+
+    /**
+     * @return the number of cached tiles.
+     */
+    public int getTileCount() {
+        synchronized (mIndex) {
+            return mIndex.size();
+        }
+    }
+
+    /**
+     * @return the size of all cached tiles in bytes.
+     */
+    public long getCacheSize() {
+        synchronized (mIndex) {
+            return mLiveBytes;
+        }
+    }
+
+    /**
+     * @return the size of the cache file, including evicted tiles which were
+     * not compacted yet.
+     */
+    public long getFileSize() {
+        synchronized (mIndex) {
+            return mFileSize;
+        }
+    }
+
+    /**
+     * Evicts least recently used tiles until the cache size limit is met.
+     * Must be called with mIndex locked.
+     */
+    private void evict() {
+        Iterator<Entry> it = mIndex.values().iterator();
+        while (mLiveBytes > mCacheSize && it.hasNext()) {
+            Entry e = it.next();
+            mLiveBytes -= e.length;
+            it.remove();
+        }
+    }
+
+    private void maybeCompact() {
+        synchronized (mIndex) {
+            long garbage = mFileSize - FILE_HEADER_SIZE - mLiveBytes
+                    - (long) mIndex.size() * RECORD_HEADER_SIZE;
+
+            if (mCompactor != null || mClosed || garbage < MIN_COMPACT_SIZE
+                    || garbage < mLiveBytes)
+                return;
+
+            mCompactor = new Thread("FileTileCache compactor") {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        log.debug("compaction failed: {}", e.getMessage());
+                    } finally {
+                        synchronized (mIndex) {
+                            mCompactor = null;
+                            mIndex.notifyAll();
+                        }
+                    }
+                }
+            };
+            mCompactor.setDaemon(true);
+            mCompactor.setPriority(Thread.MIN_PRIORITY);
+            mCompactor.start();
+        }
+    }
+
+    /**
+     * Rewrites all live records into a new file and replaces the cache file.
+     * Records are copied in least recently used order, without blocking
+     * readers or writers. Only records appended meanwhile are copied while
+     * holding the file lock.
+     */
+    void compact() throws IOException {
+        File tmpFile = new File(mFile.getPath() + ".compact");
+        RandomAccessFile tmp = new RandomAccessFile(tmpFile, "rw");
+        FileChannel out = tmp.getChannel();
+        boolean replaced = false;
+
+        try {
+            out.truncate(0);
+            writeHeader(out);
+
+            /* snapshot of live records */
+            ArrayList<Entry> entries;
+            long snapshotEnd;
+            synchronized (mIndex) {
+                entries = new ArrayList<Entry>(mIndex.values());
+                snapshotEnd = mFileSize;
+            }
+
+            HashMap<Long, Long> moved = new HashMap<Long, Long>(entries.size() * 2);
+            long position = FILE_HEADER_SIZE;
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+
+            mFileLock.readLock().lock();
+            try {
+                if (mClosed)
+                    return;
+
+                for (Entry e : entries) {
+                    buf = copy(mChannel, e.offset, out, position, e.recordSize(), buf);
+                    moved.put(e.offset, position);
+                    position += e.recordSize();
+                }
+            } finally {
+                mFileLock.readLock().unlock();
+            }
+
+            mFileLock.writeLock().lock();
+            try {
+                if (mClosed)
+                    return;
+
+                /* copy records which were appended during compaction */
+                long tailSize;
+                synchronized (mIndex) {
+                    tailSize = mFileSize - snapshotEnd;
+                }
+                buf = copy(mChannel, snapshotEnd, out, position, tailSize, buf);
+                long tailDelta = position - snapshotEnd;
+                position += tailSize;
+
+                out.force(false);
+                out.close();
+                tmp.close();
+
+                mChannel.close();
+                mRandomAccessFile.close();
+
+                if (!tmpFile.renameTo(mFile)) {
+                    /* some platforms do not replace existing files */
+                    if (!mFile.delete() || !tmpFile.renameTo(mFile))
+                        throw new IOException("cannot replace " + mFile);
+                }
+                replaced = true;
+
+                synchronized (mIndex) {
+                    for (Entry e : mIndex.values()) {
+                        if (e.offset >= snapshotEnd) {
+                            e.offset += tailDelta;
+                        } else {
+                            /* all older live records were in the snapshot */
+                            e.offset = moved.get(e.offset);
+                        }
+                    }
+                    mFileSize = position;
+                }
+                mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+                mChannel = mRandomAccessFile.getChannel();
+
+                if (dbg)
+                    log.debug("compacted {} to {} bytes", mFile, position);
+            } finally {
+                if (!replaced && !mClosed && !mChannel.isOpen()) {
+                    /* the original file is still valid, reopen it */
+                    mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+                    mChannel = mRandomAccessFile.getChannel();
+                }
+                mFileLock.writeLock().unlock();
+            }
+        } finally {
+            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(tmp);
+            if (!replaced)
+                tmpFile.delete();
+        }
+    }
+
+    /**
+     * Forces all written tiles to the storage device.
+     */
+    public void flush() throws IOException {
+        mFileLock.readLock().lock();
+        try {
+            if (!mClosed)
+                mChannel.force(false);
+        } finally {
+            mFileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits for a running compaction to finish.
+     */
+    public void awaitCompaction() throws InterruptedException {
+        synchronized (mIndex) {
+            while (mCompactor != null)
+                mIndex.wait();
+        }
+    }
+
+    public void dispose() {
+        try {
+            awaitCompaction();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        mFileLock.writeLock().lock();
+        try {
+            if (mClosed)
+                return;
+            mClosed = true;
+            try {
+                mChannel.force(false);
+            } catch (IOException e) {
+                log.debug(e.getMessage());
+            }
+            IOUtils.closeQuietly(mChannel);
+            IOUtils.closeQuietly(mRandomAccessFile);
+        } finally {
+            mFileLock.writeLock().unlock();
+        }
+        synchronized (mIndex) {
+            mIndex.clear();
+            mLiveBytes = 0;
+        }
+    }
+
+    private static ByteBuffer copy(FileChannel in, long from, FileChannel out, long to,
+                                   long length, ByteBuffer buf) throws IOException {
+        while (length > 0) {
+            buf.clear();
+            if (buf.remaining() > length)
+                buf.limit((int) length);
+
+            int n = buf.limit();
+            readFully(in, buf, from);
+            buf.flip();
+            writeFully(out, buf, to);
+
+            from += n;
+            to += n;
+            length -= n;
+        }
+        return buf;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position)
+            throws IOException {
+        long start = position - buf.position();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, start + buf.position()) < 0)
+                throw new IOException("unexpected end of file");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position)
+            throws IOException {
+        long start = position - buf.position();
+        while (buf.hasRemaining())
+            channel.write(buf, start + buf.position());
+    }
+}
@@ -1,5 +1,6 @@
 /*
  * Copyright 2014 Hannes Janetzek
+ * Copyright 2016 devemux86
  *
  * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
  *
@@ -28,6 +29,18 @@ public interface HttpEngine {
 
     void sendRequest(Tile tile) throws IOException;
 
+    /**
+     * Send requests for tiles which are requested next, in this order, e.g.
+     * to pipeline them on one connection. Each tile is still passed to
+     * {@link #sendRequest(Tile)} before its response is read. Engines which
+     * do not pipeline requests ignore this.
+     */
+    void sendRequests(Tile[] tiles, int count) throws IOException;
+
+    /**
+     * Close the connection. May be called from another thread to abort
+     * a blocking {@link #read()}, without waiting for it.
+     */
     void close();
 
     void setCache(OutputStream os);
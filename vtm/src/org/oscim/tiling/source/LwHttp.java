@@ -1,5 +1,6 @@
 /*
  * Copyright 2013 Hannes Janetzek
+ * Copyright 2016 devemux86
  *
  * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
  *
@@ -23,11 +24,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.Map.Entry;
@@ -36,6 +39,10 @@ import java.util.zip.GZIPInputStream;
 /**
  * Lightweight HTTP connection for tile loading. Does not do redirects,
  * https, full header parsing or other stuff.
+ * <p/>
+ * Requests for queued tiles can be pipelined, see
+ * {@link #sendRequests(Tile[], int)}: they are written back-to-back on the
+ * keep-alive connection and their responses are read in the same order.
  */
 public class LwHttp implements HttpEngine {
     static final Logger log = LoggerFactory.getLogger(LwHttp.class);
@@ -52,6 +59,11 @@ public class LwHttp implements HttpEngine {
     private final static int CONNECT_TIMEOUT = 15000; // 15 seconds
     private final static int SOCKET_TIMEOUT = 8000; // 8 seconds
 
+    /**
+     * Max number of requests sent ahead on one connection
+     */
+    public final static int MAX_PIPELINE = 4;
+
     private final static int BUFFER_SIZE = 8192;
     private final byte[] buffer = new byte[BUFFER_SIZE];
 
@@ -59,7 +71,7 @@ public class LwHttp implements HttpEngine {
     private final int mPort;
 
     private int mMaxRequests = 0;
-    private Socket mSocket;
+    private volatile Socket mSocket;
     private OutputStream mCommandStream;
     private Buffer mResponseStream;
     private long mLastRequest = 0;
@@ -70,6 +82,31 @@ public class LwHttp implements HttpEngine {
      */
     private boolean mMustCloseConnection;
 
+    /**
+     * Number of responses read on the current connection
+     */
+    private int mResponses;
+
+    /**
+     * Cleared when the server does not keep connections alive
+     */
+    private boolean mPipelining = true;
+
+    /**
+     * Tiles of pipelined requests whose responses were not read yet
+     */
+    private final Tile[] mPipeline = new Tile[MAX_PIPELINE];
+    private int mPipelineCnt;
+
+    /**
+     * Tile of the current request and whether the request was sent
+     * ahead, to send it again when the server dropped it.
+     */
+    private Tile mTile;
+    private boolean mSentAhead;
+
+    private byte[] mBatchBuffer;
+
     private final byte[] REQUEST_GET_START;
     private final byte[] REQUEST_GET_END;
     private final byte[] mRequestBuffer;
@@ -229,6 +266,9 @@ public class LwHttp implements HttpEngine {
             if (bytesRead >= contentLength)
                 return -1;
 
+            /* do not read into the next (pipelined) response */
+            byteCount = Math.min(byteCount, contentLength - bytesRead);
+
             int len = super.read(buffer, offset, byteCount);
 
             if (dbg)
@@ -254,9 +294,27 @@ public class LwHttp implements HttpEngine {
             throw new IOException("No Socket");
     }
 
+    @Override
     public synchronized InputStream read() throws IOException {
         checkSocket();
 
+        if (!mSentAhead)
+            return readResponse();
+
+        try {
+            return readResponse();
+        } catch (EOFException e) {
+            log.debug("{} pipelined request dropped", mTile);
+        } catch (SocketException e) {
+            log.debug("{} pipelined request dropped: {}", mTile, e.getMessage());
+        }
+        /* send the request again on a new connection */
+        disconnect();
+        sendRequest(mTile);
+        return readResponse();
+    }
+
+    private InputStream readResponse() throws IOException {
         Buffer is = mResponseStream;
         is.mark(BUFFER_SIZE);
         is.start(BUFFER_SIZE);
@@ -264,6 +322,7 @@ public class LwHttp implements HttpEngine {
         byte[] buf = buffer;
         boolean first = true;
         boolean gzip = false;
+        boolean complete = false;
 
         int read = 0;
         int pos = 0;
@@ -291,6 +350,7 @@ public class LwHttp implements HttpEngine {
             /* empty line (header end) */
             if (end - pos == 1) {
                 end += 1;
+                complete = true;
                 break;
             }
 
@@ -320,6 +380,17 @@ public class LwHttp implements HttpEngine {
             end = pos;
         }
 
+        if (!complete) {
+            if (read == BUFFER_SIZE)
+                throw new IOException("Header too large!");
+            throw new EOFException("Connection closed");
+        }
+
+        /* the server does not keep connections alive */
+        if (mMustCloseConnection && mResponses == 0)
+            mPipelining = false;
+        mResponses++;
+
         /* back to start of content */
         is.reset();
         is.mark(0);
@@ -334,22 +405,136 @@ public class LwHttp implements HttpEngine {
 
     @Override
     public synchronized void sendRequest(Tile tile) throws IOException {
+        mTile = tile;
+        mSentAhead = takePipelined(tile);
+        if (mSentAhead)
+            return;
+
+        checkConnection();
+
+        int len = formatRequest(tile);
+
+        if (dbg)
+            log.debug("request: {}", new String(mRequestBuffer, 0, len));
+
+        try {
+            writeRequest(mRequestBuffer, len);
+        } catch (IOException e) {
+            log.debug("recreate connection");
+            disconnect();
+
+            lwHttpConnect();
+            writeRequest(mRequestBuffer, len);
+        }
+        mMaxRequests--;
+    }
+
+    /**
+     * Write requests for the given tiles back-to-back when the connection
+     * is idle. Their responses are taken in order by
+     * {@link #sendRequest(Tile)} and {@link #read()}. Responses of tiles
+     * that are not requested, e.g. canceled ones, are skipped.
+     */
+    @Override
+    public synchronized void sendRequests(Tile[] tiles, int count) throws IOException {
+        if (!mPipelining || mPipelineCnt > 0)
+            return;
 
+        checkConnection();
+
+        count = Math.min(count, Math.min(MAX_PIPELINE, mMaxRequests));
+        if (count < 2)
+            return;
+
+        if (mBatchBuffer == null)
+            mBatchBuffer = new byte[MAX_PIPELINE * mRequestBuffer.length];
+
+        int len = 0;
+        for (int i = 0; i < count; i++) {
+            int n = formatRequest(tiles[i]);
+            System.arraycopy(mRequestBuffer, 0, mBatchBuffer, len, n);
+            len += n;
+        }
+
+        if (dbg)
+            log.debug("requests: {}", new String(mBatchBuffer, 0, len));
+
+        try {
+            writeRequest(mBatchBuffer, len);
+        } catch (IOException e) {
+            log.debug("recreate connection");
+            disconnect();
+
+            lwHttpConnect();
+            writeRequest(mBatchBuffer, len);
+        }
+        mMaxRequests -= count;
+
+        System.arraycopy(tiles, 0, mPipeline, 0, count);
+        mPipelineCnt = count;
+    }
+
+    /**
+     * @return true when the request for 'tile' was sent ahead and its
+     * response is the next one.
+     */
+    private boolean takePipelined(Tile tile) {
+        int pos = 0;
+        while (pos < mPipelineCnt && !mPipeline[pos].equals(tile))
+            pos++;
+
+        if (pos == mPipelineCnt) {
+            /* responses of pending requests are not needed */
+            if (mPipelineCnt > 0)
+                disconnect();
+            return false;
+        }
+
+        for (int i = 0; i < pos && mSocket != null; i++) {
+            removePipelined();
+            skipResponse();
+        }
+        if (mSocket == null)
+            return false;
+
+        removePipelined();
+        return true;
+    }
+
+    private void removePipelined() {
+        mPipelineCnt--;
+        System.arraycopy(mPipeline, 1, mPipeline, 0, mPipelineCnt);
+        mPipeline[mPipelineCnt] = null;
+    }
+
+    private void skipResponse() {
+        try {
+            readResponse();
+        } catch (IOException e) {
+            log.debug("skip response: {}", e.getMessage());
+            disconnect();
+            return;
+        }
+        if (mMustCloseConnection || !mResponseStream.finishedReading())
+            disconnect();
+    }
+
+    private void checkConnection() throws IOException {
         if (mSocket != null) {
-            if (--mMaxRequests < 0)
-                close();
+            if (mSocket.isClosed() || mMaxRequests <= 0)
+                disconnect();
             else if (System.nanoTime() - mLastRequest > RESPONSE_TIMEOUT)
-                close();
+                disconnect();
             else {
                 try {
                     int n = mResponseStream.available();
                     if (n > 0) {
                         log.debug("left over bytes {} ", n);
-                        close();
+                        disconnect();
                     }
                 } catch (IOException e) {
                     log.debug(e.getMessage());
-                    close();
+                    disconnect();
                 }
             }
         }
@@ -361,30 +546,19 @@ public class LwHttp implements HttpEngine {
             /* TODO parse from header */
             mMaxRequests = RESPONSE_EXPECTED_LIVES;
         }
+    }
 
+    private int formatRequest(Tile tile) {
         int pos = REQUEST_GET_START.length;
         int len = REQUEST_GET_END.length;
 
         pos = formatTilePath(tile, mRequestBuffer, pos);
         System.arraycopy(REQUEST_GET_END, 0, mRequestBuffer, pos, len);
-        len += pos;
-
-        if (dbg)
-            log.debug("request: {}", new String(mRequestBuffer, 0, len));
-
-        try {
-            writeRequest(len);
-        } catch (IOException e) {
-            log.debug("recreate connection");
-            close();
-
-            lwHttpConnect();
-            writeRequest(len);
-        }
+        return len + pos;
     }
 
-    private void writeRequest(int length) throws IOException {
-        mCommandStream.write(mRequestBuffer, 0, length);
+    private void writeRequest(byte[] request, int length) throws IOException {
+        mCommandStream.write(request, 0, length);
         //mCommandStream.flush();
     }
 
@@ -405,19 +579,29 @@ public class LwHttp implements HttpEngine {
 
             mMustCloseConnection = false;
         } catch (IOException e) {
-            close();
+            disconnect();
             throw e;
         }
     }
 
+    /**
+     * Close the socket without taking the lock, so that a thread blocked
+     * in {@link #read()} fails immediately and the caller does not wait
+     * for it. The connection is reset by the next request.
+     */
     @Override
     public void close() {
         IOUtils.closeQuietly(mSocket);
-        synchronized (this) {
-            mSocket = null;
-            mCommandStream = null;
-            mResponseStream = null;
-        }
+    }
+
+    private synchronized void disconnect() {
+        IOUtils.closeQuietly(mSocket);
+        mSocket = null;
+        mCommandStream = null;
+        mResponseStream = null;
+        mResponses = 0;
+        while (mPipelineCnt > 0)
+            mPipeline[--mPipelineCnt] = null;
     }
 
     @Override
@@ -437,7 +621,7 @@ public class LwHttp implements HttpEngine {
         mResponseStream.setCache(null);
 
         if (!ok || mMustCloseConnection || !mResponseStream.finishedReading())
-            close();
+            disconnect();
 
         return ok;
     }
@@ -17,13 +17,22 @@
 package org.oscim.tiling.source;
 
 import org.oscim.core.GeometryBuffer;
+import org.oscim.core.Tile;
+import org.oscim.tiling.ITileDataSink;
 import org.oscim.utils.UTF8Decoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+/**
+ * Base class of protobuf tile decoders. Reads from an InputStream into
+ * {@link #buffer}, see {@link #setInputStream(InputStream)}, or directly
+ * from a complete message in a byte array without copying and refill
+ * checks, see {@link #setInput(byte[], int, int)}.
+ */
 public abstract class PbfDecoder implements ITileDecoder {
     static final Logger log = LoggerFactory.getLogger(PbfDecoder.class);
 
@@ -77,6 +86,12 @@ public abstract class PbfDecoder implements ITileDecoder {
 
     private InputStream mInputStream;
 
+    /**
+     * buffer for reading from InputStream, while {@link #buffer} is
+     * the byte array passed to {@link #setInput(byte[], int, int)}
+     */
+    private byte[] mStreamBuffer;
+
     private final UTF8Decoder mStringDecoder;
 
     public PbfDecoder() {
@@ -84,6 +99,10 @@ public abstract class PbfDecoder implements ITileDecoder {
     }
 
     public void setInputStream(InputStream is) {
+        if (mStreamBuffer != null) {
+            buffer = mStreamBuffer;
+            mStreamBuffer = null;
+        }
         mInputStream = is;
 
         bufferFill = 0;
@@ -93,7 +112,47 @@ public abstract class PbfDecoder implements ITileDecoder {
         mMsgPos = 0;
     }
 
+    /**
+     * Decode the message from 'length' bytes of 'data' at 'offset'.
+     * The array is used as {@link #buffer}, it must not be modified
+     * while decoding.
+     */
+    public void setInput(byte[] data, int offset, int length) {
+        if (mStreamBuffer == null)
+            mStreamBuffer = buffer;
+
+        mInputStream = null;
+        buffer = data;
+
+        bufferPos = offset;
+        bufferFill = offset + length;
+        mBufferOffset = -offset;
+
+        mMsgPos = length;
+    }
+
+    /**
+     * @return true when the whole message is in {@link #buffer}, i.e.
+     * positions before the current one can be read again.
+     */
+    protected boolean isBuffered() {
+        return mInputStream == null;
+    }
+
+    /**
+     * Decode a tile from 'length' bytes of 'data' at 'offset'. Decoders
+     * override this to read the array directly, by default it is
+     * wrapped in an InputStream.
+     */
+    public boolean decode(Tile tile, ITileDataSink sink, byte[] data, int offset, int length)
+            throws IOException {
+        return decode(tile, sink, new ByteArrayInputStream(data, offset, length));
+    }
+
     protected int decodeVarint32() throws IOException {
+        /* no need to check each byte */
+        if (bufferFill - bufferPos >= 5)
+            return decodeVarint32Filled();
 
         int bytesLeft = 0;
         int val = 0;
@@ -464,6 +523,9 @@ public abstract class PbfDecoder implements ITileDecoder {
         //if (mBufferOffset + bufferPos >= mMsgEnd)
         //    return false;
 
+        if (mInputStream == null)
+            return bufferPos < bufferFill;
+
         return fillBuffer(1) > 0;
     }
 
@@ -478,6 +540,10 @@ public abstract class PbfDecoder implements ITileDecoder {
         if (bytesLeft >= size)
             return bytesLeft;
 
+        // the whole message is in buffer
+        if (mInputStream == null)
+            throw TRUNCATED_MSG;
+
         int maxSize = buffer.length;
 
         if (size > maxSize) {
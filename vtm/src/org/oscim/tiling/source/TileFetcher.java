@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.tiling.source;
+
+import org.oscim.core.Tile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Network stage of {@link UrlTileDataSource}: loads complete tiles on a
+ * few threads, each with its own {@link HttpEngine}, so that the
+ * TileLoader thread only waits for the network when decoding is faster.
+ * <p/>
+ * Threads are started with the first request and stopped by
+ * {@link #dispose()}.
+ */
+public class TileFetcher {
+    static final Logger log = LoggerFactory.getLogger(TileFetcher.class);
+
+    private static final AtomicInteger id = new AtomicInteger();
+
+    /**
+     * A tile to fetch. The result is taken with {@link #get()}.
+     */
+    public static final class Request {
+        public final Tile tile;
+
+        private boolean mDone;
+        private byte[] mData;
+        private IOException mError;
+
+        Request(Tile tile) {
+            this.tile = tile;
+        }
+
+        synchronized void complete(byte[] data, IOException error) {
+            if (mDone)
+                return;
+
+            mData = data;
+            mError = error;
+            mDone = true;
+            notifyAll();
+        }
+
+        public synchronized boolean isDone() {
+            return mDone;
+        }
+
+        /**
+         * Wait for the tile.
+         *
+         * @return the tile data.
+         * @throws IOException when loading failed or was canceled.
+         */
+        public synchronized byte[] get() throws IOException {
+            try {
+                while (!mDone)
+                    wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted");
+            }
+            if (mError != null)
+                throw mError;
+
+            return mData;
+        }
+
+        /**
+         * Drop the request when it was not fetched yet.
+         */
+        public void cancel() {
+            complete(null, new IOException("canceled"));
+        }
+    }
+
+    private final UrlTileSource mTileSource;
+    private final int mNumThreads;
+
+    private final LinkedBlockingQueue<Request> mQueue = new LinkedBlockingQueue<>();
+    private final ArrayList<Worker> mWorkers = new ArrayList<>();
+
+    private boolean mDisposed;
+
+    /**
+     * @param threads number of tiles loaded at once.
+     */
+    public TileFetcher(UrlTileSource tileSource, int threads) {
+        mTileSource = tileSource;
+        mNumThreads = Math.max(threads, 1);
+    }
+
+    public int getNumThreads() {
+        return mNumThreads;
+    }
+
+    /**
+     * Queue 'tile' to be fetched, in order of requests.
+     */
+    public Request fetch(Tile tile) {
+        Request r = new Request(tile);
+
+        synchronized (mWorkers) {
+            if (mDisposed) {
+                r.complete(null, new IOException("disposed"));
+                return r;
+            }
+            if (mWorkers.isEmpty()) {
+                for (int i = 0; i < mNumThreads; i++) {
+                    Worker w = new Worker(mTileSource.getHttpEngine());
+                    mWorkers.add(w);
+                    w.start();
+                }
+            }
+        }
+        mQueue.add(r);
+        return r;
+    }
+
+    /**
+     * Fail all queued requests and abort loading the current ones.
+     */
+    public void cancel() {
+        Request r;
+        while ((r = mQueue.poll()) != null)
+            r.cancel();
+
+        synchronized (mWorkers) {
+            for (Worker w : mWorkers)
+                w.abort();
+        }
+    }
+
+    /**
+     * Cancel all requests and stop the threads.
+     */
+    public void dispose() {
+        synchronized (mWorkers) {
+            mDisposed = true;
+            for (Worker w : mWorkers)
+                w.interrupt();
+        }
+        cancel();
+
+        synchronized (mWorkers) {
+            mWorkers.clear();
+        }
+    }
+
+    private final class Worker extends Thread {
+        private final HttpEngine mConn;
+        private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream(1 << 16);
+        private final byte[] mReadBuffer = new byte[8192];
+
+        private Request mRequest;
+
+        Worker(HttpEngine conn) {
+            super("TileFetcher" + id.getAndIncrement());
+            mConn = conn;
+            setDaemon(true);
+        }
+
+        /**
+         * Fail the current request, the connection is closed.
+         */
+        void abort() {
+            Request r;
+            synchronized (this) {
+                r = mRequest;
+            }
+            if (r != null) {
+                r.cancel();
+                mConn.close();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                Request r;
+                try {
+                    r = mQueue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (r.isDone())
+                    continue;
+
+                synchronized (this) {
+                    mRequest = r;
+                }
+                load(r);
+                synchronized (this) {
+                    mRequest = null;
+                }
+            }
+            mConn.close();
+        }
+
+        private void load(Request r) {
+            byte[] data = null;
+            IOException error = null;
+            try {
+                mConn.sendRequest(r.tile);
+                InputStream is = mConn.read();
+
+                mBuffer.reset();
+                int len;
+                while ((len = is.read(mReadBuffer)) >= 0)
+                    mBuffer.write(mReadBuffer, 0, len);
+
+                data = mBuffer.toByteArray();
+            } catch (IOException e) {
+                error = e;
+            } catch (Exception e) {
+                log.debug("{} {}", r.tile, e.getMessage());
+                error = new IOException(e.getMessage());
+            } finally {
+                if (!mConn.requestCompleted(data != null) && error == null)
+                    error = new IOException("Request failed");
+            }
+            r.complete(error == null ? data : null, error);
+        }
+    }
+}
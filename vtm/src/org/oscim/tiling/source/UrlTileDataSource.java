@@ -27,11 +27,13 @@ import org.oscim.utils.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 
 import static org.oscim.tiling.QueryResult.DELAYED;
 import static org.oscim.tiling.QueryResult.FAILED;
@@ -45,11 +47,25 @@ public class UrlTileDataSource implements ITileDataSource {
     protected final UrlTileSource mTileSource;
     protected final boolean mUseCache;
 
+    /**
+     * Loads tiles ahead on separate threads when
+     * {@link UrlTileSource#setFetchThreads(int)} is set, otherwise null.
+     */
+    protected final TileFetcher mFetcher;
+
+    /**
+     * Requests of {@link #sendRequests(MapTile[], int)}, in order
+     */
+    private final ArrayList<TileFetcher.Request> mRequests = new ArrayList<>();
+
     public UrlTileDataSource(UrlTileSource tileSource, ITileDecoder tileDecoder, HttpEngine conn) {
         mTileDecoder = tileDecoder;
         mTileSource = tileSource;
         mUseCache = (tileSource.tileCache != null);
         mConn = conn;
+
+        int threads = tileSource.getFetchThreads();
+        mFetcher = (threads > 0) ? new TileFetcher(tileSource, threads) : null;
     }
 
     @Override
@@ -77,14 +93,24 @@ public class UrlTileDataSource implements ITileDataSource {
 
         TileWriter cacheWriter = null;
         try {
-            mConn.sendRequest(tile);
-            InputStream is = mConn.read();
-            if (mUseCache) {
-                cacheWriter = cache.writeTile(tile);
-                mConn.setCache(cacheWriter.getOutputStream());
+            if (mFetcher != null) {
+                /* decode the tile loaded by the fetcher */
+                byte[] data = takeRequest(tile).get();
+                if (decode(tile, sink, data)) {
+                    res = SUCCESS;
+                    if (mUseCache)
+                        writeCache(tile, data);
+                }
+            } else {
+                mConn.sendRequest(tile);
+                InputStream is = mConn.read();
+                if (mUseCache) {
+                    cacheWriter = cache.writeTile(tile);
+                    mConn.setCache(cacheWriter.getOutputStream());
+                }
+                if (mTileDecoder.decode(tile, sink, is))
+                    res = SUCCESS;
             }
-            if (mTileDecoder.decode(tile, sink, is))
-                res = SUCCESS;
         } catch (SocketException e) {
             log.debug("{} Socket Error: {}", tile, e.getMessage());
         } catch (SocketTimeoutException e) {
@@ -97,7 +123,7 @@ public class UrlTileDataSource implements ITileDataSource {
         } finally {
             boolean ok = (res == SUCCESS);
 
-            if (!mConn.requestCompleted(ok) && ok)
+            if (mFetcher == null && !mConn.requestCompleted(ok) && ok)
                 res = FAILED;
 
             if (cacheWriter != null)
@@ -107,13 +133,105 @@ public class UrlTileDataSource implements ITileDataSource {
         }
     }
 
+    private boolean decode(MapTile tile, ITileDataSink sink, byte[] data)
+            throws IOException {
+        if (mTileDecoder instanceof PbfDecoder)
+            return ((PbfDecoder) mTileDecoder).decode(tile, sink, data, 0, data.length);
+
+        return mTileDecoder.decode(tile, sink, new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Take the request of 'tile' from the requests sent ahead. Requests
+     * before it are no longer needed, e.g. for canceled tiles.
+     */
+    private TileFetcher.Request takeRequest(MapTile tile) {
+        for (int i = 0, n = mRequests.size(); i < n; i++) {
+            TileFetcher.Request r = mRequests.get(i);
+            if (!r.tile.equals(tile))
+                continue;
+
+            for (int j = 0; j < i; j++)
+                mRequests.get(j).cancel();
+            mRequests.subList(0, i + 1).clear();
+            return r;
+        }
+        return mFetcher.fetch(tile);
+    }
+
+    private void writeCache(MapTile tile, byte[] data) {
+        TileWriter cacheWriter = mTileSource.tileCache.writeTile(tile);
+        boolean ok = false;
+        try {
+            cacheWriter.getOutputStream().write(data);
+            ok = true;
+        } catch (IOException e) {
+            log.debug("{} Cache write: {}", tile, e);
+        } finally {
+            cacheWriter.complete(ok);
+        }
+    }
+
+    /**
+     * @return the number of tiles that should be passed to
+     * {@link #sendRequests(MapTile[], int)} at once.
+     */
+    public int getBatchSize() {
+        /* fetch the next tiles while decoding */
+        if (mFetcher != null)
+            return 2 * mFetcher.getNumThreads();
+
+        return (mConn instanceof LwHttp) ? LwHttp.MAX_PIPELINE : 1;
+    }
+
+    /**
+     * Send requests for tiles which are queried next, in this order, so
+     * that the connection can pipeline them. Tiles available from cache
+     * are not requested.
+     */
+    public void sendRequests(MapTile[] tiles, int count) {
+        MapTile[] requests = tiles;
+        if (mUseCache) {
+            requests = new MapTile[count];
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                TileReader c = mTileSource.tileCache.getTile(tiles[i]);
+                if (c == null)
+                    requests[n++] = tiles[i];
+                else
+                    IOUtils.closeQuietly(c.getInputStream());
+            }
+            count = n;
+        }
+
+        if (mFetcher != null) {
+            for (int i = 0, n = mRequests.size(); i < n; i++)
+                mRequests.get(i).cancel();
+            mRequests.clear();
+
+            for (int i = 0; i < count; i++)
+                mRequests.add(mFetcher.fetch(requests[i]));
+            return;
+        }
+
+        try {
+            mConn.sendRequests(requests, count);
+        } catch (IOException e) {
+            log.debug("Network Error: {}", e.getMessage());
+        }
+    }
+
     @Override
     public void dispose() {
         mConn.close();
+        if (mFetcher != null)
+            mFetcher.dispose();
     }
 
     @Override
     public void cancel() {
         mConn.close();
+        if (mFetcher != null)
+            mFetcher.cancel();
     }
 }
@@ -33,6 +33,7 @@ public abstract class UrlTileSource extends TileSource {
         protected String url;
         private HttpEngine.Factory engineFactory;
         private String apiKey;
+        private int fetchThreads;
 
         protected Builder() {
 
@@ -65,6 +66,11 @@ public abstract class UrlTileSource extends TileSource {
             return self();
         }
 
+        public T fetchThreads(int fetchThreads) {
+            this.fetchThreads = fetchThreads;
+            return self();
+        }
+
     }
 
     public final static TileUrlFormatter URL_FORMATTER = new DefaultTileUrlFormatter();
@@ -75,6 +81,7 @@ public abstract class UrlTileSource extends TileSource {
     private Map<String, String> mRequestHeaders = Collections.emptyMap();
     private TileUrlFormatter mTileUrlFormatter = URL_FORMATTER;
     private String mApiKey;
+    private int mFetchThreads;
 
     public interface TileUrlFormatter {
         String formatTilePath(UrlTileSource tileSource, Tile tile);
@@ -86,6 +93,7 @@ public abstract class UrlTileSource extends TileSource {
         mUrl = makeUrl(builder.url);
         mTilePath = builder.tilePath.split("\\{|\\}");
         mHttpFactory = builder.engineFactory;
+        mFetchThreads = builder.fetchThreads;
     }
 
     protected UrlTileSource(String urlString, String tilePath) {
@@ -145,6 +153,20 @@ public abstract class UrlTileSource extends TileSource {
         mHttpFactory = httpFactory;
     }
 
+    /**
+     * Load tiles on 'threads' separate threads per TileLoader, ahead of
+     * decoding, see {@link TileFetcher}. Then fewer TileLoaders, e.g. one
+     * per CPU, are enough to keep up with the network. Default is 0, i.e.
+     * TileLoaders load tiles themselves. Applies to new data sources.
+     */
+    public void setFetchThreads(int threads) {
+        mFetchThreads = threads;
+    }
+
+    public int getFetchThreads() {
+        return mFetchThreads;
+    }
+
     public void setHttpRequestHeaders(Map<String, String> options) {
         mRequestHeaders = options;
     }
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.tiling.source.mapfile;
+
+import org.oscim.core.Tag;
+import org.oscim.core.TagSet;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Decodes the blocks of a map file. Subclasses provide the block data and
+ * the primitive decoders, from a heap buffer in {@link ReadBuffer} or from
+ * a file mapping in {@link MappedReadBuffer}.
+ */
+public abstract class AbstractReadBuffer {
+    private static final Logger LOG = Logger.getLogger(AbstractReadBuffer.class.getName());
+
+    /**
+     * Maximum buffer size which is supported by this implementation.
+     */
+    static final int MAXIMUM_BUFFER_SIZE = 8000000;
+
+    static final int WAY_NUMBER_OF_TAGS_BITMASK = 0x0f;
+
+    /**
+     * Reads the given amount of bytes starting at the given file offset into
+     * the read buffer and resets the internal buffer position.
+     *
+     * @param offset the file offset of the first byte to read.
+     * @param length the amount of bytes to read from the file.
+     * @return true if the whole data was read successfully, false otherwise.
+     * @throws IOException if an error occurs while reading the file.
+     */
+    public abstract boolean readFromFile(long offset, int length) throws IOException;
+
+    /**
+     * Reads 'data.length' bytes starting at the given file offset into 'data'.
+     * The read buffer and its position are not changed.
+     *
+     * @param offset the file offset of the first byte to read.
+     * @param data   the array to fill.
+     * @return true if the whole data was read successfully, false otherwise.
+     * @throws IOException if an error occurs while reading the file.
+     */
+    abstract boolean readFully(long offset, byte[] data) throws IOException;
+
+    /**
+     * @return one signed byte from the read buffer.
+     */
+    public abstract byte readByte();
+
+    /**
+     * @return four bytes from the read buffer as big-endian signed int.
+     */
+    public abstract int readInt();
+
+    /**
+     * @return eight bytes from the read buffer as big-endian signed long.
+     */
+    public abstract long readLong();
+
+    /**
+     * @return two bytes from the read buffer as big-endian signed int.
+     */
+    public abstract int readShort();
+
+    /**
+     * @return a variable amount of bytes from the read buffer as signed int.
+     */
+    public abstract int readSignedInt();
+
+    /**
+     * Reads 'length' signed ints of variable length into 'values'.
+     */
+    public abstract void readSignedInt(int[] values, int length);
+
+    /**
+     * @return a variable amount of bytes from the read buffer as unsigned int.
+     */
+    public abstract int readUnsignedInt();
+
+    /**
+     * Decodes the given amount of bytes from the read buffer to a string.
+     *
+     * @param stringLength the length of the string in bytes.
+     * @return the UTF-8 decoded string (may be null).
+     */
+    public abstract String readUTF8EncodedString(int stringLength);
+
+    /**
+     * @return the current buffer position.
+     */
+    abstract int getBufferPosition();
+
+    /**
+     * @return the size of the current block.
+     */
+    abstract int getBufferSize();
+
+    /**
+     * Sets the buffer position to the given offset.
+     *
+     * @param bufferPosition the buffer position.
+     */
+    abstract void setBufferPosition(int bufferPosition);
+
+    /**
+     * Skips the given number of bytes in the read buffer.
+     *
+     * @param bytes the number of bytes to skip.
+     */
+    abstract void skipBytes(int bytes);
+
+    /**
+     * Skips the ways which do not match 'queryTileBitmask', sets
+     * {@link #lastTagPosition} and {@link #wayEndPosition}.
+     *
+     * @return the number of remaining ways, or -1 for an invalid way size.
+     */
+    abstract int skipWays(int queryTileBitmask, int elements);
+
+    /**
+     * Decodes a variable amount of bytes from the read buffer to a string.
+     *
+     * @return the UTF-8 decoded string (may be null).
+     */
+    public String readUTF8EncodedString() {
+        return readUTF8EncodedString(readUnsignedInt());
+    }
+
+    /**
+     * Skips a string.
+     *
+     * @return the buffer position of the string.
+     */
+    public int getPositionAndSkip() {
+        int pos = getBufferPosition();
+        int length = readUnsignedInt();
+        skipBytes(length);
+        return pos;
+    }
+
+    /**
+     * Decodes a variable amount of bytes from the read buffer to a string.
+     *
+     * @param position buffer offset position of string
+     * @return the UTF-8 decoded string (may be null).
+     */
+    public String readUTF8EncodedStringAt(int position) {
+        int curPosition = getBufferPosition();
+        setBufferPosition(position);
+        String result = readUTF8EncodedString(readUnsignedInt());
+        setBufferPosition(curPosition);
+        return result;
+    }
+
+    /**
+     * IDs of the tags added by the last call of readTags(), there are at most
+     * 15 tags per element.
+     */
+    final int[] tagIds = new int[16];
+
+    boolean readTags(TagSet tags, Tag[] wayTags, byte numberOfTags) {
+        tags.clear();
+
+        int maxTag = wayTags.length;
+
+        for (byte i = 0; i < numberOfTags; i++) {
+            int tagId = readUnsignedInt();
+            if (tagId < 0 || tagId >= maxTag) {
+                LOG.warning("invalid tag ID: " + tagId);
+                return true;
+            }
+            tagIds[tags.numTags] = tagId;
+            tags.add(wayTags[tagId]);
+        }
+        return true;
+    }
+
+    int lastTagPosition;
+
+    /**
+     * End position of the way found by the last call of skipWays().
+     */
+    int wayEndPosition;
+}
@@ -1,5 +1,6 @@
 /*
  * Copyright 2010, 2011, 2012 mapsforge.org
+ * Copyright 2016 devemux86
  *
  * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
  *
@@ -17,17 +18,20 @@
 package org.oscim.tiling.source.mapfile;
 
 import org.oscim.tiling.source.mapfile.header.SubFileParameter;
-import org.oscim.utils.LRUCache;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.Collections;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A cache for database index blocks with a fixed size and LRU policy.
+ * <p/>
+ * The cache is split into independently locked stripes. Index blocks are
+ * keyed by their file position, which is unique for every (sub-file, index
+ * block) pair. Locks are only held for lookups and insertion; missing blocks
+ * are read outside of any lock through the {@link AbstractReadBuffer} of the
+ * calling reader, so a miss never blocks hits of other threads and an
+ * interrupted reader cannot close the file for the others.
  */
 class IndexCache {
     /**
@@ -43,24 +47,87 @@ class IndexCache {
     private static final int SIZE_OF_INDEX_BLOCK = INDEX_ENTRIES_PER_BLOCK
             * SubFileParameter.BYTES_PER_INDEX_ENTRY;
 
-    private final Map<IndexCacheEntryKey, byte[]> map;
-    private final RandomAccessFile randomAccessFile;
+    /**
+     * Maximum number of stripes, must be a power of two.
+     */
+    private static final int MAX_STRIPES = 16;
+
+    /**
+     * Minimum number of entries per stripe, so that hash collisions
+     * of a few hot blocks do not evict each other.
+     */
+    private static final int MIN_STRIPE_CAPACITY = 8;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
 
     /**
-     * @param randomAccessFile the map file from which the index should be read and cached.
-     * @param capacity         the maximum number of entries in the cache.
+     * @param capacity the maximum number of entries in the cache.
      * @throws IllegalArgumentException if the capacity is negative.
      */
-    IndexCache(RandomAccessFile randomAccessFile, int capacity) {
-        this.randomAccessFile = randomAccessFile;
-        this.map = Collections.synchronizedMap(new LRUCache<IndexCacheEntryKey, byte[]>(capacity));
+    IndexCache(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+
+        /* power of two number of stripes, the remainder of the capacity
+         * is spread over the first stripes */
+        int numStripes = Integer.highestOneBit(
+                Math.max(1, Math.min(MAX_STRIPES, capacity / MIN_STRIPE_CAPACITY)));
+
+        this.stripes = new Stripe[numStripes];
+        this.stripeMask = numStripes - 1;
+        for (int i = 0; i < numStripes; i++) {
+            int stripeCapacity = capacity / numStripes + (i < capacity % numStripes ? 1 : 0);
+            this.stripes[i] = new Stripe(stripeCapacity);
+        }
+    }
+
+    /**
+     * @return the maximum number of entries in the cache.
+     */
+    int getCapacity() {
+        int capacity = 0;
+        for (Stripe stripe : this.stripes)
+            capacity += stripe.keys.length;
+        return capacity;
+    }
+
+    int getNumStripes() {
+        return this.stripes.length;
     }
 
     /**
      * Destroy the cache at the end of its lifetime.
      */
     void destroy() {
-        this.map.clear();
+        for (Stripe stripe : this.stripes)
+            stripe.clear();
+    }
+
+    /**
+     * @return the number of index block lookups served from the cache.
+     */
+    long getHits() {
+        long hits = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                hits += stripe.hits;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * @return the number of index block lookups which had to read the file.
+     */
+    long getMisses() {
+        long misses = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                misses += stripe.misses;
+            }
+        }
+        return misses;
     }
 
     /**
@@ -71,52 +138,143 @@ class IndexCache {
      * @param subFileParameter the parameters of the map file for which the index entry is
      *                         needed.
      * @param blockNumber      the number of the block in the map file.
+     * @param readBuffer       the buffer of the calling reader to read missing blocks.
      * @return the index entry or -1 if the block number is invalid.
      */
-    synchronized long getIndexEntry(SubFileParameter subFileParameter, long blockNumber) {
-        try {
-            // check if the block number is out of bounds
-            if (blockNumber >= subFileParameter.numberOfBlocks) {
-                return -1;
-            }
+    long getIndexEntry(SubFileParameter subFileParameter, long blockNumber,
+                       AbstractReadBuffer readBuffer) {
+        // check if the block number is out of bounds
+        if (blockNumber >= subFileParameter.numberOfBlocks) {
+            return -1;
+        }
+        return getIndexEntry(subFileParameter.indexStartAddress,
+                subFileParameter.indexEndAddress, blockNumber, readBuffer);
+    }
+
+    /**
+     * @param indexStartAddress the file position of the index.
+     * @param indexEndAddress   the file position after the index.
+     * @param blockNumber       the valid number of the block.
+     * @param readBuffer        the buffer of the calling reader to read missing blocks.
+     * @return the index entry or -1 if reading the index failed.
+     */
+    long getIndexEntry(long indexStartAddress, long indexEndAddress, long blockNumber,
+                       AbstractReadBuffer readBuffer) {
+        // calculate the index block number
+        long indexBlockNumber = blockNumber / INDEX_ENTRIES_PER_BLOCK;
 
-            // calculate the index block number
-            long indexBlockNumber = blockNumber / INDEX_ENTRIES_PER_BLOCK;
+        // the position of the index block in the file is the cache key
+        long indexBlockPosition = indexStartAddress + indexBlockNumber
+                * SIZE_OF_INDEX_BLOCK;
 
-            // create the cache entry key for this request
-            IndexCacheEntryKey indexCacheEntryKey = new IndexCacheEntryKey(subFileParameter,
-                    indexBlockNumber);
+        Stripe stripe = this.stripes[stripeIndex(indexBlockPosition)];
 
-            // check for cached index block
-            byte[] indexBlock = this.map.get(indexCacheEntryKey);
-            if (indexBlock == null) {
-                // cache miss, seek to the correct index block in the file and read it
-                long indexBlockPosition = subFileParameter.indexStartAddress + indexBlockNumber
-                        * SIZE_OF_INDEX_BLOCK;
+        // check for cached index block
+        byte[] indexBlock;
+        synchronized (stripe) {
+            indexBlock = stripe.get(indexBlockPosition);
+        }
 
-                int remainingIndexSize = (int) (subFileParameter.indexEndAddress - indexBlockPosition);
-                int indexBlockSize = Math.min(SIZE_OF_INDEX_BLOCK, remainingIndexSize);
-                indexBlock = new byte[indexBlockSize];
+        if (indexBlock == null) {
+            // cache miss, read the index block from the file
+            int remainingIndexSize = (int) (indexEndAddress - indexBlockPosition);
+            int indexBlockSize = Math.min(SIZE_OF_INDEX_BLOCK, remainingIndexSize);
+            indexBlock = new byte[indexBlockSize];
 
-                this.randomAccessFile.seek(indexBlockPosition);
-                if (this.randomAccessFile.read(indexBlock, 0, indexBlockSize) != indexBlockSize) {
+            try {
+                if (!readBuffer.readFully(indexBlockPosition, indexBlock)) {
                     LOG.warning("reading the current index block has failed");
                     return -1;
                 }
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, null, e);
+                return -1;
+            }
 
-                // put the index block in the map
-                this.map.put(indexCacheEntryKey, indexBlock);
+            // put the index block in the cache
+            synchronized (stripe) {
+                stripe.put(indexBlockPosition, indexBlock);
             }
+        }
 
-            // calculate the address of the index entry inside the index block
-            long indexEntryInBlock = blockNumber % INDEX_ENTRIES_PER_BLOCK;
-            int addressInIndexBlock = (int) (indexEntryInBlock * SubFileParameter.BYTES_PER_INDEX_ENTRY);
+        // calculate the address of the index entry inside the index block
+        long indexEntryInBlock = blockNumber % INDEX_ENTRIES_PER_BLOCK;
+        int addressInIndexBlock = (int) (indexEntryInBlock * SubFileParameter.BYTES_PER_INDEX_ENTRY);
 
-            // return the real index entry
-            return Deserializer.getFiveBytesLong(indexBlock, addressInIndexBlock);
-        } catch (IOException e) {
-            LOG.log(Level.SEVERE, null, e);
-            return -1;
+        // return the real index entry
+        return Deserializer.getFiveBytesLong(indexBlock, addressInIndexBlock);
+    }
+
+    private int stripeIndex(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & this.stripeMask;
+    }
+
+    /**
+     * A small LRU map from index block position to index block. Must only
+     * be accessed while holding its monitor.
+     */
+    private static final class Stripe {
+        final long[] keys;
+        final byte[][] blocks;
+        final long[] lastAccess;
+
+        int size;
+        long clock;
+        long hits;
+        long misses;
+
+        Stripe(int capacity) {
+            keys = new long[capacity];
+            blocks = new byte[capacity][];
+            lastAccess = new long[capacity];
+        }
+
+        byte[] get(long key) {
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == key) {
+                    lastAccess[i] = ++clock;
+                    hits++;
+                    return blocks[i];
+                }
+            }
+            misses++;
+            return null;
+        }
+
+        void put(long key, byte[] block) {
+            if (keys.length == 0)
+                return;
+
+            int slot = -1;
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == key) {
+                    /* another thread was faster */
+                    slot = i;
+                    break;
+                }
+            }
+            if (slot < 0) {
+                if (size < keys.length) {
+                    slot = size++;
+                } else {
+                    /* evict the least recently used entry */
+                    slot = 0;
+                    for (int i = 1; i < size; i++) {
+                        if (lastAccess[i] < lastAccess[slot])
+                            slot = i;
+                    }
+                }
+            }
+            keys[slot] = key;
+            blocks[slot] = block;
+            lastAccess[slot] = ++clock;
+        }
+
+        synchronized void clear() {
+            for (int i = 0; i < size; i++)
+                blocks[i] = null;
+            size = 0;
         }
     }
 }
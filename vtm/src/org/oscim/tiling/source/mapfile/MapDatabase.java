@@ -25,6 +25,7 @@ import org.oscim.core.MercatorProjection;
 import org.oscim.core.Tag;
 import org.oscim.core.Tile;
 import org.oscim.layers.tile.MapTile;
+import org.oscim.tiling.ITagFilter;
 import org.oscim.tiling.ITileDataSink;
 import org.oscim.tiling.ITileDataSource;
 import org.oscim.tiling.source.mapfile.header.SubFileParameter;
@@ -34,8 +35,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.Arrays;
 
 import static org.oscim.core.GeometryBuffer.GeometryType.LINE;
+import static org.oscim.core.GeometryBuffer.GeometryType.POINT;
 import static org.oscim.core.GeometryBuffer.GeometryType.POLY;
 import static org.oscim.tiling.QueryResult.FAILED;
 import static org.oscim.tiling.QueryResult.SUCCESS;
@@ -46,7 +49,7 @@ import static org.oscim.tiling.QueryResult.SUCCESS;
  * @see <a
  * href="http://code.google.com/p/mapsforge/wiki/SpecificationBinaryMapFile">Specification</a>
  */
-public class MapDatabase implements ITileDataSource {
+public class MapDatabase implements ITileDataSource, ITagFilter.Filterable {
     /**
      * Bitmask to extract the block offset from an index entry.
      */
@@ -181,7 +184,7 @@ public class MapDatabase implements ITileDataSource {
     private long mFileSize;
     private boolean mDebugFile;
     private RandomAccessFile mInputFile;
-    private ReadBuffer mReadBuffer;
+    private AbstractReadBuffer mReadBuffer;
     private String mSignatureBlock;
     private String mSignaturePoi;
     private String mSignatureWay;
@@ -198,14 +201,40 @@ public class MapDatabase implements ITileDataSource {
 
     private final MapFileTileSource mTileSource;
 
+    /**
+     * Tag IDs and features accepted by the tag filter at one zoom level.
+     */
+    static class TagFilterLevel {
+        /* accepted tag IDs, null when all are accepted */
+        boolean[] poiTags;
+        boolean[] wayTags;
+
+        /* features which get an element accepted */
+        int poiFeatures;
+        int wayFeatures;
+    }
+
+    private ITagFilter mTagFilter;
+    private final TagFilterLevel[] mTagFilterLevels = new TagFilterLevel[32];
+
+    /**
+     * Filter for the current query, null to read all elements.
+     */
+    private TagFilterLevel mFilter;
+
     public MapDatabase(MapFileTileSource tileSource) throws IOException {
         mTileSource = tileSource;
         try {
-            /* open the file in read only mode */
-            mInputFile = new RandomAccessFile(tileSource.mapFile, "r");
-            mFileSize = mInputFile.length();
-            mReadBuffer = new ReadBuffer(mInputFile);
-
+            if (tileSource.mappedFile != null) {
+                /* decode directly from the shared file mapping */
+                mFileSize = tileSource.mappedFile.size();
+                mReadBuffer = new MappedReadBuffer(tileSource.mappedFile);
+            } else {
+                /* open the file in read only mode */
+                mInputFile = new RandomAccessFile(tileSource.mapFile, "r");
+                mFileSize = mInputFile.length();
+                mReadBuffer = new ReadBuffer(mInputFile);
+            }
         } catch (IOException e) {
             log.error(e.getMessage());
             /* make sure that the file is closed */
@@ -221,6 +250,83 @@ public class MapDatabase implements ITileDataSource {
         return mTileSource;
     }
 
+    /**
+     * Skip POIs and ways without any tag accepted by 'filter' before their
+     * strings and geometry are decoded.
+     */
+    @Override
+    public void setTagFilter(ITagFilter filter) {
+        if (filter == mTagFilter)
+            return;
+
+        mTagFilter = filter;
+        Arrays.fill(mTagFilterLevels, null);
+    }
+
+    private TagFilterLevel getTagFilterLevel(int zoomLevel) {
+        if (mTagFilter == null || zoomLevel < 0 || zoomLevel >= mTagFilterLevels.length)
+            return null;
+
+        TagFilterLevel level = mTagFilterLevels[zoomLevel];
+        if (level == null) {
+            level = new TagFilterLevel();
+            level.poiTags = acceptedTags(mTileSource.fileInfo.poiTags, true, zoomLevel);
+            level.wayTags = acceptedTags(mTileSource.fileInfo.wayTags, false, zoomLevel);
+
+            if (accept(new Tag(Tag.KEY_NAME, null), true, zoomLevel))
+                level.poiFeatures |= POI_FEATURE_NAME;
+            if (accept(new Tag(Tag.KEY_HOUSE_NUMBER, null), true, zoomLevel))
+                level.poiFeatures |= POI_FEATURE_HOUSE_NUMBER;
+            if (accept(new Tag(Tag.KEY_ELE, null), true, zoomLevel))
+                level.poiFeatures |= POI_FEATURE_ELEVATION;
+
+            if (accept(new Tag(Tag.KEY_NAME, null), false, zoomLevel))
+                level.wayFeatures |= WAY_FEATURE_NAME;
+            if (accept(new Tag(Tag.KEY_HOUSE_NUMBER, null), false, zoomLevel))
+                level.wayFeatures |= WAY_FEATURE_HOUSE_NUMBER;
+            if (accept(new Tag(Tag.KEY_REF, null), false, zoomLevel))
+                level.wayFeatures |= WAY_FEATURE_REF;
+
+            mTagFilterLevels[zoomLevel] = level;
+        }
+        return level;
+    }
+
+    private boolean accept(Tag tag, boolean poi, int zoomLevel) {
+        if (poi)
+            return mTagFilter.accept(tag, POINT, zoomLevel);
+
+        /* whether a way is a line or polygon is only known after decoding */
+        return mTagFilter.accept(tag, LINE, zoomLevel)
+                || mTagFilter.accept(tag, POLY, zoomLevel);
+    }
+
+    /**
+     * @return the accepted tags by ID, or null when all are accepted.
+     */
+    private boolean[] acceptedTags(Tag[] tags, boolean poi, int zoomLevel) {
+        boolean[] accepted = new boolean[tags.length];
+        boolean all = true;
+        for (int i = 0; i < tags.length; i++) {
+            accepted[i] = accept(tags[i], poi, zoomLevel);
+            all &= accepted[i];
+        }
+        return all ? null : accepted;
+    }
+
+    /**
+     * @return true when one of the tags of the last readTags() call is
+     * accepted.
+     */
+    private boolean acceptTags(boolean[] accepted, int numTags) {
+        int[] tagIds = mReadBuffer.tagIds;
+        for (int i = 0; i < numTags; i++)
+            if (accepted[tagIds[i]])
+                return true;
+
+        return false;
+    }
+
     @Override
     public void query(MapTile tile, ITileDataSink sink) {
 
@@ -236,6 +342,8 @@ public class MapDatabase implements ITileDataSource {
             mTileProjection.setTile(tile);
             //mTile = tile;
 
+            mFilter = getTagFilterLevel(tile.zoomLevel);
+
             /* size of tile in map coordinates; */
             double size = 1.0 / (1 << tile.zoomLevel);
 
@@ -431,7 +539,7 @@ public class MapDatabase implements ITileDataSource {
 
                 /* get the current index entry */
                 long blockIndexEntry = mTileSource.databaseIndexCache.getIndexEntry(subFileParameter,
-                        blockNumber);
+                        blockNumber, mReadBuffer);
 
                 /* check the water flag of the block in its index entry */
                 if ((blockIndexEntry & BITMASK_INDEX_WATER) != 0) {
@@ -464,7 +572,7 @@ public class MapDatabase implements ITileDataSource {
                 } else {
                     /* get and check the next block pointer */
                     nextBlockPointer = mTileSource.databaseIndexCache.getIndexEntry(subFileParameter,
-                            blockNumber + 1);
+                            blockNumber + 1, mReadBuffer);
                     nextBlockPointer &= BITMASK_INDEX_OFFSET;
 
                     if (nextBlockPointer < 1 || nextBlockPointer > subFileParameter.subFileSize) {
@@ -483,7 +591,7 @@ public class MapDatabase implements ITileDataSource {
                 } else if (blockSize == 0) {
                     /* the current block is empty, continue with the next block */
                     continue;
-                } else if (blockSize > ReadBuffer.MAXIMUM_BUFFER_SIZE) {
+                } else if (blockSize > AbstractReadBuffer.MAXIMUM_BUFFER_SIZE) {
                     /* the current block is too large, continue with the next
                      * block */
                     log.warn("current block size too large: " + blockSize);
@@ -494,11 +602,9 @@ public class MapDatabase implements ITileDataSource {
                     return;
                 }
 
-                /* seek to the current block in the map file */
-                mInputFile.seek(subFileParameter.startAddress + blockPointer);
-
                 /* read the current block into the buffer */
-                if (!mReadBuffer.readFromFile(blockSize)) {
+                if (!mReadBuffer.readFromFile(subFileParameter.startAddress + blockPointer,
+                        blockSize)) {
                     /* skip the current block */
                     log.warn("reading current block has failed: " + blockSize);
                     return;
@@ -552,6 +658,9 @@ public class MapDatabase implements ITileDataSource {
 
         int numTags = 0;
 
+        boolean[] tagFilter = (mFilter == null) ? null : mFilter.poiTags;
+        boolean accepted = false;
+
         for (int elementCounter = numberOfPois; elementCounter != 0; --elementCounter) {
             if (mDebugFile) {
                 /* get and check the POI signature */
@@ -581,6 +690,9 @@ public class MapDatabase implements ITileDataSource {
                 if (!mReadBuffer.readTags(e.tags, poiTags, numberOfTags))
                     return false;
 
+                if (tagFilter != null)
+                    accepted = acceptTags(tagFilter, e.tags.numTags);
+
                 numTags = numberOfTags;
             }
 
@@ -590,6 +702,17 @@ public class MapDatabase implements ITileDataSource {
             /* get the feature bitmask (1 byte) */
             byte featureByte = mReadBuffer.readByte();
 
+            if (tagFilter != null && !accepted && (featureByte & mFilter.poiFeatures) == 0) {
+                /* skip the optional features of a POI that is not rendered */
+                if ((featureByte & POI_FEATURE_NAME) != 0)
+                    mReadBuffer.getPositionAndSkip();
+                if ((featureByte & POI_FEATURE_HOUSE_NUMBER) != 0)
+                    mReadBuffer.getPositionAndSkip();
+                if ((featureByte & POI_FEATURE_ELEVATION) != 0)
+                    mReadBuffer.readSignedInt();
+                continue;
+            }
+
             /* bit 1-3 enable optional features
              * check if the POI has a name */
             if ((featureByte & POI_FEATURE_NAME) != 0) {
@@ -609,6 +732,7 @@ public class MapDatabase implements ITileDataSource {
                 e.tags.add(new Tag(Tag.KEY_ELE, str, false));
             }
             mTileProjection.projectPoint(latitude, longitude, e);
+            e.labelPosition = null;
 
             e.setLayer(layer);
 
@@ -727,6 +851,9 @@ public class MapDatabase implements ITileDataSource {
 
         int numTags = 0;
 
+        boolean[] tagFilter = (mFilter == null) ? null : mFilter.wayTags;
+        boolean accepted = false;
+
         int wayDataBlocks;
 
         // skip string block
@@ -752,6 +879,9 @@ public class MapDatabase implements ITileDataSource {
                 }
             }
 
+            /* position of the next way */
+            int wayEnd;
+
             if (queryParameters.useTileBitmask) {
                 elementCounter = mReadBuffer.skipWays(queryParameters.queryTileBitmask,
                         elementCounter);
@@ -762,6 +892,8 @@ public class MapDatabase implements ITileDataSource {
                 if (elementCounter < 0)
                     return false;
 
+                wayEnd = mReadBuffer.wayEndPosition;
+
                 if (mTileSource.experimental && mReadBuffer.lastTagPosition > 0) {
                     int pos = mReadBuffer.getBufferPosition();
                     mReadBuffer.setBufferPosition(mReadBuffer.lastTagPosition);
@@ -771,6 +903,9 @@ public class MapDatabase implements ITileDataSource {
                     if (!mReadBuffer.readTags(e.tags, wayTags, numberOfTags))
                         return false;
 
+                    if (tagFilter != null)
+                        accepted = acceptTags(tagFilter, e.tags.numTags);
+
                     numTags = numberOfTags;
 
                     mReadBuffer.setBufferPosition(pos);
@@ -785,6 +920,7 @@ public class MapDatabase implements ITileDataSource {
                     log.error("BUG way 2");
                     return false;
                 }
+                wayEnd = mReadBuffer.getBufferPosition() + wayDataSize;
 
                 /* ignore the way tile bitmask (2 bytes) */
                 mReadBuffer.skipBytes(2);
@@ -803,12 +939,21 @@ public class MapDatabase implements ITileDataSource {
                 if (!mReadBuffer.readTags(e.tags, wayTags, numberOfTags))
                     return false;
 
+                if (tagFilter != null)
+                    accepted = acceptTags(tagFilter, e.tags.numTags);
+
                 numTags = numberOfTags;
             }
 
             /* get the feature bitmask (1 byte) */
             byte featureByte = mReadBuffer.readByte();
 
+            if (tagFilter != null && !accepted && (featureByte & mFilter.wayFeatures) == 0) {
+                /* skip a way that is not rendered */
+                mReadBuffer.setBufferPosition(wayEnd);
+                continue;
+            }
+
             /* bit 1-6 enable optional features */
             boolean featureWayDoubleDeltaEncoding =
                     (featureByte & WAY_FEATURE_DOUBLE_DELTA_ENCODING) != 0;
@@ -883,6 +1028,8 @@ public class MapDatabase implements ITileDataSource {
 
                 if (labelPosition != null && wayDataBlock == 0)
                     e.setLabelPosition(e.points[0] + labelPosition[0], e.points[1] + labelPosition[1]);
+                else
+                    e.labelPosition = null;
                 mTileProjection.project(e);
 
                 if (!e.tags.containsKey("building"))
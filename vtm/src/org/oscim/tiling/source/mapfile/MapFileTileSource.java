@@ -34,9 +34,9 @@ public class MapFileTileSource extends TileSource implements IMapFileTileSource
     private static final Logger log = LoggerFactory.getLogger(MapFileTileSource.class);
 
     /**
-     * Amount of cache blocks that the index cache should store.
+     * Default amount of cache blocks that the index cache should store.
      */
-    private static final int INDEX_CACHE_SIZE = 64;
+    public static final int INDEX_CACHE_SIZE = 64;
     private static final String READ_ONLY_MODE = "r";
 
     MapFileHeader fileHeader;
@@ -44,7 +44,10 @@ public class MapFileTileSource extends TileSource implements IMapFileTileSource
     IndexCache databaseIndexCache;
     boolean experimental;
     File mapFile;
+    MappedFile mappedFile;
     private RandomAccessFile mInputFile;
+    private boolean mMemoryMapped;
+    private int mIndexCacheSize = INDEX_CACHE_SIZE;
 
     /**
      * The preferred language when extracting labels from this tile source.
@@ -91,6 +94,43 @@ public class MapFileTileSource extends TileSource implements IMapFileTileSource
         return true;
     }
 
+    /**
+     * Memory-map the map file once and let all data sources decode blocks
+     * directly from the shared mapping instead of reading them through their
+     * own file handle. Must be set before {@link #open()}.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        mMemoryMapped = memoryMapped;
+    }
+
+    public boolean isMemoryMapped() {
+        return mMemoryMapped;
+    }
+
+    /**
+     * Set the amount of index blocks that are cached. One index block holds
+     * the entries of 128 map blocks. Must be set before {@link #open()}.
+     */
+    public void setIndexCacheSize(int indexCacheSize) {
+        mIndexCacheSize = indexCacheSize;
+    }
+
+    /**
+     * @return the number of index block lookups served from the index cache.
+     */
+    public long getIndexCacheHits() {
+        IndexCache indexCache = databaseIndexCache;
+        return indexCache == null ? 0 : indexCache.getHits();
+    }
+
+    /**
+     * @return the number of index block lookups which missed the index cache.
+     */
+    public long getIndexCacheMisses() {
+        IndexCache indexCache = databaseIndexCache;
+        return indexCache == null ? 0 : indexCache.getMisses();
+    }
+
     @Override
     public void setPreferredLanguage(String preferredLanguage) {
         this.preferredLanguage = preferredLanguage;
@@ -130,7 +170,10 @@ public class MapFileTileSource extends TileSource implements IMapFileTileSource
             }
             fileInfo = fileHeader.getMapFileInfo();
             mapFile = file;
-            databaseIndexCache = new IndexCache(mInputFile, INDEX_CACHE_SIZE);
+            databaseIndexCache = new IndexCache(mIndexCacheSize);
+
+            if (mMemoryMapped)
+                mappedFile = new MappedFile(mInputFile.getChannel());
 
             // Experimental?
             //experimental = fileInfo.fileVersion == 4;
@@ -162,6 +205,7 @@ public class MapFileTileSource extends TileSource implements IMapFileTileSource
         fileHeader = null;
         fileInfo = null;
         mapFile = null;
+        mappedFile = null;
 
         if (databaseIndexCache != null) {
             databaseIndexCache.destroy();
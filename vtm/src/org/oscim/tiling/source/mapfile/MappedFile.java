@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.tiling.source.mapfile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only memory mapping of a whole map file, shared by all
+ * {@link MapDatabase} instances of one {@link MapFileTileSource}.
+ * <p/>
+ * A single {@link java.nio.MappedByteBuffer} is limited to 2 GB, so the file
+ * is mapped in chunks. Consecutive chunks overlap by
+ * {@link AbstractReadBuffer#MAXIMUM_BUFFER_SIZE} bytes which guarantees that every
+ * valid block lies completely inside the chunk of its start address.
+ */
+class MappedFile {
+    /**
+     * Distance between the start addresses of two chunks.
+     */
+    static final int CHUNK_SIZE = 1 << 30;
+
+    private final ByteBuffer[] mChunks;
+    private final long mSize;
+    private final int mChunkSize;
+
+    MappedFile(FileChannel channel) throws IOException {
+        this(channel, CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize distance between the start addresses of two chunks,
+     *                  smaller than {@link #CHUNK_SIZE} only for testing.
+     */
+    MappedFile(FileChannel channel, int chunkSize) throws IOException {
+        mSize = channel.size();
+        mChunkSize = chunkSize;
+
+        int numChunks = (int) ((mSize + chunkSize - 1) / chunkSize);
+        mChunks = new ByteBuffer[Math.max(numChunks, 1)];
+
+        for (int i = 0; i < mChunks.length; i++) {
+            long position = (long) i * chunkSize;
+            long length = Math.min(mSize - position,
+                    (long) chunkSize + AbstractReadBuffer.MAXIMUM_BUFFER_SIZE);
+            mChunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        }
+    }
+
+    /**
+     * @return the size of the mapped file in bytes.
+     */
+    long size() {
+        return mSize;
+    }
+
+    /**
+     * Returns new buffers sharing the content of the mapped chunks. Absolute
+     * reads on these are independent of other readers of the mapping.
+     */
+    ByteBuffer[] duplicateChunks() {
+        ByteBuffer[] chunks = new ByteBuffer[mChunks.length];
+        for (int i = 0; i < chunks.length; i++)
+            chunks[i] = mChunks[i].duplicate();
+        return chunks;
+    }
+
+    int chunkIndex(long address) {
+        return (int) (address / mChunkSize);
+    }
+
+    int chunkOffset(long address) {
+        return (int) (address % mChunkSize);
+    }
+}
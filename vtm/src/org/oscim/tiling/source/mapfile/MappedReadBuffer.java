@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016 devemux86
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.tiling.source.mapfile;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.logging.Logger;
+
+/**
+ * Decodes blocks directly from a {@link MappedFile} without copying them
+ * to the heap first.
+ */
+class MappedReadBuffer extends AbstractReadBuffer {
+    private static final String CHARSET_UTF8 = "UTF-8";
+    private static final Logger LOG = Logger.getLogger(MappedReadBuffer.class.getName());
+
+    private final MappedFile mMappedFile;
+    private final ByteBuffer[] mChunks;
+    private final long mFileSize;
+
+    /**
+     * The chunk containing the current block.
+     */
+    private ByteBuffer mData;
+
+    /**
+     * Offset of the current block within its chunk.
+     */
+    private int mBase;
+    private int mLength;
+    private int mPosition;
+
+    /**
+     * Scratch buffer for string decoding.
+     */
+    private byte[] mStringBuffer = new byte[64];
+
+    MappedReadBuffer(MappedFile mappedFile) {
+        mMappedFile = mappedFile;
+        mChunks = mappedFile.duplicateChunks();
+        mFileSize = mappedFile.size();
+    }
+
+    @Override
+    public boolean readFromFile(long offset, int length) {
+        if (length > MAXIMUM_BUFFER_SIZE) {
+            LOG.warning("invalid read length: " + length);
+            return false;
+        }
+        if (offset < 0 || offset + length > mFileSize)
+            return false;
+
+        mData = mChunks[mMappedFile.chunkIndex(offset)];
+        mBase = mMappedFile.chunkOffset(offset);
+        mLength = length;
+        mPosition = 0;
+        return true;
+    }
+
+    @Override
+    boolean readFully(long offset, byte[] data) {
+        if (offset < 0 || offset + data.length > mFileSize)
+            return false;
+
+        ByteBuffer chunk = mChunks[mMappedFile.chunkIndex(offset)];
+        int base = mMappedFile.chunkOffset(offset);
+        for (int i = 0; i < data.length; i++)
+            data[i] = chunk.get(base + i);
+        return true;
+    }
+
+    @Override
+    public byte readByte() {
+        return mData.get(mBase + mPosition++);
+    }
+
+    @Override
+    public int readInt() {
+        int pos = mBase + mPosition;
+        mPosition += 4;
+        return mData.getInt(pos);
+    }
+
+    @Override
+    public long readLong() {
+        int pos = mBase + mPosition;
+        mPosition += 8;
+        return mData.getLong(pos);
+    }
+
+    @Override
+    public int readShort() {
+        int pos = mBase + mPosition;
+        mPosition += 2;
+        return mData.getShort(pos);
+    }
+
+    @Override
+    public int readSignedInt() {
+        ByteBuffer data = mData;
+        int pos = mBase + mPosition;
+        int value = 0;
+        int shift = 0;
+        byte b;
+
+        while (((b = data.get(pos++)) & 0x80) != 0) {
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        }
+        /* the last byte carries six data bits and the sign */
+        int flag = ((b & 0x40) >> 6);
+        value |= (b & 0x3f) << shift;
+
+        mPosition = pos - mBase;
+        return (value ^ -flag) + flag;
+    }
+
+    @Override
+    public void readSignedInt(int[] values, int length) {
+        ByteBuffer data = mData;
+        int pos = mBase + mPosition;
+
+        for (int i = 0; i < length; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+
+            while (((b = data.get(pos++)) & 0x80) != 0) {
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            }
+            int flag = ((b & 0x40) >> 6);
+            value |= (b & 0x3f) << shift;
+
+            values[i] = (value ^ -flag) + flag;
+        }
+        mPosition = pos - mBase;
+    }
+
+    @Override
+    public int readUnsignedInt() {
+        ByteBuffer data = mData;
+        int pos = mBase + mPosition;
+        int value = 0;
+        int shift = 0;
+        byte b;
+
+        while (((b = data.get(pos++)) & 0x80) != 0) {
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        }
+        value |= (b & 0x7f) << shift;
+
+        mPosition = pos - mBase;
+        return value;
+    }
+
+    @Override
+    public String readUTF8EncodedString(int stringLength) {
+        if (stringLength > 0 && mPosition + stringLength <= mLength) {
+            if (mStringBuffer.length < stringLength)
+                mStringBuffer = new byte[stringLength];
+
+            int pos = mBase + mPosition;
+            mPosition += stringLength;
+
+            ByteBuffer data = mData;
+            byte[] buf = mStringBuffer;
+            for (int i = 0; i < stringLength; i++)
+                buf[i] = data.get(pos + i);
+
+            try {
+                return new String(buf, 0, stringLength, CHARSET_UTF8);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        LOG.warning("invalid string length: " + stringLength);
+        return null;
+    }
+
+    @Override
+    int getBufferPosition() {
+        return mPosition;
+    }
+
+    @Override
+    int getBufferSize() {
+        return mLength;
+    }
+
+    @Override
+    void setBufferPosition(int bufferPosition) {
+        mPosition = bufferPosition;
+    }
+
+    @Override
+    void skipBytes(int bytes) {
+        mPosition += bytes;
+    }
+
+    @Override
+    int skipWays(int queryTileBitmask, int elements) {
+        ByteBuffer data = mData;
+        int base = mBase;
+        int cnt = elements;
+        int skip;
+
+        lastTagPosition = -1;
+
+        while (cnt > 0) {
+            /* read way size (unsigned int) */
+            skip = readUnsignedInt();
+
+            /* invalid way size */
+            if (skip < 0)
+                return -1;
+
+            int pos = base + mPosition;
+
+            /* check if way matches queryTileBitmask */
+            if ((((data.get(pos) << 8) | (data.get(pos + 1) & 0xff)) & queryTileBitmask) == 0) {
+
+                /* remember last tags position */
+                if ((data.get(pos + 2) & WAY_NUMBER_OF_TAGS_BITMASK) != 0)
+                    lastTagPosition = mPosition + 2;
+
+                mPosition += skip;
+                cnt--;
+            } else {
+                wayEndPosition = mPosition + skip;
+                mPosition += 2;
+                break;
+            }
+        }
+        return cnt;
+    }
+}
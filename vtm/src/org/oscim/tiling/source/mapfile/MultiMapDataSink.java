@@ -42,8 +42,12 @@ class MultiMapDataSink implements ITileDataSink {
         tileDataSink.setTileImage(bitmap);
     }
 
+    /**
+     * The result is SUCCESS when any of the map databases succeeded.
+     */
     @Override
     public void completed(QueryResult result) {
-        this.result = result;
+        if (this.result != QueryResult.SUCCESS)
+            this.result = result;
     }
 }
@@ -14,18 +14,69 @@
  */
 package org.oscim.tiling.source.mapfile;
 
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.core.BoundingBox;
+import org.oscim.core.Box;
+import org.oscim.core.MapElement;
+import org.oscim.core.MercatorProjection;
 import org.oscim.layers.tile.MapTile;
+import org.oscim.tiling.ITagFilter;
 import org.oscim.tiling.ITileDataSink;
 import org.oscim.tiling.ITileDataSource;
+import org.oscim.tiling.QueryResult;
+import org.oscim.utils.RTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class MultiMapDatabase implements ITileDataSource {
+/**
+ * Queries the map databases whose bounding box overlaps a tile. When several
+ * overlap they are queried in parallel, see
+ * {@link MultiMapFileTileSource#setQueryThreads(int)}, and their elements are
+ * passed on in the order in which the databases were added.
+ */
+public class MultiMapDatabase implements ITileDataSource, ITagFilter.Filterable {
+
+    private static final Logger log = LoggerFactory.getLogger(MultiMapDatabase.class);
+
+    static final class Entry {
+        final int order;
+        final MapDatabase mapDatabase;
+
+        Entry(int order, MapDatabase mapDatabase) {
+            this.order = order;
+            this.mapDatabase = mapDatabase;
+        }
+    }
+
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return e1.order - e2.order;
+        }
+    };
 
     private final List<MapDatabase> mapDatabases = new ArrayList<>();
     private final MultiMapFileTileSource tileSource;
 
+    /**
+     * Map databases by bounding box, in mercator coordinates.
+     */
+    private final RTree<Entry> index = new RTree<>();
+
+    private final Box tileBox = new Box();
+    private final List<Entry> overlapping = new ArrayList<>();
+    private final List<ElementBuffer> buffers = new ArrayList<>();
+    private final List<Query> queries = new ArrayList<>();
+
     public MultiMapDatabase(MultiMapFileTileSource tileSource) {
         this.tileSource = tileSource;
     }
@@ -34,20 +85,124 @@ public class MultiMapDatabase implements ITileDataSource {
         if (mapDatabases.contains(mapDatabase)) {
             throw new IllegalArgumentException("Duplicate map database");
         }
+        index.insert(getBox(mapDatabase), new Entry(mapDatabases.size(), mapDatabase));
         return mapDatabases.add(mapDatabase);
     }
 
+    private static Box getBox(MapDatabase mapDatabase) {
+        MapInfo mapInfo = mapDatabase.getTileSource().getMapInfo();
+        if (mapInfo == null || mapInfo.boundingBox == null)
+            return new Box(0, 0, 1, 1);
+
+        BoundingBox bbox = mapInfo.boundingBox;
+        return new Box(MercatorProjection.longitudeToX(bbox.getMinLongitude()),
+                MercatorProjection.latitudeToY(bbox.getMaxLatitude()),
+                MercatorProjection.longitudeToX(bbox.getMaxLongitude()),
+                MercatorProjection.latitudeToY(bbox.getMinLatitude()));
+    }
+
     @Override
-    public void query(MapTile tile, ITileDataSink mapDataSink) {
-        MultiMapDataSink multiMapDataSink = new MultiMapDataSink(mapDataSink);
+    public void setTagFilter(ITagFilter filter) {
         for (MapDatabase mapDatabase : mapDatabases) {
-            int[] zoomLevels = tileSource.getZoomsByTileSource().get(mapDatabase.getTileSource());
-            if (zoomLevels == null || (zoomLevels[0] <= tile.zoomLevel && tile.zoomLevel <= zoomLevels[1]))
-                mapDatabase.query(tile, multiMapDataSink);
+            mapDatabase.setTagFilter(filter);
         }
+    }
+
+    @Override
+    public void query(final MapTile tile, ITileDataSink mapDataSink) {
+        List<Entry> entries = getOverlapping(tile);
+        if (entries.isEmpty()) {
+            mapDataSink.completed(QueryResult.SUCCESS);
+            return;
+        }
+
+        MultiMapDataSink multiMapDataSink = new MultiMapDataSink(mapDataSink);
+
+        ExecutorService executor = (entries.size() > 1) ? tileSource.getExecutor() : null;
+        if (executor == null) {
+            for (Entry entry : entries)
+                entry.mapDatabase.query(tile, multiMapDataSink);
+
+            mapDataSink.completed(multiMapDataSink.getResult());
+            return;
+        }
+
+        /* query the others into buffers while the first one is passed on */
+        queries.clear();
+        for (int i = 1; i < entries.size(); i++) {
+            Query query = new Query(entries.get(i).mapDatabase, tile, getBuffer(i - 1));
+            try {
+                executor.execute(query);
+            } catch (RejectedExecutionException e) {
+                /* the executor was shut down */
+                query.run();
+            }
+            queries.add(query);
+        }
+
+        entries.get(0).mapDatabase.query(tile, multiMapDataSink);
+
+        for (int i = 0; i < queries.size(); i++) {
+            Query query = queries.get(i);
+            try {
+                query.await();
+            } catch (InterruptedException e) {
+                /* map databases and buffers must not be used again
+                 * while a query is still running */
+                for (int j = i; j < queries.size(); j++)
+                    queries.get(j).cancel();
+                for (int j = i; j < queries.size(); j++) {
+                    queries.get(j).awaitUninterruptibly();
+                    buffers.get(j).clear();
+                }
+                Thread.currentThread().interrupt();
+                multiMapDataSink.completed(QueryResult.FAILED);
+                break;
+            }
+            if (query.error != null) {
+                log.error(tile + " " + query.error);
+                multiMapDataSink.completed(QueryResult.FAILED);
+            } else {
+                query.buffer.replay(multiMapDataSink);
+            }
+            query.buffer.clear();
+        }
+        queries.clear();
+
         mapDataSink.completed(multiMapDataSink.getResult());
     }
 
+    /**
+     * @return the map databases which overlap 'tile' and include its zoom
+     * level, in order of adding.
+     */
+    private List<Entry> getOverlapping(MapTile tile) {
+        double size = 1.0 / (1 << tile.zoomLevel);
+        tileBox.xmin = tile.x;
+        tileBox.ymin = tile.y;
+        tileBox.xmax = tile.x + size;
+        tileBox.ymax = tile.y + size;
+
+        overlapping.clear();
+        index.search(tileBox, overlapping);
+
+        for (int i = overlapping.size() - 1; i >= 0; i--) {
+            MapDatabase mapDatabase = overlapping.get(i).mapDatabase;
+            int[] zoomLevels = tileSource.getZoomsByTileSource().get(mapDatabase.getTileSource());
+            if (zoomLevels != null && (zoomLevels[0] > tile.zoomLevel || tile.zoomLevel > zoomLevels[1]))
+                overlapping.remove(i);
+        }
+        Collections.sort(overlapping, ORDER);
+
+        return overlapping;
+    }
+
+    private ElementBuffer getBuffer(int i) {
+        while (buffers.size() <= i)
+            buffers.add(new ElementBuffer());
+        return buffers.get(i);
+    }
+
     @Override
     public void dispose() {
         for (MapDatabase mapDatabase : mapDatabases) {
@@ -61,4 +216,141 @@ public class MultiMapDatabase implements ITileDataSource {
             mapDatabase.cancel();
         }
     }
+
+    /**
+     * Queries one map database into a buffer on another thread.
+     */
+    static final class Query implements Runnable {
+        private static final int PENDING = 0;
+        private static final int RUNNING = 1;
+        private static final int CANCELED = 2;
+
+        final MapDatabase mapDatabase;
+        final MapTile tile;
+        final ElementBuffer buffer;
+
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private final CountDownLatch done = new CountDownLatch(1);
+        volatile RuntimeException error;
+
+        Query(MapDatabase mapDatabase, MapTile tile, ElementBuffer buffer) {
+            this.mapDatabase = mapDatabase;
+            this.tile = tile;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void run() {
+            if (!state.compareAndSet(PENDING, RUNNING))
+                return;
+            try {
+                mapDatabase.query(tile, buffer);
+            } catch (RuntimeException e) {
+                error = e;
+            } finally {
+                done.countDown();
+            }
+        }
+
+        /**
+         * Waits until the query completed.
+         */
+        void await() throws InterruptedException {
+            done.await();
+        }
+
+        /**
+         * Prevents the query from starting, when it is not running yet.
+         */
+        void cancel() {
+            if (state.compareAndSet(PENDING, CANCELED))
+                done.countDown();
+        }
+
+        /**
+         * Waits until the query completed or was canceled, keeping the
+         * interrupt status.
+         */
+        void awaitUninterruptibly() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Keeps copies of the elements of a query on another thread, to be
+     * passed on in order.
+     */
+    static final class ElementBuffer implements ITileDataSink {
+        private final List<MapElement> elements = new ArrayList<>();
+        private int size;
+        private QueryResult result;
+
+        @Override
+        public void process(MapElement element) {
+            MapElement copy;
+            if (size < elements.size()) {
+                copy = elements.get(size);
+            } else {
+                copy = new MapElement(element.pointPos >> 1, 4);
+                elements.add(copy);
+            }
+            size++;
+
+            copy.clear();
+            copy.type = element.type;
+            copy.layer = element.layer;
+            copy.labelPosition = element.labelPosition;
+
+            float[] points = copy.ensurePointSize(element.pointPos >> 1, false);
+            System.arraycopy(element.points, 0, points, 0, element.pointPos);
+            copy.pointPos = element.pointPos;
+
+            /* copy the index up to its end marker */
+            int[] src = element.index;
+            int n = 0;
+            while (n < src.length && src[n] >= 0)
+                n++;
+            int[] dst = copy.ensureIndexSize(n + 1, false);
+            System.arraycopy(src, 0, dst, 0, n);
+            dst[n] = -1;
+            copy.indexPos = element.indexPos;
+
+            copy.tags.clear();
+            for (int i = 0; i < element.tags.numTags; i++)
+                copy.tags.add(element.tags.tags[i]);
+        }
+
+        @Override
+        public void setTileImage(Bitmap bitmap) {
+        }
+
+        @Override
+        public void completed(QueryResult result) {
+            this.result = result;
+        }
+
+        void replay(ITileDataSink sink) {
+            for (int i = 0; i < size; i++)
+                sink.process(elements.get(i));
+
+            sink.completed(result);
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++)
+                elements.get(i).tags.clear();
+            size = 0;
+            result = null;
+        }
+    }
 }
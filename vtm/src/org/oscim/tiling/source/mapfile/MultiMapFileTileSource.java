@@ -25,6 +25,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class MultiMapFileTileSource extends TileSource implements IMapFileTileSource {
 
@@ -33,6 +36,9 @@ public class MultiMapFileTileSource extends TileSource implements IMapFileTileSo
     private final List<MapFileTileSource> mapFileTileSources = new ArrayList<>();
     private final Map<MapFileTileSource, int[]> zoomsByTileSource = new HashMap<>();
 
+    private int queryThreads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService executor;
+
     public MultiMapFileTileSource() {
         this(0, 17);
     }
@@ -67,6 +73,50 @@ public class MultiMapFileTileSource extends TileSource implements IMapFileTileSo
         return zoomsByTileSource;
     }
 
+    /**
+     * Set the number of threads which query map files that overlap the same
+     * tile in parallel, shared by all tile loaders. Default is the number of
+     * processors, 1 queries the map files one after another.
+     */
+    public synchronized void setQueryThreads(int threads) {
+        queryThreads = threads;
+        shutdownExecutor();
+    }
+
+    public synchronized int getQueryThreads() {
+        return queryThreads;
+    }
+
+    /**
+     * @return the executor for parallel queries, or null when map files are
+     * queried one after another.
+     */
+    synchronized ExecutorService getExecutor() {
+        if (queryThreads <= 1)
+            return null;
+
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(queryThreads, new ThreadFactory() {
+                private int id;
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "MultiMapQuery" + (id++));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private void shutdownExecutor() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
     @Override
     public ITileDataSource getDataSource() {
         MultiMapDatabase multiMapDatabase = new MultiMapDatabase(this);
@@ -96,6 +146,9 @@ public class MultiMapFileTileSource extends TileSource implements IMapFileTileSo
         for (MapFileTileSource mapFileTileSource : mapFileTileSources) {
             mapFileTileSource.close();
         }
+        synchronized (this) {
+            shutdownExecutor();
+        }
     }
 
     @Override
@@ -16,9 +16,7 @@
  */
 package org.oscim.tiling.source.mapfile;
 
-import org.oscim.core.Tag;
-import org.oscim.core.TagSet;
-
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
@@ -27,15 +25,10 @@ import java.util.logging.Logger;
 /**
  * Reads from a {@link RandomAccessFile} into a buffer and decodes the data.
  */
-public class ReadBuffer {
+public class ReadBuffer extends AbstractReadBuffer {
     private static final String CHARSET_UTF8 = "UTF-8";
     private static final Logger LOG = Logger.getLogger(ReadBuffer.class.getName());
 
-    /**
-     * Maximum buffer size which is supported by this implementation.
-     */
-    static final int MAXIMUM_BUFFER_SIZE = 8000000;
-
     private byte[] mBufferData;
     private int mBufferPosition;
     private final RandomAccessFile mInputFile;
@@ -81,6 +74,31 @@ public class ReadBuffer {
         return mInputFile.read(mBufferData, 0, length) == length;
     }
 
+    /**
+     * Reads the given amount of bytes starting at the given file offset into
+     * the read buffer and resets the internal buffer position.
+     *
+     * @param offset the file offset of the first byte to read.
+     * @param length the amount of bytes to read from the file.
+     * @return true if the whole data was read successfully, false otherwise.
+     * @throws IOException if an error occurs while reading the file.
+     */
+    public boolean readFromFile(long offset, int length) throws IOException {
+        mInputFile.seek(offset);
+        return readFromFile(length);
+    }
+
+    @Override
+    boolean readFully(long offset, byte[] data) throws IOException {
+        mInputFile.seek(offset);
+        try {
+            mInputFile.readFully(data);
+        } catch (EOFException e) {
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Converts four bytes from the read buffer to a signed int.
      * <p/>
@@ -310,25 +328,6 @@ public class ReadBuffer {
                 | ((data[pos + 4] & 0x7f) << 28);
     }
 
-    /**
-     * Decodes a variable amount of bytes from the read buffer to a string.
-     *
-     * @return the UTF-8 decoded string (may be null).
-     */
-    public String readUTF8EncodedString() {
-        return readUTF8EncodedString(readUnsignedInt());
-    }
-
-    /**
-     * @return ...
-     */
-    public int getPositionAndSkip() {
-        int pos = mBufferPosition;
-        int length = readUnsignedInt();
-        skipBytes(length);
-        return pos;
-    }
-
     /**
      * Decodes the given amount of bytes from the read buffer to a string.
      *
@@ -349,20 +348,6 @@ public class ReadBuffer {
         return null;
     }
 
-    /**
-     * Decodes a variable amount of bytes from the read buffer to a string.
-     *
-     * @param position buffer offset position of string
-     * @return the UTF-8 decoded string (may be null).
-     */
-    public String readUTF8EncodedStringAt(int position) {
-        int curPosition = mBufferPosition;
-        mBufferPosition = position;
-        String result = readUTF8EncodedString(readUnsignedInt());
-        mBufferPosition = curPosition;
-        return result;
-    }
-
     /**
      * @return the current buffer position.
      */
@@ -395,25 +380,6 @@ public class ReadBuffer {
         mBufferPosition += bytes;
     }
 
-    boolean readTags(TagSet tags, Tag[] wayTags, byte numberOfTags) {
-        tags.clear();
-
-        int maxTag = wayTags.length;
-
-        for (byte i = 0; i < numberOfTags; i++) {
-            int tagId = readUnsignedInt();
-            if (tagId < 0 || tagId >= maxTag) {
-                LOG.warning("invalid tag ID: " + tagId);
-                return true;
-            }
-            tags.add(wayTags[tagId]);
-        }
-        return true;
-    }
-
-    private static final int WAY_NUMBER_OF_TAGS_BITMASK = 0x0f;
-    int lastTagPosition;
-
     int skipWays(int queryTileBitmask, int elements) {
         int pos = mBufferPosition;
         byte[] data = mBufferData;
@@ -466,6 +432,7 @@ public class ReadBuffer {
                 pos += skip;
                 cnt--;
             } else {
+                wayEndPosition = pos + skip;
                 pos += 2;
                 break;
             }
@@ -71,15 +71,35 @@ public class TileDecoder extends PbfDecoder {
     private final static float REF_TILE_SIZE = 4096.0f;
     private float mScale;
 
+    /**
+     * positions of layer values which are decoded when used,
+     * see {@link #getValue(ArrayList, int)}
+     */
+    private int[] mValuePos = new int[64];
+
     @Override
     public boolean decode(Tile tile, ITileDataSink mapDataCallback, InputStream is)
             throws IOException {
 
+        //setInputStream(new InflaterInputStream(is));
+        setInputStream(is);
+        return decodeTile(tile, mapDataCallback);
+    }
+
+    @Override
+    public boolean decode(Tile tile, ITileDataSink mapDataCallback,
+                          byte[] data, int offset, int length) throws IOException {
+
+        setInput(data, offset, length);
+        return decodeTile(tile, mapDataCallback);
+    }
+
+    private boolean decodeTile(Tile tile, ITileDataSink mapDataCallback)
+            throws IOException {
+
         if (debug)
             log.debug(tile + " decode");
 
-        //setInputStream(new InflaterInputStream(is));
-        setInputStream(is);
         mTile = tile;
         mMapDataCallback = mapDataCallback;
         mScale = REF_TILE_SIZE / Tile.SIZE;
@@ -137,7 +157,22 @@ public class TileDecoder extends PbfDecoder {
                     break;
 
                 case TAG_LAYER_VALUES:
-                    values.add(decodeValue());
+                    if (isBuffered()) {
+                        /* skip, decoded when used */
+                        int i = values.size();
+                        if (i == mValuePos.length) {
+                            int[] tmp = new int[i * 2];
+                            System.arraycopy(mValuePos, 0, tmp, 0, i);
+                            mValuePos = tmp;
+                        }
+                        mValuePos[i] = bufferPos;
+                        int size = decodeVarint32();
+                        fillBuffer(size);
+                        bufferPos += size;
+                        values.add(null);
+                    } else {
+                        values.add(decodeValue());
+                    }
                     break;
 
                 case TAG_LAYER_FEATURES:
@@ -219,15 +254,15 @@ public class TileDecoder extends PbfDecoder {
                 //        continue tagLoop;
 
                 if (keyIdx == fallBackLocal) {
-                    fallbackName = values.get(f.tags[j + 1]);
+                    fallbackName = getValue(values, f.tags[j + 1]);
                     continue;
                 }
 
                 String key;
-                String val = values.get(f.tags[j + 1]);
 
                 if (keyIdx == matchedLocal) {
                     hasName = true;
+                    String val = getValue(values, f.tags[j + 1]);
                     f.elem.tags.add(new Tag(Tag.KEY_NAME, val, false));
 
                 } else {
@@ -235,6 +270,7 @@ public class TileDecoder extends PbfDecoder {
                     if (key.startsWith(Tag.KEY_NAME))
                         continue;
 
+                    String val = getValue(values, f.tags[j + 1]);
                     f.elem.tags.add(new Tag(key, val));
                 }
             }
@@ -531,6 +567,24 @@ public class TileDecoder extends PbfDecoder {
         return 1;
     }
 
+    /**
+     * @return value i of the layer, which is decoded on first use when
+     * the tile is buffered.
+     */
+    private String getValue(ArrayList<String> values, int i) throws IOException {
+        String value = values.get(i);
+        if (value != null || !isBuffered())
+            return value;
+
+        int pos = bufferPos;
+        bufferPos = mValuePos[i];
+        value = decodeValue();
+        bufferPos = pos;
+
+        values.set(i, value);
+        return value;
+    }
+
     private String decodeValue() throws IOException {
         int bytes = decodeVarint32();
 
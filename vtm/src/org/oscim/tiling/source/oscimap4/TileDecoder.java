@@ -88,9 +88,26 @@ public class TileDecoder extends PbfDecoder {
     public boolean decode(Tile tile, ITileDataSink sink, InputStream is)
             throws IOException {
 
-        readUnsignedInt(is, buffer);
         setInputStream(is);
+        readUnsignedInt(is, buffer);
+
+        return decodeTile(tile, sink);
+    }
+
+    @Override
+    public boolean decode(Tile tile, ITileDataSink sink,
+                          byte[] data, int offset, int length) throws IOException {
+
+        /* skip message size */
+        if (length < 4)
+            return false;
+
+        setInput(data, offset + 4, length - 4);
+
+        return decodeTile(tile, sink);
+    }
 
+    private boolean decodeTile(Tile tile, ITileDataSink sink) throws IOException {
         mTile = tile;
         mMapDataSink = sink;
 
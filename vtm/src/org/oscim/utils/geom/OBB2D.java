@@ -1,5 +1,6 @@
 /*
  * Copyright 2013 Hannes Janetzek
+ * Copyright 2016 devemux86
  *
  * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
  *
@@ -233,8 +234,10 @@ public class OBB2D {
         ux *= hh;
         uy *= hh;
 
-        vec[CORNER_X] = cx - (vx - ux);
-        vec[CORNER_Y] = cy - (vy - uy);
+        /* corners in order around the box, computeAxes() takes the
+         * edges from corner 0 */
+        vec[CORNER_X] = cx - (vx + ux);
+        vec[CORNER_Y] = cy - (vy + uy);
 
         vec[CORNER_X + 2] = cx + (vx - ux);
         vec[CORNER_Y + 2] = cy + (vy - uy);
@@ -242,8 +245,8 @@ public class OBB2D {
         vec[CORNER_X + 4] = cx + (vx + ux);
         vec[CORNER_Y + 4] = cy + (vy + uy);
 
-        vec[CORNER_X + 6] = cx - (vx + ux);
-        vec[CORNER_Y + 6] = cy - (vy + uy);
+        vec[CORNER_X + 6] = cx - (vx - ux);
+        vec[CORNER_Y + 6] = cy - (vy - uy);
 
         computeAxes();
     }